@@ -0,0 +1,112 @@
+package com.brian.benchmark;
+
+import com.brian.Base62Encoder;
+import com.brian.cache.CacheType;
+import com.brian.cache.ConcurrentURLCache;
+import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.OffHeapURLCache;
+import com.brian.cache.URLCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the shorten (hit and miss) and redirect lookup paths of the caches, single threaded and
+ * with one thread per core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CacheBenchmark {
+
+    // The number of URLs in the cache before each iteration starts.
+    private static final int PRELOADED = 100_000;
+
+    private static final UUID uuid = UUID.randomUUID();
+
+    @Param({"MEMORY", "CONCURRENT", "OFF_HEAP"})
+    public CacheType cacheType;
+
+    private URLCache cache;
+
+    private String[] urls;
+
+    private String[] hashes;
+
+    private final AtomicLong missCounter = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        cache = create(cacheType);
+
+        urls = new String[PRELOADED];
+        hashes = new String[PRELOADED];
+        for (int i = 0; i < PRELOADED; ++i) {
+            urls[i] = "http://google.com/some/long/path/" + i + "?key=value";
+            var shortUrl = cache.shorten(uuid, urls[i]);
+            hashes[i] = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        cache.close();
+    }
+
+    static URLCache create(CacheType cacheType) {
+        // A long TTL and no background eviction, so nothing is evicted during the measurement.
+        return switch (cacheType) {
+            case MEMORY -> new InMemoryURLCache(new Base62Encoder(), "shorty.com", Integer.MAX_VALUE, 0);
+            case CONCURRENT -> new ConcurrentURLCache(new Base62Encoder(), "shorty.com", Integer.MAX_VALUE, 0);
+            case OFF_HEAP -> new OffHeapURLCache(new Base62Encoder(), "shorty.com", Integer.MAX_VALUE, 0);
+            // Its shards are owned by event loops, so it is measured on them by ShardedCacheBenchmark.
+            case SHARDED -> throw new IllegalArgumentException("Use ShardedCacheBenchmark for the sharded cache");
+        };
+    }
+
+    private int randomIndex() {
+        return ThreadLocalRandom.current().nextInt(PRELOADED);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String shortenHit() {
+        return cache.shorten(uuid, urls[randomIndex()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String shortenHitAllThreads() {
+        return cache.shorten(uuid, urls[randomIndex()]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String shortenMiss() {
+        return cache.shorten(uuid, "http://google.com/miss/" + missCounter.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String shortenMissAllThreads() {
+        return cache.shorten(uuid, "http://google.com/miss/" + missCounter.incrementAndGet());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getOriginalUrlFor() {
+        return cache.getOriginalUrlFor(hashes[randomIndex()]);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String getOriginalUrlForAllThreads() {
+        return cache.getOriginalUrlFor(hashes[randomIndex()]);
+    }
+}
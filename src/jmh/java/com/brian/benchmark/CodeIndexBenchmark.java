@@ -0,0 +1,92 @@
+package com.brian.benchmark;
+
+import com.brian.Base62Encoder;
+import com.brian.cache.LongMap;
+import com.brian.cache.URLEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares indexing the short codes as strings in a HashMap against indexing them as numbers in a
+ * {@link LongMap}. Each lookup starts from the request URI, so the string index pays for the substring
+ * and the long index for decoding the code. Each trial prints the heap used by the index per entry,
+ * not counting the entries themselves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class CodeIndexBenchmark {
+
+    public enum IndexType { STRING, LONG }
+
+    private static final int URIS = 1 << 16;
+
+    @Param({"1000000"})
+    public int entries;
+
+    @Param({"STRING", "LONG"})
+    public IndexType indexType;
+
+    private Map<String, URLEntry> stringIndex;
+
+    private LongMap<URLEntry> longIndex;
+
+    // Request URIs for codes in the index, chosen at random.
+    private final String[] uris = new String[URIS];
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        var random = new Random(42);
+        long[] codes = new long[entries];
+        var entryList = new URLEntry[entries];
+        for (int i = 0; i < entries; ++i) {
+            codes[i] = random.nextLong(56_800_235_584L);
+            entryList[i] = new URLEntry("http://google.com/some/long/path/" + i, null, null, 0, 0);
+        }
+
+        long before = usedHeap();
+        if (indexType == IndexType.STRING) {
+            stringIndex = new HashMap<>();
+            for (int i = 0; i < entries; ++i) {
+                stringIndex.put(Base62Encoder.toBase62(codes[i]), entryList[i]);
+            }
+        } else {
+            longIndex = new LongMap<>();
+            for (int i = 0; i < entries; ++i) {
+                longIndex.put(codes[i], entryList[i]);
+            }
+        }
+        long after = usedHeap();
+
+        System.out.printf("%n%s index with %,d entries: %.1f bytes per entry%n",
+                indexType, entries, (double) (after - before) / entries);
+
+        for (int i = 0; i < URIS; ++i) {
+            uris[i] = "/" + Base62Encoder.toBase62(codes[random.nextInt(entries)]);
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public URLEntry lookup() {
+        var uri = uris[next++ & (URIS - 1)];
+        if (indexType == IndexType.STRING) {
+            return stringIndex.get(uri.substring(1));
+        }
+        return longIndex.get(Base62Encoder.fromBase62(uri, 1, uri.length()));
+    }
+}
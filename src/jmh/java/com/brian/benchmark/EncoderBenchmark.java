@@ -0,0 +1,51 @@
+package com.brian.benchmark;
+
+import com.brian.Base62Encoder;
+import com.brian.SequenceEncoder;
+import com.brian.URLEncoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures hash generation. The encoder is shared, so the all-threads case shows any contention on its
+ * random source.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncoderBenchmark {
+
+    private static final String URL = "http://google.com/some/long/path?key=value";
+
+    private final URLEncoder base62 = new Base62Encoder();
+
+    private final URLEncoder sequence = new SequenceEncoder();
+
+    @Benchmark
+    @Threads(1)
+    public String base62Encode() {
+        return base62.encode(URL);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String base62EncodeAllThreads() {
+        return base62.encode(URL);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String sequenceEncode() {
+        return sequence.encode(URL);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String sequenceEncodeAllThreads() {
+        return sequence.encode(URL);
+    }
+}
@@ -0,0 +1,102 @@
+package com.brian.benchmark;
+
+import com.brian.URLEncoder;
+import com.brian.cache.CacheType;
+import com.brian.cache.ConcurrentURLCache;
+import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.OffHeapURLCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a single eviction pass over a large cache, both when every entry has expired and when
+ * none are due yet. The cache is rebuilt before every pass, which takes far longer than the pass
+ * itself at 10M entries, and needs a large heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class EvictionBenchmark {
+
+    private static final UUID uuid = UUID.randomUUID();
+
+    @Param({"1000000", "10000000"})
+    public int entries;
+
+    @Param({"MEMORY", "CONCURRENT", "OFF_HEAP"})
+    public CacheType cacheType;
+
+    @Param({"true", "false"})
+    public boolean expired;
+
+    private Runnable evictor;
+
+    private Closeable cache;
+
+    /**
+     * Hands out sequential codes, so populating millions of entries doesn't wait on SecureRandom or retries.
+     */
+    static final class SequentialEncoder implements URLEncoder {
+        private long next;
+
+        @Override
+        public synchronized String encode(String url) {
+            return Long.toString(next++, 36);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws InterruptedException {
+        long ttl = expired ? 0 : TimeUnit.HOURS.toMillis(1);
+
+        switch (cacheType) {
+            case MEMORY -> {
+                var memoryCache = new InMemoryURLCache(new SequentialEncoder(), "shorty.com", 60_000, 0);
+                for (int i = 0; i < entries; ++i) {
+                    memoryCache.shorten(uuid, "http://google.com/some/long/path/" + i, ttl);
+                }
+                evictor = memoryCache;
+                cache = memoryCache;
+            }
+            case CONCURRENT -> {
+                var concurrentCache = new ConcurrentURLCache(new SequentialEncoder(), "shorty.com", 60_000, 0);
+                for (int i = 0; i < entries; ++i) {
+                    concurrentCache.shorten(uuid, "http://google.com/some/long/path/" + i, ttl);
+                }
+                evictor = concurrentCache;
+                cache = concurrentCache;
+            }
+            case OFF_HEAP -> {
+                var offHeapCache = new OffHeapURLCache(new SequentialEncoder(), "shorty.com", 60_000, 0);
+                for (int i = 0; i < entries; ++i) {
+                    offHeapCache.shorten(uuid, "http://google.com/some/long/path/" + i, ttl);
+                }
+                evictor = offHeapCache;
+                cache = offHeapCache;
+            }
+        }
+
+        // Make sure the entries with a TTL of 0 are past their expiry time, and their buckets are due.
+        Thread.sleep(5);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        cache.close();
+        evictor = null;
+        cache = null;
+        System.gc();
+    }
+
+    @Benchmark
+    public void run() {
+        evictor.run();
+    }
+}
@@ -0,0 +1,89 @@
+package com.brian.benchmark;
+
+import com.brian.cache.CacheType;
+import com.brian.cache.ConcurrentURLCache;
+import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.OffHeapURLCache;
+import com.brian.cache.URLCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a large cache costs the garbage collector. Each trial fills a cache, and prints the
+ * heap (and off-heap memory) in use afterwards along with the collections it took to fill it. The
+ * benchmark itself times a full collection, whose pause grows with the number of objects on the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "-XX:MaxDirectMemorySize=8g"})
+public class FootprintBenchmark {
+
+    private static final UUID uuid = UUID.randomUUID();
+
+    @Param({"10000000"})
+    public int entries;
+
+    @Param({"MEMORY", "CONCURRENT", "OFF_HEAP"})
+    public CacheType cacheType;
+
+    private URLCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTime();
+        long start = System.nanoTime();
+
+        var encoder = new EvictionBenchmark.SequentialEncoder();
+        cache = switch (cacheType) {
+            case MEMORY -> new InMemoryURLCache(encoder, "shorty.com", Integer.MAX_VALUE, 0);
+            case CONCURRENT -> new ConcurrentURLCache(encoder, "shorty.com", Integer.MAX_VALUE, 0);
+            case OFF_HEAP -> new OffHeapURLCache(encoder, "shorty.com", Integer.MAX_VALUE, 0);
+            // Its shards hold the entries in the same indexes as the memory cache.
+            case SHARDED -> throw new IllegalArgumentException("The sharded cache has the memory cache's footprint");
+        };
+        for (int i = 0; i < entries; ++i) {
+            cache.shorten(uuid, "http://google.com/some/long/path/" + i);
+        }
+
+        long fillMillis = (System.nanoTime() - start) / 1_000_000;
+        long gcCount = gcCount() - gcCountBefore;
+        long gcMillis = gcTime() - gcTimeBefore;
+
+        System.gc();
+        var heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long offHeap = cache instanceof OffHeapURLCache offHeapCache ? offHeapCache.offHeapBytes() : 0;
+
+        System.out.printf("%n%s with %,d entries: filled in %,dms with %d collections taking %,dms. "
+                        + "Heap used %,dMB, off-heap %,dMB%n",
+                cacheType, entries, fillMillis, gcCount, gcMillis, heap.getUsed() >> 20, offHeap >> 20);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+        cache = null;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    @Benchmark
+    public void fullGc() {
+        System.gc();
+    }
+}
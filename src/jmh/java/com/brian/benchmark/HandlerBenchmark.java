@@ -0,0 +1,124 @@
+package com.brian.benchmark;
+
+import com.brian.ResponseCache;
+import com.brian.ResponseEncoder;
+import com.brian.URLServiceHandler;
+import com.brian.cache.CacheType;
+import com.brian.cache.URLCache;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full request through {@link URLServiceHandler} on an {@link EmbeddedChannel}: request
+ * dispatch, the cache call, and building, encoding and writing the response. Each thread has its own
+ * keep-alive channel, as it would for a real connection.
+ * <p>
+ * With {@code responseCache} the redirects and 404s are sent already encoded from a {@link ResponseCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+
+    private static final String URL = "http://google.com/some/long/path?key=value";
+
+    @Param({"MEMORY", "CONCURRENT"})
+    public CacheType cacheType;
+
+    @Param({"false", "true"})
+    public boolean responseCache;
+
+    private URLCache cache;
+
+    private ResponseCache responses;
+
+    private String hitUri;
+
+    @Setup
+    public void setUp() {
+        cache = CacheBenchmark.create(cacheType);
+        if (responseCache) {
+            responses = new ResponseCache();
+            cache.addListener(responses);
+        }
+        var shortUrl = cache.shorten(UUID.randomUUID(), URL);
+        hitUri = shortUrl.substring(shortUrl.lastIndexOf('/'));
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.close();
+    }
+
+    /**
+     * An embedded channel with a remote address, as the handler logs the client IP and port.
+     */
+    private static final class ClientChannel extends EmbeddedChannel {
+        private final InetSocketAddress remoteAddress = new InetSocketAddress("127.0.0.1", 12345);
+
+        @Override
+        protected SocketAddress remoteAddress0() {
+            return remoteAddress;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        EmbeddedChannel channel;
+
+        @Setup
+        public void setUp(HandlerBenchmark benchmark) {
+            channel = new ClientChannel();
+            channel.pipeline().addLast(new ResponseEncoder(),
+                    new URLServiceHandler(benchmark.cache, true, benchmark.responses));
+        }
+
+        @TearDown
+        public void tearDown() {
+            channel.finishAndReleaseAll();
+        }
+
+        int drain() {
+            int count = 0;
+            Object msg;
+            while ((msg = channel.readOutbound()) != null) {
+                ReferenceCountUtil.release(msg);
+                ++count;
+            }
+            return count;
+        }
+    }
+
+    @Benchmark
+    public int getHit(Connection connection) {
+        connection.channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, hitUri));
+        return connection.drain();
+    }
+
+    @Benchmark
+    public int getMiss(Connection connection) {
+        connection.channel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/nothere"));
+        return connection.drain();
+    }
+
+    @Benchmark
+    public int postExisting(Connection connection) {
+        var request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+        request.content().writeCharSequence(URL, StandardCharsets.UTF_8);
+        connection.channel.writeInbound(request);
+        return connection.drain();
+    }
+}
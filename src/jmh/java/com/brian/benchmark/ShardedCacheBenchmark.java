@@ -0,0 +1,121 @@
+package com.brian.benchmark;
+
+import com.brian.Base62Encoder;
+import com.brian.cache.CacheType;
+import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.ShardedURLCache;
+import com.brian.cache.URLCache;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the redirect lookups scale with the number of worker event loops, for the sharded cache and the
+ * in-memory cache it is meant to replace. The lookups run on the event loops, as they do in the server, and
+ * are looked up through the asynchronous methods the handlers use.
+ * <p>
+ * {@code ownShard} only looks up the codes in each event loop's own shard, which is the best case, and
+ * {@code anyShard} looks up random codes, so most are handed to another event loop. For the in-memory cache
+ * the two are the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedCacheBenchmark {
+
+    // The number of URLs in the cache before each trial starts.
+    private static final int PRELOADED = 100_000;
+
+    // The lookups per invocation, shared between the event loops.
+    private static final int LOOKUPS = 64 * 1024;
+
+    private static final UUID uuid = UUID.randomUUID();
+
+    @Param({"MEMORY", "SHARDED"})
+    public CacheType cacheType;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    private DefaultEventLoopGroup loops;
+
+    private List<EventExecutor> executors;
+
+    private URLCache cache;
+
+    // The codes, all together and split by the event loop whose shard owns them.
+    private long[] codes;
+    private long[][] codesByLoop;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        loops = new DefaultEventLoopGroup(workers);
+        executors = new ArrayList<>();
+        loops.forEach(executors::add);
+
+        // A long TTL and no background eviction, so nothing is evicted during the measurement.
+        cache = cacheType == CacheType.SHARDED
+                ? new ShardedURLCache(new Base62Encoder(), "shorty.com", Integer.MAX_VALUE, loops)
+                : new InMemoryURLCache(new Base62Encoder(), "shorty.com", Integer.MAX_VALUE, 0);
+
+        codes = new long[PRELOADED];
+        List<List<Long>> byLoop = new ArrayList<>();
+        for (int i = 0; i < workers; ++i) {
+            byLoop.add(new ArrayList<>());
+        }
+        for (int i = 0; i < PRELOADED; ++i) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/some/long/path/" + i + "?key=value");
+            codes[i] = Base62Encoder.fromBase62(shortUrl.substring(shortUrl.lastIndexOf('/') + 1));
+            int loop = cache instanceof ShardedURLCache sharded ? sharded.shardOf(codes[i]) : i % workers;
+            byLoop.get(loop).add(codes[i]);
+        }
+
+        codesByLoop = new long[workers][];
+        for (int i = 0; i < workers; ++i) {
+            codesByLoop[i] = byLoop.get(i).stream().mapToLong(Long::longValue).toArray();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+        loops.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void ownShard() throws InterruptedException {
+        lookUp(true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void anyShard() throws InterruptedException {
+        lookUp(false);
+    }
+
+    private void lookUp(boolean ownShard) throws InterruptedException {
+        var done = new CountDownLatch(LOOKUPS);
+        for (int i = 0; i < workers; ++i) {
+            var loopCodes = ownShard ? codesByLoop[i] : codes;
+            executors.get(i).execute(() -> {
+                var random = ThreadLocalRandom.current();
+                for (int n = 0; n < LOOKUPS / workers; ++n) {
+                    cache.getOriginalUrlForAsync(loopCodes[random.nextInt(loopCodes.length)])
+                            .thenRun(done::countDown);
+                }
+            });
+        }
+        done.await();
+    }
+}
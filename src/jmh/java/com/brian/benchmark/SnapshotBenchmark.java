@@ -0,0 +1,68 @@
+package com.brian.benchmark;
+
+import com.brian.cache.ConcurrentURLCache;
+import com.brian.cache.Snapshot;
+import com.brian.cache.URLEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how long a restarted server takes before it can answer its first lookup from a snapshot,
+ * against how long it takes to rebuild the whole cache from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class SnapshotBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int entries;
+
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        long now = System.currentTimeMillis();
+        long ttl = TimeUnit.HOURS.toMillis(1);
+
+        List<URLEntry> urlEntries = new ArrayList<>(entries);
+        for (int i = 0; i < entries; ++i) {
+            urlEntries.add(new URLEntry("http://google.com/some/long/path/" + i, null, Long.toString(i, 36), now, ttl));
+        }
+
+        file = Files.createTempFile("snapshot", ".bin");
+        Snapshot.write(file, urlEntries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String firstLookup() throws IOException {
+        var snapshot = Snapshot.open(file);
+        var url = snapshot.getOriginalUrlFor(Long.toString(entries / 2, 36));
+        snapshot.close();
+        return url;
+    }
+
+    @Benchmark
+    public int fullRebuild() throws IOException {
+        var snapshot = Snapshot.open(file);
+        try (var cache = new ConcurrentURLCache(url -> null, "shorty.com", Integer.MAX_VALUE, 0)) {
+            snapshot.forEach(cache::restore);
+            snapshot.close();
+            return cache.size();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.brian;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Writes one line per request to the {@code access} logger, off the event loops.
+ * <p>
+ * The event loops record each request into a ring buffer of preallocated slots. Recording copies a few
+ * fields and references into a slot, so nothing is formatted or allocated on the request path, and nothing
+ * blocks: if the writer has fallen a whole buffer behind then the record is dropped and counted instead. A
+ * background writer thread drains the buffer in order, formats each record and logs it.
+ * <p>
+ * The log also decides which requests get the detailed info-level logging, one in every
+ * {@code sampleRate}.
+ */
+public class AccessLog implements Runnable, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessLog.class);
+
+    private static final Logger accessLogger = LoggerFactory.getLogger("access");
+
+    // How often the writer checks the buffer when it is empty.
+    private static final long CHECK_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Slot[] slots;
+
+    private final int mask;
+
+    private final int sampleRate;
+
+    private final Consumer<String> sink;
+
+    // The next sequence number to be claimed by a request.
+    private final AtomicLong claimed = new AtomicLong();
+
+    // The next sequence number to be written. Only advanced by the writer.
+    private volatile long written;
+
+    private final LongAdder dropped = new LongAdder();
+
+    // The number of dropped records the writer has reported. Only used by the writer.
+    private long reportedDropped;
+
+    private volatile boolean running;
+
+    private volatile Thread writer;
+
+    /**
+     * @param capacity The number of records the buffer holds, rounded up to a power of 2. 0 disables the
+     *                 access log, but not the sampling.
+     * @param sampleRate One in this many requests get the detailed logging. 0 turns it off.
+     */
+    public AccessLog(int capacity, int sampleRate) {
+        this(capacity, sampleRate, accessLogger::info);
+    }
+
+    AccessLog(int capacity, int sampleRate, Consumer<String> sink) {
+        if (capacity < 0 || sampleRate < 0) {
+            throw new IllegalArgumentException("Invalid access log capacity " + capacity
+                    + " and sample rate " + sampleRate);
+        }
+
+        slots = new Slot[capacity <= 1 ? capacity : Integer.highestOneBit(capacity - 1) << 1];
+        for (int i = 0; i < slots.length; ++i) {
+            slots[i] = new Slot();
+        }
+        mask = slots.length - 1;
+
+        this.sampleRate = sampleRate;
+        this.sink = sink;
+    }
+
+    /**
+     * Starts the background writer, if the access log is enabled.
+     */
+    public synchronized void start() {
+        if (running) {
+            throw new IllegalStateException("The access log has already been started");
+        }
+        if (slots.length == 0) {
+            return;
+        }
+
+        running = true;
+
+        var thread = new Thread(this, "access-log");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * @return Whether a request should get the detailed logging.
+     */
+    public boolean sample() {
+        return sampleRate == 1 || (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+    }
+
+    /**
+     * Records a request, or drops it if the buffer is full.
+     *
+     * @param uuid The ID of the request, as used in the detailed logging.
+     * @param status The status code of the response.
+     * @param micros The time taken to handle the request.
+     */
+    public void record(UUID uuid, SocketAddress client, String method, String uri, int status, long micros) {
+        if (slots.length == 0) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - written >= slots.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        var slot = slots[(int) sequence & mask];
+        slot.time = System.currentTimeMillis();
+        slot.uuid = uuid;
+        slot.client = client;
+        slot.method = method;
+        slot.uri = uri;
+        slot.status = status;
+        slot.micros = micros;
+
+        // Publish the slot to the writer.
+        slot.sequence = sequence;
+    }
+
+    /**
+     * The writer loop. Writes the records in order, and waits whenever the next one isn't there yet.
+     */
+    @Override
+    public void run() {
+        var line = new StringBuilder();
+        while (running) {
+            if (!writeNext(line)) {
+                reportDropped();
+                LockSupport.parkNanos(this, CHECK_PERIOD_NANOS);
+            }
+        }
+
+        // Write whatever was recorded before we were closed.
+        while (writeNext(line)) {
+            // Keep going.
+        }
+        reportDropped();
+    }
+
+    /**
+     * @return False if the next record hasn't been published yet.
+     */
+    private boolean writeNext(StringBuilder line) {
+        long sequence = written;
+        var slot = slots[(int) sequence & mask];
+        if (slot.sequence != sequence) {
+            return false;
+        }
+
+        line.setLength(0);
+        slot.format(line);
+        written = sequence + 1;
+
+        try {
+            sink.accept(line.toString());
+        } catch (RuntimeException e) {
+            logger.error("Failed to write to the access log", e);
+        }
+        return true;
+    }
+
+    private void reportDropped() {
+        long total = dropped.sum();
+        if (total > reportedDropped) {
+            logger.warn("Dropped {} access log records as the buffer was full", total - reportedDropped);
+            reportedDropped = total;
+        }
+    }
+
+    /**
+     * Stops the writer once it has written everything recorded so far.
+     */
+    @Override
+    public void close() {
+        running = false;
+
+        var thread = writer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return The number of records dropped as the buffer was full.
+     */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * A record in the buffer. The fields are written before the sequence number is published, and read
+     * after it has been seen, so the volatile sequence number orders them.
+     */
+    private static final class Slot {
+
+        // The sequence number of the record in the slot, or -1 before the first.
+        private volatile long sequence = -1;
+
+        private long time;
+        private UUID uuid;
+        private SocketAddress client;
+        private String method;
+        private String uri;
+        private int status;
+        private long micros;
+
+        void format(StringBuilder line) {
+            line.append("time=").append(Instant.ofEpochMilli(time))
+                    .append(" client=");
+            if (client instanceof InetSocketAddress address && address.getAddress() != null) {
+                line.append(address.getAddress().getHostAddress()).append(':').append(address.getPort());
+            } else {
+                line.append(client);
+            }
+            line.append(" method=").append(method)
+                    .append(" uri=").append(uri)
+                    .append(" status=").append(status)
+                    .append(" micros=").append(micros)
+                    .append(" id=").append(uuid);
+
+            // Don't hold on to the request's objects until the slot is reused.
+            uuid = null;
+            client = null;
+            uri = null;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.brian;
+
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides which requests are let through to the {@link URLServiceHandler}, so a flood of requests is turned away
+ * before it reaches the cache (see {@link AdmissionHandler}).
+ * <p>
+ * Each client address may send shorten requests at a fixed rate, with a burst on top. Its token bucket is held
+ * as the single time at which the bucket will be full again, which is moved on with a compare-and-set, so taking
+ * a token takes no locks (the generic cell rate algorithm). The buckets are kept in a map of at most a given number
+ * of addresses. A full bucket is the same as no bucket at all, so the full ones are dropped about once a second,
+ * and when the map is still at its limit the addresses that don't fit share one bucket. The lookups are not
+ * limited, as they are answered without taking the cache's write lock.
+ * <p>
+ * Every request is shed while more connections are open than allowed, or while more tasks are queued on the
+ * event loop serving it than allowed, as the server is already taking on more than it can answer.
+ */
+public class AdmissionControl {
+
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Whether a request is let through, and if not, why.
+     */
+    public enum Verdict {
+        ADMITTED,
+        // The client address is over its rate, which is answered with a 429.
+        RATE_LIMITED,
+        // The server is overloaded, which is answered with a 503.
+        SHED
+    }
+
+    // The time between two tokens, and the time a full bucket holds, or 0 if the rates are not limited.
+    private final long interval;
+    private final long burstNanos;
+
+    private final int maxAddresses;
+
+    private final int maxConnections;
+
+    private final int maxPendingTasks;
+
+    private final LongSupplier nanoClock;
+
+    // The time at which each address's bucket is full again.
+    private final ConcurrentHashMap<InetAddress, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    // The bucket shared by the addresses that don't fit in the map.
+    private final AtomicLong overflow;
+
+    private final AtomicLong nextSweep;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * @param rate The shorten requests each client address may send per second, or 0 for no limit.
+     * @param burst The shorten requests an address may send at once before it is held to the rate.
+     * @param maxAddresses The most client addresses whose rates are tracked at once.
+     * @param maxConnections The most connections open before requests are shed, or 0 for no limit.
+     * @param maxPendingTasks The most tasks queued on an event loop before its requests are shed, or 0 for no limit.
+     */
+    public AdmissionControl(int rate, int burst, int maxAddresses, int maxConnections, int maxPendingTasks) {
+        this(rate, burst, maxAddresses, maxConnections, maxPendingTasks, System::nanoTime);
+    }
+
+    AdmissionControl(int rate, int burst, int maxAddresses, int maxConnections, int maxPendingTasks,
+                     LongSupplier nanoClock) {
+        if (rate < 0 || burst < 1 || maxAddresses < 1 || maxConnections < 0 || maxPendingTasks < 0) {
+            throw new IllegalArgumentException("Invalid admission limits");
+        }
+        this.interval = rate > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        this.burstNanos = interval * burst;
+        this.maxAddresses = maxAddresses;
+        this.maxConnections = maxConnections;
+        this.maxPendingTasks = maxPendingTasks;
+        this.nanoClock = nanoClock;
+        long now = nanoClock.getAsLong();
+        this.overflow = new AtomicLong(now);
+        this.nextSweep = new AtomicLong(now + SWEEP_NANOS);
+    }
+
+    /**
+     * Counts the connection as open until it closes.
+     */
+    public void track(Channel connection) {
+        connections.incrementAndGet();
+        connection.closeFuture().addListener(future -> connections.decrementAndGet());
+    }
+
+    /**
+     * @param address The client's address.
+     * @param shorten Whether the request shortens, and so counts against the address's rate.
+     * @param executor The event loop serving the request.
+     */
+    public Verdict admit(InetAddress address, boolean shorten, EventExecutor executor) {
+        if (isOverloaded(executor)) {
+            shed.increment();
+            return Verdict.SHED;
+        }
+        if (shorten && interval > 0 && !tryAcquire(address)) {
+            rateLimited.increment();
+            return Verdict.RATE_LIMITED;
+        }
+        return Verdict.ADMITTED;
+    }
+
+    private boolean isOverloaded(EventExecutor executor) {
+        if (maxConnections > 0 && connections.get() > maxConnections) {
+            return true;
+        }
+        return maxPendingTasks > 0 && executor instanceof SingleThreadEventExecutor eventLoop
+                && eventLoop.pendingTasks() > maxPendingTasks;
+    }
+
+    /**
+     * Takes a token from the address's bucket.
+     *
+     * @return Whether there was a token to take.
+     */
+    boolean tryAcquire(InetAddress address) {
+        long now = nanoClock.getAsLong();
+        sweep(now);
+
+        var bucket = buckets.get(address);
+        if (bucket == null) {
+            bucket = buckets.size() < maxAddresses
+                    ? buckets.computeIfAbsent(address, a -> new AtomicLong(now))
+                    : overflow;
+        }
+
+        while (true) {
+            long full = bucket.get();
+            // An empty bucket is full again a burst from now, so it may be no further off than that.
+            long next = (full - now > 0 ? full : now) + interval;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops the full buckets, once a second on whichever thread gets there first.
+     */
+    private void sweep(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_NANOS)) {
+            return;
+        }
+        // An address that takes a token as its bucket is dropped gets a full bucket, so at most one burst more.
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    /**
+     * @return The client addresses whose rates are being tracked.
+     */
+    public int addresses() {
+        return buckets.size();
+    }
+
+    /**
+     * @return The connections open.
+     */
+    public int connections() {
+        return connections.get();
+    }
+
+    /**
+     * @return The requests answered with a 429 as their client address was over its rate.
+     */
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    /**
+     * @return The requests answered with a 503 as the server was overloaded.
+     */
+    public long shed() {
+        return shed.sum();
+    }
+}
@@ -0,0 +1,109 @@
+package com.brian;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.util.ReferenceCountUtil;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Set;
+
+/**
+ * Asks the {@link AdmissionControl} whether each request may go on to the {@link URLServiceHandler}, as soon as
+ * its headers have been decoded. A request that is turned away is passed on as a {@link Rejection} instead, and
+ * the rest of its body is dropped as it arrives without being collected. The service handler answers the
+ * rejection, so the responses on a connection stay in the order of its requests.
+ * <p>
+ * One handler is created per HTTP/1.1 connection or HTTP/2 stream, and the one added to a connection counts it
+ * as open until it closes, even after it has switched to HTTP/2. The requests forwarded by the other nodes of
+ * a cluster were already let in by the node that received them, so they are not counted against the rate of the
+ * node that forwarded them. The {@value ClusterClient#FORWARDED_HEADER} header is only believed on a connection
+ * from one of the other nodes' addresses, and is removed from any other request, so a client can't use it to get
+ * past its rate or to be answered as a forwarded request.
+ */
+public class AdmissionHandler extends ChannelInboundHandlerAdapter {
+
+    /**
+     * A request that was turned away, in place of the request and its body.
+     *
+     * @param request The request, without its body.
+     * @param verdict Why it was turned away.
+     */
+    public record Rejection(HttpRequest request, AdmissionControl.Verdict verdict) {
+    }
+
+    private final AdmissionControl admission;
+
+    // The addresses of the other nodes of the cluster, which may forward requests.
+    private final Set<InetAddress> peers;
+
+    // Whether the rest of the current request's body is dropped.
+    private boolean discarding;
+
+    /**
+     * @param admission Decides which requests are let through.
+     * @param peers The addresses of the other nodes of the cluster, or an empty set outside a cluster.
+     */
+    public AdmissionHandler(AdmissionControl admission, Set<InetAddress> peers) {
+        this.admission = admission;
+        this.peers = peers;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        // The connection is counted once, however many streams it carries.
+        if (!(ctx.channel() instanceof Http2StreamChannel)) {
+            admission.track(ctx.channel());
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof HttpRequest request) {
+            discarding = false;
+            var verdict = admit(ctx, request);
+            if (verdict != AdmissionControl.Verdict.ADMITTED) {
+                // Only the headers are passed on, as the body is dropped.
+                var headers = new DefaultHttpRequest(request.protocolVersion(), request.method(), request.uri(),
+                        request.headers());
+                discarding = !(msg instanceof LastHttpContent);
+                ReferenceCountUtil.release(msg);
+                ctx.fireChannelRead(new Rejection(headers, verdict));
+                return;
+            }
+        } else if (discarding && msg instanceof HttpContent) {
+            discarding = !(msg instanceof LastHttpContent);
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    private AdmissionControl.Verdict admit(ChannelHandlerContext ctx, HttpRequest request) {
+        // The metrics are still served to an overloaded server, so it can be seen to be overloaded.
+        if (HttpMethod.GET.equals(request.method()) && URLServiceHandler.METRICS_PATH.equals(request.uri())) {
+            return AdmissionControl.Verdict.ADMITTED;
+        }
+
+        var address = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress();
+        boolean forwarded = false;
+        if (request.headers().contains(ClusterClient.FORWARDED_HEADER)) {
+            forwarded = peers.contains(address);
+            if (!forwarded) {
+                request.headers().remove(ClusterClient.FORWARDED_HEADER);
+            }
+        }
+
+        boolean shorten = HttpMethod.POST.equals(request.method())
+                && !request.uri().startsWith(URLServiceHandler.BATCH_RESOLVE_PATH)
+                && !forwarded;
+        return admission.admit(address, shorten, ctx.executor());
+    }
+}
@@ -1,6 +1,7 @@
 package com.brian;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -13,6 +14,16 @@ public class Base62Encoder implements URLEncoder {
     private static final int URL_LEN = 6;
     private static final String randChars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890";
 
+    // The value of each character, or -1 if it is not one of randChars.
+    private static final byte[] digits = new byte[128];
+
+    static {
+        Arrays.fill(digits, (byte) -1);
+        for (int i = 0; i < randChars.length(); i++) {
+            digits[randChars.charAt(i)] = (byte) i;
+        }
+    }
+
     private final Random rand = new SecureRandom();
 
     /**
@@ -33,4 +44,56 @@ public class Base62Encoder implements URLEncoder {
         return new String(shortURL);
     }
 
+    /**
+     * Converts a number to a 6-character string, using the same characters as the random encodings.
+     *
+     * @param value A number in [0, 62^6).
+     *
+     * @return The 6-character string, most significant character first.
+     */
+    public static String toBase62(long value) {
+        char[] shortURL = new char[URL_LEN];
+
+        for (int i = URL_LEN - 1; i >= 0; i--) {
+            shortURL[i] = randChars.charAt((int) (value % randChars.length()));
+            value /= randChars.length();
+        }
+
+        return new String(shortURL);
+    }
+
+    /**
+     * Converts a 6-character string back to the number it was generated from, without allocating.
+     *
+     * @param chars The characters holding the string.
+     * @param start The index of the first character.
+     * @param end The index after the last character.
+     *
+     * @return The number, in [0, 62^6), or -1 if the characters are not a 6-character code.
+     */
+    public static long fromBase62(CharSequence chars, int start, int end) {
+        if (end - start != URL_LEN) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            int digit = c < digits.length ? digits[c] : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * randChars.length() + digit;
+        }
+
+        return value;
+    }
+
+    /**
+     * @see #fromBase62(CharSequence, int, int)
+     */
+    public static long fromBase62(CharSequence code) {
+        return fromBase62(code, 0, code.length());
+    }
+
 }
@@ -0,0 +1,297 @@
+package com.brian;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The formats accepted by the batch endpoints. A batch is either one item per line, or a JSON array of
+ * strings. The results are sent back in the same format and order as the request: one result per line
+ * (an empty line if there isn't one), or a JSON array with null where there isn't one.
+ */
+enum BatchFormat {
+
+    LINES("text/plain; charset=UTF-8") {
+        @Override
+        List<String> parse(String body) {
+            List<String> items = new ArrayList<>();
+            for (var line : body.split("\n")) {
+                var item = line.trim();
+                if (!item.isEmpty()) {
+                    items.add(item);
+                }
+            }
+            return items;
+        }
+
+        @Override
+        List<String> parseResults(String body) {
+            List<String> results = new ArrayList<>();
+            int start = 0;
+            for (int end = body.indexOf('\n'); end >= 0; end = body.indexOf('\n', start)) {
+                results.add(end > start ? body.substring(start, end) : null);
+                start = end + 1;
+            }
+            return results;
+        }
+
+        @Override
+        void append(StringBuilder out, String result, boolean first) {
+            if (result != null) {
+                out.append(result);
+            }
+            out.append('\n');
+        }
+
+        @Override
+        String start() {
+            return "";
+        }
+
+        @Override
+        String end() {
+            return "";
+        }
+    },
+
+    JSON("application/json; charset=UTF-8") {
+        @Override
+        List<String> parse(String body) {
+            return new JsonArrayParser(body, false).parse();
+        }
+
+        @Override
+        List<String> parseResults(String body) {
+            return new JsonArrayParser(body, true).parse();
+        }
+
+        @Override
+        void append(StringBuilder out, String result, boolean first) {
+            if (!first) {
+                out.append(',');
+            }
+            if (result == null) {
+                out.append("null");
+            } else {
+                quote(out, result);
+            }
+        }
+
+        @Override
+        String start() {
+            return "[";
+        }
+
+        @Override
+        String end() {
+            return "]\n";
+        }
+    };
+
+    private final String contentType;
+
+    BatchFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return JSON if the body starts with an array, otherwise LINES.
+     */
+    static BatchFormat of(String body) {
+        return body.stripLeading().startsWith("[") ? JSON : LINES;
+    }
+
+    String contentType() {
+        return contentType;
+    }
+
+    /**
+     * @return The items in the batch, in order. Blank lines are skipped.
+     *
+     * @throws IllegalArgumentException if the body is not in this format.
+     */
+    abstract List<String> parse(String body);
+
+    /**
+     * Reads the results sent back for a batch, as another node does when a batch is forwarded to it.
+     *
+     * @return The results, in order, with null where there isn't one.
+     *
+     * @throws IllegalArgumentException if the body is not in this format.
+     */
+    abstract List<String> parseResults(String body);
+
+    /**
+     * @return The items as a batch in this format.
+     */
+    String format(List<String> items) {
+        var out = new StringBuilder(start());
+        for (int i = 0; i < items.size(); ++i) {
+            append(out, items.get(i), i == 0);
+        }
+        return out.append(end()).toString();
+    }
+
+    /**
+     * Appends one result.
+     *
+     * @param first Whether this is the first result in the response.
+     */
+    abstract void append(StringBuilder out, String result, boolean first);
+
+    /**
+     * @return What the response starts with, before the first result.
+     */
+    abstract String start();
+
+    /**
+     * @return What the response ends with, after the last result.
+     */
+    abstract String end();
+
+    private static void quote(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Parses a JSON array of strings, and nulls if they are allowed. Nothing else is needed by the batch
+     * endpoints, so nothing else is accepted.
+     */
+    private static final class JsonArrayParser {
+
+        private final String json;
+
+        private final boolean nulls;
+
+        private int pos;
+
+        JsonArrayParser(String json, boolean nulls) {
+            this.json = json;
+            this.nulls = nulls;
+        }
+
+        List<String> parse() {
+            List<String> items = new ArrayList<>();
+
+            expect('[');
+            if (peek() == ']') {
+                ++pos;
+            } else {
+                for (;;) {
+                    items.add(item());
+                    char c = next();
+                    if (c == ']') {
+                        break;
+                    }
+                    if (c != ',') {
+                        throw error("Expected , or ]");
+                    }
+                }
+            }
+
+            if (peek() != 0) {
+                throw error("Unexpected content after the array");
+            }
+            return items;
+        }
+
+        private String item() {
+            if (nulls && peek() == 'n') {
+                if (!json.startsWith("null", pos)) {
+                    throw error("Expected null");
+                }
+                pos += 4;
+                return null;
+            }
+            return string();
+        }
+
+        private String string() {
+            expect('"');
+
+            var value = new StringBuilder();
+            for (;;) {
+                if (pos >= json.length()) {
+                    throw error("Unterminated string");
+                }
+
+                char c = json.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+
+                if (pos >= json.length()) {
+                    throw error("Unterminated string");
+                }
+                char escaped = json.charAt(pos++);
+                switch (escaped) {
+                    case '"', '\\', '/' -> value.append(escaped);
+                    case 'b' -> value.append('\b');
+                    case 'f' -> value.append('\f');
+                    case 'n' -> value.append('\n');
+                    case 'r' -> value.append('\r');
+                    case 't' -> value.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > json.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw error("Invalid escape \\" + escaped);
+                }
+            }
+        }
+
+        private void expect(char expected) {
+            if (next() != expected) {
+                throw error("Expected " + expected);
+            }
+        }
+
+        // Skips any whitespace, and returns the next character or 0 at the end.
+        private char peek() {
+            while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+                ++pos;
+            }
+            return pos < json.length() ? json.charAt(pos) : 0;
+        }
+
+        private char next() {
+            char c = peek();
+            if (c != 0) {
+                ++pos;
+            }
+            return c;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+    }
+}
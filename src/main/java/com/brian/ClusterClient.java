@@ -0,0 +1,270 @@
+package com.brian;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.AbstractChannelPoolMap;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.handler.codec.http.*;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Sends requests to the other nodes of a cluster over pooled keep-alive HTTP/1.1 connections. Each node has a
+ * fixed pool of connections, shared by all the event loops, and a connection carries one request at a time.
+ * Every request is marked with {@value #FORWARDED_HEADER}, so the node answers it itself.
+ * <p>
+ * A node closes a connection once it has been idle for the node's idle timeout, and the pool only finds out
+ * when it next uses the connection. A request whose connection closes before the reply is sent once more on
+ * another connection. Forwarded shortens are safe to repeat, as a URL always gets the same code.
+ */
+public class ClusterClient implements Closeable {
+
+    /**
+     * Marks a request sent by another node. The value is the id of the node.
+     */
+    public static final String FORWARDED_HEADER = "X-Cluster-Node";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    // Enough for the results of a batch slice.
+    private static final int MAX_REPLY_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * The parts of a reply that the cluster uses.
+     *
+     * @param location The Location header, or null if there isn't one.
+     */
+    public record Reply(int status, String location, String body) {
+    }
+
+    private final EventLoopGroup group;
+
+    private final String nodeId;
+
+    private final long timeoutMillis;
+
+    private final AbstractChannelPoolMap<InetSocketAddress, FixedChannelPool> pools;
+
+    /**
+     * @param group The event loops the connections are served by.
+     * @param channelClass The class of the connections, which must suit the event loops.
+     * @param nodeId The id of this node.
+     * @param maxConnections The most connections open to each node.
+     */
+    public ClusterClient(EventLoopGroup group, Class<? extends Channel> channelClass, String nodeId,
+                         int maxConnections) {
+        this(group, channelClass, nodeId, maxConnections, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    ClusterClient(EventLoopGroup group, Class<? extends Channel> channelClass, String nodeId, int maxConnections,
+                  long timeoutMillis) {
+        this.group = group;
+        this.nodeId = nodeId;
+        this.timeoutMillis = timeoutMillis;
+
+        pools = new AbstractChannelPoolMap<>() {
+            @Override
+            protected FixedChannelPool newPool(InetSocketAddress address) {
+                var bootstrap = new Bootstrap()
+                        .group(group)
+                        .channel(channelClass)
+                        .remoteAddress(address)
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                        .option(ChannelOption.TCP_NODELAY, true);
+
+                return new FixedChannelPool(bootstrap, new AbstractChannelPoolHandler() {
+                    @Override
+                    public void channelCreated(Channel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(MAX_REPLY_SIZE));
+                        ch.pipeline().addLast(new ReplyHandler());
+                    }
+                }, ChannelHealthChecker.ACTIVE, FixedChannelPool.AcquireTimeoutAction.FAIL, timeoutMillis,
+                        maxConnections, Integer.MAX_VALUE);
+            }
+        };
+    }
+
+    /**
+     * Sends a request to another node.
+     *
+     * @param address The address of the node.
+     * @param uri The path of the request.
+     * @param body The body of a POST, or null for a GET.
+     *
+     * @return The reply, completed on one of the event loops. It fails if the node cannot be reached, or does not
+     * reply in time.
+     */
+    public CompletableFuture<Reply> send(InetSocketAddress address, String uri, String body) {
+        var reply = new CompletableFuture<Reply>();
+        send(address, uri, body, reply, true);
+        return reply;
+    }
+
+    private void send(InetSocketAddress address, String uri, String body, CompletableFuture<Reply> reply,
+                      boolean retry) {
+        var pool = pools.get(address);
+        pool.acquire().addListener((Future<Channel> acquired) -> {
+            if (!acquired.isSuccess()) {
+                reply.completeExceptionally(acquired.cause());
+                return;
+            }
+
+            var channel = acquired.getNow();
+            var exchange = new CompletableFuture<Reply>();
+            exchange.whenComplete((result, error) -> {
+                if (error != null) {
+                    channel.close();
+                }
+                pool.release(channel);
+
+                if (error instanceof ClosedChannelException && retry) {
+                    send(address, uri, body, reply, false);
+                } else if (error != null) {
+                    reply.completeExceptionally(error);
+                } else {
+                    reply.complete(result);
+                }
+            });
+
+            channel.eventLoop().execute(() ->
+                    channel.pipeline().get(ReplyHandler.class).send(newRequest(address, uri, body), exchange));
+        });
+    }
+
+    private FullHttpRequest newRequest(InetSocketAddress address, String uri, String body) {
+        FullHttpRequest request = body == null
+                ? new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri)
+                : new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, uri,
+                        Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+
+        request.headers().set(HttpHeaderNames.HOST, address.getHostString() + ":" + address.getPort());
+        request.headers().set(FORWARDED_HEADER, nodeId);
+        if (body != null) {
+            request.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+            request.headers().set(HttpHeaderNames.CONTENT_LENGTH, request.content().readableBytes());
+        }
+        return request;
+    }
+
+    /**
+     * @return Whether the current thread is one of the event loops, which must not wait for a reply.
+     */
+    public boolean inEventLoop() {
+        for (EventExecutor executor : group) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closes the connections to the other nodes.
+     */
+    @Override
+    public void close() {
+        pools.close();
+    }
+
+    /**
+     * Matches the reply on a connection to the request waiting for it. It is only used on the connection's event
+     * loop.
+     */
+    private final class ReplyHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+
+        private ChannelHandlerContext ctx;
+
+        private CompletableFuture<Reply> pending;
+
+        private ScheduledFuture<?> timeout;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        void send(FullHttpRequest request, CompletableFuture<Reply> exchange) {
+            if (!ctx.channel().isActive()) {
+                request.release();
+                exchange.completeExceptionally(new ClosedChannelException());
+                return;
+            }
+
+            pending = exchange;
+            timeout = ctx.executor().schedule(() -> fail(new TimeoutException("No reply from "
+                    + ctx.channel().remoteAddress() + " within " + timeoutMillis + "ms")),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+
+            ctx.writeAndFlush(request).addListener(written -> {
+                if (!written.isSuccess()) {
+                    fail(written.cause());
+                }
+            });
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            if (!HttpUtil.isKeepAlive(response)) {
+                ctx.close();
+            }
+
+            var reply = new Reply(response.status().code(), response.headers().get(HttpHeaderNames.LOCATION),
+                    response.content().toString(CharsetUtil.UTF_8));
+            var exchange = finish();
+            if (exchange != null) {
+                exchange.complete(reply);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            fail(new ClosedChannelException());
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            fail(cause);
+            ctx.close();
+        }
+
+        private void fail(Throwable cause) {
+            var exchange = finish();
+            if (exchange != null) {
+                exchange.completeExceptionally(cause);
+            }
+        }
+
+        /**
+         * @return The request that was waiting, which is no longer, or null if there wasn't one.
+         */
+        private CompletableFuture<Reply> finish() {
+            var exchange = pending;
+            pending = null;
+            if (timeout != null) {
+                timeout.cancel(false);
+                timeout = null;
+            }
+            return exchange;
+        }
+    }
+}
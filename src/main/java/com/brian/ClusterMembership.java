@@ -0,0 +1,154 @@
+package com.brian;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The nodes of a cluster, read from a static membership file shared by all of them. Each line of the file
+ * gives a node's id and the address the other nodes reach it on:
+ * <pre>
+ * node-a=10.0.0.1:8080
+ * node-b=[fd00::2]:8080
+ * </pre>
+ * The file is read from the file system, or from the classpath if there is no such file.
+ */
+public class ClusterMembership {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterMembership.class);
+
+    /**
+     * A node of the cluster.
+     */
+    public record Member(String id, String host, int port) {
+
+        /**
+         * @return The address of the node, resolved when it is connected to.
+         */
+        public InetSocketAddress address() {
+            return InetSocketAddress.createUnresolved(host, port);
+        }
+    }
+
+    private final List<Member> members;
+
+    private final Member self;
+
+    /**
+     * @param members The nodes of the cluster.
+     * @param self The id of this node, which must be one of the members.
+     */
+    public ClusterMembership(List<Member> members, String self) {
+        this.members = List.copyOf(members);
+        this.self = members.stream()
+                .filter(member -> member.id().equals(self))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("The node " + self + " is not a member"));
+    }
+
+    /**
+     * Reads the members from a membership file.
+     *
+     * @param file The membership file.
+     * @param self The id of this node.
+     *
+     * @throws InvalidServerPropertiesException if the file is missing or not valid, or this node is not in it.
+     */
+    public static ClusterMembership load(String file, String self) throws IOException {
+        var properties = new Properties();
+        try (var input = open(file)) {
+            if (input == null) {
+                throw new InvalidServerPropertiesException("Failed to load the cluster membership file " + file);
+            }
+            properties.load(input);
+        }
+
+        // The ids are sorted so every node lists the members in the same order.
+        List<Member> members = new ArrayList<>();
+        for (var id : new TreeSet<>(properties.stringPropertyNames())) {
+            var address = properties.getProperty(id).trim();
+            int colon = address.lastIndexOf(':');
+            try {
+                if (colon < 1) {
+                    throw new NumberFormatException();
+                }
+                int port = Integer.parseInt(address.substring(colon + 1));
+                if (port < 1 || port > 65535) {
+                    throw new NumberFormatException();
+                }
+                // An IPv6 address is bracketed, as in a URL.
+                var host = address.substring(0, colon);
+                if (host.startsWith("[") && host.endsWith("]")) {
+                    host = host.substring(1, host.length() - 1);
+                }
+                members.add(new Member(id.trim(), host, port));
+            } catch (NumberFormatException e) {
+                throw new InvalidServerPropertiesException("The address of the cluster node " + id
+                        + " defined in the membership file " + file + " is not a valid host:port [" + address + "]");
+            }
+        }
+
+        if (members.stream().noneMatch(member -> member.id().equals(self))) {
+            throw new InvalidServerPropertiesException("The cluster node " + self
+                    + " is not defined in the membership file " + file);
+        }
+
+        return new ClusterMembership(members, self);
+    }
+
+    private static InputStream open(String file) throws IOException {
+        var path = Path.of(file);
+        if (Files.isRegularFile(path)) {
+            return Files.newInputStream(path);
+        }
+        return ClusterMembership.class.getClassLoader().getResourceAsStream(file);
+    }
+
+    /**
+     * @return Every node of the cluster, including this one, ordered by id.
+     */
+    public List<Member> members() {
+        return members;
+    }
+
+    /**
+     * Resolves the hosts of the other nodes, which are the addresses their requests are expected to come from. A
+     * node must then connect from the address it is listed with.
+     *
+     * @return The addresses of the other nodes. A host that can't be resolved is left out.
+     */
+    public Set<InetAddress> peerAddresses() {
+        Set<InetAddress> addresses = new HashSet<>();
+        for (var member : members) {
+            if (member == self) {
+                continue;
+            }
+            try {
+                addresses.addAll(List.of(InetAddress.getAllByName(member.host())));
+            } catch (UnknownHostException e) {
+                logger.warn("Failed to resolve the host {} of the cluster node {}", member.host(), member.id());
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * @return This node.
+     */
+    public Member self() {
+        return self;
+    }
+}
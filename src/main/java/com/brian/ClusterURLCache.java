@@ -0,0 +1,262 @@
+package com.brian;
+
+import com.brian.ClusterMembership.Member;
+import com.brian.cache.CacheListener;
+import com.brian.cache.URLCache;
+import com.brian.cache.URLEntry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Spreads the cache over the nodes of a cluster. A {@link HashRing} assigns the partitions of the code space to
+ * the nodes, and each node only generates codes in its own partitions (see {@link PartitionedEncoder}), so the
+ * node holding a code is known from the code alone. A URL is shortened by the node the ring assigns it to.
+ * <p>
+ * The lookups and shortens that belong to this node go to its local cache. The rest are sent to the node they
+ * belong to over the {@link ClusterClient}, which answers them from its own local cache. Batches are split by
+ * node, and each part is sent as one batch.
+ * <p>
+ * The listeners, restores, entries and size are those of the local cache, as every node persists and
+ * snapshots its own entries. Closing this cache does not close the local cache or the client.
+ */
+public class ClusterURLCache implements URLCache {
+
+    private final URLCache local;
+
+    private final HashRing ring;
+
+    private final Member self;
+
+    private final ClusterClient client;
+
+    private final LongAdder forwarded = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * @param local The cache holding this node's entries.
+     * @param ring The ring assigning the partitions to the nodes.
+     * @param self This node.
+     * @param client The connections to the other nodes.
+     */
+    public ClusterURLCache(URLCache local, HashRing ring, Member self, ClusterClient client) {
+        this.local = local;
+        this.ring = ring;
+        this.self = self;
+        this.client = client;
+    }
+
+    /**
+     * @return The cache holding this node's entries, which answers the requests forwarded by the other nodes.
+     */
+    public URLCache local() {
+        return local;
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        return await(shortenAsync(uuid, url));
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        return await(getOriginalUrlForAsync(hash));
+    }
+
+    @Override
+    public String getOriginalUrlFor(long code) {
+        return await(getOriginalUrlForAsync(code));
+    }
+
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        return await(shortenAllAsync(uuid, urls));
+    }
+
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> hashes) {
+        return await(getOriginalUrlsForAsync(hashes));
+    }
+
+    @Override
+    public CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        var owner = ring.ownerOfUrl(url);
+        if (owner.equals(self)) {
+            return local.shortenAsync(uuid, url);
+        }
+
+        // An invalid URL is a 400, and anything else is a failure.
+        return forward(owner, "/", url).thenApply(reply -> switch (reply.status()) {
+            case 200 -> reply.body();
+            case 400 -> null;
+            default -> throw unexpected(owner, reply);
+        });
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        long code = Base62Encoder.fromBase62(hash);
+        return code >= 0 ? getOriginalUrlForAsync(code) : local.getOriginalUrlForAsync(hash);
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        var owner = ring.ownerOf(code);
+        if (owner.equals(self)) {
+            return local.getOriginalUrlForAsync(code);
+        }
+
+        return forward(owner, "/" + Base62Encoder.toBase62(code), null).thenApply(reply -> switch (reply.status()) {
+            case 301 -> reply.location();
+            case 404 -> null;
+            default -> throw unexpected(owner, reply);
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return scatter(urls, ring::ownerOfUrl, (owner, part) -> owner.equals(self)
+                ? local.shortenAllAsync(uuid, part)
+                : forwardBatch(owner, URLServiceHandler.BATCH_SHORTEN_PATH, part));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return scatter(hashes, this::ownerOf, (owner, part) -> owner.equals(self)
+                ? local.getOriginalUrlsForAsync(part)
+                : forwardBatch(owner, URLServiceHandler.BATCH_RESOLVE_PATH, part));
+    }
+
+    private Member ownerOf(String hash) {
+        long code = Base62Encoder.fromBase62(hash);
+        return code >= 0 ? ring.ownerOf(code) : self;
+    }
+
+    /**
+     * Splits the items by the node they belong to, and puts the results of each part back in the items' order.
+     */
+    private CompletableFuture<List<String>> scatter(List<String> items, Function<String, Member> ownerOf,
+                                                    BiFunction<Member, List<String>,
+                                                            CompletableFuture<List<String>>> send) {
+        Map<Member, List<Integer>> positions = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); ++i) {
+            positions.computeIfAbsent(ownerOf.apply(items.get(i)), owner -> new ArrayList<>()).add(i);
+        }
+
+        // The usual case for a small cluster or a small batch.
+        if (positions.size() == 1) {
+            return send.apply(positions.keySet().iterator().next(), items);
+        }
+
+        String[] results = new String[items.size()];
+        List<CompletableFuture<Void>> parts = new ArrayList<>();
+        positions.forEach((owner, indexes) -> {
+            List<String> part = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                part.add(items.get(index));
+            }
+            parts.add(send.apply(owner, part).thenAccept(partResults -> {
+                for (int i = 0; i < indexes.size(); ++i) {
+                    results[indexes.get(i)] = partResults.get(i);
+                }
+            }));
+        });
+
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .thenApply(done -> Arrays.asList(results));
+    }
+
+    private CompletableFuture<List<String>> forwardBatch(Member owner, String path, List<String> items) {
+        // JSON keeps every item intact, whatever it contains.
+        return forward(owner, path, BatchFormat.JSON.format(items)).thenApply(reply -> {
+            if (reply.status() != 200) {
+                throw unexpected(owner, reply);
+            }
+
+            var results = BatchFormat.JSON.parseResults(reply.body());
+            if (results.size() != items.size()) {
+                throw new UncheckedIOException(new IOException("The cluster node " + owner.id() + " sent "
+                        + results.size() + " results for a batch of " + items.size()));
+            }
+            return results;
+        });
+    }
+
+    private CompletableFuture<ClusterClient.Reply> forward(Member owner, String uri, String body) {
+        forwarded.increment();
+        return client.send(owner.address(), uri, body).whenComplete((reply, error) -> {
+            if (error != null) {
+                failures.increment();
+            }
+        });
+    }
+
+    private UncheckedIOException unexpected(Member owner, ClusterClient.Reply reply) {
+        failures.increment();
+        return new UncheckedIOException(new IOException("The cluster node " + owner.id() + " answered with "
+                + reply.status()));
+    }
+
+    /**
+     * Waits for a request that may have been sent to another node, which the event loops must not do.
+     */
+    private <T> T await(CompletableFuture<T> future) {
+        if (!future.isDone() && client.inEventLoop()) {
+            throw new IllegalStateException("Waiting for another cluster node on an event loop could deadlock");
+        }
+        return future.join();
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        local.addListener(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        return local.restore(url, hash, timeAdded, ttl);
+    }
+
+    @Override
+    public List<URLEntry> entries() {
+        return local.entries();
+    }
+
+    /**
+     * @return The entries held by this node.
+     */
+    @Override
+    public int size() {
+        return local.size();
+    }
+
+    @Override
+    public long encoderRetries() {
+        return local.encoderRetries();
+    }
+
+    /**
+     * @return The requests sent to other nodes.
+     */
+    public long forwarded() {
+        return forwarded.sum();
+    }
+
+    /**
+     * @return The requests sent to other nodes that failed, or were answered with an unexpected status.
+     */
+    public long failures() {
+        return failures.sum();
+    }
+}
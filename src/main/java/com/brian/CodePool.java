@@ -0,0 +1,261 @@
+package com.brian;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
+
+/**
+ * An encoder that hands out codes generated ahead of time, so the shorten path just dequeues a code.
+ * <p>
+ * A background producer thread fills a bounded pool of codes from another encoder, skipping any code that
+ * is already in use by the cache or already in the pool. Once the pool falls below its low watermark the
+ * producer is woken to fill it back up to capacity. If a burst drains the pool completely then codes are
+ * generated on the calling thread instead, exactly as if there was no pool, and these fallbacks are counted.
+ * <p>
+ * A code is checked when it is generated, so it can (very rarely) be taken by another request before it
+ * is handed out. The cache still reserves each code atomically and retries if that happens.
+ * <p>
+ * When the code space is filling up and most of the codes generated are rejected, the producer backs off
+ * after a run of rejections, for twice as long each time up to a second, rather than spinning. If the other
+ * encoder throws, such as a {@link SequenceEncoder} that has run out of codes, the failure is recorded and the
+ * producer stops, and the codes are generated on the request path from then on.
+ */
+public class CodePool implements URLEncoder, Runnable, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CodePool.class);
+
+    // How often the producer checks the pool if nobody wakes it.
+    private static final long CHECK_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // The codes rejected in a row before the producer backs off, and how long it backs off for.
+    private static final int MAX_REJECTIONS_IN_A_ROW = 1000;
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final URLEncoder source;
+
+    private final int capacity;
+
+    private final int lowWatermark;
+
+    private final Queue<String> pool = new ConcurrentLinkedQueue<>();
+
+    // The codes in the pool, so the producer doesn't pool the same code twice.
+    private final Set<String> pooled = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final LongAdder produced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+    private final LongAdder backoffs = new LongAdder();
+
+    // Why the producer stopped, or null while it is running.
+    private volatile RuntimeException failure;
+
+    private volatile Predicate<String> inUse = code -> false;
+
+    private volatile boolean running;
+
+    private volatile Thread producer;
+
+    /**
+     * @param source Generates the codes.
+     * @param capacity The maximum number of codes in the pool.
+     * @param lowWatermark The producer refills the pool once it holds fewer codes than this.
+     */
+    public CodePool(URLEncoder source, int capacity, int lowWatermark) {
+        if (capacity <= 0 || lowWatermark <= 0 || lowWatermark > capacity) {
+            throw new IllegalArgumentException("Invalid code pool capacity " + capacity
+                    + " and low watermark " + lowWatermark);
+        }
+
+        this.source = source;
+        this.capacity = capacity;
+        this.lowWatermark = lowWatermark;
+    }
+
+    /**
+     * Starts the background producer.
+     *
+     * @param inUse Tests whether a code is already in use by the cache.
+     */
+    public synchronized void start(Predicate<String> inUse) {
+        if (running) {
+            throw new IllegalStateException("The code pool has already been started");
+        }
+
+        this.inUse = inUse;
+        running = true;
+
+        var thread = new Thread(this, "code-pool");
+        thread.setDaemon(true);
+        producer = thread;
+        thread.start();
+    }
+
+    /**
+     * Returns a pooled code, or generates one on the calling thread if the pool is empty.
+     *
+     * @param url The URL to be encoded.
+     *
+     * @return The encoded URL, or null if the URL cannot be encoded.
+     */
+    @Override
+    public String encode(String url) {
+        var code = pool.poll();
+        if (code != null) {
+            pooled.remove(code);
+            if (depth.decrementAndGet() < lowWatermark) {
+                wakeProducer();
+            }
+            return code;
+        }
+
+        // The pool has drained. Don't make the request wait for the producer.
+        fallbacks.increment();
+        wakeProducer();
+        return source.encode(url);
+    }
+
+    @Override
+    public boolean isUnique() {
+        return source.isUnique();
+    }
+
+    /**
+     * The producer loop. Fills the pool to capacity, then waits until it drops below the low watermark.
+     */
+    @Override
+    public void run() {
+        logger.info("Starting the code pool producer. Capacity {}, low watermark {}", capacity, lowWatermark);
+
+        long backoff = MIN_BACKOFF_NANOS;
+        while (running) {
+            try {
+                if (!fill()) {
+                    backoffs.increment();
+                    sleep(backoff);
+                    backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+                    continue;
+                }
+            } catch (RuntimeException e) {
+                // Generating again would fail the same way, so the requests generate their own codes.
+                logger.error("Stopping the code pool producer as the encoder failed", e);
+                failure = e;
+                running = false;
+                break;
+            }
+
+            backoff = MIN_BACKOFF_NANOS;
+            while (running && depth.get() >= lowWatermark) {
+                LockSupport.parkNanos(this, CHECK_PERIOD_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Tops the pool up to capacity. Only called from the producer thread.
+     *
+     * @return False if too many codes in a row were rejected.
+     */
+    private boolean fill() {
+        int rejectedInARow = 0;
+        while (running && depth.get() < capacity) {
+            var code = source.encode("");
+            if (code == null || inUse.test(code) || !pooled.add(code)) {
+                rejected.increment();
+                if (++rejectedInARow == MAX_REJECTIONS_IN_A_ROW) {
+                    return false;
+                }
+                continue;
+            }
+
+            rejectedInARow = 0;
+            pool.add(code);
+            depth.incrementAndGet();
+            produced.increment();
+        }
+        return true;
+    }
+
+    /**
+     * Parks for the whole time, even when the requests wake the producer as the pool drains.
+     */
+    private void sleep(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        for (long left = nanos; running && left > 0; left = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(this, left);
+        }
+    }
+
+    private void wakeProducer() {
+        var thread = producer;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void close() {
+        logger.info("Shutting down the code pool");
+        running = false;
+        wakeProducer();
+    }
+
+    /**
+     * @return The number of codes in the pool.
+     */
+    public int depth() {
+        return depth.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of codes the producer has added to the pool.
+     */
+    public long produced() {
+        return produced.sum();
+    }
+
+    /**
+     * @return The number of generated codes the producer discarded as they were already in use or pooled.
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return The number of codes generated on the request path because the pool was empty.
+     */
+    public long fallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * @return The number of times the producer backed off as too many codes in a row were rejected.
+     */
+    public long backoffs() {
+        return backoffs.sum();
+    }
+
+    /**
+     * @return The encoder's failure that stopped the producer, or null if it hasn't stopped.
+     */
+    public RuntimeException failure() {
+        return failure;
+    }
+}
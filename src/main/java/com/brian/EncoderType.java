@@ -0,0 +1,29 @@
+package com.brian;
+
+/**
+ * The URL encoders that can be selected via the encoder server property.
+ */
+public enum EncoderType {
+
+    /**
+     * Random codes from {@link Base62Encoder}. The cache retries until it finds one that isn't in use.
+     */
+    RANDOM {
+        @Override
+        URLEncoder newEncoder() {
+            return new Base62Encoder();
+        }
+    },
+
+    /**
+     * Scrambled sequential codes from {@link SequenceEncoder}, which never collide.
+     */
+    SEQUENCE {
+        @Override
+        URLEncoder newEncoder() {
+            return new SequenceEncoder();
+        }
+    };
+
+    abstract URLEncoder newEncoder();
+}
@@ -0,0 +1,123 @@
+package com.brian;
+
+import com.brian.ClusterMembership.Member;
+
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Assigns the partitions of the code space to the nodes of a cluster by consistent hashing.
+ * <p>
+ * The last two characters of a code are its partition, so there are 62^2 = 3,844 partitions and the owner
+ * of a code is found from the code alone, with one array lookup. Each node is placed on the ring at
+ * {@value #VIRTUAL_NODES} points, and a partition belongs to the first node at or after its own point. Adding
+ * or removing a node only moves the partitions next to that node's points, and every node builds the same
+ * ring from the same members.
+ * <p>
+ * A URL belongs to the owner of the partition its lowercased text hashes to, so the same URL is always
+ * shortened by the same node, whichever node it was posted to.
+ */
+public class HashRing {
+
+    // The values of the last two characters of a code.
+    static final int PARTITIONS = 62 * 62;
+
+    // The points each node is placed at, which evens out the number of partitions each one owns.
+    static final int VIRTUAL_NODES = 128;
+
+    private final Member[] owners = new Member[PARTITIONS];
+
+    /**
+     * @param members The nodes of the cluster.
+     */
+    public HashRing(List<Member> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("A ring needs at least one node");
+        }
+
+        // On the rare clash of two points, the node listed first keeps it.
+        TreeMap<Long, Member> ring = new TreeMap<>();
+        for (var member : members) {
+            for (int i = 0; i < VIRTUAL_NODES; ++i) {
+                ring.putIfAbsent(hash(member.id() + "#" + i), member);
+            }
+        }
+
+        for (int partition = 0; partition < PARTITIONS; ++partition) {
+            var point = ring.ceilingEntry(hash("partition#" + partition));
+            owners[partition] = (point != null ? point : ring.firstEntry()).getValue();
+        }
+    }
+
+    /**
+     * @param code A code, as a number.
+     *
+     * @return The partition of the code.
+     */
+    public static int partitionOf(long code) {
+        return (int) (code % PARTITIONS);
+    }
+
+    /**
+     * @return The partition a URL belongs to.
+     */
+    static int partitionOfUrl(String url) {
+        return (int) Long.remainderUnsigned(hash(url.toLowerCase()), PARTITIONS);
+    }
+
+    /**
+     * @param code A code, as a number.
+     *
+     * @return The node that generated the code.
+     */
+    public Member ownerOf(long code) {
+        return owners[partitionOf(code)];
+    }
+
+    /**
+     * @return The node that shortens the URL.
+     */
+    public Member ownerOfUrl(String url) {
+        return owners[partitionOfUrl(url)];
+    }
+
+    /**
+     * @return The partitions owned by a node, in order. This is empty if the node has no partitions.
+     */
+    public int[] partitionsOf(Member member) {
+        int count = 0;
+        for (var owner : owners) {
+            if (owner.equals(member)) {
+                ++count;
+            }
+        }
+
+        int[] partitions = new int[count];
+        count = 0;
+        for (int partition = 0; partition < PARTITIONS; ++partition) {
+            if (owners[partition].equals(member)) {
+                partitions[count++] = partition;
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * FNV-1a followed by the MurmurHash3 finalizer, so the points are spread evenly and are the same on every
+     * node.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); ++i) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,210 @@
+package com.brian;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.AsciiString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Sets up the pipeline of each new connection. A connection starts out as HTTP/1.1, and with cleartext HTTP/2
+ * (h2c) enabled it can switch to HTTP/2 either by starting with the HTTP/2 connection preface (prior
+ * knowledge) or with an HTTP/1.1 Upgrade request.
+ * <p>
+ * An HTTP/2 connection carries many concurrent requests, each on its own stream. Each stream gets a child
+ * channel that turns its frames back into HTTP/1.1 style requests and responses, so the same
+ * {@link URLServiceHandler} serves both protocols.
+ * <p>
+ * Given an {@link AdmissionHandler}, it is placed ahead of the service handler on every HTTP/1.1 connection and
+ * HTTP/2 stream, so the requests it turns away are never collected or upgraded.
+ */
+public class HttpChannelInitializer extends ChannelInitializer<Channel> {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpChannelInitializer.class);
+
+    private static final String TIMEOUT = "timeout";
+    private static final String DECODER = "decoder";
+    private static final String ENCODER = "encoder";
+    private static final String ADMISSION = "admission";
+    private static final String UPGRADE = "upgrade";
+    private static final String HANDLER = "handler";
+    private static final String HTTP2 = "http2";
+
+    private final Supplier<URLServiceHandler> http1Handlers;
+
+    private final Supplier<URLServiceHandler> http2Handlers;
+
+    private final Supplier<AdmissionHandler> admissionHandlers;
+
+    private final int idleTimeout;
+
+    private final int maxBodySize;
+
+    /**
+     * @param http1Handlers Creates the handler for an HTTP/1.1 connection.
+     * @param http2Handlers Creates the handler for an HTTP/2 stream, or null to only serve HTTP/1.1. HTTP/2
+     *                      responses are not written pre-encoded, so these handlers must not use a
+     *                      {@link ResponseCache}.
+     * @param idleTimeout The time (in seconds) a connection may be idle before it is closed.
+     * @param maxBodySize The largest body of an Upgrade request, in bytes.
+     */
+    public HttpChannelInitializer(Supplier<URLServiceHandler> http1Handlers,
+                                  Supplier<URLServiceHandler> http2Handlers, int idleTimeout, int maxBodySize) {
+        this(http1Handlers, http2Handlers, null, idleTimeout, maxBodySize);
+    }
+
+    /**
+     * @param http1Handlers Creates the handler for an HTTP/1.1 connection.
+     * @param http2Handlers Creates the handler for an HTTP/2 stream, or null to only serve HTTP/1.1.
+     * @param admissionHandlers Creates the handler deciding which requests are served on a connection or stream,
+     *                          or null to serve them all.
+     * @param idleTimeout The time (in seconds) a connection may be idle before it is closed.
+     * @param maxBodySize The largest body of an Upgrade request, in bytes.
+     */
+    public HttpChannelInitializer(Supplier<URLServiceHandler> http1Handlers,
+                                  Supplier<URLServiceHandler> http2Handlers,
+                                  Supplier<AdmissionHandler> admissionHandlers, int idleTimeout, int maxBodySize) {
+        this.http1Handlers = http1Handlers;
+        this.http2Handlers = http2Handlers;
+        this.admissionHandlers = admissionHandlers;
+        this.idleTimeout = idleTimeout;
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    protected void initChannel(Channel ch) {
+        ChannelPipeline p = ch.pipeline();
+
+        // We use this to handle read times from slow or idle clients.
+        p.addLast(TIMEOUT, new ReadTimeoutHandler(idleTimeout));
+
+        if (http2Handlers != null) {
+            p.addLast(new PriorKnowledgeHandler());
+        }
+
+        p.addLast(DECODER, new HttpRequestDecoder()); // The default netty HTTP decoder.
+        p.addLast(ENCODER, new ResponseEncoder()); // Which also passes through the already encoded responses.
+
+        if (admissionHandlers != null) {
+            // Turns requests away as soon as their headers are decoded.
+            p.addLast(ADMISSION, admissionHandlers.get());
+        }
+
+        if (http2Handlers != null) {
+            // Only an Upgrade request is held here until it is complete. Any other request passes straight through.
+            p.addLast(UPGRADE, new HttpServerUpgradeHandler(this::removeHttp1, this::newUpgradeCodec, maxBodySize));
+        }
+
+        // We use this to decode the body and generate the shortened URL.
+        p.addLast(HANDLER, http1Handlers.get());
+    }
+
+    private HttpServerUpgradeHandler.UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+        if (!AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+            return null;
+        }
+        return new Http2ServerUpgradeCodec(Http2FrameCodecBuilder.forServer().build(), newMultiplexHandler(),
+                ConnectionErrorHandler.INSTANCE);
+    }
+
+    private Http2MultiplexHandler newMultiplexHandler() {
+        return new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+            @Override
+            protected void initChannel(Http2StreamChannel ch) {
+                ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                if (admissionHandlers != null) {
+                    ch.pipeline().addLast(admissionHandlers.get());
+                }
+                ch.pipeline().addLast(http2Handlers.get());
+            }
+        });
+    }
+
+    /**
+     * Removes the HTTP/1.1 handlers once the connection switches to HTTP/2. The HTTP/2 handlers are added in
+     * their place.
+     */
+    private void removeHttp1(ChannelHandlerContext ctx) {
+        var p = ctx.pipeline();
+        p.remove(DECODER);
+        p.remove(ENCODER);
+        if (admissionHandlers != null) {
+            p.remove(ADMISSION);
+        }
+        p.remove(HANDLER);
+    }
+
+    /**
+     * Closes an HTTP/2 connection when it has been idle for too long or fails, which the stream handlers can't
+     * do as they only see their own streams. Closing an HTTP/2 connection sends a GOAWAY first.
+     */
+    @ChannelHandler.Sharable
+    private static final class ConnectionErrorHandler extends ChannelInboundHandlerAdapter {
+
+        static final ConnectionErrorHandler INSTANCE = new ConnectionErrorHandler();
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            var socketAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+            var ip = socketAddress.getAddress().getHostAddress();
+            var port = socketAddress.getPort();
+            if (cause instanceof ReadTimeoutException) {
+                logger.warn("Closing idle HTTP/2 client connection [{}]:{}", ip, port);
+            } else {
+                logger.warn("Closing HTTP/2 client connection [{}]:{}", ip, port, cause);
+            }
+            ctx.close();
+        }
+    }
+
+    /**
+     * Switches the connection to HTTP/2 straight away if it starts with the HTTP/2 connection preface, and
+     * otherwise gets out of the way as soon as it can tell the connection is HTTP/1.1.
+     */
+    private final class PriorKnowledgeHandler extends ByteToMessageDecoder {
+
+        private final ByteBuf preface = Http2CodecUtil.connectionPrefaceBuf();
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            int length = Math.min(in.readableBytes(), preface.readableBytes());
+            if (!ByteBufUtil.equals(preface, preface.readerIndex(), in, in.readerIndex(), length)) {
+                ctx.pipeline().remove(this);
+            } else if (length == preface.readableBytes()) {
+                // The preface is left for the HTTP/2 handlers to read, which are handed it as this is removed.
+                ctx.pipeline().remove(UPGRADE);
+                removeHttp1(ctx);
+                ctx.pipeline().addAfter(ctx.name(), HTTP2, Http2FrameCodecBuilder.forServer().build());
+                ctx.pipeline().addAfter(HTTP2, null, newMultiplexHandler());
+                ctx.pipeline().addLast(ConnectionErrorHandler.INSTANCE);
+                ctx.pipeline().remove(this);
+            }
+        }
+
+        @Override
+        protected void handlerRemoved0(ChannelHandlerContext ctx) {
+            preface.release();
+        }
+    }
+}
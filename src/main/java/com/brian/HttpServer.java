@@ -1,79 +1,251 @@
 package com.brian;
 
+import com.brian.cache.CacheType;
+import com.brian.cache.ConcurrentURLCache;
 import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.NearURLCache;
+import com.brian.cache.OffHeapURLCache;
+import com.brian.cache.ReadOnlyURLCache;
+import com.brian.cache.ShardedURLCache;
+import com.brian.cache.SnapshotURLCache;
+import com.brian.cache.SyncedURLCache;
+import com.brian.cache.URLCache;
+import com.brian.cache.WriteAheadLog;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.handler.codec.http.HttpResponseEncoder;
-
-import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.channel.epoll.EpollChannelOption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class HttpServer {
 
     private static final Logger logger = LoggerFactory.getLogger(HttpServer.class);
 
+    private static final String PROPERTIES_FILE = "server.properties";
+
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
 
+    private final String propertiesFile;
+
+    public HttpServer() {
+        this(PROPERTIES_FILE);
+    }
+
+    public HttpServer(String propertiesFile) {
+        this.propertiesFile = propertiesFile;
+    }
+
     public static void main(String[] args) throws Exception {
         new HttpServer().run();
     }
 
     public void run() throws IOException, InterruptedException {
-        var serverProperties = new ServerProperties();
+        var serverProperties = new ServerProperties(propertiesFile);
 
         // TTL is defined in seconds. Convert to millis.
         var ttl = serverProperties.getCacheTTL() * 1000;
 
+        var transport = serverProperties.getTransport();
+        var acceptors = serverProperties.getAcceptors();
+        if (!transport.isAvailable()) {
+            logger.warn("The {} transport is not available on this platform. Falling back to NIO with 1 acceptor.",
+                    transport);
+            transport = Transport.NIO;
+            acceptors = 1;
+        }
+
         var bootstrap = new ServerBootstrap();
 
-        // Allocate all available cores.
+        // Only one boss thread is used per acceptor (listening channel), the workers handle the connections.
         int numCores = Runtime.getRuntime().availableProcessors();
-        EventLoopGroup bossGroup = new NioEventLoopGroup(numCores);
-        EventLoopGroup workers = new NioEventLoopGroup();
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(serverProperties.getBossThreads());
+        EventLoopGroup workers = transport.newEventLoopGroup(serverProperties.getWorkerThreads());
+
+        // In a cluster, this node only generates codes in the partitions the ring assigns to it.
+        ClusterMembership membership = serverProperties.getClusterMembers() != null
+                ? ClusterMembership.load(serverProperties.getClusterMembers(), serverProperties.getClusterNode())
+                : null;
+        HashRing ring = membership != null ? new HashRing(membership.members()) : null;
+        URLEncoder encoder = serverProperties.getEncoderType().newEncoder();
+        if (ring != null) {
+            encoder = new PartitionedEncoder(encoder, ring.partitionsOf(membership.self()));
+        }
+
+        // Optionally generate the codes ahead of time on a background thread.
+        CodePool codePool = serverProperties.getCodePoolSize() > 0
+                ? new CodePool(encoder, serverProperties.getCodePoolSize(), serverProperties.getCodePoolLowWatermark())
+                : null;
+
+        // The encoded responses are shared by all the connections, and dropped as entries are evicted.
+        // With a sliding TTL, the redirects and the near caches must go back to the cache often enough for
+        // the lookups to keep a popular entry alive.
+        long frontMaxAge = serverProperties.isSlidingTtl()
+                ? Math.min(ResponseCache.DEFAULT_MAX_AGE_MILLIS, ttl / 2)
+                : ResponseCache.DEFAULT_MAX_AGE_MILLIS;
+
+        try (codePool; var urlCache = openCache(serverProperties, codePool != null ? codePool : encoder, ttl, workers);
+             var writeAheadLog = openWriteAheadLog(serverProperties, urlCache);
+             var responses = new ResponseCache(ResponseCache.DEFAULT_MAX_ENTRIES, frontMaxAge);
+             var accessLog = new AccessLog(serverProperties.getAccessLogBuffer(), serverProperties.getLogSampleRate());
+             var clusterClient = membership != null
+                     ? new ClusterClient(workers, transport.channelClass(), membership.self().id(),
+                             serverProperties.getClusterConnections())
+                     : null;
+             var replicationServer = openReplicationServer(serverProperties, urlCache, bossGroup, workers, transport);
+             var replicaClient = serverProperties.getReplicationPrimaryHost() != null
+                     ? new ReplicaClient(workers, transport.channelClass(),
+                             InetSocketAddress.createUnresolved(serverProperties.getReplicationPrimaryHost(),
+                                     serverProperties.getReplicationPrimaryPort()), urlCache)
+                     : null) {
+            if (codePool != null) {
+                codePool.start(code -> urlCache.getOriginalUrlFor(code) != null);
+            }
+
+            accessLog.start();
+
+            urlCache.addListener(responses);
+
+            // With a synced write-ahead log, a shorten is answered once its entry is on disk.
+            URLCache lookups = writeAheadLog != null ? new SyncedURLCache(urlCache, writeAheadLog) : urlCache;
+
+            // The handlers look up the hottest codes in their own event loop's near cache first. A sharded cache
+            // already answers the codes in an event loop's own shard without sharing anything.
+            NearURLCache nearCache = null;
+            if (serverProperties.getNearCacheSize() > 0 && serverProperties.getCacheType() != CacheType.SHARDED) {
+                nearCache = new NearURLCache(lookups, serverProperties.getNearCacheSize(), frontMaxAge);
+                urlCache.addListener(nearCache);
+                lookups = nearCache;
+            }
+
+            // The lookups and shortens that belong to other cluster nodes are sent to them.
+            ClusterURLCache cluster = null;
+            if (clusterClient != null) {
+                cluster = new ClusterURLCache(lookups, ring, membership.self(), clusterClient);
+                lookups = cluster;
+            }
+
+            // A replica's cache is only changed by the primary's changes.
+            if (replicaClient != null) {
+                lookups = new ReadOnlyURLCache(lookups);
+            }
+
+            // The requests over a client's rate, or beyond what the server can take on, are turned away first.
+            var admission = isAdmissionControlled(serverProperties)
+                    ? new AdmissionControl(serverProperties.getRateLimit(), serverProperties.getRateLimitBurst(),
+                            serverProperties.getRateLimitMaxAddresses(), serverProperties.getMaxConnections(),
+                            serverProperties.getMaxPendingTasks())
+                    : null;
+            Set<InetAddress> peers = membership != null ? membership.peerAddresses() : Set.of();
+            Supplier<AdmissionHandler> admissionHandlers = admission != null
+                    ? () -> new AdmissionHandler(admission, peers)
+                    : null;
+
+            var metrics = new Metrics();
+            urlCache.addListener(metrics);
+            registerMetrics(metrics, urlCache, nearCache, responses, accessLog, codePool, writeAheadLog, cluster,
+                    replicationServer, replicaClient, admission);
+
+            if (replicaClient != null) {
+                replicaClient.start();
+            }
+
+            // HTTP/2 streams are answered with the same handler, apart from the encoded responses which are HTTP/1.1.
+            var maxBodySize = serverProperties.getMaxBodySize();
+            var handlerCache = lookups;
+            Supplier<URLServiceHandler> http2Handlers = serverProperties.isH2c()
+                    ? () -> new URLServiceHandler(handlerCache, true, null, accessLog, metrics, maxBodySize)
+                    : null;
 
-        try (var urlCache = new InMemoryURLCache(new Base62Encoder(), serverProperties.getDomain(), ttl)) {
             bootstrap.group(bossGroup, workers)
-                    .channel(NioServerSocketChannel.class)
-                    .childHandler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel ch) {
-                            ChannelPipeline p = ch.pipeline();
-                            p.addLast(new HttpRequestDecoder()); // The default netty HTTP decoder and encoder.
-                            p.addLast(new HttpResponseEncoder());
-
-                            // We use this to handle read times from slow or idle clients.
-                            p.addLast(new ReadTimeoutHandler(1));
-
-                            // We use this to decode the body and generate the shortened URL.
-                            p.addLast(new URLServiceHandler(urlCache));
-                        }
-                    });
-
-            // Set the connect timeout, and we don't need keepalive.
+                    .channel(transport.serverChannelClass())
+                    .childHandler(new HttpChannelInitializer(
+                            () -> new URLServiceHandler(handlerCache, serverProperties.isKeepAlive(), responses,
+                                    accessLog, metrics, maxBodySize),
+                            http2Handlers, admissionHandlers, serverProperties.getIdleTimeout(), maxBodySize));
+
+            // Set the connect timeout. TCP keepalive is only needed for persistent connections.
             bootstrap.childOption(ChannelOption.CONNECT_TIMEOUT_MILLIS, 1000)
                     .childOption(ChannelOption.SO_REUSEADDR, true)
-                    .childOption(ChannelOption.SO_KEEPALIVE, false);
+                    .childOption(ChannelOption.SO_KEEPALIVE, serverProperties.isKeepAlive());
+
+            // With SO_REUSEPORT each acceptor binds its own listening socket to the same port, and the
+            // kernel load-balances incoming connections across them.
+            if (acceptors > 1) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
 
             // Bind to the port and listen.
-            ChannelFuture f = bootstrap.bind(serverProperties.getPort()).sync();
+            List<Channel> listeners = new ArrayList<>();
+            for (int i = 0; i < acceptors; ++i) {
+                listeners.add(bootstrap.bind(serverProperties.getPort()).sync().channel());
+            }
 
             logger.info("Starting the URL shortening service on port {}  :: Using {} CPU cores",
                     serverProperties.getPort(), numCores);
+            logger.info("Using the {} transport with {} acceptor(s), {} boss thread(s) and {} worker thread(s)",
+                    transport, acceptors, serverProperties.getBossThreads(),
+                    serverProperties.getWorkerThreads() == 0 ? "default" : serverProperties.getWorkerThreads());
 
             logger.info("Using domain {}", serverProperties.getDomain());
-            logger.info("Using cache TTL {}s", ttl);
+            logger.info("Using cache TTL {}s (sliding {})", serverProperties.getCacheTTL(),
+                    serverProperties.isSlidingTtl());
+            logger.info("Using cache type {} with the {} encoder and a code pool of {}",
+                    serverProperties.getCacheType(), serverProperties.getEncoderType(),
+                    serverProperties.getCodePoolSize());
+            logger.info("Using cache limits of {} entries and {}MB (0 is no limit) with {} eviction",
+                    serverProperties.getCacheMaxEntries(), serverProperties.getCacheMaxMB(),
+                    serverProperties.getEvictionPolicy());
+            logger.info("Using a near cache of {} codes per event loop",
+                    nearCache != null ? serverProperties.getNearCacheSize() : 0);
+            logger.info("Using HTTP keep-alive {} with an idle timeout of {}s and a maximum body of {} bytes",
+                    serverProperties.isKeepAlive(), serverProperties.getIdleTimeout(),
+                    serverProperties.getMaxBodySize());
+            logger.info("Using snapshot {}", serverProperties.getSnapshotFile() != null
+                    ? serverProperties.getSnapshotFile() + " (every " + serverProperties.getSnapshotPeriod() + "s)"
+                    : "disabled");
+            logger.info("Using an access log buffer of {} and logging 1 in {} requests in detail",
+                    accessLog.capacity(), serverProperties.getLogSampleRate());
+            logger.info("Using cleartext HTTP/2 (h2c) {}", serverProperties.isH2c());
+            logger.info("Using a rate limit of {} shorten requests per second per client (bursts of {}, tracking up "
+                            + "to {} clients), and shedding requests over {} connections or {} queued tasks per "
+                            + "event loop (0 is no limit)", serverProperties.getRateLimit(),
+                    serverProperties.getRateLimitBurst(), serverProperties.getRateLimitMaxAddresses(),
+                    serverProperties.getMaxConnections(), serverProperties.getMaxPendingTasks());
+            logger.info("Serving the metrics at {}", URLServiceHandler.METRICS_PATH);
+            logger.info("Using persistence {}", writeAheadLog != null
+                    ? serverProperties.getPersistenceDir() + " (sync " + serverProperties.isPersistenceSync() + ")"
+                    : "disabled");
+            logger.info("Using cluster {}", membership != null
+                    ? "node " + membership.self().id() + " of " + membership.members().size() + " owning "
+                            + ring.partitionsOf(membership.self()).length + " of " + HashRing.PARTITIONS
+                            + " partitions, with up to " + serverProperties.getClusterConnections()
+                            + " connection(s) to each other node"
+                    : "disabled");
+            if (replicaClient != null) {
+                logger.info("Using replication as a read-only replica of {}:{}",
+                        serverProperties.getReplicationPrimaryHost(), serverProperties.getReplicationPrimaryPort());
+            } else {
+                logger.info("Using replication {}", replicationServer != null
+                        ? "to replicas on port " + serverProperties.getReplicationPort() + ", keeping "
+                                + serverProperties.getReplicationLogSize() + " changes to catch up from"
+                        : "disabled");
+            }
 
             isRunning.set(true);
 
-            f.channel().closeFuture().sync();
+            for (var listener : listeners) {
+                listener.closeFuture().sync();
+            }
 
         } finally {
             logger.info("Shutting down the URL shortening service.");
@@ -84,6 +256,164 @@ public class HttpServer {
         }
     }
 
+    /**
+     * Creates the cache, warm started from the last snapshot if snapshots are enabled.
+     */
+    private static URLCache openCache(ServerProperties serverProperties, URLEncoder encoder, int ttl,
+                                      EventLoopGroup workers) throws IOException {
+        if (serverProperties.getSnapshotFile() == null) {
+            return createCache(serverProperties, encoder, ttl, workers);
+        }
+
+        return new SnapshotURLCache(Path.of(serverProperties.getSnapshotFile()),
+                serverProperties.getSnapshotPeriod() * 1000L, encoder,
+                snapshotEncoder -> createCache(serverProperties, snapshotEncoder, ttl, workers));
+    }
+
+    /**
+     * @param workers The event loops serving the connections, which own the shards of a sharded cache.
+     */
+    private static URLCache createCache(ServerProperties serverProperties, URLEncoder encoder, int ttl,
+                                        EventLoopGroup workers) {
+        var domain = serverProperties.getDomain();
+
+        return switch (serverProperties.getCacheType()) {
+            case MEMORY -> new InMemoryURLCache(encoder, domain, ttl, serverProperties.isSlidingTtl(),
+                    serverProperties.getCacheMaxEntries(), serverProperties.getCacheMaxMB() * 1024L * 1024L,
+                    serverProperties.getEvictionPolicy());
+            case CONCURRENT -> new ConcurrentURLCache(encoder, domain, ttl, serverProperties.isSlidingTtl());
+            case OFF_HEAP -> new OffHeapURLCache(encoder, domain, ttl);
+            case SHARDED -> new ShardedURLCache(encoder, domain, ttl, workers);
+        };
+    }
+
+    /**
+     * Restores the cache from the write-ahead log, and then logs every change to it from then on.
+     *
+     * @return The write-ahead log, or null if persistence is disabled.
+     */
+    private static WriteAheadLog openWriteAheadLog(ServerProperties serverProperties, URLCache urlCache)
+            throws IOException {
+        if (serverProperties.getPersistenceDir() == null) {
+            return null;
+        }
+
+        var writeAheadLog = new WriteAheadLog(Path.of(serverProperties.getPersistenceDir()),
+                serverProperties.getPersistenceSegmentMB() * 1024L * 1024L, serverProperties.isPersistenceSync());
+        writeAheadLog.replay(urlCache);
+        urlCache.addListener(writeAheadLog);
+        return writeAheadLog;
+    }
+
+    /**
+     * Logs every change to the cache from then on, and streams the changes to the replicas that connect.
+     *
+     * @return The replication server, or null if there are no replicas.
+     */
+    private static ReplicationServer openReplicationServer(ServerProperties serverProperties, URLCache urlCache,
+                                                           EventLoopGroup bossGroup, EventLoopGroup workers,
+                                                           Transport transport) throws InterruptedException {
+        if (serverProperties.getReplicationPort() == 0) {
+            return null;
+        }
+
+        var replicationLog = new ReplicationLog(serverProperties.getReplicationLogSize());
+        urlCache.addListener(replicationLog);
+        return new ReplicationServer(replicationLog, urlCache, bossGroup, workers, transport.serverChannelClass(),
+                serverProperties.getReplicationPort());
+    }
+
+    private static boolean isAdmissionControlled(ServerProperties serverProperties) {
+        return serverProperties.getRateLimit() > 0 || serverProperties.getMaxConnections() > 0
+                || serverProperties.getMaxPendingTasks() > 0;
+    }
+
+    /**
+     * Adds the metrics read from the other components when they are scraped.
+     */
+    private static void registerMetrics(Metrics metrics, URLCache urlCache, NearURLCache nearCache,
+                                        ResponseCache responses, AccessLog accessLog, CodePool codePool,
+                                        WriteAheadLog writeAheadLog, ClusterURLCache cluster,
+                                        ReplicationServer replicationServer, ReplicaClient replicaClient,
+                                        AdmissionControl admission) {
+        metrics.gauge("cache_entries", "The entries in the cache.", urlCache::size);
+        metrics.counter("encoder_retries_total", "The generated codes that were already in use.",
+                urlCache::encoderRetries);
+        metrics.gauge("response_cache_entries", "The encoded redirects that are cached.", responses::size);
+        metrics.counter("access_log_dropped_total", "The access log records dropped as the buffer was full.",
+                accessLog::dropped);
+
+        if (nearCache != null) {
+            metrics.counter("near_cache_hits_total", "The lookups answered by the event loops' near caches.",
+                    nearCache::hits);
+            metrics.counter("near_cache_misses_total", "The lookups that were not in the near caches.",
+                    nearCache::misses);
+            metrics.ratio("near_cache_hit_ratio", "The fraction of the lookups answered by the near caches.",
+                    nearCache::hitRatio);
+        }
+
+        if (codePool != null) {
+            metrics.gauge("code_pool_depth", "The codes waiting in the code pool.", codePool::depth);
+            metrics.counter("code_pool_produced_total", "The codes generated by the code pool.",
+                    codePool::produced);
+            metrics.counter("code_pool_rejected_total", "The generated codes rejected as they were in use.",
+                    codePool::rejected);
+            metrics.counter("code_pool_fallbacks_total", "The codes generated on the request path as the pool "
+                    + "was empty.", codePool::fallbacks);
+            metrics.counter("code_pool_backoffs_total", "The times the code pool backed off as too many codes in a "
+                    + "row were in use.", codePool::backoffs);
+            metrics.gauge("code_pool_failed", "1 if the code pool stopped as the encoder failed.",
+                    () -> codePool.failure() != null ? 1 : 0);
+        }
+
+        if (writeAheadLog != null) {
+            metrics.counter("wal_appends_total", "The changes appended to the write-ahead log.",
+                    writeAheadLog::appends);
+            metrics.counter("wal_syncs_total", "The syncs of the write-ahead log to disk.", writeAheadLog::syncs);
+            metrics.gauge("wal_segments", "The segments in the write-ahead log.", writeAheadLog::segmentCount);
+        }
+
+        if (cluster != null) {
+            metrics.counter("cluster_forwarded_total", "The requests sent to the other cluster nodes.",
+                    cluster::forwarded);
+            metrics.counter("cluster_failures_total", "The requests sent to the other cluster nodes that failed.",
+                    cluster::failures);
+        }
+
+        if (replicationServer != null) {
+            metrics.gauge("replication_offset", "The offset of the next change streamed to the replicas.",
+                    replicationServer::offset);
+            metrics.gauge("replication_replicas", "The replicas connected.", replicationServer::replicas);
+            metrics.counter("replication_snapshots_total", "The full copies of the cache sent to replicas.",
+                    replicationServer::snapshots);
+        }
+
+        if (replicaClient != null) {
+            metrics.gauge("replication_connected", "Whether the replica is connected to its primary.",
+                    () -> replicaClient.isConnected() ? 1 : 0);
+            metrics.gauge("replication_offset", "The offset of the next change to apply from the primary.",
+                    replicaClient::offset);
+            metrics.gauge("replication_lag_changes", "The changes made by the primary that are not applied yet.",
+                    replicaClient::lagChanges);
+            metrics.gauge("replication_lag_millis", "How long after the primary made it the last change was "
+                    + "applied.", replicaClient::lagMillis);
+            metrics.counter("replication_applied_total", "The changes applied from the primary.",
+                    replicaClient::applied);
+            metrics.counter("replication_snapshots_total", "The full copies of the primary's cache received.",
+                    replicaClient::snapshots);
+        }
+
+        if (admission != null) {
+            metrics.counter("admission_rate_limited_total", "The requests answered with a 429 as the client was "
+                    + "over its rate.", admission::rateLimited);
+            metrics.counter("admission_shed_total", "The requests answered with a 503 as the server was "
+                    + "overloaded.", admission::shed);
+            metrics.gauge("admission_connections", "The connections open.", admission::connections);
+            metrics.gauge("admission_tracked_clients", "The client addresses whose rates are being tracked.",
+                    admission::addresses);
+        }
+    }
+
     public boolean isRunning() {
         return isRunning.get();
     }
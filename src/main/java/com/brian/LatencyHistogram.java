@@ -0,0 +1,117 @@
+package com.brian;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in microseconds, which can be recorded into concurrently without locks or
+ * allocation.
+ * <p>
+ * As in HdrHistogram, the buckets are log-linear: each power of 2 is split into {@value #SUB_BUCKETS}
+ * equal buckets, so every recorded value is within 25% of its bucket's bounds, from 1us up to about
+ * 12 days. Longer latencies are counted in the last bucket.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // The highest power of 2 with its own buckets.
+    private static final int MAX_POWER = 39;
+
+    static final int BUCKETS = (MAX_POWER - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @return The bucket a value is counted in.
+     */
+    static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(0, micros);
+        }
+
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        if (power > MAX_POWER) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (power - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (power - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return The smallest value that is above every value in the bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+
+        int power = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long width = 1L << (power - SUB_BITS);
+        return ((SUB_BUCKETS + sub) * width) + width;
+    }
+
+    public void record(long micros) {
+        counts.incrementAndGet(bucketFor(micros));
+        sum.add(Math.max(0, micros));
+    }
+
+    /**
+     * @return A copy of the count in each bucket. The buckets are not copied atomically, so the copy may
+     * miss values recorded while it is taken.
+     */
+    long[] snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    /**
+     * @return The total of the recorded values, in microseconds.
+     */
+    public long sum() {
+        return sum.sum();
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile A percentile in [0, 100].
+     *
+     * @return The upper bound of the bucket holding the percentile, in microseconds, or 0 if nothing has
+     * been recorded.
+     */
+    public long percentile(double percentile) {
+        long[] copy = snapshot();
+        long count = 0;
+        for (long c : copy) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < copy.length; ++i) {
+            seen += copy[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+}
@@ -0,0 +1,187 @@
+package com.brian;
+
+import com.brian.cache.CacheListener;
+import com.brian.cache.URLEntry;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The server's metrics, in the Prometheus text format: a latency histogram per endpoint, counters for
+ * the requests and the cache, and any counters or gauges read from other components (e.g. the code pool
+ * or the write-ahead log).
+ * <p>
+ * Recording a request only increments atomic counters, so it takes no locks and allocates nothing. The
+ * text is only built when the metrics are scraped.
+ * <p>
+ * The metrics must be added as a listener to the URL cache to count the evictions.
+ */
+public class Metrics implements CacheListener {
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "compacturl_";
+
+    // The latency buckets that are exported, every power of 2 from 1us to about a minute.
+    private static final int EXPORTED_POWERS = 27;
+
+    /**
+     * The endpoints whose latencies are recorded separately.
+     */
+    public enum Endpoint {
+        REDIRECT,
+        SHORTEN,
+        BATCH_SHORTEN,
+        BATCH_RESOLVE,
+        METRICS,
+        // Requests that are rejected, e.g. with a 405.
+        OTHER;
+
+        private final String label = name().toLowerCase();
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Endpoint.values().length];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder shortened = new LongAdder();
+    private final LongAdder invalidUrls = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    public Metrics() {
+        for (int i = 0; i < latencies.length; ++i) {
+            latencies[i] = new LatencyHistogram();
+        }
+
+        counter("lookup_hits_total", "The lookups that found a URL.", hits::sum);
+        counter("lookup_misses_total", "The lookups that did not find a URL.", misses::sum);
+        counter("shortened_total", "The URLs shortened, including the ones that were already shortened.",
+                shortened::sum);
+        counter("invalid_urls_total", "The URLs that could not be shortened as they are not valid.",
+                invalidUrls::sum);
+        counter("evictions_total", "The entries evicted from the cache as their TTL expired.", evictions::sum);
+    }
+
+    /**
+     * Adds a counter, a value that only goes up, read when the metrics are scraped.
+     *
+     * @param name The name of the counter, without the common prefix. It should end in _total.
+     */
+    public void counter(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(PREFIX + name, help, "counter", value::getAsLong));
+    }
+
+    /**
+     * Adds a gauge, a value that goes up and down, read when the metrics are scraped.
+     *
+     * @param name The name of the gauge, without the common prefix.
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        metrics.add(new Metric(PREFIX + name, help, "gauge", value::getAsLong));
+    }
+
+    /**
+     * Adds a gauge that is a fraction, e.g. a hit ratio, read when the metrics are scraped.
+     *
+     * @param name The name of the gauge, without the common prefix. It should end in _ratio.
+     */
+    public void ratio(String name, String help, DoubleSupplier value) {
+        metrics.add(new Metric(PREFIX + name, help, "gauge", value::getAsDouble));
+    }
+
+    public void recordLatency(Endpoint endpoint, long micros) {
+        latencies[endpoint.ordinal()].record(micros);
+    }
+
+    public LatencyHistogram latency(Endpoint endpoint) {
+        return latencies[endpoint.ordinal()];
+    }
+
+    public void hits(int count) {
+        hits.add(count);
+    }
+
+    public void misses(int count) {
+        misses.add(count);
+    }
+
+    public void shortened(int count) {
+        shortened.add(count);
+    }
+
+    public void invalidUrls(int count) {
+        invalidUrls.add(count);
+    }
+
+    @Override
+    public void entryAdded(URLEntry entry) {
+        // The new entries are counted by the requests that shortened them.
+    }
+
+    @Override
+    public void entryEvicted(URLEntry entry) {
+        evictions.increment();
+    }
+
+    /**
+     * @return The metrics in the Prometheus text format.
+     */
+    public String scrape() {
+        var out = new StringBuilder(8192);
+
+        var name = PREFIX + "request_duration_seconds";
+        out.append("# HELP ").append(name).append(" The time taken to handle a request, by endpoint.\n");
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (var endpoint : Endpoint.values()) {
+            var histogram = latencies[endpoint.ordinal()];
+            long[] counts = histogram.snapshot();
+
+            // The buckets are cumulative, and a power of 2 is always the upper bound of a bucket.
+            long cumulative = 0;
+            int bucket = 0;
+            for (int power = 0; power < EXPORTED_POWERS; ++power) {
+                long bound = 1L << power;
+                for (; LatencyHistogram.upperBound(bucket) <= bound; ++bucket) {
+                    cumulative += counts[bucket];
+                }
+                appendBucket(out, name, endpoint, seconds(bound), cumulative);
+            }
+            for (; bucket < counts.length; ++bucket) {
+                cumulative += counts[bucket];
+            }
+            appendBucket(out, name, endpoint, "+Inf", cumulative);
+
+            out.append(name).append("_sum{endpoint=\"").append(endpoint.label).append("\"} ")
+                    .append(seconds(histogram.sum())).append('\n');
+            out.append(name).append("_count{endpoint=\"").append(endpoint.label).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+
+        for (var metric : metrics) {
+            out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            out.append("# TYPE ").append(metric.name).append(' ').append(metric.type).append('\n');
+            out.append(metric.name).append(' ').append(metric.value.get()).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private static void appendBucket(StringBuilder out, String name, Endpoint endpoint, String le, long count) {
+        out.append(name).append("_bucket{endpoint=\"").append(endpoint.label).append("\",le=\"").append(le)
+                .append("\"} ").append(count).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+
+    private record Metric(String name, String help, String type, Supplier<Number> value) {
+    }
+}
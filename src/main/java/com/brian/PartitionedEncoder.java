@@ -0,0 +1,51 @@
+package com.brian;
+
+/**
+ * Keeps the codes from another encoder within the partitions this node owns in a cluster (see
+ * {@link HashRing}), by replacing the partition of each code with one of the node's own. The rest of the code
+ * is left as it was generated.
+ * <p>
+ * Codes that only differed in their partition can end up the same, so the codes are only unique if the node
+ * owns every partition.
+ */
+public class PartitionedEncoder implements URLEncoder {
+
+    private final URLEncoder source;
+
+    private final int[] partitions;
+
+    /**
+     * @param source The encoder generating the codes.
+     * @param partitions The partitions this node owns, in order.
+     */
+    public PartitionedEncoder(URLEncoder source, int[] partitions) {
+        if (partitions.length == 0) {
+            throw new IllegalArgumentException("The node owns no partitions");
+        }
+
+        this.source = source;
+        this.partitions = partitions.clone();
+    }
+
+    @Override
+    public String encode(String url) {
+        var code = source.encode(url);
+        if (code == null) {
+            return null;
+        }
+
+        long value = Base62Encoder.fromBase62(code);
+        if (value < 0) {
+            return code;
+        }
+
+        // A node owning every partition leaves the codes as they are.
+        int partition = HashRing.partitionOf(value);
+        return Base62Encoder.toBase62(value - partition + partitions[partition % partitions.length]);
+    }
+
+    @Override
+    public boolean isUnique() {
+        return source.isUnique() && partitions.length == HashRing.PARTITIONS;
+    }
+}
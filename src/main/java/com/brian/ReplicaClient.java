@@ -0,0 +1,361 @@
+package com.brian;
+
+import com.brian.cache.URLCache;
+import com.brian.cache.URLEntry;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Follows a primary's changes (see {@link ReplicationServer}) and applies them to a local cache, which a replica
+ * serves read-only.
+ * <p>
+ * The client connects to the primary, says which log it last followed and the offset it reached, and applies
+ * each batch of changes as it arrives: the new mappings are restored together with {@link URLCache#restoreAll},
+ * and the evictions are removed one at a time. If the connection drops, or the primary goes quiet for longer
+ * than the timeout, the client reconnects and carries on from its offset.
+ * <p>
+ * When the primary sends a copy of its cache instead, e.g. after the primary has restarted, the local cache is
+ * brought into line with the copy: anything the copy doesn't have, or maps differently, is removed. Lookups
+ * carry on from the local cache while the copy arrives.
+ * <p>
+ * The lag is measured in changes, from the head offset the primary sends with each batch and heartbeat, and in
+ * time, from when the primary made the last change applied. The time assumes the clocks are in step.
+ */
+public class ReplicaClient implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaClient.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    private static final long DEFAULT_RETRY_MILLIS = 1000;
+
+    // A few missed heartbeats.
+    private static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private final URLCache cache;
+
+    private final InetSocketAddress primary;
+
+    private final Bootstrap bootstrap;
+
+    private final long retryMillis;
+
+    // The log being followed, and the offset of the next change to apply. 0 is no log.
+    private volatile long epoch;
+    private volatile long next;
+
+    // The primary's head offset, as last heard.
+    private volatile long primaryHead;
+
+    // How long after the primary made it the last change was applied.
+    private volatile long lagMillis;
+
+    private volatile boolean connected;
+
+    private volatile boolean closed;
+
+    private volatile Channel channel;
+
+    private final LongAdder applied = new LongAdder();
+
+    private final LongAdder snapshots = new LongAdder();
+
+    /**
+     * @param group The event loops the connection is served by.
+     * @param channelClass The class of the connection, which must suit the event loops.
+     * @param primary The address of the primary's replication port.
+     * @param cache The local cache the changes are applied to.
+     */
+    public ReplicaClient(EventLoopGroup group, Class<? extends Channel> channelClass, InetSocketAddress primary,
+                         URLCache cache) {
+        this(group, channelClass, primary, cache, DEFAULT_RETRY_MILLIS, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    ReplicaClient(EventLoopGroup group, Class<? extends Channel> channelClass, InetSocketAddress primary,
+                  URLCache cache, long retryMillis, long timeoutMillis) {
+        this.cache = cache;
+        this.primary = primary;
+        this.retryMillis = retryMillis;
+
+        bootstrap = new Bootstrap()
+                .group(group)
+                .channel(channelClass)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .handler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new ReadTimeoutHandler(timeoutMillis, TimeUnit.MILLISECONDS));
+                        ReplicationProtocol.addFraming(ch.pipeline());
+                        ch.pipeline().addLast(new PrimaryConnection());
+                    }
+                });
+    }
+
+    /**
+     * Connects to the primary. The client keeps trying until it is closed.
+     */
+    public void start() {
+        connect();
+    }
+
+    private void connect() {
+        if (closed) {
+            return;
+        }
+
+        bootstrap.connect(primary).addListener((ChannelFuture future) -> {
+            if (future.isSuccess()) {
+                channel = future.channel();
+                if (closed) {
+                    channel.close();
+                }
+            } else {
+                logger.warn("Failed to connect to the primary {}: {}", primary, future.cause().toString());
+                reconnect(future.channel());
+            }
+        });
+    }
+
+    private void reconnect(Channel ch) {
+        if (!closed) {
+            ch.eventLoop().schedule(this::connect, retryMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Disconnects from the primary, and stops reconnecting.
+     */
+    @Override
+    public void close() {
+        logger.info("Closing the connection to the primary");
+
+        closed = true;
+        var ch = channel;
+        if (ch != null) {
+            ch.close().syncUninterruptibly();
+        }
+    }
+
+    /**
+     * @return Whether the client is connected to the primary.
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return The offset of the next change to apply.
+     */
+    public long offset() {
+        return next;
+    }
+
+    /**
+     * @return The number of changes the primary has made that have not been applied yet.
+     */
+    public long lagChanges() {
+        return Math.max(0, primaryHead - next);
+    }
+
+    /**
+     * @return How long after the primary made it the last change was applied, in milliseconds, or 0 once
+     * the replica has caught up.
+     */
+    public long lagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * @return The number of changes applied.
+     */
+    public long applied() {
+        return applied.sum();
+    }
+
+    /**
+     * @return The number of full copies of the primary's cache received.
+     */
+    public long snapshots() {
+        return snapshots.sum();
+    }
+
+    /**
+     * Applies the frames from the primary. All the state is only used on the connection's event loop.
+     */
+    private class PrimaryConnection extends SimpleChannelInboundHandler<ByteBuf> {
+
+        // While a copy is arriving: the log and offset it carries on from, and the local entries it hasn't had.
+        private long snapshotEpoch;
+        private long snapshotOffset;
+        private Map<String, String> staleUrls;
+        private Map<String, String> staleHashes;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            connected = true;
+            logger.info("Connected to the primary {}, asking for the changes from offset {}", primary, next);
+            ctx.writeAndFlush(ReplicationProtocol.hello(ctx.alloc(), epoch, next));
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            switch (type) {
+                case ReplicationProtocol.SNAPSHOT_START -> startSnapshot(frame.readLong(), frame.readLong());
+                case ReplicationProtocol.SNAPSHOT_ENTRIES -> applySnapshot(frame);
+                case ReplicationProtocol.SNAPSHOT_END -> endSnapshot();
+                case ReplicationProtocol.CHANGES -> applyChanges(ctx, frame);
+                case ReplicationProtocol.HEARTBEAT -> {
+                    primaryHead = frame.readLong();
+                    if (primaryHead == next) {
+                        lagMillis = 0;
+                    }
+                }
+                default -> {
+                    logger.warn("Closing the connection to the primary {} as it sent an unknown frame {}", primary,
+                            type);
+                    ctx.close();
+                }
+            }
+        }
+
+        private void startSnapshot(long epoch, long offset) {
+            logger.info("Receiving a copy of the primary's cache, to carry on from offset {}", offset);
+
+            snapshotEpoch = epoch;
+            snapshotOffset = offset;
+            staleUrls = new HashMap<>();
+            staleHashes = new HashMap<>();
+            for (var entry : cache.entries()) {
+                staleUrls.put(entry.hash(), entry.url());
+                staleHashes.put(entry.url(), entry.hash());
+            }
+        }
+
+        private void applySnapshot(ByteBuf frame) {
+            long now = System.currentTimeMillis();
+            int count = frame.readInt();
+            List<URLEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                var entry = ReplicationProtocol.readMapping(frame);
+
+                // An entry we already have is kept, and one that clashes with the copy is replaced.
+                var url = staleUrls.remove(entry.hash());
+                if (url != null) {
+                    staleHashes.remove(url);
+                    if (url.equals(entry.url())) {
+                        continue;
+                    }
+                    cache.remove(entry.hash());
+                }
+                var hash = staleHashes.remove(entry.url());
+                if (hash != null) {
+                    staleUrls.remove(hash);
+                    cache.remove(hash);
+                }
+
+                if (!entry.hasExpired(now)) {
+                    entries.add(entry);
+                }
+            }
+            cache.restoreAll(entries);
+        }
+
+        private void endSnapshot() {
+            staleUrls.keySet().forEach(cache::remove);
+            logger.info("Received a copy of the primary's cache, and removed {} entries it doesn't have",
+                    staleUrls.size());
+            staleUrls = null;
+            staleHashes = null;
+
+            epoch = snapshotEpoch;
+            next = snapshotOffset;
+            snapshots.increment();
+        }
+
+        private void applyChanges(ChannelHandlerContext ctx, ByteBuf frame) {
+            long head = frame.readLong();
+            long first = frame.readLong();
+            int count = frame.readInt();
+            if (first != next) {
+                logger.warn("Closing the connection to the primary {} as it sent offset {} rather than {}", primary,
+                        first, next);
+                ctx.close();
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            long lastChangeTime = now;
+            List<URLEntry> added = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                boolean isAdded = frame.readBoolean();
+                lastChangeTime = frame.readLong();
+                if (isAdded) {
+                    var entry = ReplicationProtocol.readMapping(frame);
+                    if (!entry.hasExpired(now)) {
+                        added.add(entry);
+                    }
+                } else {
+                    // The evictions are applied in order with the mappings around them.
+                    restore(added);
+                    cache.remove(ReplicationProtocol.readEviction(frame).hash());
+                }
+            }
+            restore(added);
+
+            next = first + count;
+            primaryHead = head;
+            lagMillis = next == head ? 0 : Math.max(0, now - lastChangeTime);
+            applied.add(count);
+        }
+
+        private void restore(List<URLEntry> added) {
+            if (!added.isEmpty()) {
+                cache.restoreAll(added);
+                added.clear();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            connected = false;
+            staleUrls = null;
+            staleHashes = null;
+            if (!closed) {
+                logger.warn("Lost the connection to the primary {} at offset {}, reconnecting", primary, next);
+            }
+            reconnect(ctx.channel());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (cause instanceof ReadTimeoutException) {
+                logger.warn("The primary {} has not been heard from within the timeout", primary);
+            } else {
+                logger.warn("Closing the connection to the primary {}: {}", primary, cause.toString());
+            }
+            ctx.close();
+        }
+    }
+}
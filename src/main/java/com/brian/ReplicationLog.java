@@ -0,0 +1,129 @@
+package com.brian;
+
+import com.brian.cache.CacheListener;
+import com.brian.cache.URLEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The recent changes made to a primary's cache, for streaming to its replicas (see {@link ReplicationServer}).
+ * <p>
+ * Every new mapping and every eviction is given the next offset and kept in a ring of a fixed size, so a
+ * replica that reconnects can carry on from the offset it had reached. Once a replica falls further behind than
+ * the ring holds, it has to be sent a full copy of the cache instead. The offsets start again when the server
+ * restarts, so each log has a random epoch which a replica checks before it carries on from its offset.
+ * <p>
+ * The subscribers are told when changes are appended, on the thread that made the change, so they should only
+ * schedule the work of sending them.
+ */
+public class ReplicationLog implements CacheListener {
+
+    /**
+     * A change to the cache.
+     *
+     * @param offset The position of the change in the log.
+     * @param added true for a new mapping, false for an eviction.
+     * @param entry The mapping. An eviction only needs the hash.
+     * @param time The epoch time in milliseconds when the change was made.
+     */
+    public record Change(long offset, boolean added, URLEntry entry, long time) {
+    }
+
+    private final long epoch = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+
+    private final Change[] changes;
+
+    private final List<Runnable> subscribers = new CopyOnWriteArrayList<>();
+
+    // The offset the next change is given. Guarded by this.
+    private long head;
+
+    /**
+     * @param capacity The most changes kept for the replicas to catch up from.
+     */
+    public ReplicationLog(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The replication log must hold at least 1 change: " + capacity);
+        }
+        this.changes = new Change[capacity];
+    }
+
+    @Override
+    public void entryAdded(URLEntry entry) {
+        append(true, entry);
+    }
+
+    @Override
+    public void entryEvicted(URLEntry entry) {
+        append(false, entry);
+    }
+
+    private void append(boolean added, URLEntry entry) {
+        synchronized (this) {
+            var change = new Change(head, added, entry, System.currentTimeMillis());
+            changes[(int) (head % changes.length)] = change;
+            ++head;
+        }
+
+        for (var subscriber : subscribers) {
+            subscriber.run();
+        }
+    }
+
+    /**
+     * Reads the changes from an offset onwards.
+     *
+     * @param from The offset of the first change to read.
+     * @param max The most changes to read.
+     *
+     * @return The changes in offset order, which is empty if there are none yet, or null if the change at the
+     * offset is no longer held.
+     */
+    public synchronized List<Change> read(long from, int max) {
+        if (from < head - changes.length || from > head) {
+            return null;
+        }
+
+        int count = (int) Math.min(max, head - from);
+        List<Change> read = new ArrayList<>(count);
+        for (long offset = from; offset < from + count; ++offset) {
+            read.add(changes[(int) (offset % changes.length)]);
+        }
+        return read;
+    }
+
+    /**
+     * @return The offset the next change will be given.
+     */
+    public synchronized long head() {
+        return head;
+    }
+
+    /**
+     * @return The random id of this log, which changes with every restart.
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * @return The most changes held.
+     */
+    public int capacity() {
+        return changes.length;
+    }
+
+    /**
+     * Registers a task to run whenever changes are appended.
+     */
+    public void subscribe(Runnable subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Runnable subscriber) {
+        subscribers.remove(subscriber);
+    }
+}
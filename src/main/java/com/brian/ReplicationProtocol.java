@@ -0,0 +1,134 @@
+package com.brian;
+
+import com.brian.cache.URLEntry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The frames sent between a primary and its replicas. Each frame is prefixed with its length and starts with
+ * its type:
+ * <ul>
+ *     <li>{@link #HELLO} (replica): the epoch of the log the replica last followed, and the offset it has reached.
+ *     <li>{@link #SNAPSHOT_START} (primary): the epoch and the offset the changes carry on from after the copy.
+ *     <li>{@link #SNAPSHOT_ENTRIES} (primary): a batch of the entries in the primary's cache.
+ *     <li>{@link #SNAPSHOT_END} (primary): the copy is complete.
+ *     <li>{@link #CHANGES} (primary): the primary's head offset, and a batch of changes starting at an offset.
+ *     <li>{@link #HEARTBEAT} (primary): the primary's head offset, sent once a second.
+ * </ul>
+ * A mapping is sent as its hash, time added, TTL and URL, and an eviction as just its hash.
+ */
+final class ReplicationProtocol {
+
+    static final byte HELLO = 1;
+    static final byte SNAPSHOT_START = 2;
+    static final byte SNAPSHOT_ENTRIES = 3;
+    static final byte SNAPSHOT_END = 4;
+    static final byte CHANGES = 5;
+    static final byte HEARTBEAT = 6;
+
+    private static final int LENGTH_FIELD_LEN = 4;
+
+    // Enough for a batch of the longest URLs the server accepts.
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private ReplicationProtocol() {
+    }
+
+    /**
+     * Adds the length framing to a replication connection.
+     */
+    static void addFraming(ChannelPipeline pipeline) {
+        pipeline.addLast(new LengthFieldBasedFrameDecoder(MAX_FRAME_SIZE, 0, LENGTH_FIELD_LEN, 0, LENGTH_FIELD_LEN),
+                new LengthFieldPrepender(LENGTH_FIELD_LEN));
+    }
+
+    static ByteBuf hello(ByteBufAllocator alloc, long epoch, long offset) {
+        return alloc.buffer(1 + 2 * Long.BYTES).writeByte(HELLO).writeLong(epoch).writeLong(offset);
+    }
+
+    static ByteBuf snapshotStart(ByteBufAllocator alloc, long epoch, long offset) {
+        return alloc.buffer(1 + 2 * Long.BYTES).writeByte(SNAPSHOT_START).writeLong(epoch).writeLong(offset);
+    }
+
+    static ByteBuf snapshotEntries(ByteBufAllocator alloc, List<URLEntry> entries) {
+        var buf = alloc.buffer().writeByte(SNAPSHOT_ENTRIES).writeInt(entries.size());
+        for (var entry : entries) {
+            writeMapping(buf, entry);
+        }
+        return buf;
+    }
+
+    static ByteBuf snapshotEnd(ByteBufAllocator alloc) {
+        return alloc.buffer(1).writeByte(SNAPSHOT_END);
+    }
+
+    static ByteBuf changes(ByteBufAllocator alloc, long head, List<ReplicationLog.Change> changes) {
+        var buf = alloc.buffer()
+                .writeByte(CHANGES)
+                .writeLong(head)
+                .writeLong(changes.get(0).offset())
+                .writeInt(changes.size());
+        for (var change : changes) {
+            buf.writeBoolean(change.added());
+            buf.writeLong(change.time());
+            if (change.added()) {
+                writeMapping(buf, change.entry());
+            } else {
+                writeString(buf, change.entry().hash(), true);
+            }
+        }
+        return buf;
+    }
+
+    static ByteBuf heartbeat(ByteBufAllocator alloc, long head) {
+        return alloc.buffer(1 + Long.BYTES).writeByte(HEARTBEAT).writeLong(head);
+    }
+
+    private static void writeMapping(ByteBuf buf, URLEntry entry) {
+        writeString(buf, entry.hash(), true);
+        buf.writeLong(entry.timeAdded());
+        buf.writeLong(entry.ttl());
+        writeString(buf, entry.url(), false);
+    }
+
+    /**
+     * Reads a mapping written by {@link #snapshotEntries} or {@link #changes}. The short URL is not sent.
+     */
+    static URLEntry readMapping(ByteBuf buf) {
+        var hash = readString(buf, true);
+        long timeAdded = buf.readLong();
+        long ttl = buf.readLong();
+        var url = readString(buf, false);
+        return new URLEntry(url, null, hash, timeAdded, ttl);
+    }
+
+    /**
+     * Reads an evicted hash written by {@link #changes}.
+     */
+    static URLEntry readEviction(ByteBuf buf) {
+        return new URLEntry(null, null, readString(buf, true), 0, 0);
+    }
+
+    // A hash is short, so its length fits in a short.
+    private static void writeString(ByteBuf buf, String value, boolean isShort) {
+        int len = ByteBufUtil.utf8Bytes(value);
+        if (isShort) {
+            buf.writeShort(len);
+        } else {
+            buf.writeInt(len);
+        }
+        buf.writeCharSequence(value, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuf buf, boolean isShort) {
+        int len = isShort ? buf.readUnsignedShort() : buf.readInt();
+        return buf.readCharSequence(len, StandardCharsets.UTF_8).toString();
+    }
+}
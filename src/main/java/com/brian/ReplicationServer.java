@@ -0,0 +1,308 @@
+package com.brian;
+
+import com.brian.cache.URLCache;
+import com.brian.cache.URLEntry;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Streams the changes in a {@link ReplicationLog} to the replicas that connect to it (see {@link ReplicaClient}),
+ * over persistent TCP connections using the {@link ReplicationProtocol}.
+ * <p>
+ * A replica says which log it last followed and how far it got. If the log is the same one and still holds that
+ * offset, the replica is sent the changes from there on. Otherwise it is first sent a copy of every entry in the
+ * cache, and then the changes from the offset the log had reached before the copy was taken. A change made while
+ * the copy was being taken may be sent twice, which the replica ignores. The copy is taken on a thread of its own
+ * rather than the connection's event loop, as it may take a while, and a {@link com.brian.cache.ShardedURLCache}
+ * can't be waited for from one of its event loops.
+ * <p>
+ * Each connection sends from its own event loop, as many changes at a time as have built up since it last sent,
+ * and stops while the connection is not writable so a slow replica can't fill the memory with queued changes. A
+ * replica that falls behind the log is sent a fresh copy. When it has caught up, it is sent a heartbeat with the
+ * head offset once a second so it can report its lag.
+ */
+public class ReplicationServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicationServer.class);
+
+    // The most changes or entries sent in one frame.
+    static final int MAX_BATCH = 1024;
+
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    private final ReplicationLog log;
+
+    private final URLCache cache;
+
+    private final Channel listener;
+
+    private final ChannelGroup replicas = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    private final LongAdder snapshots = new LongAdder();
+
+    // Takes the copies of the cache, one at a time.
+    private final ExecutorService copier = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "replication-copier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Starts listening for replicas.
+     *
+     * @param log The changes to stream, which must be a listener of the cache.
+     * @param cache The cache copied to a replica that can't carry on from its offset.
+     * @param bossGroup The event loop accepting the connections.
+     * @param workers The event loops serving the connections.
+     * @param channelClass The class of the listening channel, which must suit the event loops.
+     * @param port The port to listen on.
+     */
+    public ReplicationServer(ReplicationLog log, URLCache cache, EventLoopGroup bossGroup, EventLoopGroup workers,
+                             Class<? extends ServerChannel> channelClass, int port) throws InterruptedException {
+        this.log = log;
+        this.cache = cache;
+
+        listener = new ServerBootstrap()
+                .group(bossGroup, workers)
+                .channel(channelClass)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ReplicationProtocol.addFraming(ch.pipeline());
+                        ch.pipeline().addLast(new ReplicaConnection());
+                    }
+                })
+                .bind(port).sync().channel();
+
+        logger.info("Streaming the changes to replicas on port {}", port);
+    }
+
+    /**
+     * @return The port the server is listening on.
+     */
+    public int port() {
+        return ((InetSocketAddress) listener.localAddress()).getPort();
+    }
+
+    /**
+     * @return The offset the next change will be given.
+     */
+    public long offset() {
+        return log.head();
+    }
+
+    /**
+     * @return The number of replicas connected.
+     */
+    public int replicas() {
+        return replicas.size();
+    }
+
+    /**
+     * @return The number of full copies of the cache sent to replicas.
+     */
+    public long snapshots() {
+        return snapshots.sum();
+    }
+
+    /**
+     * Stops listening, and disconnects the replicas.
+     */
+    @Override
+    public void close() {
+        logger.info("Closing the replication server");
+
+        listener.close().syncUninterruptibly();
+        replicas.close().syncUninterruptibly();
+        copier.shutdownNow();
+    }
+
+    /**
+     * Sends the changes to one replica. All the state is only used on the connection's event loop.
+     */
+    private class ReplicaConnection extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private ChannelHandlerContext ctx;
+
+        // The offset of the next change to send, or -1 until the replica has said where it is.
+        private long next = -1;
+
+        // Whether the copy of the cache is being taken.
+        private boolean copying;
+
+        // The entries still to be copied, and how far through them we are.
+        private List<URLEntry> snapshot;
+        private int snapshotIndex;
+
+        // Set while a send is scheduled, so a burst of changes schedules one send.
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final Runnable wake = this::wake;
+
+        private ScheduledFuture<?> heartbeat;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+            replicas.add(ctx.channel());
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            if (type != ReplicationProtocol.HELLO || next >= 0) {
+                logger.warn("Closing the connection from replica {} as it sent an unexpected frame {}",
+                        ctx.channel().remoteAddress(), type);
+                ctx.close();
+                return;
+            }
+
+            long epoch = frame.readLong();
+            long offset = frame.readLong();
+            if (epoch == log.epoch() && log.read(offset, 0) != null) {
+                logger.info("Replica {} is carrying on from offset {}", ctx.channel().remoteAddress(), offset);
+                next = offset;
+            } else {
+                startSnapshot();
+            }
+
+            log.subscribe(wake);
+            heartbeat = ctx.executor().scheduleAtFixedRate(this::sendHeartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            send();
+        }
+
+        private void startSnapshot() {
+            // Any change made from here on is sent after the copy, so nothing is missed.
+            next = log.head();
+            copying = true;
+            snapshots.increment();
+            ctx.write(ReplicationProtocol.snapshotStart(ctx.alloc(), log.epoch(), next));
+
+            CompletableFuture.supplyAsync(cache::entries, copier).whenComplete((entries, error) ->
+                    ctx.executor().execute(() -> copied(entries, error)));
+        }
+
+        private void copied(List<URLEntry> entries, Throwable error) {
+            copying = false;
+            if (error != null) {
+                logger.warn("Closing the connection from replica {} as the cache could not be copied: {}",
+                        ctx.channel().remoteAddress(), error.toString());
+                ctx.close();
+                return;
+            }
+
+            logger.info("Copying {} entries to replica {}, then carrying on from offset {}", entries.size(),
+                    ctx.channel().remoteAddress(), next);
+            snapshot = entries;
+            snapshotIndex = 0;
+            send();
+        }
+
+        // Called on the thread that changed the cache.
+        private void wake() {
+            if (scheduled.compareAndSet(false, true)) {
+                ctx.executor().execute(this::send);
+            }
+        }
+
+        /**
+         * Sends whatever the replica hasn't had yet, until it is up to date or the connection can't take any more.
+         */
+        private void send() {
+            scheduled.set(false);
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+            if (copying) {
+                // Whatever was written is sent, and the rest once the copy has been taken.
+                ctx.flush();
+                return;
+            }
+
+            while (ctx.channel().isWritable()) {
+                if (snapshot != null) {
+                    int end = Math.min(snapshotIndex + MAX_BATCH, snapshot.size());
+                    ctx.write(ReplicationProtocol.snapshotEntries(ctx.alloc(), snapshot.subList(snapshotIndex, end)));
+                    snapshotIndex = end;
+                    if (snapshotIndex == snapshot.size()) {
+                        ctx.write(ReplicationProtocol.snapshotEnd(ctx.alloc()));
+                        snapshot = null;
+                    }
+                    continue;
+                }
+
+                var changes = log.read(next, MAX_BATCH);
+                if (changes == null) {
+                    logger.warn("Replica {} has fallen behind the replication log", ctx.channel().remoteAddress());
+                    startSnapshot();
+                    break;
+                }
+                if (changes.isEmpty()) {
+                    break;
+                }
+
+                next += changes.size();
+                ctx.write(ReplicationProtocol.changes(ctx.alloc(), log.head(), changes));
+            }
+
+            ctx.flush();
+        }
+
+        private void sendHeartbeat() {
+            if (!copying && snapshot == null && next == log.head()) {
+                ctx.writeAndFlush(ReplicationProtocol.heartbeat(ctx.alloc(), next));
+            }
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (ctx.channel().isWritable() && next >= 0) {
+                send();
+            }
+            ctx.fireChannelWritabilityChanged();
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            log.unsubscribe(wake);
+            if (heartbeat != null) {
+                heartbeat.cancel(false);
+            }
+            snapshot = null;
+            logger.info("Replica {} disconnected", ctx.channel().remoteAddress());
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("Closing the connection from replica {}: {}", ctx.channel().remoteAddress(), cause.toString());
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.brian;
+
+import com.brian.cache.CacheListener;
+import com.brian.cache.URLEntry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.IllegalReferenceCountException;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps responses fully encoded, status line and headers included, so they can be sent with a single
+ * write and without building or encoding anything per request. The redirects are kept per request path,
+ * and the 404, 405, 400 (missing body) and 413 responses are the same for every request.
+ * <p>
+ * Each response is held in one direct, read-only buffer that is shared by all the event loops. A request
+ * is sent a retained slice of the buffer, with the Connection header it needs in between the headers and
+ * the body, so nothing is copied either.
+ * <p>
+ * The cache must be added as a listener to the URL cache, so a redirect is dropped when its entry is
+ * evicted. A redirect is also dropped once it is {@link #DEFAULT_MAX_AGE_MILLIS} old, which bounds how
+ * long one can outlive its entry when there is no eviction to tell us, e.g. for an entry that is only in a
+ * snapshot. Once the cache is full, redirects are only added as older ones expire.
+ * <p>
+ * Closing the cache releases its buffers, once the server has stopped answering requests with them.
+ */
+public final class ResponseCache implements CacheListener, Closeable {
+
+    static final int DEFAULT_MAX_ENTRIES = 65536;
+
+    static final long DEFAULT_MAX_AGE_MILLIS = 10_000;
+
+    static final String REDIRECT_TEMPLATE = """
+            <!DOCTYPE HTML>
+            <html lang="en-US">
+                <head>
+                    <meta charset="UTF-8">
+                    <meta http-equiv="refresh" content="0; url=%s">
+                    <title>Page Redirection</title>
+                </head>
+            </html>
+            """;
+
+    /**
+     * The Connection header a response is sent with.
+     */
+    enum ConnectionHeader {
+        // A persistent HTTP/1.1 connection, which is the default.
+        NONE(""),
+        // A persistent HTTP/1.0 connection, which the client must be told about.
+        KEEP_ALIVE(HttpHeaderNames.CONNECTION + ": keep-alive\r\n"),
+        CLOSE(HttpHeaderNames.CONNECTION + ": close\r\n");
+
+        // The header and the blank line that ends the headers.
+        private final ByteBuf endOfHeaders;
+
+        ConnectionHeader(String header) {
+            endOfHeaders = constant(header + "\r\n");
+        }
+    }
+
+    private final Map<String, Response> redirects = new ConcurrentHashMap<>();
+
+    private final Response notFound = new Response(HttpResponseStatus.NOT_FOUND, "text/html; charset=UTF-8", null,
+            HttpResponseStatus.NOT_FOUND.reasonPhrase());
+
+    private final Response methodNotAllowed = new Response(HttpResponseStatus.METHOD_NOT_ALLOWED,
+            "text/plain; charset=UTF-8", null, HttpResponseStatus.METHOD_NOT_ALLOWED.reasonPhrase());
+
+    private final Response bodyMissing = new Response(HttpResponseStatus.BAD_REQUEST, "text/plain; charset=UTF-8",
+            null, HttpResponseStatus.BAD_REQUEST.reasonPhrase() + " : The post body is missing.");
+
+    private final Response bodyTooLarge = new Response(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE,
+            "text/plain; charset=UTF-8", null,
+            HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE.reasonPhrase() + " : The post body is too large.");
+
+    private final int maxEntries;
+
+    private final long maxAgeMillis;
+
+    public ResponseCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    ResponseCache(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    private static ByteBuf constant(String s) {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        return Unpooled.unreleasableBuffer(Unpooled.directBuffer(bytes.length).writeBytes(bytes).asReadOnly());
+    }
+
+    /**
+     * @return The redirect for the request path, which the caller must release, or null if it isn't
+     * cached.
+     */
+    ByteBuf redirect(String path, ConnectionHeader connection) {
+        var response = redirects.get(path);
+        if (response == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - response.createdAt > maxAgeMillis) {
+            remove(path, response);
+            return null;
+        }
+
+        try {
+            return response.encode(connection);
+        } catch (IllegalReferenceCountException e) {
+            // The redirect was invalidated and released since we got it.
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a redirect, and caches it if the path is one that can be invalidated (i.e. "/" and the hash).
+     *
+     * @return The redirect, which the caller must release.
+     */
+    ByteBuf cacheRedirect(String path, String url, ConnectionHeader connection) {
+        var response = new Response(HttpResponseStatus.MOVED_PERMANENTLY, "text/html; charset=UTF-8", url,
+                String.format(REDIRECT_TEMPLATE, url));
+        var encoded = response.encode(connection);
+
+        if (!isHashPath(path) || !hasRoom()) {
+            response.data.release();
+            return encoded;
+        }
+
+        var previous = redirects.put(path, response);
+        if (previous != null) {
+            previous.data.release();
+        }
+        return encoded;
+    }
+
+    /**
+     * @return Whether the path is "/" and a hash, with nothing else that an eviction would not invalidate.
+     */
+    private static boolean isHashPath(String path) {
+        return path.length() > 1 && path.charAt(0) == '/' && path.indexOf('/', 1) < 0 && path.indexOf('?') < 0
+                && path.indexOf('#') < 0;
+    }
+
+    private boolean hasRoom() {
+        if (redirects.size() < maxEntries) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        redirects.forEach((path, response) -> {
+            if (now - response.createdAt > maxAgeMillis) {
+                remove(path, response);
+            }
+        });
+        return redirects.size() < maxEntries;
+    }
+
+    /**
+     * @return The 404 response, which the caller must release.
+     */
+    ByteBuf notFound(ConnectionHeader connection) {
+        return notFound.encode(connection);
+    }
+
+    /**
+     * @return The 405 response, which the caller must release.
+     */
+    ByteBuf methodNotAllowed(ConnectionHeader connection) {
+        return methodNotAllowed.encode(connection);
+    }
+
+    /**
+     * @return The 400 response for a POST without a body, which the caller must release.
+     */
+    ByteBuf bodyMissing(ConnectionHeader connection) {
+        return bodyMissing.encode(connection);
+    }
+
+    /**
+     * @return The 413 response for a POST body over the limit, which the caller must release.
+     */
+    ByteBuf bodyTooLarge(ConnectionHeader connection) {
+        return bodyTooLarge.encode(connection);
+    }
+
+    /**
+     * Drops the redirect for a request path, if it is cached.
+     */
+    void invalidate(String path) {
+        var response = redirects.remove(path);
+        if (response != null) {
+            response.data.release();
+        }
+    }
+
+    private void remove(String path, Response response) {
+        if (redirects.remove(path, response)) {
+            response.data.release();
+        }
+    }
+
+    /**
+     * Releases the fixed responses and the cached redirects. The responses already handed out stay valid
+     * until they are released.
+     */
+    @Override
+    public void close() {
+        redirects.forEach(this::remove);
+        notFound.data.release();
+        methodNotAllowed.data.release();
+        bodyMissing.data.release();
+        bodyTooLarge.data.release();
+    }
+
+    /**
+     * @return The number of redirects that are cached.
+     */
+    int size() {
+        return redirects.size();
+    }
+
+    @Override
+    public void entryAdded(URLEntry entry) {
+        // Only redirects for existing entries are cached, so there is nothing to invalidate.
+    }
+
+    @Override
+    public void entryEvicted(URLEntry entry) {
+        invalidate("/" + entry.hash());
+    }
+
+    /**
+     * An encoded response: the status line and headers, apart from the Connection header, followed by the
+     * body.
+     */
+    private static final class Response {
+
+        private final ByteBuf data;
+
+        // The length of the status line and headers.
+        private final int headLength;
+
+        private final long createdAt = System.currentTimeMillis();
+
+        Response(HttpResponseStatus status, String contentType, String location, String body) {
+            var bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+
+            var head = new StringBuilder()
+                    .append(HttpVersion.HTTP_1_1).append(' ').append(status).append("\r\n")
+                    .append(HttpHeaderNames.CONTENT_TYPE).append(": ").append(contentType).append("\r\n")
+                    .append(HttpHeaderNames.CONTENT_LENGTH).append(": ").append(bodyBytes.length).append("\r\n");
+            if (location != null) {
+                head.append(HttpHeaderNames.LOCATION).append(": ").append(location).append("\r\n");
+            }
+            var headBytes = head.toString().getBytes(StandardCharsets.UTF_8);
+
+            headLength = headBytes.length;
+            data = Unpooled.directBuffer(headBytes.length + bodyBytes.length)
+                    .writeBytes(headBytes)
+                    .writeBytes(bodyBytes)
+                    .asReadOnly();
+        }
+
+        /**
+         * @throws IllegalReferenceCountException if the response has been released.
+         */
+        ByteBuf encode(ConnectionHeader connection) {
+            // Only the first retain can fail, as it holds the buffer for the second.
+            var head = data.retainedSlice(0, headLength);
+            var body = data.retainedSlice(headLength, data.readableBytes() - headLength);
+            return Unpooled.wrappedBuffer(head, connection.endOfHeaders.duplicate(), body);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.brian;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+
+/**
+ * The default netty HTTP response encoder, which also lets responses that are already encoded (see
+ * {@link ResponseCache}) through to the socket untouched.
+ * <p>
+ * An encoded response must be a whole response, so it can only be written between other responses and
+ * never after the start of a chunked one.
+ */
+public class ResponseEncoder extends HttpResponseEncoder {
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof EncodedResponse encoded) {
+            ctx.write(encoded.content(), promise);
+        } else {
+            super.write(ctx, msg, promise);
+        }
+    }
+
+    /**
+     * A whole response, status line and headers included, as it is sent over the wire.
+     */
+    public static final class EncodedResponse extends DefaultByteBufHolder {
+
+        public EncodedResponse(ByteBuf data) {
+            super(data);
+        }
+    }
+}
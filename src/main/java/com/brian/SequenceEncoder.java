@@ -0,0 +1,182 @@
+package com.brian;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An encoder that hands out every 6-character code exactly once, so the cache never has to check for
+ * or retry a collision.
+ * <p>
+ * Codes are drawn from a monotonic counter over the 62^6 code space. Each thread claims a block of
+ * counter values at a time, so threads only touch the shared counter once per block. The counter value
+ * is scrambled with a keyed Feistel network before it is Base62 encoded. The network is a bijection, so
+ * distinct counter values always give distinct codes, while consecutive codes look unrelated and can't
+ * be guessed without the key.
+ * <p>
+ * The encoder for one shard of a sharded cache (see {@link #forShard(int, int)}) does the same over just the
+ * codes of the shard, with a counter of its own.
+ */
+public class SequenceEncoder implements URLEncoder {
+
+    // The size of the code space: 62^6 = 56,800,235,584 codes.
+    static final long CODE_SPACE = 56_800_235_584L;
+
+    // The number of counter values a thread claims at a time.
+    private static final int BLOCK_SIZE = 1024;
+
+    // The number of codes with each first character: 62^5.
+    private static final long FIRST_DIGIT = CODE_SPACE / 62;
+
+    private static final int ROUNDS = 4;
+
+    // The number of counter values, which are mapped to the codes of the shard.
+    private final long space;
+
+    // The Feistel network permutes values of twice this many bits, the fewest that cover the space (36 bits
+    // for the whole code space, as 2^36 is the smallest power of 2 above 62^6).
+    private final int halfBits;
+    private final long halfMask;
+
+    // The codes handed out are those whose first character is the shard, modulo the number of shards.
+    private final int shard;
+    private final int shards;
+
+    private final AtomicLong counter;
+
+    private final long[] roundKeys;
+
+    private final ThreadLocal<long[]> blocks = ThreadLocal.withInitial(() -> new long[] {0, 0});
+
+    /**
+     * Creates an encoder with a random key, starting at the beginning of the code space.
+     */
+    public SequenceEncoder() {
+        this(new SecureRandom().nextLong(), 0);
+    }
+
+    /**
+     * @param key The secret key for the scrambling. The same key and counter value always give the same code.
+     * @param start The first counter value to hand out. A restarted server must resume from beyond the last
+     *              value it handed out, with the same key, to avoid reissuing codes.
+     */
+    public SequenceEncoder(long key, long start) {
+        if (start < 0 || start >= CODE_SPACE) {
+            throw new IllegalArgumentException("The start of the sequence is outside the code space: " + start);
+        }
+
+        // Derive the round keys from the key with SplitMix64.
+        roundKeys = new long[ROUNDS];
+        long state = key;
+        for (int i = 0; i < ROUNDS; ++i) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(state);
+        }
+
+        this.space = CODE_SPACE;
+        this.halfBits = halfBitsFor(space);
+        this.halfMask = (1L << halfBits) - 1;
+        this.shard = 0;
+        this.shards = 1;
+        this.counter = new AtomicLong(start);
+    }
+
+    private SequenceEncoder(long[] roundKeys, int shard, int shards) {
+        this.roundKeys = roundKeys;
+        // The first characters of the shard's codes are shard, shard + shards, shard + 2 * shards...
+        this.space = (62 - shard + shards - 1) / shards * FIRST_DIGIT;
+        this.halfBits = halfBitsFor(space);
+        this.halfMask = (1L << halfBits) - 1;
+        this.shard = shard;
+        this.shards = shards;
+        this.counter = new AtomicLong();
+    }
+
+    private static int halfBitsFor(long space) {
+        int bits = 64 - Long.numberOfLeadingZeros(space - 1);
+        return (bits + 1) / 2;
+    }
+
+    /**
+     * Returns an encoder that hands out each of the codes of one shard exactly once, with the same key and a
+     * counter of its own, so the shard is never handed a code it has to throw away. The encoders of the
+     * different shards never hand out the same code, but they can repeat the codes handed out by this one.
+     */
+    @Override
+    public URLEncoder forShard(int shard, int shards) {
+        if (shards < 1 || shards > 62 || shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Not a shard of a cache with " + shards + " shards: " + shard);
+        }
+        return shards == 1 ? this : new SequenceEncoder(roundKeys, shard, shards);
+    }
+
+    /**
+     * Returns the next code in the sequence.
+     *
+     * @param notUsed The URL to be encoded.
+     *
+     * @return A unique 6-character string.
+     */
+    @Override
+    public String encode(String notUsed) {
+        long value = scramble(next());
+        if (shards > 1) {
+            // Spread the values over the first characters of the shard.
+            value = (shard + value / FIRST_DIGIT * shards) * FIRST_DIGIT + value % FIRST_DIGIT;
+        }
+        return Base62Encoder.toBase62(value);
+    }
+
+    @Override
+    public boolean isUnique() {
+        return true;
+    }
+
+    private long next() {
+        long[] block = blocks.get();
+        if (block[0] == block[1]) {
+            long start = counter.getAndAdd(BLOCK_SIZE);
+            if (start >= space) {
+                throw new IllegalStateException("The code space has been exhausted");
+            }
+            block[0] = start;
+            block[1] = Math.min(start + BLOCK_SIZE, space);
+        }
+
+        return block[0]++;
+    }
+
+    /**
+     * Maps a counter value to a code value. Both are in [0, space), and distinct counter values always give
+     * distinct code values.
+     */
+    long scramble(long value) {
+        // The Feistel network permutes [0, 2^(2 * halfBits)). Cycle walking re-applies it until we land back
+        // inside the space, which keeps it a permutation of [0, space). This takes 1.2 rounds on average for
+        // the whole code space, and fewer than 4 for a shard's.
+        do {
+            value = feistel(value);
+        } while (value >= space);
+
+        return value;
+    }
+
+    private long feistel(long value) {
+        long left = value >>> halfBits;
+        long right = value & halfMask;
+
+        for (int i = 0; i < ROUNDS; ++i) {
+            long next = left ^ (mix(right ^ roundKeys[i]) & halfMask);
+            left = right;
+            right = next;
+        }
+
+        return (left << halfBits) | right;
+    }
+
+    // The SplitMix64 finalizer.
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,5 +1,7 @@
 package com.brian;
 
+import com.brian.cache.CacheType;
+import com.brian.cache.EvictionPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,6 +12,22 @@ import java.util.Properties;
  * Load the server.properties file and extracts the following properties:
  * - port number
  * - domain name
+ * - cache TTL, and whether it slides with each use (optional, fixed by default)
+ * - cache type (optional, defaults to the in-memory cache)
+ * - the size of the near cache held by each event loop (optional)
+ * - the entry and memory limits of the in-memory cache, and its eviction policy (optional, unbounded by default)
+ * - encoder type and code pool sizing (optional, defaults to random codes with no pool)
+ * - HTTP keep-alive and the idle connection timeout (optional)
+ * - the transport and the event loop sizing (optional)
+ * - the write-ahead log used to persist the cache (optional, disabled by default)
+ * - the snapshot used to warm start the cache (optional, disabled by default)
+ * - the access log buffer and the sampling of the detailed request logging (optional)
+ * - the cluster membership file, this node's id and the connections to each other node (optional, a single
+ *   node by default)
+ * - the port the changes are streamed to replicas on and the changes kept for them to catch up from, or the
+ *   primary a replica follows (optional, neither by default)
+ * - the rate each client address may shorten at, and the connection and event loop queue limits past which
+ *   requests are shed (optional, unlimited by default)
  */
 public class ServerProperties {
     private static final String PROPERTIES_FILE = "server.properties";
@@ -19,6 +37,42 @@ public class ServerProperties {
     private final int port;
     private final String domain;
     private final int cacheTTL;
+    private final boolean slidingTtl;
+    private final CacheType cacheType;
+    private final int nearCacheSize;
+    private final int cacheMaxEntries;
+    private final int cacheMaxMB;
+    private final EvictionPolicy evictionPolicy;
+    private final EncoderType encoderType;
+    private final int codePoolSize;
+    private final int codePoolLowWatermark;
+    private final boolean keepAlive;
+    private final int idleTimeout;
+    private final int maxBodySize;
+    private final boolean h2c;
+    private final Transport transport;
+    private final int acceptors;
+    private final int bossThreads;
+    private final int workerThreads;
+    private final String persistenceDir;
+    private final boolean persistenceSync;
+    private final int persistenceSegmentMB;
+    private final String snapshotFile;
+    private final int snapshotPeriod;
+    private final int accessLogBuffer;
+    private final int logSampleRate;
+    private final String clusterMembers;
+    private final String clusterNode;
+    private final int clusterConnections;
+    private final int replicationPort;
+    private final int replicationLogSize;
+    private final String replicationPrimaryHost;
+    private final int replicationPrimaryPort;
+    private final int rateLimit;
+    private final int rateLimitBurst;
+    private final int rateLimitMaxAddresses;
+    private final int maxConnections;
+    private final int maxPendingTasks;
 
     public ServerProperties() throws IOException, InvalidServerPropertiesException {
         this(PROPERTIES_FILE);
@@ -65,6 +119,262 @@ public class ServerProperties {
                 throw new InvalidServerPropertiesException("The cache TTL defined in the properties file "
                         + propertyFile + " is not a valid integer [" + portStr + "]");
             }
+
+            cacheType = optionalEnum(serverProps, "cache.type", CacheType.class, CacheType.MEMORY, propertyFile);
+
+            slidingTtl = optionalBoolean(serverProps, "cache.ttl.sliding", false, propertyFile);
+            if (slidingTtl && (cacheType == CacheType.OFF_HEAP || cacheType == CacheType.SHARDED)) {
+                throw new InvalidServerPropertiesException("The sliding TTL defined in the properties file "
+                        + propertyFile + " is not supported by the " + cacheType.name().toLowerCase()
+                        + " cache type");
+            }
+            // A size of 0 disables the near cache.
+            nearCacheSize = optionalInt(serverProps, "cache.near.size", 1024, propertyFile);
+            if (nearCacheSize < 0 || nearCacheSize == 1) {
+                throw new InvalidServerPropertiesException("The near cache size defined in the properties file "
+                        + propertyFile + " must be 0 or at least 2 [" + nearCacheSize + "]");
+            }
+
+            // Limits of 0 leave the cache bounded only by the TTL.
+            cacheMaxEntries = optionalInt(serverProps, "cache.max.entries", 0, propertyFile);
+            cacheMaxMB = optionalInt(serverProps, "cache.max.mb", 0, propertyFile);
+            if (cacheMaxEntries < 0 || cacheMaxMB < 0) {
+                throw new InvalidServerPropertiesException("The cache limits defined in the properties file "
+                        + propertyFile + " cannot be negative [" + cacheMaxEntries + ", " + cacheMaxMB + "MB]");
+            }
+            if ((cacheMaxEntries > 0 || cacheMaxMB > 0) && cacheType != CacheType.MEMORY) {
+                throw new InvalidServerPropertiesException("The cache limits defined in the properties file "
+                        + propertyFile + " require the memory cache type");
+            }
+            evictionPolicy = optionalEnum(serverProps, "cache.eviction", EvictionPolicy.class, EvictionPolicy.LRU,
+                    propertyFile);
+
+            encoderType = optionalEnum(serverProps, "encoder", EncoderType.class, EncoderType.RANDOM, propertyFile);
+
+            // A pool size of 0 generates the codes on the request path.
+            codePoolSize = optionalInt(serverProps, "encoder.pool.size", 0, propertyFile);
+            if (codePoolSize < 0) {
+                throw new InvalidServerPropertiesException("The code pool size defined in the properties file "
+                        + propertyFile + " cannot be negative [" + codePoolSize + "]");
+            }
+
+            codePoolLowWatermark = optionalInt(serverProps, "encoder.pool.low.watermark",
+                    Math.max(1, codePoolSize / 4), propertyFile);
+            if (codePoolSize > 0 && (codePoolLowWatermark < 1 || codePoolLowWatermark > codePoolSize)) {
+                throw new InvalidServerPropertiesException("The code pool low watermark defined in the properties "
+                        + "file " + propertyFile + " must be between 1 and the pool size [" + codePoolLowWatermark + "]");
+            }
+
+            keepAlive = optionalBoolean(serverProps, "http.keepalive", false, propertyFile);
+            idleTimeout = optionalInt(serverProps, "http.idle.timeout", 1, propertyFile);
+            if (idleTimeout < 1) {
+                throw new InvalidServerPropertiesException("The idle timeout defined in the properties file "
+                        + propertyFile + " must be at least 1 second [" + idleTimeout + "]");
+            }
+            h2c = optionalBoolean(serverProps, "http.h2c", true, propertyFile);
+            maxBodySize = optionalInt(serverProps, "http.max.body", 1024 * 1024, propertyFile);
+            if (maxBodySize < 1) {
+                throw new InvalidServerPropertiesException("The maximum body size defined in the properties file "
+                        + propertyFile + " must be at least 1 byte [" + maxBodySize + "]");
+            }
+
+            transport = optionalEnum(serverProps, "transport", Transport.class, Transport.NIO, propertyFile);
+
+            acceptors = optionalInt(serverProps, "acceptors", 1, propertyFile);
+            if (acceptors < 1) {
+                throw new InvalidServerPropertiesException("The number of acceptors defined in the properties file "
+                        + propertyFile + " must be at least 1 [" + acceptors + "]");
+            }
+            if (acceptors > 1 && transport != Transport.EPOLL) {
+                throw new InvalidServerPropertiesException("Multiple acceptors defined in the properties file "
+                        + propertyFile + " require the epoll transport");
+            }
+
+            // Each acceptor needs its own boss thread, and there is no use for any more than that.
+            bossThreads = optionalInt(serverProps, "boss.threads", acceptors, propertyFile);
+            if (bossThreads < acceptors) {
+                throw new InvalidServerPropertiesException("The number of boss threads defined in the properties file "
+                        + propertyFile + " must be at least the number of acceptors [" + bossThreads + "]");
+            }
+
+            // Zero lets Netty pick the number of worker threads (twice the number of cores).
+            workerThreads = optionalInt(serverProps, "worker.threads", 0, propertyFile);
+            if (workerThreads < 0) {
+                throw new InvalidServerPropertiesException("The number of worker threads defined in the properties "
+                        + "file " + propertyFile + " cannot be negative [" + workerThreads + "]");
+            }
+
+            // Persistence is disabled unless a directory is given.
+            var dir = serverProps.getProperty("cache.persistence.dir");
+            persistenceDir = dir == null || dir.isBlank() ? null : dir.trim();
+            persistenceSync = optionalBoolean(serverProps, "cache.persistence.sync", true, propertyFile);
+            persistenceSegmentMB = optionalInt(serverProps, "cache.persistence.segment.mb", 64, propertyFile);
+            if (persistenceSegmentMB < 1) {
+                throw new InvalidServerPropertiesException("The segment size defined in the properties file "
+                        + propertyFile + " must be at least 1MB [" + persistenceSegmentMB + "]");
+            }
+
+            // Snapshots are disabled unless a file is given.
+            var file = serverProps.getProperty("cache.snapshot.file");
+            snapshotFile = file == null || file.isBlank() ? null : file.trim();
+            snapshotPeriod = optionalInt(serverProps, "cache.snapshot.period", 300, propertyFile);
+            if (snapshotPeriod < 0) {
+                throw new InvalidServerPropertiesException("The snapshot period defined in the properties file "
+                        + propertyFile + " cannot be negative [" + snapshotPeriod + "]");
+            }
+
+            // The lookups that keep an entry alive are not logged, so it would be lost on a restart.
+            if (slidingTtl && (persistenceDir != null || snapshotFile != null)) {
+                throw new InvalidServerPropertiesException("The sliding TTL defined in the properties file "
+                        + propertyFile + " is not supported with persistence or snapshots");
+            }
+
+            // A buffer of 0 disables the access log.
+            accessLogBuffer = optionalInt(serverProps, "log.access.buffer", 65536, propertyFile);
+            if (accessLogBuffer < 0) {
+                throw new InvalidServerPropertiesException("The access log buffer defined in the properties file "
+                        + propertyFile + " cannot be negative [" + accessLogBuffer + "]");
+            }
+
+            // A rate of 0 turns the detailed request logging off, and 1 logs every request in detail.
+            logSampleRate = optionalInt(serverProps, "log.sample.rate", 100, propertyFile);
+            if (logSampleRate < 0) {
+                throw new InvalidServerPropertiesException("The log sample rate defined in the properties file "
+                        + propertyFile + " cannot be negative [" + logSampleRate + "]");
+            }
+
+            // The server runs on its own unless a membership file is given, and then it must know which node it is.
+            var members = serverProps.getProperty("cluster.members");
+            clusterMembers = members == null || members.isBlank() ? null : members.trim();
+            var node = serverProps.getProperty("cluster.node");
+            clusterNode = node == null || node.isBlank() ? null : node.trim();
+            if (clusterMembers != null && clusterNode == null) {
+                throw new InvalidServerPropertiesException("The cluster node is not defined in the properties file "
+                        + propertyFile + " for the cluster members " + clusterMembers);
+            }
+            clusterConnections = optionalInt(serverProps, "cluster.connections", 8, propertyFile);
+            if (clusterConnections < 1) {
+                throw new InvalidServerPropertiesException("The cluster connections defined in the properties file "
+                        + propertyFile + " must be at least 1 [" + clusterConnections + "]");
+            }
+
+            // A port of 0 doesn't stream the changes to any replicas.
+            replicationPort = optionalInt(serverProps, "replication.port", 0, propertyFile);
+            if (replicationPort < 0 || replicationPort > 65535) {
+                throw new InvalidServerPropertiesException("The replication port defined in the properties file "
+                        + propertyFile + " is not a valid port [" + replicationPort + "]");
+            }
+            replicationLogSize = optionalInt(serverProps, "replication.log.size", 65536, propertyFile);
+            if (replicationLogSize < 1) {
+                throw new InvalidServerPropertiesException("The replication log size defined in the properties file "
+                        + propertyFile + " must be at least 1 [" + replicationLogSize + "]");
+            }
+
+            // The server is a read-only replica if it is given a primary to follow, as host:port.
+            var primary = serverProps.getProperty("replication.primary");
+            if (primary == null || primary.isBlank()) {
+                replicationPrimaryHost = null;
+                replicationPrimaryPort = 0;
+            } else {
+                var address = primary.trim();
+                int colon = address.lastIndexOf(':');
+                int primaryPort = -1;
+                try {
+                    primaryPort = colon > 0 ? Integer.parseInt(address.substring(colon + 1)) : -1;
+                } catch (NumberFormatException e) {
+                    // Reported below.
+                }
+                if (primaryPort < 1 || primaryPort > 65535) {
+                    throw new InvalidServerPropertiesException("The replication primary defined in the properties "
+                            + "file " + propertyFile + " is not a valid host:port [" + primary + "]");
+                }
+                // An IPv6 address is bracketed, as in a URL.
+                var host = address.substring(0, colon);
+                if (host.startsWith("[") && host.endsWith("]")) {
+                    host = host.substring(1, host.length() - 1);
+                }
+                replicationPrimaryHost = host;
+                replicationPrimaryPort = primaryPort;
+
+                if (replicationPort > 0 || clusterMembers != null) {
+                    throw new InvalidServerPropertiesException("The replica defined in the properties file "
+                            + propertyFile + " cannot also have replicas or be part of a cluster");
+                }
+                // The primary's evictions are applied by removing the entries.
+                if (cacheType != CacheType.MEMORY && cacheType != CacheType.CONCURRENT) {
+                    throw new InvalidServerPropertiesException("The replica defined in the properties file "
+                            + propertyFile + " requires the memory or concurrent cache type");
+                }
+            }
+
+            // The lookups that keep an entry alive are not replicated, so the replicas would expire it sooner.
+            if (slidingTtl && (replicationPort > 0 || replicationPrimaryHost != null)) {
+                throw new InvalidServerPropertiesException("The sliding TTL defined in the properties file "
+                        + propertyFile + " is not supported with replication");
+            }
+
+            // A rate of 0 doesn't limit the clients.
+            rateLimit = optionalInt(serverProps, "ratelimit.rate", 0, propertyFile);
+            rateLimitBurst = optionalInt(serverProps, "ratelimit.burst", 20, propertyFile);
+            rateLimitMaxAddresses = optionalInt(serverProps, "ratelimit.max.addresses", 65536, propertyFile);
+            if (rateLimit < 0 || rateLimitBurst < 1 || rateLimitMaxAddresses < 1) {
+                throw new InvalidServerPropertiesException("The rate limit defined in the properties file "
+                        + propertyFile + " must have a rate of at least 0, and a burst and maximum addresses of at "
+                        + "least 1 [" + rateLimit + ", " + rateLimitBurst + ", " + rateLimitMaxAddresses + "]");
+            }
+
+            // Limits of 0 never shed any requests.
+            maxConnections = optionalInt(serverProps, "admission.max.connections", 0, propertyFile);
+            maxPendingTasks = optionalInt(serverProps, "admission.max.pending.tasks", 0, propertyFile);
+            if (maxConnections < 0 || maxPendingTasks < 0) {
+                throw new InvalidServerPropertiesException("The admission limits defined in the properties file "
+                        + propertyFile + " cannot be negative [" + maxConnections + ", " + maxPendingTasks + "]");
+            }
+        }
+    }
+
+    private static int optionalInt(Properties serverProps, String name, int defaultValue, String propertyFile) {
+        var valueStr = serverProps.getProperty(name);
+        if (valueStr == null || valueStr.isBlank()) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(valueStr.trim());
+        } catch (NumberFormatException e) {
+            throw new InvalidServerPropertiesException("The " + name + " property defined in the properties file "
+                    + propertyFile + " is not a valid integer [" + valueStr + "]");
+        }
+    }
+
+    private static boolean optionalBoolean(Properties serverProps, String name, boolean defaultValue,
+                                           String propertyFile) {
+        var valueStr = serverProps.getProperty(name);
+        if (valueStr == null || valueStr.isBlank()) {
+            return defaultValue;
+        }
+
+        return switch (valueStr.trim().toLowerCase()) {
+            case "true" -> true;
+            case "false" -> false;
+            default -> throw new InvalidServerPropertiesException("The " + name
+                    + " property defined in the properties file " + propertyFile
+                    + " is not a valid boolean [" + valueStr + "]");
+        };
+    }
+
+    private static <E extends Enum<E>> E optionalEnum(Properties serverProps, String name, Class<E> type,
+                                                      E defaultValue, String propertyFile) {
+        var valueStr = serverProps.getProperty(name);
+        if (valueStr == null || valueStr.isBlank()) {
+            return defaultValue;
+        }
+
+        try {
+            return Enum.valueOf(type, valueStr.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidServerPropertiesException("The " + name + " property defined in the properties file "
+                    + propertyFile + " is not a valid value [" + valueStr + "]");
         }
     }
 
@@ -80,4 +390,221 @@ public class ServerProperties {
         return cacheTTL;
     }
 
+    /**
+     * @return Whether the TTL of an entry runs from when it was last looked up, rather than from when it was
+     * added.
+     */
+    public boolean isSlidingTtl() {
+        return slidingTtl;
+    }
+
+    public CacheType getCacheType() {
+        return cacheType;
+    }
+
+    /**
+     * @return The most codes held in each event loop's near cache. 0 means no near cache.
+     */
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    /**
+     * @return The most entries held in the cache, or 0 for no limit.
+     */
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    /**
+     * @return The most heap (in MB) estimated for the cache's entries, or 0 for no limit.
+     */
+    public int getCacheMaxMB() {
+        return cacheMaxMB;
+    }
+
+    /**
+     * @return How the entries to evict are picked once the cache is over a limit.
+     */
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    public EncoderType getEncoderType() {
+        return encoderType;
+    }
+
+    public int getCodePoolSize() {
+        return codePoolSize;
+    }
+
+    public int getCodePoolLowWatermark() {
+        return codePoolLowWatermark;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return The largest POST body accepted, in bytes.
+     */
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * @return Whether clients may switch to cleartext HTTP/2, with prior knowledge or an Upgrade request.
+     */
+    public boolean isH2c() {
+        return h2c;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @return The directory holding the write-ahead log, or null if persistence is disabled.
+     */
+    public String getPersistenceDir() {
+        return persistenceDir;
+    }
+
+    public boolean isPersistenceSync() {
+        return persistenceSync;
+    }
+
+    public int getPersistenceSegmentMB() {
+        return persistenceSegmentMB;
+    }
+
+    /**
+     * @return The snapshot file, or null if snapshots are disabled.
+     */
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * @return How often a snapshot is written, in seconds. 0 means only on shutdown.
+     */
+    public int getSnapshotPeriod() {
+        return snapshotPeriod;
+    }
+
+    /**
+     * @return The number of requests the access log can hold before it drops them. 0 means no access log.
+     */
+    public int getAccessLogBuffer() {
+        return accessLogBuffer;
+    }
+
+    /**
+     * @return One in this many requests are logged in detail. 0 means none.
+     */
+    public int getLogSampleRate() {
+        return logSampleRate;
+    }
+
+    /**
+     * @return The cluster membership file, or null if the server is not part of a cluster.
+     */
+    public String getClusterMembers() {
+        return clusterMembers;
+    }
+
+    /**
+     * @return The id of this node in the cluster membership file, or null if the server is not part of a cluster.
+     */
+    public String getClusterNode() {
+        return clusterNode;
+    }
+
+    /**
+     * @return The most connections open to each of the other cluster nodes.
+     */
+    public int getClusterConnections() {
+        return clusterConnections;
+    }
+
+    /**
+     * @return The port the changes are streamed to the replicas on, or 0 if there are no replicas.
+     */
+    public int getReplicationPort() {
+        return replicationPort;
+    }
+
+    /**
+     * @return The most recent changes kept for a replica to catch up from after a disconnect.
+     */
+    public int getReplicationLogSize() {
+        return replicationLogSize;
+    }
+
+    /**
+     * @return The host of the primary this replica follows, or null if the server is not a replica.
+     */
+    public String getReplicationPrimaryHost() {
+        return replicationPrimaryHost;
+    }
+
+    /**
+     * @return The replication port of the primary this replica follows, or 0 if the server is not a replica.
+     */
+    public int getReplicationPrimaryPort() {
+        return replicationPrimaryPort;
+    }
+
+    /**
+     * @return The shorten requests each client address may send per second, or 0 if they are not limited.
+     */
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * @return The shorten requests a client address may send at once before it is held to the rate.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * @return The most client addresses whose rates are tracked at once.
+     */
+    public int getRateLimitMaxAddresses() {
+        return rateLimitMaxAddresses;
+    }
+
+    /**
+     * @return The most connections open before requests are shed, or 0 for no limit.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return The most tasks queued on an event loop before its requests are shed, or 0 for no limit.
+     */
+    public int getMaxPendingTasks() {
+        return maxPendingTasks;
+    }
+
 }
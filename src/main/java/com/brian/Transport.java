@@ -0,0 +1,85 @@
+package com.brian;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+/**
+ * The Netty transports the server can run on, selected via the transport server property.
+ */
+public enum Transport {
+
+    /**
+     * The portable Java NIO transport.
+     */
+    NIO {
+        @Override
+        EventLoopGroup newEventLoopGroup(int numThreads) {
+            return new NioEventLoopGroup(numThreads);
+        }
+
+        @Override
+        Class<? extends ServerChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        Class<? extends Channel> channelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        boolean isAvailable() {
+            return true;
+        }
+    },
+
+    /**
+     * The native Linux epoll transport. This supports SO_REUSEPORT, so several acceptors can bind the same port.
+     */
+    EPOLL {
+        @Override
+        EventLoopGroup newEventLoopGroup(int numThreads) {
+            return new EpollEventLoopGroup(numThreads);
+        }
+
+        @Override
+        Class<? extends ServerChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        Class<? extends Channel> channelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+    };
+
+    /**
+     * @param numThreads The number of event loop threads, or 0 to use Netty's default (twice the cores).
+     */
+    abstract EventLoopGroup newEventLoopGroup(int numThreads);
+
+    abstract Class<? extends ServerChannel> serverChannelClass();
+
+    /**
+     * @return The class of the connections made to other servers, such as the other nodes of a cluster.
+     */
+    abstract Class<? extends Channel> channelClass();
+
+    /**
+     * @return false if the native library for this transport cannot be loaded on this platform.
+     */
+    abstract boolean isAvailable();
+}
@@ -9,5 +9,30 @@ public interface URLEncoder {
      * @return The encoded URL, or null if the URL cannot be encoded.
      */
     String encode(String url);
-}
 
+    /**
+     * Whether this encoder guarantees never to return the same encoding twice. If it does then the cache
+     * can use the encoding without checking it against the encodings already in use, until it restores
+     * entries, whose encodings may have come from another encoder (e.g. before a restart).
+     *
+     * @return true if every encoding is unique.
+     */
+    default boolean isUnique() {
+        return false;
+    }
+
+    /**
+     * Returns the encoder for one shard of a {@link com.brian.cache.ShardedURLCache}, whose codes belong to
+     * the shard when their first character, as a Base62 digit, is the shard modulo the number of shards.
+     * The cache throws away any other codes, so an encoder that can generate the codes of a shard directly
+     * should override this. By default this encoder is shared by every shard, which throws away
+     * (shards - 1) / shards of the codes it generates.
+     *
+     * @param shard The index of the shard.
+     * @param shards The number of shards, up to 62.
+     * @return The encoder for the shard.
+     */
+    default URLEncoder forShard(int shard, int shards) {
+        return this;
+    }
+}
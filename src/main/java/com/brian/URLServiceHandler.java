@@ -2,6 +2,7 @@ package com.brian;
 
 import com.brian.cache.URLCache;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -9,52 +10,250 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.timeout.ReadTimeoutException;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
 import java.util.UUID;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+
+/**
+ * Handles the GET (redirect) and POST (shorten) requests.
+ * <p>
+ * A POST body is collected as it streams in without being copied, and is only decoded once it is all there. A
+ * body over the maximum size is answered with a 413 as soon as it goes over, or straight away if the
+ * Content-Length says it will, and the connection is then closed as the rest of the body is not read.
+ * <p>
+ * A POST to {@value #BATCH_SHORTEN_PATH} shortens a batch of URLs, and a POST to {@value #BATCH_RESOLVE_PATH}
+ * looks up a batch of hashes (see {@link BatchFormat}). The batch is handed to the cache a slice at a time,
+ * and the results for each slice are streamed back as a chunk of the response.
+ * <p>
+ * One handler is created per connection. When keep-alive is enabled a connection may carry several
+ * requests, including pipelined ones, so all the per-request state is reset as each request starts.
+ * Requests are handled one at a time, so the responses are written in the order the requests arrived.
+ * <p>
+ * The cache is used through its asynchronous methods. When an answer has to come from another event loop
+ * (see {@link com.brian.cache.ShardedURLCache}), the connection stops reading until it arrives, and any
+ * requests that had already been read are held back and handled after it. If the cache fails to answer, the
+ * request gets a 503.
+ * <p>
+ * Given a {@link ClusterURLCache}, the requests forwarded by the other nodes of the cluster (marked with
+ * {@value ClusterClient#FORWARDED_HEADER}) are answered from this node's local cache, and their connections are
+ * kept alive so the other nodes can reuse them.
+ * <p>
+ * Given a read-only cache (see {@link URLCache#isReadOnly()}), such as a replica's, the shorten requests are
+ * answered with a 405 without reading their bodies, while the lookups and batch lookups are answered as usual.
+ * <p>
+ * Given an {@link AdmissionHandler} ahead of it, the requests it turned away are answered with a 429 when the
+ * client is over its rate, or with a 503 that closes the connection when the server is overloaded.
+ * <p>
+ * Given a {@link ResponseCache}, redirects and fixed error responses are written already encoded, so the
+ * pipeline must use a {@link ResponseEncoder}.
+ * <p>
+ * Given an {@link AccessLog}, every request is recorded there, and only the requests it samples get the
+ * detailed info-level logging. Warnings are always logged.
+ * <p>
+ * Given {@link Metrics}, the latency of every request is recorded by endpoint, along with the lookups and
+ * shortened URLs, and a GET for {@value #METRICS_PATH} returns the metrics rather than looking up a code.
+ */
 public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
 
     private static final Logger logger = LoggerFactory.getLogger(URLServiceHandler.class);
 
-    // We use this to buffer the request body that should contain the URL we want to shorten.
-    private final StringBuilder postBody = new StringBuilder();
+    static final String BATCH_SHORTEN_PATH = "/batch/shorten";
+
+    static final String BATCH_RESOLVE_PATH = "/batch/resolve";
+
+    // The generated codes are 6 characters, so this can't hide one.
+    static final String METRICS_PATH = "/metrics";
+
+    // The number of items passed to the cache, and sent back in one chunk, at a time.
+    private static final int BATCH_SLICE_SIZE = 1000;
+
+    static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    // The number of chunks the body is collected in before they are consolidated.
+    private static final int MAX_BODY_COMPONENTS = 1024;
+
+    // The request body that should contain the URL we want to shorten, or null until it starts.
+    private CompositeByteBuf postBody;
+
+    // The largest body accepted, in bytes.
+    private final int maxBodySize;
 
     private final URLCache cache;
 
-    private final long startTime = System.nanoTime();
+    // The cache answering the requests forwarded by other cluster nodes, which is the same cache outside a cluster.
+    private final URLCache localCache;
+
+    // The encoded responses, or null to build every response.
+    private final ResponseCache responses;
+
+    // The access log, or null to log every request in detail.
+    private final AccessLog accessLog;
+
+    // The metrics, or null if they are not being collected.
+    private final Metrics metrics;
+
+    // Whether the server allows persistent connections.
+    private final boolean keepAlive;
+
+    private long startTime = System.nanoTime();
 
     // We assign a unique UUID per request so that we can trace each transaction.
-    private final UUID uuid = UUID.randomUUID();
+    private UUID uuid = UUID.randomUUID();
+
+    // Whether the connection stays open after the response to the current request.
+    private boolean keepAliveRequest;
+
+    // The cache used for the current request.
+    private URLCache requestCache;
+
+    private HttpVersion requestVersion = HttpVersion.HTTP_1_1;
+
+    private HttpMethod requestMethod = HttpMethod.GET;
+
+    private String requestUri = "/";
+
+    private int responseStatus;
+
+    private Metrics.Endpoint endpoint = Metrics.Endpoint.OTHER;
+
+    // Whether the current request gets the detailed logging.
+    private boolean verbose = true;
+
+    // The path of the current POST request, without any query string.
+    private String requestPath = "/";
+
+    // Only POST requests have a body that we care about. Any other body content is discarded.
+    private boolean expectingBody;
+
+    // Whether the current request is waiting for the cache to answer from another event loop.
+    private boolean awaiting;
+
+    // The messages read while waiting for the cache, which are handled once it has answered.
+    private final Queue<Object> held = new ArrayDeque<>();
 
     public URLServiceHandler(URLCache cache) {
+        this(cache, false);
+    }
+
+    public URLServiceHandler(URLCache cache, boolean keepAlive) {
+        this(cache, keepAlive, null);
+    }
+
+    public URLServiceHandler(URLCache cache, boolean keepAlive, ResponseCache responses) {
+        this(cache, keepAlive, responses, null);
+    }
+
+    public URLServiceHandler(URLCache cache, boolean keepAlive, ResponseCache responses, AccessLog accessLog) {
+        this(cache, keepAlive, responses, accessLog, null);
+    }
+
+    public URLServiceHandler(URLCache cache, boolean keepAlive, ResponseCache responses, AccessLog accessLog,
+                             Metrics metrics) {
+        this(cache, keepAlive, responses, accessLog, metrics, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    public URLServiceHandler(URLCache cache, boolean keepAlive, ResponseCache responses, AccessLog accessLog,
+                             Metrics metrics, int maxBodySize) {
         this.cache = cache;
+        this.localCache = cache instanceof ClusterURLCache cluster ? cluster.local() : cache;
+        this.requestCache = cache;
+        this.maxBodySize = maxBodySize;
+        this.keepAlive = keepAlive;
+        this.responses = responses;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext context, Object req) throws Exception {
+        if (awaiting) {
+            held.add(ReferenceCountUtil.retain(req));
+            return;
+        }
+
+        if (req instanceof AdmissionHandler.Rejection rejection) {
+            startRequest(rejection.request());
+            respondRejected(context, rejection.verdict());
+            logRequest(context);
+            return;
+        }
+
         if (req instanceof HttpRequest httpRequest) {
-            HttpMethod method = httpRequest.method();
+            startRequest(httpRequest);
+
+            HttpMethod method = requestMethod;
             if (HttpMethod.POST != method && HttpMethod.GET != method) {
                 // We only GET and POSTs.
                 respondMethodNotAllowed(context, httpRequest);
-                logTxnTime();
+                logRequest(context);
                 return;
             }
 
             if (HttpMethod.GET == method) {
-                handleGet(context, httpRequest);
-                logTxnTime();
+                if (metrics != null && isMetricsRequest(requestUri)) {
+                    endpoint = Metrics.Endpoint.METRICS;
+                    sendMetrics(context);
+                    logRequest(context);
+                } else {
+                    endpoint = Metrics.Endpoint.REDIRECT;
+                    handleGet(context, httpRequest);
+                }
+                return;
+            }
+
+            requestPath = new QueryStringDecoder(httpRequest.uri()).path();
+            endpoint = switch (requestPath) {
+                case BATCH_SHORTEN_PATH -> Metrics.Endpoint.BATCH_SHORTEN;
+                case BATCH_RESOLVE_PATH -> Metrics.Endpoint.BATCH_RESOLVE;
+                default -> Metrics.Endpoint.SHORTEN;
+            };
+
+            // A replica only answers lookups. The body is discarded as it arrives.
+            if (endpoint != Metrics.Endpoint.BATCH_RESOLVE && requestCache.isReadOnly()) {
+                respondReadOnly(context);
+                logRequest(context);
+                return;
+            }
+
+            expectingBody = true;
+
+            // Don't wait for a body we would reject anyway.
+            if (HttpUtil.getContentLength(httpRequest, -1L) > maxBodySize) {
+                respondBodyTooLarge(context);
+                return;
             }
         }
 
-        if (req instanceof HttpContent httpContent) {
-            // fetch the body from the request.
+        if (expectingBody && req instanceof HttpContent httpContent) {
+            // Collect the body from the request, holding on to each chunk rather than copying it.
             ByteBuf content = httpContent.content();
             if (content != null && content.isReadable()) {
-                handleRequestContent(context, httpContent, content);
+                if (bodySize() + content.readableBytes() > maxBodySize) {
+                    respondBodyTooLarge(context);
+                    return;
+                }
+                if (postBody == null) {
+                    postBody = context.alloc().compositeBuffer(MAX_BODY_COMPONENTS);
+                }
+                postBody.addComponent(true, content.retain());
+            }
+
+            if (!(httpContent instanceof LastHttpContent)) {
+                return;
+            }
+
+            if (postBody != null) {
+                // A chunked body ends with an empty LastHttpContent, which still completes the request.
+                handleRequestContent(context);
             } else {
                 // No request body found!
                 var socketAddress = (InetSocketAddress) context.channel().remoteAddress();
@@ -62,12 +261,131 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
                 var port = socketAddress.getPort();
                 logger.warn("[{}] The POST request from [{}]:{} did not contain a body", uuid, ip, port);
 
-                sendErrorBodyMissing(context);
-                logTxnTime();
+                expectingBody = false;
+                if (responses != null) {
+                    writeEncoded(context, responses.bodyMissing(connectionHeader()), HttpResponseStatus.BAD_REQUEST);
+                } else {
+                    sendErrorBodyMissing(context);
+                }
+                logRequest(context);
             }
         }
     }
 
+    /**
+     * Resets the per-request state. A keep-alive connection may carry many requests.
+     */
+    private void startRequest(HttpRequest httpRequest) {
+        startTime = System.nanoTime();
+        uuid = UUID.randomUUID();
+        releaseBody();
+        expectingBody = false;
+
+        // The header only means something within a cluster.
+        boolean forwarded = localCache != cache && httpRequest.headers().contains(ClusterClient.FORWARDED_HEADER);
+        requestCache = forwarded ? localCache : cache;
+        keepAliveRequest = (keepAlive || forwarded) && HttpUtil.isKeepAlive(httpRequest);
+        requestVersion = httpRequest.protocolVersion();
+        requestMethod = httpRequest.method();
+        requestUri = httpRequest.uri();
+        responseStatus = 0;
+        endpoint = Metrics.Endpoint.OTHER;
+        verbose = accessLog == null || accessLog.sample();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        // The connection closed part way through a body, or while waiting for the cache.
+        releaseBody();
+        releaseHeld();
+        super.handlerRemoved(ctx);
+    }
+
+    private void releaseHeld() {
+        Object msg;
+        while ((msg = held.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    /**
+     * Carries on with the current request once the cache has answered. If the answer has to come from
+     * another event loop, the connection stops reading until it has been handled, and then handles the
+     * messages held back in the meantime.
+     */
+    private <T> void whenDone(ChannelHandlerContext ctx, CompletableFuture<T> future, Consumer<T> then) {
+        if (future.isDone()) {
+            T result;
+            try {
+                result = future.join();
+            } catch (CompletionException e) {
+                cacheFailed(ctx, e.getCause());
+                return;
+            }
+            then.accept(result);
+            return;
+        }
+
+        awaiting = true;
+        ctx.channel().config().setAutoRead(false);
+        future.whenComplete((result, error) -> ctx.executor().execute(() -> {
+            awaiting = false;
+            if (error != null) {
+                cacheFailed(ctx, error instanceof CompletionException ? error.getCause() : error);
+            } else {
+                then.accept(result);
+            }
+            resume(ctx);
+        }));
+    }
+
+    /**
+     * Answers the current request with a 503 when the cache could not answer it, such as when another cluster
+     * node could not be reached. If part of the response has already been sent, the connection is closed.
+     */
+    private void cacheFailed(ChannelHandlerContext ctx, Throwable cause) {
+        if (responseStatus != 0) {
+            releaseHeld();
+            ctx.fireExceptionCaught(cause);
+            return;
+        }
+
+        logger.warn("[{}] The cache failed to answer the request: {}", uuid, cause.toString());
+        sendServiceUnavailable(ctx);
+        logRequest(ctx);
+    }
+
+    /**
+     * Handles the messages held back while waiting for the cache, until one of them has to wait as well.
+     */
+    private void resume(ChannelHandlerContext ctx) {
+        Object msg;
+        while (!awaiting && (msg = held.poll()) != null) {
+            try {
+                channelRead0(ctx, msg);
+            } catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        if (!awaiting) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private int bodySize() {
+        return postBody == null ? 0 : postBody.readableBytes();
+    }
+
+    private void releaseBody() {
+        if (postBody != null) {
+            postBody.release();
+            postBody = null;
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         if (cause instanceof ReadTimeoutException) {
@@ -75,7 +393,6 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
             var ip = socketAddress.getAddress().getHostAddress();
             var port = socketAddress.getPort();
             logger.warn("[{}] Closing slow/idle client connection [{}]:{}", uuid, ip, port);
-            logTxnTime();
             ctx.close();
         } else {
             super.exceptionCaught(ctx, cause);
@@ -83,36 +400,321 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
         }
     }
 
-    private void handleRequestContent(ChannelHandlerContext context,
-                                      HttpContent req,
-                                      ByteBuf content) {
-
-        // The body is being streamed in, so store what we get until we get it all.
-        var bodyFragment = content.toString(CharsetUtil.UTF_8);
-        postBody.append(bodyFragment);
+    /**
+     * Handles the body once it has all arrived. It is decoded once, and the URL is checked on the bytes first so
+     * most bodies that are not URLs never reach the cache.
+     */
+    private void handleRequestContent(ChannelHandlerContext context) {
+        expectingBody = false;
+
+        boolean batch = BATCH_SHORTEN_PATH.equals(requestPath) || BATCH_RESOLVE_PATH.equals(requestPath);
+
+        String body;
+        boolean plausible;
+        try {
+            // The whitespace around a URL, such as a trailing newline, is skipped by the validator as well.
+            body = batch ? postBody.toString(CharsetUtil.UTF_8) : postBody.toString(CharsetUtil.UTF_8).trim();
+            plausible = !batch && URLValidator.isPlausible(postBody);
+        } finally {
+            releaseBody();
+        }
 
-        if (req instanceof LastHttpContent) {
-            // We're at the end of the stream now.
+        if (verbose) {
             var socketAddress = (InetSocketAddress) context.channel().remoteAddress();
             var ip = socketAddress.getAddress().getHostAddress();
             var port = socketAddress.getPort();
-            var body = postBody.toString();
+            if (batch) {
+                logger.info("[{}] Received a batch request {} from [{}]:{}", uuid, requestPath, ip, port);
+            } else {
+                logger.info("[{}] Received a post request from [{}]:{} - POST body: {}",
+                        uuid, ip, port, body);
+            }
+        }
+
+        if (batch) {
+            handleBatch(context, body, BATCH_SHORTEN_PATH.equals(requestPath));
+            return;
+        }
 
-            logger.info("[{}] Received a post request from [{}]:{} - POST body: {}",
-                    uuid, ip, port, body);
+        var shortened = plausible
+                ? requestCache.shortenAsync(uuid, body)
+                : CompletableFuture.<String>completedFuture(null);
+        whenDone(context, shortened, shortenedUrl -> respondShortened(context, body, shortenedUrl));
+    }
 
-            String shortenedUrl = cache.shorten(uuid, body);
+    private void respondShortened(ChannelHandlerContext context, String body, String shortenedUrl) {
+        if (metrics != null) {
             if (shortenedUrl != null) {
+                metrics.shortened(1);
+            } else {
+                metrics.invalidUrls(1);
+            }
+        }
+
+        if (shortenedUrl != null) {
+            if (verbose) {
                 logger.info("[{}] URL {} has been encoded to {}", uuid, body, shortenedUrl);
-                sendResponse(context, shortenedUrl);
+            }
+            sendResponse(context, shortenedUrl);
+        } else {
+            logger.warn("[{}] Failed to encode: The POST does not contain a valid URL: {}",
+                    uuid, body);
+            sendErrorResponse(context, body);
+        }
+
+        logRequest(context);
+    }
+
+    /**
+     * Shortens or resolves a batch, a slice at a time, streaming the results for each slice as a chunk.
+     * HTTP/1.0 clients don't understand chunked responses, so they get the whole response at once.
+     */
+    private void handleBatch(ChannelHandlerContext ctx, String body, boolean shorten) {
+        var format = BatchFormat.of(body);
+        List<String> items;
+        try {
+            items = format.parse(body);
+        } catch (IllegalArgumentException e) {
+            logger.warn("[{}] The batch is not valid: {}", uuid, e.getMessage());
+            sendBadRequest(ctx, "The batch is not valid: " + e.getMessage());
+            logRequest(ctx);
+            return;
+        }
+
+        if (items.isEmpty()) {
+            logger.warn("[{}] The batch is empty", uuid);
+            sendBadRequest(ctx, "The batch is empty.");
+            logRequest(ctx);
+            return;
+        }
+
+        boolean chunked = requestVersion.isKeepAliveDefault();
+        if (chunked) {
+            HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, format.contentType());
+            response.headers().set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+            if (!keepAliveRequest) {
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            }
+            responseStatus = response.status().code();
+            ctx.write(response);
+        }
+
+        batchSlice(ctx, format, items, shorten, chunked, 0, new StringBuilder(format.start()));
+    }
+
+    /**
+     * Passes the slice of the batch starting at {@code from} to the cache, and carries on with the next slice
+     * once its results have been added.
+     */
+    private void batchSlice(ChannelHandlerContext ctx, BatchFormat format, List<String> items, boolean shorten,
+                            boolean chunked, int from, StringBuilder results) {
+        var slice = items.subList(from, Math.min(from + BATCH_SLICE_SIZE, items.size()));
+        var future = shorten ? requestCache.shortenAllAsync(uuid, slice) : requestCache.getOriginalUrlsForAsync(slice);
+        whenDone(ctx, future, sliceResults -> {
+            int found = 0;
+            for (int i = 0; i < sliceResults.size(); ++i) {
+                var result = sliceResults.get(i);
+                if (result != null) {
+                    ++found;
+                }
+                format.append(results, result, from + i == 0);
+            }
+            countBatch(shorten, found, sliceResults.size() - found);
+
+            if (from + BATCH_SLICE_SIZE < items.size()) {
+                if (chunked) {
+                    ctx.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer(results, CharsetUtil.UTF_8)));
+                    results.setLength(0);
+                }
+                batchSlice(ctx, format, items, shorten, chunked, from + BATCH_SLICE_SIZE, results);
             } else {
-                logger.warn("[{}] Failed to encode: The POST does not contain a valid URL: {}",
-                        uuid, body);
-                sendErrorResponse(context, body);
+                finishBatch(ctx, format, items.size(), chunked, results);
             }
+        });
+    }
+
+    private void finishBatch(ChannelHandlerContext ctx, BatchFormat format, int size, boolean chunked,
+                             StringBuilder results) {
+        results.append(format.end());
 
-            logTxnTime();
+        if (verbose) {
+            logger.info("[{}] Sent the results for a batch of {}", uuid, size);
         }
+
+        if (!chunked) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                    Unpooled.copiedBuffer(results, CharsetUtil.UTF_8));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, format.contentType());
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+            writeResponse(ctx, response);
+        } else {
+            var last = ctx.writeAndFlush(
+                    new DefaultLastHttpContent(Unpooled.copiedBuffer(results, CharsetUtil.UTF_8)));
+            if (!keepAliveRequest) {
+                last.addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+        logRequest(ctx);
+    }
+
+    private void countBatch(boolean shorten, int found, int notFound) {
+        if (metrics == null) {
+            return;
+        }
+
+        if (shorten) {
+            metrics.shortened(found);
+            metrics.invalidUrls(notFound);
+        } else {
+            metrics.hits(found);
+            metrics.misses(notFound);
+        }
+    }
+
+    private static boolean isMetricsRequest(String uri) {
+        return uri.startsWith(METRICS_PATH)
+                && (uri.length() == METRICS_PATH.length() || uri.charAt(METRICS_PATH.length()) == '?');
+    }
+
+    private void sendMetrics(ChannelHandlerContext ctx) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(metrics.scrape(), CharsetUtil.UTF_8));
+
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, Metrics.CONTENT_TYPE);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+        writeResponse(ctx, response);
+    }
+
+    private void sendBadRequest(ChannelHandlerContext ctx, String message) {
+        String responseBody = HttpResponseStatus.BAD_REQUEST.reasonPhrase() + " : " + message;
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.BAD_REQUEST,
+                Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
+
+        // Set the response headers.
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        // Set the content length.
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+        // Send the response.
+        writeResponse(ctx, response);
+    }
+
+    private void sendServiceUnavailable(ChannelHandlerContext ctx) {
+        String responseBody = HttpResponseStatus.SERVICE_UNAVAILABLE.reasonPhrase()
+                + " : The request could not be answered.";
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.SERVICE_UNAVAILABLE,
+                Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
+
+        // Set the response headers.
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        // Set the content length.
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+        // Send the response.
+        writeResponse(ctx, response);
+    }
+
+    /**
+     * Answers a POST whose body is over the maximum size with a 413, and closes the connection as the rest of
+     * the body is not read.
+     */
+    private void respondBodyTooLarge(ChannelHandlerContext ctx) {
+        var socketAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+        var ip = socketAddress.getAddress().getHostAddress();
+        var port = socketAddress.getPort();
+        logger.warn("[{}] The POST body from [{}]:{} is over the maximum of {} bytes", uuid, ip, port, maxBodySize);
+
+        expectingBody = false;
+        releaseBody();
+        keepAliveRequest = false;
+
+        if (responses != null) {
+            writeEncoded(ctx, responses.bodyTooLarge(connectionHeader()), HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+        } else {
+            String responseBody = HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE.reasonPhrase()
+                    + " : The post body is too large.";
+
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                    HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE,
+                    Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
+
+            // Set the response headers.
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+            // Set the content length.
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+            // Send the response.
+            writeResponse(ctx, response);
+        }
+        logRequest(ctx);
+    }
+
+    /**
+     * Answers a shorten request sent to a read-only replica with a 405, as only the lookups are allowed.
+     */
+    private void respondReadOnly(ChannelHandlerContext ctx) {
+        logger.warn("[{}] Refusing to shorten on a read-only replica", uuid);
+
+        String responseBody = HttpResponseStatus.METHOD_NOT_ALLOWED.reasonPhrase()
+                + " : This server is a read-only replica.";
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.METHOD_NOT_ALLOWED,
+                Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
+
+        // Set the response headers.
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        response.headers().set(HttpHeaderNames.ALLOW, HttpMethod.GET.name());
+        // Set the content length.
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+        // Send the response.
+        writeResponse(ctx, response);
+    }
+
+    /**
+     * Answers a request turned away by the {@link AdmissionHandler}. A client over its rate may carry on using the
+     * connection, but an overloaded server closes it to shed the load.
+     */
+    private void respondRejected(ChannelHandlerContext ctx, AdmissionControl.Verdict verdict) {
+        var socketAddress = (InetSocketAddress) ctx.channel().remoteAddress();
+        var ip = socketAddress.getAddress().getHostAddress();
+        var port = socketAddress.getPort();
+
+        HttpResponseStatus status;
+        String responseBody;
+        if (verdict == AdmissionControl.Verdict.RATE_LIMITED) {
+            if (verbose) {
+                logger.info("[{}] The client [{}]:{} is over its rate", uuid, ip, port);
+            }
+            status = HttpResponseStatus.TOO_MANY_REQUESTS;
+            responseBody = status.reasonPhrase() + " : Please slow down.";
+        } else {
+            if (verbose) {
+                logger.info("[{}] Shedding the request from [{}]:{} as the server is overloaded", uuid, ip, port);
+            }
+            status = HttpResponseStatus.SERVICE_UNAVAILABLE;
+            responseBody = status.reasonPhrase() + " : The server is overloaded.";
+            keepAliveRequest = false;
+        }
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
+
+        // Set the response headers.
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, 1);
+        // Set the content length.
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+
+        // Send the response.
+        writeResponse(ctx, response);
     }
 
     private void respondMethodNotAllowed(ChannelHandlerContext ctx, HttpRequest request) {
@@ -123,6 +725,11 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
         logger.warn("[{}] Received an invalid {} request from [{}]:{}",
                 uuid, request.method().asciiName(), ip, port);
 
+        if (responses != null) {
+            writeEncoded(ctx, responses.methodNotAllowed(connectionHeader()), HttpResponseStatus.METHOD_NOT_ALLOWED);
+            return;
+        }
+
         var responseMsg = HttpResponseStatus.METHOD_NOT_ALLOWED.reasonPhrase();
 
         FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
@@ -131,14 +738,11 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
 
         // Set the response headers.
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
-        // We're done, so tell the client to close the connection.
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         // Set the content length.
         response.headers().set(HttpHeaderNames.CONTENT_LENGTH, responseMsg.length());
 
         // Send the response.
-        ctx.write(response);
-        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        writeResponse(ctx, response);
     }
 
     private void sendResponse(ChannelHandlerContext ctx, String shortenedUrl) {
@@ -148,14 +752,11 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
 
         // Set the response headers.
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
-        // We're done, so tell the client to close the connection.
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         // Set the content length.
-        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, shortenedUrl.length());
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
 
         // Send the response.
-        ctx.write(response);
-        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        writeResponse(ctx, response);
     }
 
     private void sendErrorResponse(ChannelHandlerContext ctx, String body) {
@@ -172,14 +773,11 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
 
         // Set the response headers.
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
-        // We're done, so tell the client to close the connection.
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         // Set the content length.
-        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, responseBody.length());
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
 
         // Send the response.
-        ctx.write(response);
-        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        writeResponse(ctx, response);
     }
 
     private void sendErrorBodyMissing(ChannelHandlerContext ctx) {
@@ -195,29 +793,82 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
 
         // Set the response headers.
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
-        // We're done, so tell the client to close the connection.
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         // Set the content length.
         response.headers().set(HttpHeaderNames.CONTENT_LENGTH, responseBody.length());
 
         // Send the response.
-        ctx.write(response);
-        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        writeResponse(ctx, response);
     }
 
 
     private void handleGet(ChannelHandlerContext ctx, HttpRequest httpRequest) {
 
-        // Remove the leading /
-        var path = httpRequest.uri();
-        if (!path.isBlank() && path.startsWith("/")) {
-            path = path.substring(1);
+        var uri = httpRequest.uri();
+        if (responses != null) {
+            var redirect = responses.redirect(uri, connectionHeader());
+            if (redirect != null) {
+                if (metrics != null) {
+                    metrics.hits(1);
+                }
+                if (verbose) {
+                    logger.info("[{}] Redirecting GET request {} from the response cache", uuid, uri);
+                }
+                writeEncoded(ctx, redirect, HttpResponseStatus.MOVED_PERMANENTLY);
+                logRequest(ctx);
+                return;
+            }
+        }
+
+        // Skip the leading /
+        int start = uri.startsWith("/") ? 1 : 0;
+
+        // A 6-character code is decoded in place and looked up as a number, without building a string.
+        CompletableFuture<String> lookup;
+        long code = Base62Encoder.fromBase62(uri, start, uri.length());
+        if (code >= 0) {
+            if (verbose) {
+                logger.info("Checking URL cache for {}", uri);
+            }
+            lookup = requestCache.getOriginalUrlForAsync(code);
+        } else {
+            var path = uri.substring(start);
+            if (verbose) {
+                logger.info("Checking URL cache for {}", path);
+            }
+            lookup = requestCache.getOriginalUrlForAsync(path);
         }
 
-        logger.info("Checking URL cache for {}", path);
+        whenDone(ctx, lookup, url -> {
+            redirect(ctx, uri, url);
+            logRequest(ctx);
+        });
+    }
 
-        // Check the cache for the path.
-        String url = cache.getOriginalUrlFor(path);
+    /**
+     * Redirects to the URL the cache found, or answers with a 404 if it found nothing.
+     */
+    private void redirect(ChannelHandlerContext ctx, String uri, String url) {
+        if (metrics != null) {
+            if (url != null) {
+                metrics.hits(1);
+            } else {
+                metrics.misses(1);
+            }
+        }
+
+        if (responses != null) {
+            if (null != url) {
+                if (verbose) {
+                    logger.info("[{}] Redirecting GET request {} to {}", uuid, uri, url);
+                }
+                writeEncoded(ctx, responses.cacheRedirect(uri, url, connectionHeader()),
+                        HttpResponseStatus.MOVED_PERMANENTLY);
+            } else {
+                logger.warn("[{}] Cannot redirect path", uuid);
+                writeEncoded(ctx, responses.notFound(connectionHeader()), HttpResponseStatus.NOT_FOUND);
+            }
+            return;
+        }
 
         /*
          * If we get a valid URL back from the cache then we send a redirect.
@@ -227,21 +878,12 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
         if (null != url) {
             status = HttpResponseStatus.MOVED_PERMANENTLY;
 
-            String redirectTemplate = """
-                    <!DOCTYPE HTML>
-                    <html lang="en-US">
-                        <head>
-                            <meta charset="UTF-8">
-                            <meta http-equiv="refresh" content="0; url=%s">
-                            <title>Page Redirection</title>
-                        </head>
-                    </html>
-                    """;
-
-            String redirectResponse = String.format(redirectTemplate, url);
+            String redirectResponse = String.format(ResponseCache.REDIRECT_TEMPLATE, url);
             buf.append(redirectResponse);
 
-            logger.info("[{}] Redirecting GET request {} to {}", uuid, path, url);
+            if (verbose) {
+                logger.info("[{}] Redirecting GET request {} to {}", uuid, uri, url);
+            }
         } else {
             // Not found.
             status = HttpResponseStatus.NOT_FOUND;
@@ -256,7 +898,6 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
                 Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
 
         response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
-        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
         response.headers().set(HttpHeaderNames.CONTENT_LENGTH, responseBody.length());
 
         // Add the location header.
@@ -264,14 +905,66 @@ public class URLServiceHandler extends SimpleChannelInboundHandler<Object> {
             response.headers().set(HttpHeaderNames.LOCATION, url);
         }
 
-        ctx.write(response);
-        ctx.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
+        writeResponse(ctx, response);
     }
 
-    private void logTxnTime() {
-        long endTime = System.nanoTime();
-        long totalTimeMicro = (endTime - startTime) / 1000;
-        logger.info("[{}] Total transaction time: {}us", uuid, totalTimeMicro);
+    /**
+     * Sends a response, and closes the connection afterwards unless it is being kept alive.
+     */
+    private void writeResponse(ChannelHandlerContext ctx, FullHttpResponse response) {
+        responseStatus = response.status().code();
+        if (keepAliveRequest) {
+            // HTTP/1.1 connections are persistent by default, but HTTP/1.0 clients need to be told.
+            if (!requestVersion.isKeepAliveDefault()) {
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            }
+
+            ctx.writeAndFlush(response);
+        } else {
+            // We're done, so tell the client to close the connection.
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * Sends a response from the {@link ResponseCache}, and closes the connection afterwards unless it is
+     * being kept alive.
+     */
+    private void writeEncoded(ChannelHandlerContext ctx, ByteBuf response, HttpResponseStatus status) {
+        responseStatus = status.code();
+        var future = ctx.writeAndFlush(new ResponseEncoder.EncodedResponse(response));
+        if (!keepAliveRequest) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * @return The Connection header for the response to the current request.
+     */
+    private ResponseCache.ConnectionHeader connectionHeader() {
+        if (!keepAliveRequest) {
+            return ResponseCache.ConnectionHeader.CLOSE;
+        }
+        // HTTP/1.1 connections are persistent by default, but HTTP/1.0 clients need to be told.
+        return requestVersion.isKeepAliveDefault()
+                ? ResponseCache.ConnectionHeader.NONE
+                : ResponseCache.ConnectionHeader.KEEP_ALIVE;
+    }
+
+    /**
+     * Records the time taken by the request in the metrics and the access log.
+     */
+    private void logRequest(ChannelHandlerContext ctx) {
+        long totalTimeMicro = (System.nanoTime() - startTime) / 1000;
+        if (metrics != null) {
+            metrics.recordLatency(endpoint, totalTimeMicro);
+        }
+        if (accessLog != null) {
+            accessLog.record(uuid, ctx.channel().remoteAddress(), requestMethod.name(), requestUri, responseStatus,
+                    totalTimeMicro);
+        }
     }
 
 }
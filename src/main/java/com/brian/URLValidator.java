@@ -0,0 +1,70 @@
+package com.brian;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+/**
+ * A quick check of a URL's UTF-8 bytes, which rejects most bodies that are not URLs before they are handed to
+ * the cache. The cache's own check parses the URL and throws when it is not valid, which is far more expensive
+ * than a scan of the bytes.
+ * <p>
+ * Like {@link java.net.URL}, it ignores any whitespace or control characters around the URL (such as a trailing
+ * newline), so the body must be trimmed the same way before it is handed to the cache. The check is then a subset
+ * of the cache's: a trimmed URL that fails it would have been rejected by the cache anyway, but a URL that passes
+ * it may still be rejected.
+ */
+final class URLValidator {
+
+    // Whitespace, control characters, and the ASCII characters that are not allowed anywhere in a URI.
+    // Bytes above 0x7f are part of a multi-byte character, which is allowed.
+    private static final ByteProcessor FIND_ILLEGAL =
+            b -> b < 0 || (b > ' ' && b != 0x7f && "\"<>\\^`{|}".indexOf(b) < 0);
+
+    private URLValidator() {
+    }
+
+    /**
+     * @return Whether the readable bytes, without the whitespace around them, start with a scheme and have no
+     *         characters that are illegal in a URL.
+     */
+    static boolean isPlausible(ByteBuf url) {
+        int start = url.readerIndex();
+        int end = url.writerIndex();
+
+        // The same characters as String.trim(), which are the ones java.net.URL ignores.
+        while (start < end && isTrimmed(url.getByte(start))) {
+            ++start;
+        }
+        while (end > start && isTrimmed(url.getByte(end - 1))) {
+            --end;
+        }
+
+        // The scheme: a letter followed by letters, digits, '+', '-' or '.', and then a ':'.
+        int i = start;
+        if (i == end || !isLetter(url.getByte(i))) {
+            return false;
+        }
+        for (++i; i < end; ++i) {
+            byte b = url.getByte(i);
+            if (b == ':') {
+                break;
+            }
+            if (!isLetter(b) && !(b >= '0' && b <= '9') && b != '+' && b != '-' && b != '.') {
+                return false;
+            }
+        }
+        if (i == end) {
+            return false;
+        }
+
+        return url.forEachByte(i + 1, end - i - 1, FIND_ILLEGAL) < 0;
+    }
+
+    private static boolean isTrimmed(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+}
@@ -0,0 +1,67 @@
+package com.brian.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Collects the entries used by lookups, which run concurrently under a read lock, so they can be
+ * applied to an {@link EvictionOrder} later by a thread holding the write lock.
+ * <p>
+ * The buffer is a ring that lookups write to without locking. It is lossy: if the ring wraps before it is
+ * drained, the oldest uses are overwritten, and a use written while the ring is being drained may be
+ * missed. That only makes the eviction order a little less exact, and means a lookup never waits.
+ */
+final class AccessBuffer {
+
+    private final AtomicReferenceArray<byte[]> slots;
+
+    private final int mask;
+
+    // The number of uses recorded. Each use claims the slot at its sequence number & mask.
+    private final AtomicLong writes = new AtomicLong();
+
+    // The sequence number of the next use to drain. Only used by the thread draining the buffer.
+    private long reads;
+
+    /**
+     * @param size The number of uses held, which must be a power of 2.
+     */
+    AccessBuffer(int size) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("The size must be a power of 2: " + size);
+        }
+
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Records a use of an entry.
+     *
+     * @return True if the buffer has just filled up, and should be drained.
+     */
+    boolean record(byte[] entry) {
+        long seq = writes.getAndIncrement();
+        slots.lazySet((int) seq & mask, entry);
+        return ((seq + 1) & mask) == 0;
+    }
+
+    /**
+     * Hands the uses recorded since the last drain to the consumer, oldest first.
+     */
+    void drain(Consumer<byte[]> consumer) {
+        long end = writes.get();
+        if (end - reads > slots.length()) {
+            // The oldest uses have been overwritten.
+            reads = end - slots.length();
+        }
+
+        for (; reads < end; ++reads) {
+            var entry = slots.getAndSet((int) reads & mask, null);
+            if (entry != null) {
+                consumer.accept(entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.brian.cache;
+
+/**
+ * Receives the changes made to a cache, e.g. to persist or replicate them.
+ * <p>
+ * Listeners are called on the thread that made the change, after the change is visible to lookups, and
+ * in the order the changes were made to each hash: an entry is evicted before its hash is handed out
+ * again. To keep that order they may be called while the cache holds a lock, so they must be quick,
+ * must not block on I/O, and must not call back into the cache.
+ */
+public interface CacheListener {
+
+    /**
+     * Called when a new URL has been shortened.
+     */
+    void entryAdded(URLEntry entry);
+
+    /**
+     * Called when an entry has been evicted from the cache.
+     */
+    void entryEvicted(URLEntry entry);
+}
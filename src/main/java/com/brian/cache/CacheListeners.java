@@ -0,0 +1,51 @@
+package com.brian.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The listeners registered with a cache. A failing listener is logged, and doesn't stop the others or
+ * fail the change.
+ */
+class CacheListeners implements CacheListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheListeners.class);
+
+    private final List<CacheListener> listeners = new CopyOnWriteArrayList<>();
+
+    void add(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return True if any listeners have been added, so callers can skip building entries for nobody.
+     */
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    @Override
+    public void entryAdded(URLEntry entry) {
+        for (var listener : listeners) {
+            try {
+                listener.entryAdded(entry);
+            } catch (RuntimeException e) {
+                logger.error("Cache listener {} failed to handle the addition of {}", listener, entry.hash(), e);
+            }
+        }
+    }
+
+    @Override
+    public void entryEvicted(URLEntry entry) {
+        for (var listener : listeners) {
+            try {
+                listener.entryEvicted(entry);
+            } catch (RuntimeException e) {
+                logger.error("Cache listener {} failed to handle the eviction of {}", listener, entry.hash(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.brian.cache;
+
+/**
+ * The cache implementations that can be selected via the cache.type server property.
+ */
+public enum CacheType {
+
+    /**
+     * The original {@link InMemoryURLCache}, guarded by a single read/write lock.
+     */
+    MEMORY,
+
+    /**
+     * The lock-free {@link ConcurrentURLCache}.
+     */
+    CONCURRENT,
+
+    /**
+     * The {@link OffHeapURLCache}, which keeps its entries outside the Java heap.
+     */
+    OFF_HEAP,
+
+    /**
+     * The {@link ShardedURLCache}, split into a shard per worker event loop that only that event loop touches.
+     */
+    SHARDED
+}
@@ -0,0 +1,42 @@
+package com.brian.cache;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The epoch time in milliseconds, updated by a background thread every {@link #TICK_MILLIS}, so that it
+ * can be read on every lookup for the price of a volatile read. It is never ahead of the system clock, and
+ * at most a tick (plus any scheduling delay) behind it.
+ * <p>
+ * One clock is shared by all the caches, and its thread is a daemon so it doesn't keep the JVM running.
+ */
+final class CoarseClock {
+
+    static final long TICK_MILLIS = 5;
+
+    private static final CoarseClock SHARED = new CoarseClock();
+
+    private volatile long now = System.currentTimeMillis();
+
+    private CoarseClock() {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "coarse-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> now = System.currentTimeMillis(), TICK_MILLIS, TICK_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    static CoarseClock shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return The epoch time in milliseconds, as of the last tick.
+     */
+    long millis() {
+        return now;
+    }
+}
@@ -0,0 +1,178 @@
+package com.brian.cache;
+
+import com.brian.Base62Encoder;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Packs a cache entry into a single byte array, so an entry costs one object rather than a
+ * {@link URLEntry} and its three strings.
+ * <p>
+ * The array holds the time the entry was added, its TTL, its code as a number, the fingerprint of its
+ * URL, the time it was last used and the UTF-8 bytes of the URL. A hash that is not a 6-character Base62
+ * code (e.g. from a custom encoder) is stored as bytes after the code. The short URL is not stored, as it
+ * is built from the scheme of the URL, the domain and the hash.
+ */
+final class CompactEntry {
+
+    // The layout of an entry.
+    private static final int TIME_ADDED = 0;
+    private static final int TTL = 8;
+    private static final int CODE = 16;
+    private static final int URL_FINGERPRINT = 24;
+    private static final int LAST_ACCESS = 32;
+    private static final int HASH_LEN = 40;
+    private static final int HASH = 41;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private CompactEntry() {
+    }
+
+    /**
+     * @param urlBytes The UTF-8 bytes of the lowercase URL.
+     * @param fingerprint The {@link #fingerprint(byte[])} of the URL.
+     * @param hash The hash used in the short URL, which must be at most 255 bytes.
+     */
+    static byte[] create(byte[] urlBytes, long fingerprint, String hash, long timeAdded, long ttl) {
+        long code = Base62Encoder.fromBase62(hash);
+        byte[] hashBytes = code >= 0 ? new byte[0] : hash.getBytes(StandardCharsets.UTF_8);
+        if (hashBytes.length > 255) {
+            throw new IllegalArgumentException("The hash is too long: " + hash);
+        }
+
+        byte[] entry = new byte[HASH + hashBytes.length + urlBytes.length];
+        LONGS.set(entry, TIME_ADDED, timeAdded);
+        LONGS.set(entry, TTL, ttl);
+        LONGS.set(entry, CODE, code);
+        LONGS.set(entry, URL_FINGERPRINT, fingerprint);
+        LONGS.set(entry, LAST_ACCESS, timeAdded);
+        entry[HASH_LEN] = (byte) hashBytes.length;
+        System.arraycopy(hashBytes, 0, entry, HASH, hashBytes.length);
+        System.arraycopy(urlBytes, 0, entry, HASH + hashBytes.length, urlBytes.length);
+        return entry;
+    }
+
+    static long timeAdded(byte[] entry) {
+        return (long) LONGS.get(entry, TIME_ADDED);
+    }
+
+    static long ttl(byte[] entry) {
+        return (long) LONGS.get(entry, TTL);
+    }
+
+    /**
+     * @return The time the entry was last used, which is the time it was added unless it is touched.
+     */
+    static long lastAccess(byte[] entry) {
+        return (long) LONGS.getOpaque(entry, LAST_ACCESS);
+    }
+
+    /**
+     * Records a use of the entry, which pushes back its expiry. This is the only field that changes once an
+     * entry is created, and it is written without a lock: a use that races with another may be lost, which
+     * can only make the entry expire slightly earlier. The time is only written once it has moved on by the
+     * granularity, so an entry that is used all the time isn't written on every use.
+     *
+     * @param now The current epoch time in milliseconds.
+     * @param granularity The least time in milliseconds between writes.
+     */
+    static void touch(byte[] entry, long now, long granularity) {
+        if (now - lastAccess(entry) >= granularity) {
+            LONGS.setOpaque(entry, LAST_ACCESS, now);
+        }
+    }
+
+    static boolean hasExpired(byte[] entry, long now) {
+        return (now - lastAccess(entry)) > ttl(entry);
+    }
+
+    static long expiresAt(byte[] entry) {
+        return lastAccess(entry) + ttl(entry);
+    }
+
+    /**
+     * @return The code, or -1 if the hash is not a 6-character Base62 code.
+     */
+    static long code(byte[] entry) {
+        return (long) LONGS.get(entry, CODE);
+    }
+
+    static String hash(byte[] entry) {
+        long code = code(entry);
+        if (code >= 0) {
+            return Base62Encoder.toBase62(code);
+        }
+        return new String(entry, HASH, hashLength(entry), StandardCharsets.UTF_8);
+    }
+
+    private static int hashLength(byte[] entry) {
+        return entry[HASH_LEN] & 0xFF;
+    }
+
+    private static int urlOffset(byte[] entry) {
+        return HASH + hashLength(entry);
+    }
+
+    static String url(byte[] entry) {
+        int offset = urlOffset(entry);
+        return new String(entry, offset, entry.length - offset, StandardCharsets.UTF_8);
+    }
+
+    static boolean hasUrl(byte[] entry, byte[] urlBytes) {
+        int offset = urlOffset(entry);
+        return Arrays.equals(entry, offset, entry.length, urlBytes, 0, urlBytes.length);
+    }
+
+    /**
+     * The URL was validated when it was first shortened, so it has a scheme.
+     */
+    static String shortUrl(byte[] entry, String domain) {
+        int offset = urlOffset(entry);
+        int colon = offset;
+        while (entry[colon] != ':') {
+            ++colon;
+        }
+        var scheme = new String(entry, offset, colon - offset, StandardCharsets.UTF_8);
+        return scheme + "://" + domain + "/" + hash(entry);
+    }
+
+    static URLEntry toURLEntry(byte[] entry, String domain) {
+        return new URLEntry(url(entry), shortUrl(entry, domain), hash(entry), timeAdded(entry), ttl(entry));
+    }
+
+    /**
+     * A 64-bit fingerprint of a URL, used to find its entry without keeping the URL as a key. Different
+     * URLs can share a fingerprint, so a match must be confirmed with {@link #hasUrl(byte[], byte[])}.
+     */
+    static long fingerprint(byte[] urlBytes) {
+        long h = urlBytes.length * 0x9E3779B97F4A7C15L;
+
+        int i = 0;
+        for (; i + Long.BYTES <= urlBytes.length; i += Long.BYTES) {
+            h = Long.rotateLeft(h ^ ((long) LONGS.get(urlBytes, i) * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (; i < urlBytes.length; ++i) {
+            h = Long.rotateLeft(h ^ ((urlBytes[i] & 0xFFL) * 0x165667B19E3779F9L), 23) * 0xC2B2AE3D27D4EB4FL;
+        }
+
+        // The finaliser from MurmurHash3, so every input bit affects every output bit.
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @return The fingerprint of the URL in an entry.
+     */
+    static long urlFingerprint(byte[] entry) {
+        return (long) LONGS.get(entry, URL_FINGERPRINT);
+    }
+}
@@ -0,0 +1,364 @@
+package com.brian.cache;
+
+import com.brian.URLEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory data store to map URLs to the shortened counterparts that does not use a global lock.
+ * <p>
+ * Both maps are {@link ConcurrentHashMap}s, which stripe their locking per bin, so concurrent shorten
+ * requests only contend when they touch the same bin. A new hash is reserved with an atomic putIfAbsent
+ * on the hashes map, and the URL is then published with an atomic putIfAbsent on the cache map. If two
+ * requests race to shorten the same URL, the loser releases its reserved hash and returns the winner's
+ * short URL. Lookups and eviction never block each other, and eviction only visits the entries that
+ * the {@link ExpiryQueue} says are due.
+ * <p>
+ * With a sliding TTL, an entry's TTL runs from when it was last used rather than from when it was added.
+ * A lookup records the use with the {@link CoarseClock} in the mapping it already found by the hash,
+ * without a lock and without allocating, and eviction schedules an entry again when it finds that it has
+ * been used since it was scheduled.
+ */
+public class ConcurrentURLCache implements URLCache, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentURLCache.class);
+
+    // How often the expired entries are evicted, in milliseconds.
+    private static final long EVICTION_PERIOD_MILLIS = 1000;
+
+    // The maximum number of entries evicted per pass of the expiry queue.
+    private static final int EVICTION_BATCH_SIZE = 1000;
+
+    // The key is the full URL (lowercase).
+    // The value is a URLEntry.
+    private final ConcurrentMap<String, URLEntry> cache = new ConcurrentHashMap<>();
+
+    // Contains the hashes used to generate the short URLs.
+    // The key is the hash, and the value holds the original URL and when it was last used.
+    private final ConcurrentMap<String, Mapping> hashes = new ConcurrentHashMap<>();
+
+    // Indexes the keys of the cache map by expiry time.
+    private final ExpiryQueue<String> expiryQueue;
+
+    private final String domain;
+
+    // The cache TTL in milliseconds.
+    private final int ttl;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final URLEncoder encoder;
+
+    private final CacheListeners listeners = new CacheListeners();
+
+    // The generated codes that were already in use.
+    private final LongAdder retries = new LongAdder();
+
+    // Whether a use of an entry pushes back its expiry.
+    private final boolean slidingTtl;
+
+    // The least time between the writes of an entry's last use, which is as fine as eviction can resolve.
+    private final long touchMillis;
+
+    private final CoarseClock clock = CoarseClock.shared();
+
+    public ConcurrentURLCache(URLEncoder encoder, String domain, int ttl) {
+        this(encoder, domain, ttl, EVICTION_PERIOD_MILLIS);
+    }
+
+    /**
+     * @param slidingTtl Whether the TTL of an entry runs from when it was last used, rather than from when
+     *                   it was added.
+     */
+    public ConcurrentURLCache(URLEncoder encoder, String domain, int ttl, boolean slidingTtl) {
+        this(encoder, domain, ttl, EVICTION_PERIOD_MILLIS, slidingTtl);
+    }
+
+    /**
+     * @param encoder Generates the hashes used in the short URLs.
+     * @param domain The domain used in the short URLs.
+     * @param ttl The cache TTL in milliseconds.
+     * @param evictionPeriod How often expired entries are evicted, in milliseconds. If this is 0 then no
+     *                       eviction is scheduled, and the caller is responsible for calling {@link #run()}.
+     */
+    public ConcurrentURLCache(URLEncoder encoder, String domain, int ttl, long evictionPeriod) {
+        this(encoder, domain, ttl, evictionPeriod, false);
+    }
+
+    ConcurrentURLCache(URLEncoder encoder, String domain, int ttl, long evictionPeriod, boolean slidingTtl) {
+        this.slidingTtl = slidingTtl;
+        this.touchMillis = ExpiryQueue.bucketWidthFor(ttl);
+        this.domain = domain;
+        this.encoder = encoder;
+        this.ttl = ttl;
+        this.expiryQueue = new ExpiryQueue<>(ExpiryQueue.bucketWidthFor(ttl));
+
+        // Schedule a periodic task to evict old entries.
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        if (evictionPeriod > 0) {
+            scheduler.scheduleAtFixedRate(this, 0, evictionPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        return shorten(uuid, url, ttl);
+    }
+
+    /**
+     * Shortens a URL with its own TTL rather than the cache-wide one. If the URL is already cached then
+     * the existing entry, and its TTL, are kept.
+     *
+     * @param uuid The request ID.
+     * @param url The URL to shorten.
+     * @param ttl The TTL of the new entry in milliseconds.
+     *
+     * @return The shortened URL, or null if the URL is not valid.
+     */
+    public String shorten(UUID uuid, String url, long ttl) {
+        try {
+            String lowercaseUrl = url.toLowerCase();
+
+            // This will validate the URL.
+            URI uri = new URL(lowercaseUrl).toURI();
+
+            // Check the cache for an existing entry.
+            var entry = cache.get(lowercaseUrl);
+            if (entry != null) {
+                String shortUrl = entry.shortUrl();
+                logger.debug("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
+                return shortUrl;
+            }
+
+            // Acquire a unique hash. Nobody else can be handed this hash until we release it.
+            long now = System.currentTimeMillis();
+            var mapping = new Mapping(lowercaseUrl, now);
+            var encoding = reserveUniqueHash(lowercaseUrl, mapping);
+            String shortUrl = uri.getScheme() + "://" + domain + "/" + encoding;
+
+            // Publish the URL. If another request beat us to it then use theirs and release our hash. The
+            // mapping is held until the listeners are told, so the entry can't be evicted before it is added.
+            var newEntry = new URLEntry(lowercaseUrl, shortUrl, encoding, now, ttl);
+            synchronized (mapping) {
+                var existing = cache.putIfAbsent(lowercaseUrl, newEntry);
+                if (existing != null) {
+                    hashes.remove(encoding, mapping);
+                    logger.debug("[{}] Found an existing entry for {} : {}", uuid, url, existing.shortUrl());
+                    return existing.shortUrl();
+                }
+                listeners.entryAdded(newEntry);
+            }
+
+            expiryQueue.schedule(lowercaseUrl, newEntry.expiresAt());
+
+            logger.debug("[{}] Caching URL {} with short version {}", uuid, url, shortUrl);
+
+            return shortUrl;
+
+        } catch (URISyntaxException | MalformedURLException e) {
+            // Not a valid URL
+            return null;
+        }
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        var mapping = hashes.get(hash);
+        if (mapping == null) {
+            return null;
+        }
+
+        if (slidingTtl) {
+            mapping.touch(clock.millis(), touchMillis);
+        }
+        return mapping.url;
+    }
+
+    /**
+     * The hash is reserved by the same putIfAbsent that checks it is free, so there is nothing for a unique
+     * encoder to skip, and its first hash is taken straight away.
+     */
+    private String reserveUniqueHash(String url, Mapping mapping) {
+        for (;;) {
+            var encoding = encoder.encode(url);
+            if (encoding != null && hashes.putIfAbsent(encoding, mapping) == null) {
+                // We have a unique hash, we're done here.
+                return encoding;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * This will evict the entries whose TTL has expired. Only the entries that are due are visited, and
+     * they are removed one at a time, so lookups and inserts carry on while eviction runs.
+     */
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+
+        logger.info("Evicting expired entries. The cache currently has {} entries.", cache.size());
+
+        while (expiryQueue.expire(now, EVICTION_BATCH_SIZE, key -> evict(key, now)) == EVICTION_BATCH_SIZE) {
+            // Keep going until everything that is due has been evicted.
+        }
+    }
+
+    private void evict(String key, long now) {
+        var urlEntry = cache.get(key);
+        if (urlEntry == null) {
+            return;
+        }
+
+        var mapping = hashes.get(urlEntry.hash());
+        long lastAccess = mapping != null ? mapping.lastAccess() : urlEntry.timeAdded();
+        if (now - lastAccess <= urlEntry.ttl()) {
+            if (slidingTtl) {
+                // It has been used since it was scheduled.
+                expiryQueue.schedule(key, lastAccess + urlEntry.ttl());
+            }
+        } else if (mapping == null) {
+            if (cache.remove(key, urlEntry)) {
+                listeners.entryEvicted(urlEntry);
+            }
+        } else if (evict(key, urlEntry, mapping)) {
+            logger.debug("Removing URL {} from the cache as its TTL has expired", urlEntry.url());
+        }
+    }
+
+    /**
+     * Removes an entry and tells the listeners, before its hash is released. A hash can't be handed out
+     * again until then, so the listeners always see an entry evicted before its hash is reused.
+     */
+    private boolean evict(String key, URLEntry urlEntry, Mapping mapping) {
+        synchronized (mapping) {
+            if (!cache.remove(key, urlEntry)) {
+                return false;
+            }
+            listeners.entryEvicted(urlEntry);
+        }
+        hashes.remove(urlEntry.hash(), mapping);
+        return true;
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        String lowercaseUrl = url.toLowerCase();
+        var entry = new URLEntry(lowercaseUrl, shortUrlFor(lowercaseUrl, hash), hash, timeAdded, ttl);
+
+        var mapping = new Mapping(lowercaseUrl, timeAdded);
+        if (hashes.putIfAbsent(hash, mapping) != null) {
+            return false;
+        }
+        if (cache.putIfAbsent(lowercaseUrl, entry) != null) {
+            hashes.remove(hash, mapping);
+            return false;
+        }
+
+        expiryQueue.schedule(lowercaseUrl, entry.expiresAt());
+        return true;
+    }
+
+    @Override
+    public boolean remove(String hash) {
+        var mapping = hashes.get(hash);
+        if (mapping == null) {
+            return false;
+        }
+
+        var urlEntry = cache.get(mapping.url);
+        return urlEntry != null && urlEntry.hash().equals(hash) && evict(mapping.url, urlEntry, mapping);
+    }
+
+    // The URL was validated when it was first shortened, so it has a scheme.
+    private String shortUrlFor(String url, String hash) {
+        return url.substring(0, url.indexOf(':')) + "://" + domain + "/" + hash;
+    }
+
+    @Override
+    public void close() {
+        logger.info("Shutting down the cache");
+        scheduler.shutdown();
+    }
+
+    /**
+     * The copy is weakly consistent: entries added or evicted while it is taken may or may not be included.
+     */
+    @Override
+    public List<URLEntry> entries() {
+        return new ArrayList<>(cache.values());
+    }
+
+    public boolean isEmpty() {
+        return cache.isEmpty();
+    }
+
+    @Override
+    public long encoderRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * The URL for a hash, and when it was last used. The time is written without a lock: a use that races
+     * with another may be lost, which can only make the entry expire slightly earlier. It is only written
+     * once it has moved on by the granularity, so a hash that is used all the time isn't written on every
+     * use.
+     */
+    private static final class Mapping {
+
+        private static final VarHandle LAST_ACCESS;
+
+        static {
+            try {
+                LAST_ACCESS = MethodHandles.lookup().findVarHandle(Mapping.class, "lastAccess", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final String url;
+
+        private long lastAccess;
+
+        Mapping(String url, long lastAccess) {
+            this.url = url;
+            this.lastAccess = lastAccess;
+        }
+
+        long lastAccess() {
+            return (long) LAST_ACCESS.getOpaque(this);
+        }
+
+        void touch(long now, long granularity) {
+            if (now - lastAccess() >= granularity) {
+                LAST_ACCESS.setOpaque(this, now);
+            }
+        }
+    }
+}
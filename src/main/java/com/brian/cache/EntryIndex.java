@@ -0,0 +1,246 @@
+package com.brian.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * A hash index of {@link CompactEntry}s by a long key that is stored in the entry itself, such as its
+ * code or the fingerprint of its URL.
+ * <p>
+ * As the key can be read back from the entry, the index only holds a reference per slot rather than a
+ * key and a value. Collisions are resolved by linear probing, removals shift the following entries back
+ * rather than leaving tombstones, and the index doubles in size once it is 70% full.
+ * <p>
+ * A {@link Scan} walks the index a chunk of slots at a time, so the caller can let other threads change
+ * the index between the chunks.
+ * <p>
+ * The index is not thread safe.
+ */
+final class EntryIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final double LOAD_FACTOR = 0.7;
+
+    private final ToLongFunction<byte[]> keyOf;
+
+    private byte[][] slots = new byte[INITIAL_CAPACITY][];
+
+    private int mask = INITIAL_CAPACITY - 1;
+
+    private int size;
+
+    // The scans under way, which are told about the entries moved across their positions.
+    private final List<Scan> scans = new ArrayList<>(0);
+
+    /**
+     * @param keyOf Reads the key from an entry.
+     */
+    EntryIndex(ToLongFunction<byte[]> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    private static int home(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    /**
+     * @return The entry with the key, or null if there isn't one.
+     */
+    byte[] get(long key) {
+        for (int i = home(key, mask); ; i = (i + 1) & mask) {
+            var entry = slots[i];
+            if (entry == null || keyOf.applyAsLong(entry) == key) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Adds an entry, whose key must not already be in the index.
+     */
+    void add(byte[] entry) {
+        if (size + 1 > (mask + 1) * LOAD_FACTOR) {
+            grow();
+        }
+
+        place(entry);
+        ++size;
+    }
+
+    private void place(byte[] entry) {
+        int i = home(keyOf.applyAsLong(entry), mask);
+        while (slots[i] != null) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = entry;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @return False if the entry was not in the index.
+     */
+    boolean remove(byte[] entry) {
+        int i = home(keyOf.applyAsLong(entry), mask);
+        for (var slot = slots[i]; slot != entry; slot = slots[i]) {
+            if (slot == null) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        for (var scan : scans) {
+            scan.removed(entry);
+        }
+
+        // Shift back any following entries that would no longer be found past the gap.
+        for (int j = (i + 1) & mask; slots[j] != null; j = (j + 1) & mask) {
+            int home = home(keyOf.applyAsLong(slots[j]), mask);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                for (var scan : scans) {
+                    scan.moved(slots[j], j, i);
+                }
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+
+        slots[i] = null;
+        --size;
+        return true;
+    }
+
+    private void grow() {
+        for (var scan : scans) {
+            scan.grown();
+        }
+
+        var old = slots;
+        slots = new byte[old.length * 2][];
+        mask = slots.length - 1;
+
+        for (var entry : old) {
+            if (entry != null) {
+                place(entry);
+            }
+        }
+    }
+
+    /**
+     * Passes every entry to the action, in no particular order.
+     */
+    void forEach(Consumer<byte[]> action) {
+        for (var entry : slots) {
+            if (entry != null) {
+                action.accept(entry);
+            }
+        }
+    }
+
+    /**
+     * Starts a scan, which must be ended with {@link #endScan(Scan)}.
+     */
+    Scan scan() {
+        var scan = new Scan();
+        scans.add(scan);
+        return scan;
+    }
+
+    void endScan(Scan scan) {
+        scans.remove(scan);
+    }
+
+    /**
+     * Passes on the entries a chunk of slots at a time. The index tells the scan about each entry it moves
+     * from a slot the scan hasn't reached to one it has passed, or the other way around, so an entry that is
+     * in the index for the whole scan is passed on exactly once. The entries added or removed during the scan
+     * may or may not be passed on. When the index grows, the entries the scan hasn't reached are held by the
+     * scan, which is then done with the slots.
+     * <p>
+     * The index must not be changed while a chunk is being scanned, and the scan is not thread safe.
+     */
+    final class Scan {
+
+        // The next slot to scan.
+        private int next;
+
+        // The entries moved behind the scan before it reached them, passed on with the next chunk.
+        private final Set<byte[]> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // The entries moved ahead of the scan after it passed them on.
+        private final Set<byte[]> passed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private Scan() {
+        }
+
+        /**
+         * Passes on the entries in the next slots.
+         *
+         * @param maxSlots The most slots to scan.
+         * @param action Given each entry.
+         *
+         * @return False once every slot has been scanned.
+         */
+        boolean next(int maxSlots, Consumer<byte[]> action) {
+            pending.forEach(action);
+            pending.clear();
+
+            int end = (int) Math.min(slots.length, (long) next + maxSlots);
+            for (; next < end; ++next) {
+                var entry = slots[next];
+                if (entry != null && !passed.remove(entry)) {
+                    action.accept(entry);
+                }
+            }
+            return next < slots.length;
+        }
+
+        private void moved(byte[] entry, int from, int to) {
+            boolean wasReached = from < next;
+            boolean isReached = to < next;
+            if (!wasReached && isReached) {
+                // Unless it was passed on and has come back round.
+                if (!passed.remove(entry)) {
+                    pending.add(entry);
+                }
+            } else if (wasReached && !isReached) {
+                // Moving back from the first slot to the last, around the end of the slots.
+                if (!pending.remove(entry)) {
+                    passed.add(entry);
+                }
+            }
+        }
+
+        private void removed(byte[] entry) {
+            pending.remove(entry);
+            passed.remove(entry);
+        }
+
+        private void grown() {
+            for (int i = next; i < slots.length; ++i) {
+                var entry = slots[i];
+                if (entry != null && !passed.contains(entry)) {
+                    pending.add(entry);
+                }
+            }
+            passed.clear();
+            next = Integer.MAX_VALUE;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+}
@@ -0,0 +1,147 @@
+package com.brian.cache;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link CompactEntry}s of a size-bounded cache in the order an {@link EvictionPolicy} would
+ * evict them, so the next entry to evict is found without scanning the cache.
+ * <p>
+ * Each entry has a node in a doubly linked list, with the next entry to evict at the head. LRU moves an
+ * entry to the tail when it is used, and FIFO leaves it where it is. LFU keeps a list per use count,
+ * which saturates at {@link #MAX_FREQUENCY}, moves an entry to the next list up when it is used and
+ * evicts from the lowest list that isn't empty. So every operation takes constant time. Once there have
+ * been 10 uses per entry, every count is halved, so entries that were popular a long time ago don't stay
+ * forever. That visits every entry, but only once per 10 uses of each, so is constant time amortized.
+ * <p>
+ * The order is not thread safe.
+ */
+final class EvictionOrder {
+
+    static final int MAX_FREQUENCY = 31;
+
+    private final Map<byte[], Node> nodes = new IdentityHashMap<>();
+
+    // The head of each list, at the index of the list's use count for LFU.
+    private final Node[] heads;
+
+    private final boolean recordAccess;
+
+    private int accesses;
+
+    EvictionOrder(EvictionPolicy policy) {
+        heads = new Node[policy == EvictionPolicy.LFU ? MAX_FREQUENCY + 1 : 1];
+        for (int i = 0; i < heads.length; ++i) {
+            heads[i] = new Node(null);
+        }
+        recordAccess = policy != EvictionPolicy.FIFO;
+    }
+
+    /**
+     * @return Whether the order depends on the entries being used, rather than just added.
+     */
+    boolean recordsAccess() {
+        return recordAccess;
+    }
+
+    void added(byte[] entry) {
+        var node = new Node(entry);
+        nodes.put(entry, node);
+        node.append(heads[0]);
+    }
+
+    /**
+     * Records a use of an entry. An entry that has already been removed is ignored.
+     */
+    void accessed(byte[] entry) {
+        if (!recordAccess) {
+            return;
+        }
+
+        var node = nodes.get(entry);
+        if (node == null) {
+            return;
+        }
+
+        node.unlink();
+        if (heads.length > 1 && node.frequency < MAX_FREQUENCY) {
+            ++node.frequency;
+        }
+        node.append(heads[node.frequency]);
+
+        if (heads.length > 1 && ++accesses >= 10 * nodes.size()) {
+            age();
+        }
+    }
+
+    void removed(byte[] entry) {
+        var node = nodes.remove(entry);
+        if (node != null) {
+            node.unlink();
+        }
+    }
+
+    /**
+     * @param keep An entry that must not be evicted, e.g. the one just added, or null.
+     *
+     * @return The next entry to evict, which is left in place, or null if there is nothing to evict.
+     */
+    byte[] victim(byte[] keep) {
+        for (var head : heads) {
+            for (var node = head.next; node != head; node = node.next) {
+                if (node.entry != keep) {
+                    return node.entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Halves every use count. The lists are visited from the lowest count up, so each node only moves
+     * once, to a list that has already been visited.
+     */
+    private void age() {
+        for (int frequency = 1; frequency < heads.length; ++frequency) {
+            var head = heads[frequency];
+            var lower = heads[frequency / 2];
+            while (head.next != head) {
+                var node = head.next;
+                node.unlink();
+                node.frequency = frequency / 2;
+                node.append(lower);
+            }
+        }
+        accesses = 0;
+    }
+
+    private static final class Node {
+
+        private final byte[] entry;
+
+        private int frequency;
+
+        private Node prev = this;
+        private Node next = this;
+
+        Node(byte[] entry) {
+            this.entry = entry;
+        }
+
+        void append(Node head) {
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.brian.cache;
+
+/**
+ * How a size-bounded cache picks the entries to evict once it is over its entry count or byte budget,
+ * selected via the cache.eviction server property.
+ */
+public enum EvictionPolicy {
+
+    /**
+     * The entry that was used least recently.
+     */
+    LRU,
+
+    /**
+     * The entry that was used least often, and of those the one used least recently.
+     */
+    LFU,
+
+    /**
+     * The entry that was added first, regardless of how it is used.
+     */
+    FIFO
+}
@@ -0,0 +1,158 @@
+package com.brian.cache;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Indexes cache keys by their expiry time so that eviction only touches the entries that are due.
+ * <p>
+ * Time is split into fixed-width buckets, and each key is appended to the queue for the bucket that
+ * contains its expiry time. A bucket becomes due once the whole of its time window has passed, at which
+ * point every key in it has expired. Each key carries its own expiry time, so entries with different TTLs
+ * share the same structure.
+ * <p>
+ * A key may be scheduled more than once (e.g. when an entry is replaced), and a scheduled key may have
+ * already been removed from the cache, so the evictor must check the entry before removing it.
+ * <p>
+ * By default keys may be scheduled from many threads at once. A cache that already serialises its calls
+ * (e.g. under a write lock) can ask for a queue that isn't concurrent, which holds each key in an array
+ * slot rather than in a linked node.
+ *
+ * @param <K> The cache key type.
+ */
+public class ExpiryQueue<K> {
+
+    // The key is the bucket number (expiry time / bucket width).
+    // The value holds the keys that expire within that bucket.
+    private final ConcurrentNavigableMap<Long, Queue<K>> buckets = new ConcurrentSkipListMap<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    // The width of each bucket in milliseconds.
+    private final long bucketMillis;
+
+    private final boolean concurrent;
+
+    public ExpiryQueue(long bucketMillis) {
+        this(bucketMillis, true);
+    }
+
+    /**
+     * @param bucketMillis The width of each bucket in milliseconds.
+     * @param concurrent False if the caller never calls {@link #schedule} or {@link #expire} from more than
+     *                   one thread at a time.
+     */
+    public ExpiryQueue(long bucketMillis, boolean concurrent) {
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("The bucket width must be positive: " + bucketMillis);
+        }
+
+        this.bucketMillis = bucketMillis;
+        this.concurrent = concurrent;
+    }
+
+    /**
+     * Picks a bucket width for the given TTL: a tenth of the TTL, capped at one second. Eviction can run
+     * up to one bucket width late, so short TTLs get a fine resolution and long TTLs don't create
+     * millions of buckets.
+     *
+     * @param ttl The TTL in milliseconds.
+     *
+     * @return The bucket width in milliseconds.
+     */
+    public static long bucketWidthFor(long ttl) {
+        return Math.max(1, Math.min(1000, ttl / 10));
+    }
+
+    /**
+     * Schedules a key for expiry.
+     *
+     * @param key The cache key.
+     * @param expiresAt The epoch time in milliseconds after which the key has expired.
+     */
+    public void schedule(K key, long expiresAt) {
+        long bucket = Math.floorDiv(expiresAt, bucketMillis);
+
+        for (;;) {
+            var queue = buckets.computeIfAbsent(bucket, b -> newBucket());
+            queue.add(key);
+
+            // If the bucket was drained and removed while we were adding to it then our key may have been
+            // missed. Add it to the replacement bucket; the evictor ignores keys it has already handled.
+            if (buckets.get(bucket) == queue) {
+                break;
+            }
+        }
+
+        size.incrementAndGet();
+    }
+
+    private Queue<K> newBucket() {
+        return concurrent ? new ConcurrentLinkedQueue<>() : new ArrayDeque<>();
+    }
+
+    /**
+     * Hands up to maxKeys keys from the buckets that are due to the evictor.
+     *
+     * @param now The current epoch time in milliseconds.
+     * @param maxKeys The maximum number of keys to hand over. Remaining keys are picked up by the next call.
+     * @param evictor Called with each due key.
+     *
+     * @return The number of keys handed to the evictor.
+     */
+    public int expire(long now, int maxKeys, Consumer<K> evictor) {
+        int count = 0;
+
+        while (count < maxKeys) {
+            var first = buckets.firstEntry();
+            if (first == null || (first.getKey() + 1) * bucketMillis > now) {
+                // Nothing else is due.
+                break;
+            }
+
+            var queue = first.getValue();
+            K key;
+            while (count < maxKeys && (key = queue.poll()) != null) {
+                size.decrementAndGet();
+                evictor.accept(key);
+                ++count;
+            }
+
+            if (queue.isEmpty() && buckets.remove(first.getKey(), queue)) {
+                // A key may have been added between the isEmpty check and the removal.
+                while ((key = queue.poll()) != null) {
+                    size.decrementAndGet();
+                    evictor.accept(key);
+                    ++count;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Removes every key, e.g. so only the keys still in the cache can be scheduled again. Must not be
+     * called while keys are being scheduled or expired.
+     */
+    public void clear() {
+        buckets.clear();
+        size.set(0);
+    }
+
+    /**
+     * @return The number of keys waiting to expire.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+}
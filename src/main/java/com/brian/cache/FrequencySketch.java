@@ -0,0 +1,99 @@
+package com.brian.cache;
+
+/**
+ * An estimate of how often each key has been seen recently, for the {@link TinyLfuCache} admission policy.
+ * <p>
+ * This is a count-min sketch of 4-bit counters: each key has a counter in each of 4 rows, and its
+ * frequency is the smallest of them, so collisions can only make a key look more popular. The counters
+ * saturate at 15, and once enough keys have been counted every counter is halved, so the estimates favour
+ * recent popularity.
+ * <p>
+ * The sketch is not thread safe.
+ */
+final class FrequencySketch {
+
+    private static final int ROWS = 4;
+
+    private static final int COUNTER_BITS = 4;
+
+    private static final int MAX_COUNT = (1 << COUNTER_BITS) - 1;
+
+    // Halves every counter in a long, keeping each within its 4 bits.
+    private static final long HALF_MASK = 0x7777_7777_7777_7777L;
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    // Each long holds 16 counters.
+    private final long[] table;
+
+    private final int mask;
+
+    // The number of increments after which the counters are halved.
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * @param capacity The number of keys being tracked, e.g. the size of the cache.
+     */
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(8, capacity - 1) << 1);
+        table = new long[size];
+        mask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    private static long hash(long key, int row) {
+        long h = (key + SEEDS[row]) * SEEDS[(row + 1) % ROWS];
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * @return The estimated number of times the key has been seen, up to 15.
+     */
+    int frequency(long key) {
+        int min = MAX_COUNT;
+        for (int row = 0; row < ROWS; ++row) {
+            long h = hash(key, row);
+            int shift = counterShift(h);
+            min = Math.min(min, (int) (table[(int) h & mask] >>> shift) & MAX_COUNT);
+        }
+        return min;
+    }
+
+    /**
+     * Counts a sighting of the key.
+     */
+    void increment(long key) {
+        boolean added = false;
+        for (int row = 0; row < ROWS; ++row) {
+            long h = hash(key, row);
+            int index = (int) h & mask;
+            int shift = counterShift(h);
+            if (((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    // The counter within the long, taken from the bits of the hash not used for the index.
+    private static int counterShift(long h) {
+        return (int) (h >>> 60) << 2;
+    }
+
+    /**
+     * Halves every counter, so the keys that were popular a while ago fade.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; ++i) {
+            table[i] = (table[i] >>> 1) & HALF_MASK;
+        }
+        additions /= 2;
+    }
+}
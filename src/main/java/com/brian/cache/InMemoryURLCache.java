@@ -1,5 +1,6 @@
 package com.brian.cache;
 
+import com.brian.Base62Encoder;
 import com.brian.URLEncoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,28 +10,69 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * An in-memory data store to map URLs to the shortened counterparts.
- *
+ * <p>
+ * Each entry is a single byte array (see {@link CompactEntry}) holding the URL once. The entries are
+ * found by their code, and by a 64-bit fingerprint of their URL that is checked against the stored bytes,
+ * through {@link EntryIndex}es that read the keys back from the entries rather than storing them again.
+ * {@link URLEntry}s are only built for listeners and {@link #entries()}.
+ * <p>
+ * Entries are evicted once their TTL expires. The cache can also be bounded by a number of entries and/or
+ * an estimate of the heap they use, beyond which entries are evicted by an {@link EvictionPolicy} as new
+ * ones are added. The lookups record the entries they use in an {@link AccessBuffer} without taking the
+ * write lock, and the uses are applied to the {@link EvictionOrder} under the write lock, when an entry is
+ * added or the buffer fills up. An entry that has just been added is never evicted to make room.
+ * <p>
+ * With a sliding TTL, an entry's TTL runs from when it was last used rather than from when it was added,
+ * so popular entries are kept. A use is recorded in the entry with the {@link CoarseClock}, without a lock
+ * and without allocating, and the eviction task schedules an entry again when it finds that it has been
+ * used since it was scheduled.
  */
 public class InMemoryURLCache implements URLCache, Runnable, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(InMemoryURLCache.class);
 
-    // The key is the full URL (lowercase).
-    // The value is a URLEntry.
-    private final Map<String, URLEntry> cache = new HashMap<>();
+    // How often the expired entries are evicted, in milliseconds.
+    private static final long EVICTION_PERIOD_MILLIS = 1000;
+
+    // The maximum number of entries evicted per write lock acquisition.
+    private static final int EVICTION_BATCH_SIZE = 1000;
+
+    // The most index slots copied under the read lock at a time by entries().
+    private static final int ENTRIES_CHUNK_SLOTS = 4096;
+
+    // The heap used by each entry on top of its bytes: the array header, the index slots, the expiry queue
+    // slot and the eviction order node.
+    static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    // The number of uses recorded by lookups between drains.
+    private static final int ACCESS_BUFFER_SIZE = 1024;
+
+    // The entries by the fingerprint of their URL (lowercase).
+    private final EntryIndex urls = new EntryIndex(CompactEntry::urlFingerprint);
+
+    // The rare entries whose fingerprint was already taken by another URL, keyed by the URL.
+    private final Map<String, byte[]> collidingUrls = new HashMap<>();
 
     // Contains the hashes used to generate the short URLs.
-    // The key is the hash, and the value is the original URL.
-    private final Map<String, String> hashes = new HashMap<>();
+    // The entries by their 6-character Base62 hash, as a number.
+    private final EntryIndex hashes = new EntryIndex(CompactEntry::code);
+
+    // Any hashes that are not 6-character Base62 codes, e.g. from a custom encoder.
+    private final Map<String, byte[]> otherHashes = new HashMap<>();
+
+    // Indexes the entries by expiry time.
+    private final ExpiryQueue<byte[]> expiryQueue;
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
@@ -43,119 +85,626 @@ public class InMemoryURLCache implements URLCache, Runnable, Closeable {
 
     private final URLEncoder encoder;
 
+    private final CacheListeners listeners = new CacheListeners();
+
+    // The generated codes that were already in use.
+    private final LongAdder retries = new LongAdder();
+
+    // The most entries, and the most bytes estimated for them. 0 means no limit.
+    private final long maxEntries;
+    private final long maxBytes;
+
+    // The order the entries are evicted in when the cache is over a limit, or null if it has no limits.
+    private final EvictionOrder evictionOrder;
+
+    // The entries used by lookups, or null if the eviction order doesn't depend on them.
+    private final AccessBuffer accesses;
+
+    // The estimated heap used by the entries, if the cache has limits.
+    private long bytes;
+
+    // Set once an entry has been restored, as its hash may be handed out again even by a unique encoder.
+    // Guarded by the write lock.
+    private boolean restored;
+
+    // Whether a use of an entry pushes back its expiry.
+    private final boolean slidingTtl;
+
+    // The least time between the writes of an entry's last use, which is as fine as eviction can resolve.
+    private final long touchMillis;
+
+    private final CoarseClock clock = CoarseClock.shared();
+
     public InMemoryURLCache(URLEncoder encoder, String domain, int ttl) {
+        this(encoder, domain, ttl, EVICTION_PERIOD_MILLIS);
+    }
+
+    /**
+     * @param slidingTtl Whether the TTL of an entry runs from when it was last used, rather than from when
+     *                   it was added.
+     * @param maxEntries The most entries held, or 0 for no limit.
+     * @param maxBytes The most heap (in bytes) estimated for the entries, or 0 for no limit.
+     * @param policy Picks the entries to evict once the cache is over either limit.
+     */
+    public InMemoryURLCache(URLEncoder encoder, String domain, int ttl, boolean slidingTtl, long maxEntries,
+                            long maxBytes, EvictionPolicy policy) {
+        this(encoder, domain, ttl, EVICTION_PERIOD_MILLIS, slidingTtl, maxEntries, maxBytes, policy);
+    }
+
+    /**
+     * @param encoder Generates the hashes used in the short URLs.
+     * @param domain The domain used in the short URLs.
+     * @param ttl The cache TTL in milliseconds.
+     * @param evictionPeriod How often expired entries are evicted, in milliseconds. If this is 0 then no
+     *                       eviction is scheduled, and the caller is responsible for calling {@link #run()}.
+     */
+    public InMemoryURLCache(URLEncoder encoder, String domain, int ttl, long evictionPeriod) {
+        this(encoder, domain, ttl, evictionPeriod, false, 0, 0, EvictionPolicy.LRU);
+    }
+
+    InMemoryURLCache(URLEncoder encoder, String domain, int ttl, long evictionPeriod, boolean slidingTtl,
+                     long maxEntries, long maxBytes, EvictionPolicy policy) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("The cache limits cannot be negative: " + maxEntries + " entries, "
+                    + maxBytes + " bytes");
+        }
+
         this.domain = domain;
         this.encoder = encoder;
         this.ttl = ttl;
+        this.expiryQueue = new ExpiryQueue<>(ExpiryQueue.bucketWidthFor(ttl), false);
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.evictionOrder = maxEntries > 0 || maxBytes > 0 ? new EvictionOrder(policy) : null;
+        this.accesses = evictionOrder != null && evictionOrder.recordsAccess()
+                ? new AccessBuffer(ACCESS_BUFFER_SIZE) : null;
+        this.slidingTtl = slidingTtl;
+        this.touchMillis = ExpiryQueue.bucketWidthFor(ttl);
 
         // Schedule a periodic task to evict old entries.
         scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(this, 0, 5, TimeUnit.SECONDS);
+        if (evictionPeriod > 0) {
+            scheduler.scheduleAtFixedRate(this, 0, evictionPeriod, TimeUnit.MILLISECONDS);
+        }
     }
 
     public String shorten(UUID uuid, String url) {
+        return shorten(uuid, url, ttl);
+    }
+
+    /**
+     * Shortens a URL with its own TTL rather than the cache-wide one. If the URL is already cached then
+     * the existing entry, and its TTL, are kept.
+     *
+     * @param uuid The request ID.
+     * @param url The URL to shorten.
+     * @param ttl The TTL of the new entry in milliseconds.
+     *
+     * @return The shortened URL, or null if the URL is not valid.
+     */
+    public String shorten(UUID uuid, String url, long ttl) {
         try {
             String lowercaseUrl = url.toLowerCase();
 
             // This will validate the URL.
             URI uri = new URL(lowercaseUrl).toURI();
 
+            byte[] urlBytes = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+            long fingerprint = CompactEntry.fingerprint(urlBytes);
+
             // Check the cache for an existing entry.
+            byte[] existing;
             try {
                 lock.readLock().lock();
-                var entry = cache.get(lowercaseUrl);
-                if (entry != null) {
-                    String shortUrl = entry.shortUrl();
-                    logger.info("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
-                    return shortUrl;
-                }
+                existing = entryForUrl(lowercaseUrl, urlBytes, fingerprint);
             } finally {
                 lock.readLock().unlock();
             }
 
+            if (existing != null) {
+                recordAccess(existing);
+                String shortUrl = CompactEntry.shortUrl(existing, domain);
+                logger.debug("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
+                return shortUrl;
+            }
+
+            String shortUrl;
+            List<byte[]> evicted = new ArrayList<>(0);
             try {
                 lock.writeLock().lock();
 
                 // Check the cache (again) for an existing entry.
-                var entry = cache.get(lowercaseUrl);
+                var entry = entryForUrl(lowercaseUrl, urlBytes, fingerprint);
                 if (entry != null) {
-                    String shortUrl = entry.shortUrl();
-                    logger.info("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
+                    shortUrl = CompactEntry.shortUrl(entry, domain);
+                    logger.debug("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
                     return shortUrl;
                 }
 
                 // Acquire a unique hash.
                 var encoding = getUniqueHash(lowercaseUrl);
-                String shortUrl = uri.getScheme() + "://" + domain + "/" + encoding;
+                shortUrl = uri.getScheme() + "://" + domain + "/" + encoding;
 
                 // Store the URL and its shortened version.
-                cache.put(lowercaseUrl, new URLEntry(lowercaseUrl, shortUrl, encoding, System.currentTimeMillis()));
+                var newEntry = CompactEntry.create(urlBytes, fingerprint, encoding, System.currentTimeMillis(), ttl);
+                add(newEntry, lowercaseUrl, fingerprint);
+                evictOverLimit(newEntry, evicted);
+                changed(newEntry, evicted);
 
-                logger.info("[{}] Caching URL {} with short version {}", uuid, url, shortUrl);
-
-                return shortUrl;
+                logger.debug("[{}] Caching URL {} with short version {}", uuid, url, shortUrl);
             } finally {
                 lock.writeLock().unlock();
             }
 
+            return shortUrl;
+
         } catch (URISyntaxException | MalformedURLException e) {
             // Not a valid URL
             return null;
         }
     }
 
+    /**
+     * Validates and encodes the URLs outside the lock, looks them all up under one read lock, and adds
+     * the new ones under one write lock.
+     */
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        int count = urls.size();
+        String[] shortUrls = new String[count];
+        String[] lowercaseUrls = new String[count];
+        byte[][] urlBytes = new byte[count][];
+        long[] fingerprints = new long[count];
+
+        for (int i = 0; i < count; ++i) {
+            try {
+                String lowercaseUrl = urls.get(i).toLowerCase();
+
+                // This will validate the URL.
+                new URL(lowercaseUrl).toURI();
+
+                lowercaseUrls[i] = lowercaseUrl;
+                urlBytes[i] = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+                fingerprints[i] = CompactEntry.fingerprint(urlBytes[i]);
+            } catch (URISyntaxException | MalformedURLException e) {
+                // Not a valid URL
+            }
+        }
+
+        // Check the cache for existing entries.
+        int missing = 0;
+        byte[][] existing = new byte[count][];
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                if (lowercaseUrls[i] != null) {
+                    existing[i] = entryForUrl(lowercaseUrls[i], urlBytes[i], fingerprints[i]);
+                    if (existing[i] == null) {
+                        ++missing;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (int i = 0; i < count; ++i) {
+            if (existing[i] != null) {
+                recordAccess(existing[i]);
+                shortUrls[i] = CompactEntry.shortUrl(existing[i], domain);
+            }
+        }
+
+        int added = 0;
+        List<byte[]> evicted = new ArrayList<>(0);
+        if (missing > 0) {
+            long now = System.currentTimeMillis();
+
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < count; ++i) {
+                    if (lowercaseUrls[i] == null || shortUrls[i] != null) {
+                        continue;
+                    }
+
+                    // Check the cache (again), which also finds URLs repeated within the batch.
+                    var entry = entryForUrl(lowercaseUrls[i], urlBytes[i], fingerprints[i]);
+                    if (entry == null) {
+                        entry = CompactEntry.create(urlBytes[i], fingerprints[i], getUniqueHash(lowercaseUrls[i]),
+                                now, ttl);
+                        add(entry, lowercaseUrls[i], fingerprints[i]);
+                        evictOverLimit(entry, evicted);
+                        changed(entry, evicted);
+                        ++added;
+                    }
+                    shortUrls[i] = CompactEntry.shortUrl(entry, domain);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        logger.debug("[{}] Shortened a batch of {} URLs, {} of them new", uuid, count, added);
+
+        return Arrays.asList(shortUrls);
+    }
+
     public String getOriginalUrlFor(String hash) {
+        byte[] entry;
         lock.readLock().lock();
         try {
-            return hashes.get(hash);
+            entry = entryFor(hash);
         } finally {
             lock.readLock().unlock();
         }
+
+        if (entry == null) {
+            return null;
+        }
+
+        // The entries are never modified, so the URL can be decoded outside the lock.
+        recordAccess(entry);
+        return CompactEntry.url(entry);
     }
 
-    private String getUniqueHash(String url) {
-        var encoding = "";
+    /**
+     * Looks up a 6-character Base62 hash that has already been decoded, so nothing is allocated.
+     */
+    @Override
+    public String getOriginalUrlFor(long code) {
+        byte[] entry;
+        lock.readLock().lock();
+        try {
+            entry = hashes.get(code);
+        } finally {
+            lock.readLock().unlock();
+        }
 
-        for (;;) {
-            encoding = encoder.encode(url);
-            if (encoding != null && hashes.get(encoding) == null) {
-                // record that we have this hash.
-                hashes.put(encoding, url);
+        if (entry == null) {
+            return null;
+        }
 
-                // We have a unique hash, we're done here.
+        recordAccess(entry);
+        return CompactEntry.url(entry);
+    }
+
+    /**
+     * Looks the hashes up under one read lock.
+     */
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> codes) {
+        byte[][] entries = new byte[codes.size()][];
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < entries.length; ++i) {
+                entries[i] = entryFor(codes.get(i));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<String> urls = new ArrayList<>(entries.length);
+        for (var entry : entries) {
+            if (entry != null) {
+                recordAccess(entry);
+            }
+            urls.add(entry != null ? CompactEntry.url(entry) : null);
+        }
+        return urls;
+    }
+
+    /**
+     * Records a use of an entry for a sliding TTL and the eviction order, and applies the recorded uses if
+     * the buffer has filled up and the write lock is free. Must be called without the lock held.
+     */
+    private void recordAccess(byte[] entry) {
+        if (slidingTtl) {
+            CompactEntry.touch(entry, clock.millis(), touchMillis);
+        }
+
+        if (accesses != null && accesses.record(entry) && lock.writeLock().tryLock()) {
+            try {
+                accesses.drain(evictionOrder::accessed);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Evicts entries by the eviction policy until the cache is within its limits.
+     * Must be called with the write lock held.
+     *
+     * @param keep The entry just added, which is not evicted.
+     * @param evicted The evicted entries are added to this, for the listeners.
+     */
+    private void evictOverLimit(byte[] keep, List<byte[]> evicted) {
+        if (evictionOrder == null) {
+            return;
+        }
+
+        if (accesses != null) {
+            accesses.drain(evictionOrder::accessed);
+        }
+
+        while ((maxEntries > 0 && evictionOrder.size() > maxEntries) || (maxBytes > 0 && bytes > maxBytes)) {
+            var victim = evictionOrder.victim(keep);
+            if (victim == null) {
                 break;
             }
+
+            remove(victim);
+            evicted.add(victim);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Removing URL {} from the cache as the cache is full", CompactEntry.url(victim));
+            }
+        }
+    }
+
+    private static long sizeOf(byte[] entry) {
+        return entry.length + ENTRY_OVERHEAD_BYTES;
+    }
+
+    // Must be called with the lock held.
+    private byte[] entryFor(String hash) {
+        long code = Base62Encoder.fromBase62(hash);
+        return code >= 0 ? hashes.get(code) : otherHashes.get(hash);
+    }
+
+    // Must be called with the lock held.
+    private byte[] entryForUrl(String url, byte[] urlBytes, long fingerprint) {
+        var entry = urls.get(fingerprint);
+        if (entry != null && CompactEntry.hasUrl(entry, urlBytes)) {
+            return entry;
+        }
+        return collidingUrls.isEmpty() ? null : collidingUrls.get(url);
+    }
+
+    // Must be called with the write lock held.
+    private void add(byte[] entry, String url, long fingerprint) {
+        if (urls.get(fingerprint) == null) {
+            urls.add(entry);
+        } else {
+            collidingUrls.put(url, entry);
+        }
+
+        long code = CompactEntry.code(entry);
+        if (code >= 0) {
+            hashes.add(entry);
+        } else {
+            otherHashes.put(CompactEntry.hash(entry), entry);
+        }
+
+        expiryQueue.schedule(entry, CompactEntry.expiresAt(entry));
+
+        if (evictionOrder != null) {
+            evictionOrder.added(entry);
+            bytes += sizeOf(entry);
+        }
+    }
+
+    // Must be called with the write lock held.
+    private void remove(byte[] entry) {
+        if (!urls.remove(entry)) {
+            collidingUrls.remove(CompactEntry.url(entry));
         }
 
-        return encoding;
+        if (CompactEntry.code(entry) >= 0) {
+            hashes.remove(entry);
+        } else {
+            otherHashes.remove(CompactEntry.hash(entry));
+        }
+
+        if (evictionOrder != null) {
+            evictionOrder.removed(entry);
+            bytes -= sizeOf(entry);
+        }
+    }
+
+    // Must be called with the write lock held, so nobody else can take the hash before it is stored.
+    private String getUniqueHash(String url) {
+        if (encoder.isUnique() && !restored) {
+            // The encoder never repeats itself, and every hash in the cache came from it, so there's no need
+            // to check.
+            var encoding = encoder.encode(url);
+            if (encoding != null) {
+                return encoding;
+            }
+        }
+
+        for (;;) {
+            var encoding = encoder.encode(url);
+            if (encoding != null && entryFor(encoding) == null) {
+                // We have a unique hash, we're done here.
+                return encoding;
+            }
+            retries.increment();
+        }
     }
 
     /**
-     * This will scan the cache and evict old entries based on the TTL.
+     * This will evict the entries whose TTL has expired. Only the entries that are due are visited, and
+     * the write lock is taken for one small batch at a time so lookups are not stalled for the whole pass.
      */
     @Override
     public void run() {
         long now = System.currentTimeMillis();
 
-        // Evict old entries.
+        logger.info("Evicting expired entries. The cache currently has {} entries.", size());
+
+        if (evictionOrder != null) {
+            compactExpiryQueue();
+        }
+
+        int visited;
+        do {
+            List<byte[]> evicted = new ArrayList<>();
+
+            lock.writeLock().lock();
+            try {
+                visited = expiryQueue.expire(now, EVICTION_BATCH_SIZE, entry -> evict(entry, now, evicted));
+                changed(null, evicted);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } while (visited == EVICTION_BATCH_SIZE);
+    }
+
+    /**
+     * The entries evicted because the cache is full are left in the expiry queue, and would hold on to
+     * their memory until their TTL expires. Once they outnumber the entries still in the cache, the queue
+     * is rebuilt from the entries still in the cache, which is constant time amortized over the evictions.
+     */
+    private void compactExpiryQueue() {
         lock.writeLock().lock();
+        try {
+            int live = hashes.size() + otherHashes.size();
+            if (expiryQueue.size() <= 2 * live) {
+                return;
+            }
 
+            logger.info("Compacting the expiry queue of {} entries to the {} still in the cache",
+                    expiryQueue.size(), live);
+            expiryQueue.clear();
+            hashes.forEach(entry -> expiryQueue.schedule(entry, CompactEntry.expiresAt(entry)));
+            otherHashes.values().forEach(entry -> expiryQueue.schedule(entry, CompactEntry.expiresAt(entry)));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Tells the listeners about an added entry and the entries evicted to make room for it, then clears
+     * the evicted list. It is called with the write lock held, so that the listeners see the changes in
+     * the order they were made, even when an evicted entry's hash is reused straight away.
+     *
+     * @param added The entry added, or null if there is none.
+     * @param evicted The entries evicted.
+     */
+    private void changed(byte[] added, List<byte[]> evicted) {
+        if (listeners.hasListeners()) {
+            if (added != null) {
+                listeners.entryAdded(CompactEntry.toURLEntry(added, domain));
+            }
+            evicted.forEach(entry -> listeners.entryEvicted(CompactEntry.toURLEntry(entry, domain)));
+        }
+        if (!evicted.isEmpty()) {
+            evicted.clear();
+        }
+    }
+
+    // Must be called with the write lock held.
+    private void evict(byte[] entry, long now, List<byte[]> evicted) {
+        long code = CompactEntry.code(entry);
+        var current = code >= 0 ? hashes.get(code) : otherHashes.get(CompactEntry.hash(entry));
+        if (current != entry) {
+            return;
+        }
+
+        if (CompactEntry.hasExpired(entry, now)) {
+            remove(entry);
+            evicted.add(entry);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Removing URL {} from the cache as its TTL has expired", CompactEntry.url(entry));
+            }
+        } else if (slidingTtl) {
+            // It has been used since it was scheduled.
+            expiryQueue.schedule(entry, CompactEntry.expiresAt(entry));
+        }
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        String lowercaseUrl = url.toLowerCase();
+        byte[] urlBytes = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+        long fingerprint = CompactEntry.fingerprint(urlBytes);
+        var entry = CompactEntry.create(urlBytes, fingerprint, hash, timeAdded, ttl);
+        List<byte[]> evicted = new ArrayList<>(0);
+
+        lock.writeLock().lock();
         try {
-            logger.info("Scanning for expired entries. The cache currently has {} entries.", cache.size());
-
-            for (var it = cache.entrySet().iterator(); it.hasNext(); ) {
-                var entry = it.next();
-                var urlEntry = entry.getValue();
-                if (urlEntry.hasExpired(now, ttl)) {
-                    var hash = urlEntry.hash();
-                    hashes.remove(hash);
-                    logger.info("Removing URL {} from the cache as its TTL has expired", urlEntry.url());
-                    it.remove();
+            if (entryForUrl(lowercaseUrl, urlBytes, fingerprint) != null || entryFor(hash) != null) {
+                return false;
+            }
+
+            add(entry, lowercaseUrl, fingerprint);
+            evictOverLimit(entry, evicted);
+            changed(null, evicted);
+            restored = true;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restores the whole batch under one acquisition of the write lock. The entries are encoded before the
+     * lock is taken.
+     */
+    @Override
+    public int restoreAll(List<URLEntry> entries) {
+        int count = entries.size();
+        var lowercaseUrls = new String[count];
+        var urlBytes = new byte[count][];
+        var restoring = new byte[count][];
+        for (int i = 0; i < count; ++i) {
+            var entry = entries.get(i);
+            lowercaseUrls[i] = entry.url().toLowerCase();
+            urlBytes[i] = lowercaseUrls[i].getBytes(StandardCharsets.UTF_8);
+            restoring[i] = CompactEntry.create(urlBytes[i], CompactEntry.fingerprint(urlBytes[i]), entry.hash(),
+                    entry.timeAdded(), entry.ttl());
+        }
+
+        int restored = 0;
+        List<byte[]> evicted = new ArrayList<>(0);
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                var entry = restoring[i];
+                long fingerprint = CompactEntry.urlFingerprint(entry);
+                if (entryForUrl(lowercaseUrls[i], urlBytes[i], fingerprint) != null
+                        || entryFor(entries.get(i).hash()) != null) {
+                    continue;
                 }
+
+                add(entry, lowercaseUrls[i], fingerprint);
+                evictOverLimit(entry, evicted);
+                changed(null, evicted);
+                this.restored = true;
+                ++restored;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return restored;
+    }
+
+    @Override
+    public boolean remove(String hash) {
+        byte[] entry;
+
+        lock.writeLock().lock();
+        try {
+            entry = entryFor(hash);
+            if (entry == null) {
+                return false;
+            }
+            // The entry is left in the expiry queue, which skips it as it is no longer the current entry.
+            remove(entry);
+            if (listeners.hasListeners()) {
+                listeners.entryEvicted(CompactEntry.toURLEntry(entry, domain));
             }
         } finally {
             lock.writeLock().unlock();
         }
+        return true;
     }
 
     @Override
@@ -170,19 +719,67 @@ public class InMemoryURLCache implements URLCache, Runnable, Closeable {
         }
     }
 
+    /**
+     * Copies the entries a chunk of index slots at a time, taking the read lock for each chunk, so the shorten
+     * requests (and eviction) are only held up for a chunk at a time however big the cache is. Every entry in
+     * the cache for the whole copy is copied once (see {@link EntryIndex.Scan}). The entries added or removed
+     * during the copy may or may not be in it.
+     */
+    @Override
+    public List<URLEntry> entries() {
+        List<byte[]> copy = new ArrayList<>(size());
+        EntryIndex.Scan scan;
+        lock.writeLock().lock();
+        try {
+            scan = hashes.scan();
+            copy.addAll(otherHashes.values());
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            boolean more = true;
+            while (more) {
+                lock.readLock().lock();
+                try {
+                    more = scan.next(ENTRIES_CHUNK_SLOTS, copy::add);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                hashes.endScan(scan);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        List<URLEntry> entries = new ArrayList<>(copy.size());
+        copy.forEach(entry -> entries.add(CompactEntry.toURLEntry(entry, domain)));
+        return entries;
+    }
+
     public boolean isEmpty() {
         lock.readLock().lock();
         try {
-            return cache.isEmpty();
+            return hashes.isEmpty() && otherHashes.isEmpty();
         } finally {
             lock.readLock().unlock();
         }
     }
 
+    @Override
+    public long encoderRetries() {
+        return retries.sum();
+    }
+
+    @Override
     public int size() {
         lock.readLock().lock();
         try {
-            return cache.size();
+            return hashes.size() + otherHashes.size();
         } finally {
             lock.readLock().unlock();
         }
@@ -0,0 +1,176 @@
+package com.brian.cache;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A hash map from non-negative long keys to values, without boxing the keys or allocating an entry
+ * object per mapping.
+ * <p>
+ * The keys and values are held in two parallel arrays with open addressing and linear probing, and a
+ * removal shifts the following entries back rather than leaving a tombstone. The map doubles in size
+ * once it is 70% full. A key is stored plus one, so an empty slot is 0 and the arrays never need filling.
+ * <p>
+ * The map is not thread safe.
+ *
+ * @param <V> The type of the values.
+ */
+public final class LongMap<V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final double LOAD_FACTOR = 0.7;
+
+    private long[] keys;
+
+    private Object[] values;
+
+    private int mask;
+
+    private int size;
+
+    public LongMap() {
+        keys = new long[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+    }
+
+    private static int home(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private int indexOf(long key) {
+        long stored = key + 1;
+        for (int i = home(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == stored) {
+                return i;
+            }
+            if (k == 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * @return The value for the key, or null if there isn't one.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @param key A key, which must not be negative.
+     * @param value The value, which must not be null.
+     *
+     * @return The previous value for the key, or null if there wasn't one.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative keys are not supported: " + key);
+        }
+
+        int i = indexOf(key);
+        if (i >= 0) {
+            var previous = (V) values[i];
+            values[i] = value;
+            return previous;
+        }
+
+        if (size + 1 > (mask + 1) * LOAD_FACTOR) {
+            grow();
+        }
+
+        place(key + 1, value);
+        ++size;
+        return null;
+    }
+
+    private void place(long stored, Object value) {
+        int i = home(stored - 1, mask);
+        while (keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = stored;
+        values[i] = value;
+    }
+
+    /**
+     * @return The value that was removed, or null if there wasn't one.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+
+        var removed = (V) values[i];
+
+        // Shift back any following entries that would no longer be found past the gap.
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = home(keys[j] - 1, mask);
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+
+        keys[i] = 0;
+        values[i] = null;
+        --size;
+        return removed;
+    }
+
+    private void grow() {
+        var oldKeys = keys;
+        var oldValues = values;
+
+        int capacity = oldKeys.length * 2;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != 0) {
+                place(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * Passes every value to the action, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> action) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != 0) {
+                action.accept((V) values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+}
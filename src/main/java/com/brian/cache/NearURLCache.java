@@ -0,0 +1,309 @@
+package com.brian.cache;
+
+import com.brian.Base62Encoder;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small cache of the hottest codes in front of another {@link URLCache}, held separately by each thread
+ * (i.e. each event loop), so a lookup of a hot code reads nothing that is shared with the other threads.
+ * Each thread keeps the codes it looks up most, using the {@link TinyLfuCache} W-TinyLFU policy, so a
+ * scan of codes that are each only used once does not push out the hot ones.
+ * <p>
+ * The near cache must be added as a listener to the cache it is in front of. Evicted codes are written
+ * to a ring shared by all the threads, and each thread drops the codes it has missed at the start of its
+ * next lookup, before it reads anything from the other cache. If a thread falls so far behind that the
+ * ring has wrapped, it drops everything. A URL is also dropped once it is
+ * {@link #DEFAULT_MAX_AGE_MILLIS} old, which bounds how long one can outlive its entry when there is no
+ * eviction to tell us, e.g. for an entry that is only in a snapshot.
+ * <p>
+ * Everything apart from the lookups is passed straight through. Closing the near cache does not close the
+ * cache it is in front of.
+ */
+public final class NearURLCache implements URLCache, CacheListener {
+
+    static final long DEFAULT_MAX_AGE_MILLIS = 10_000;
+
+    static final int DEFAULT_RING_SIZE = 65536;
+
+    private final URLCache cache;
+
+    private final int capacity;
+
+    private final long maxAgeMillis;
+
+    // The codes evicted from the other cache. The slot for each eviction is its sequence number & mask.
+    private final long[] ring;
+
+    private final int mask;
+
+    // The number of evictions written to the ring, which publishes the ring's contents to the readers.
+    private final AtomicLong evictedSeq = new AtomicLong();
+
+    private final ThreadLocal<Local> locals = ThreadLocal.withInitial(this::newLocal);
+
+    private final List<Local> allLocals = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param cache The cache to put the near cache in front of.
+     * @param capacity The most codes held by each thread, at least 2.
+     */
+    public NearURLCache(URLCache cache, int capacity) {
+        this(cache, capacity, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param maxAgeMillis How long a URL is held before it is looked up again, e.g. less than a sliding TTL
+     *                     so the lookups keep popular entries alive in the other cache.
+     */
+    public NearURLCache(URLCache cache, int capacity, long maxAgeMillis) {
+        this(cache, capacity, maxAgeMillis, DEFAULT_RING_SIZE);
+    }
+
+    NearURLCache(URLCache cache, int capacity, long maxAgeMillis, int ringSize) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("The capacity must be at least 2: " + capacity);
+        }
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("The ring size must be a power of 2: " + ringSize);
+        }
+
+        this.cache = cache;
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        ring = new long[ringSize];
+        mask = ringSize - 1;
+    }
+
+    private Local newLocal() {
+        var local = new Local(new TinyLfuCache<>(capacity), evictedSeq.get());
+        allLocals.add(local);
+        return local;
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        return cache.shorten(uuid, url);
+    }
+
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        return cache.shortenAll(uuid, urls);
+    }
+
+    @Override
+    public CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        return cache.shortenAsync(uuid, url);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return cache.shortenAllAsync(uuid, urls);
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        var code = Base62Encoder.fromBase62(hash);
+        return code < 0 ? cache.getOriginalUrlFor(hash) : getOriginalUrlFor(code);
+    }
+
+    @Override
+    public String getOriginalUrlFor(long code) {
+        var local = locals.get();
+        var url = lookUp(local, code);
+        if (url != null) {
+            return url;
+        }
+
+        url = cache.getOriginalUrlFor(code);
+        if (url != null) {
+            local.urls.put(code, new Cached(url, System.currentTimeMillis()));
+        }
+        return url;
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        var code = Base62Encoder.fromBase62(hash);
+        return code < 0 ? cache.getOriginalUrlForAsync(hash) : getOriginalUrlForAsync(code);
+    }
+
+    /**
+     * A URL that comes back on another thread isn't kept, as this thread's near cache can only be changed
+     * by this thread.
+     */
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        var local = locals.get();
+        var url = lookUp(local, code);
+        if (url != null) {
+            return CompletableFuture.completedFuture(url);
+        }
+
+        var future = cache.getOriginalUrlForAsync(code);
+        url = future.getNow(null);
+        if (url != null) {
+            local.urls.put(code, new Cached(url, System.currentTimeMillis()));
+        }
+        return future;
+    }
+
+    /**
+     * @return The URL from this thread's near cache, or null if it has to be looked up in the other cache,
+     *         which is counted as a miss.
+     */
+    private String lookUp(Local local, long code) {
+        drainEvictions(local);
+
+        var cached = local.urls.get(code);
+        if (cached != null) {
+            if (System.currentTimeMillis() - cached.createdAt <= maxAgeMillis) {
+                local.hits.lazySet(local.hits.get() + 1);
+                return cached.url;
+            }
+            local.urls.remove(code);
+        }
+
+        local.misses.lazySet(local.misses.get() + 1);
+        return null;
+    }
+
+    /**
+     * The batches are looked up in the other cache, which can take its locks once for the whole batch.
+     */
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> hashes) {
+        return cache.getOriginalUrlsFor(hashes);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return cache.getOriginalUrlsForAsync(hashes);
+    }
+
+    /**
+     * Drops the codes evicted since this thread last looked.
+     */
+    private void drainEvictions(Local local) {
+        long seq = evictedSeq.get();
+        if (seq == local.seen) {
+            return;
+        }
+
+        if (seq - local.seen > ring.length) {
+            local.urls.clear();
+        } else {
+            for (long s = local.seen; s < seq; ++s) {
+                local.urls.remove(ring[(int) s & mask]);
+            }
+
+            // If the ring has been written all the way round since, some of what we read may be newer evictions.
+            if (evictedSeq.get() - local.seen >= ring.length) {
+                local.urls.clear();
+            }
+        }
+        local.seen = seq;
+    }
+
+    @Override
+    public void entryAdded(URLEntry entry) {
+        // A new code can't be in the near cache, as only the URLs that were found are kept.
+    }
+
+    @Override
+    public synchronized void entryEvicted(URLEntry entry) {
+        var code = Base62Encoder.fromBase62(entry.hash());
+        if (code < 0) {
+            return;
+        }
+
+        long seq = evictedSeq.get();
+        ring[(int) seq & mask] = code;
+        evictedSeq.set(seq + 1);
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        cache.addListener(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        return cache.restore(url, hash, timeAdded, ttl);
+    }
+
+    @Override
+    public int restoreAll(List<URLEntry> entries) {
+        return cache.restoreAll(entries);
+    }
+
+    @Override
+    public boolean remove(String hash) {
+        return cache.remove(hash);
+    }
+
+    @Override
+    public List<URLEntry> entries() {
+        return cache.entries();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public long encoderRetries() {
+        return cache.encoderRetries();
+    }
+
+    /**
+     * @return The lookups answered by the near cache, across all the threads.
+     */
+    public long hits() {
+        return allLocals.stream().mapToLong(local -> local.hits.get()).sum();
+    }
+
+    /**
+     * @return The lookups that went to the other cache, across all the threads.
+     */
+    public long misses() {
+        return allLocals.stream().mapToLong(local -> local.misses.get()).sum();
+    }
+
+    /**
+     * @return The fraction of the lookups answered by the near cache, or 0 before the first lookup.
+     */
+    public double hitRatio() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private record Cached(String url, long createdAt) {
+    }
+
+    /**
+     * A thread's own near cache. The counters are only written by the thread, so they are bumped with a
+     * plain write rather than an atomic increment, and are only atomic so they can be read when scraped.
+     */
+    private static final class Local {
+
+        private final TinyLfuCache<Cached> urls;
+
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        // The number of evictions this thread has dropped.
+        private long seen;
+
+        Local(TinyLfuCache<Cached> urls, long seen) {
+            this.urls = urls;
+            this.seen = seen;
+        }
+    }
+}
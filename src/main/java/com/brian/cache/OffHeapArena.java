@@ -0,0 +1,166 @@
+package com.brian.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocates blocks of memory outside the Java heap for {@link OffHeapURLCache}.
+ * <p>
+ * Memory is taken from the JVM in large direct buffers (pages) and handed out in blocks, which are
+ * rounded up to a multiple of 16 bytes. Freed blocks go on a free list for their size, and are reused
+ * before any more of a page is used. A block is addressed by a long holding its page and offset, and
+ * an address is never 0.
+ * <p>
+ * The arena is not thread safe. Reads may happen concurrently, but not while anything is being
+ * allocated, freed or written.
+ */
+final class OffHeapArena {
+
+    // 64MB pages.
+    static final int PAGE_BITS = 26;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    // The largest block that can be allocated.
+    static final int MAX_BLOCK = 64 * 1024;
+
+    private static final int ALIGN_BITS = 4;
+
+    private final List<ByteBuffer> pages = new ArrayList<>();
+
+    // The first free block of each size, or 0. Each free block holds the address of the next one.
+    private final long[] freeLists = new long[(MAX_BLOCK >> ALIGN_BITS) + 1];
+
+    // Where the next block is carved from the last page.
+    private int pageTop = PAGE_SIZE;
+
+    private long usedBytes;
+
+    /**
+     * @param size The number of bytes needed, at least 8.
+     *
+     * @return The address of the block.
+     */
+    long allocate(int size) {
+        int sizeClass = sizeClassOf(size);
+        long address = freeLists[sizeClass];
+        if (address != 0) {
+            freeLists[sizeClass] = getLong(address, 0);
+        } else {
+            int blockSize = sizeClass << ALIGN_BITS;
+            if (pageTop + blockSize > PAGE_SIZE) {
+                pages.add(ByteBuffer.allocateDirect(PAGE_SIZE));
+                pageTop = 0;
+            }
+            address = addressOf(pages.size() - 1, pageTop);
+            pageTop += blockSize;
+        }
+
+        usedBytes += (long) sizeClass << ALIGN_BITS;
+        return address;
+    }
+
+    /**
+     * Returns a block for reuse.
+     *
+     * @param address The address of the block.
+     * @param size The size it was allocated with.
+     */
+    void free(long address, int size) {
+        int sizeClass = sizeClassOf(size);
+        putLong(address, 0, freeLists[sizeClass]);
+        freeLists[sizeClass] = address;
+        usedBytes -= (long) sizeClass << ALIGN_BITS;
+    }
+
+    private static int sizeClassOf(int size) {
+        if (size > MAX_BLOCK) {
+            throw new IllegalArgumentException("Cannot allocate " + size + " bytes off-heap");
+        }
+        return (Math.max(size, Long.BYTES) + (1 << ALIGN_BITS) - 1) >>> ALIGN_BITS;
+    }
+
+    private static long addressOf(int page, int offset) {
+        return ((long) (page + 1) << PAGE_BITS) | offset;
+    }
+
+    private ByteBuffer page(long address) {
+        return pages.get((int) (address >>> PAGE_BITS) - 1);
+    }
+
+    private static int offset(long address, int offset) {
+        return (int) (address & (PAGE_SIZE - 1)) + offset;
+    }
+
+    long getLong(long address, int offset) {
+        return page(address).getLong(offset(address, offset));
+    }
+
+    void putLong(long address, int offset, long value) {
+        page(address).putLong(offset(address, offset), value);
+    }
+
+    int getInt(long address, int offset) {
+        return page(address).getInt(offset(address, offset));
+    }
+
+    void putInt(long address, int offset, int value) {
+        page(address).putInt(offset(address, offset), value);
+    }
+
+    short getShort(long address, int offset) {
+        return page(address).getShort(offset(address, offset));
+    }
+
+    void putShort(long address, int offset, short value) {
+        page(address).putShort(offset(address, offset), value);
+    }
+
+    byte[] getBytes(long address, int offset, int length) {
+        var bytes = new byte[length];
+        page(address).get(offset(address, offset), bytes);
+        return bytes;
+    }
+
+    void putBytes(long address, int offset, byte[] bytes) {
+        page(address).put(offset(address, offset), bytes);
+    }
+
+    /**
+     * @return True if the bytes at the address are the same as the given bytes.
+     */
+    boolean equals(long address, int offset, byte[] bytes) {
+        var page = page(address);
+        int start = offset(address, offset);
+        for (int i = 0; i < bytes.length; ++i) {
+            if (page.get(start + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The bytes in use by allocated blocks.
+     */
+    long usedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return The bytes taken from the JVM.
+     */
+    long reservedBytes() {
+        return (long) pages.size() * PAGE_SIZE;
+    }
+
+    /**
+     * Drops every page. The memory is returned once the pages are garbage collected.
+     */
+    void release() {
+        pages.clear();
+        java.util.Arrays.fill(freeLists, 0);
+        pageTop = PAGE_SIZE;
+        usedBytes = 0;
+    }
+}
@@ -0,0 +1,180 @@
+package com.brian.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An open-addressing hash index, held outside the Java heap, from a key to the address of an entry in
+ * an {@link OffHeapArena}. The keys themselves are stored in the entries.
+ * <p>
+ * Each slot is a long holding the entry address in the low 40 bits and 24 bits of the key's hash in
+ * the high bits, so most mismatches are rejected without reading the entry. Collisions are resolved by
+ * linear probing, and removals shift the following entries back rather than leaving tombstones. The
+ * index doubles in size once it is 70% full.
+ * <p>
+ * The index is not thread safe. Lookups may happen concurrently, but not while it is being modified.
+ */
+final class OffHeapIndex {
+
+    private static final int ADDRESS_BITS = 40;
+    private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // A direct buffer holds at most 2GB.
+    private static final int MAX_CAPACITY = 1 << 27;
+
+    private static final double LOAD_FACTOR = 0.7;
+
+    /**
+     * Tests whether the entry at an address has the given key.
+     */
+    @FunctionalInterface
+    interface Matcher {
+        boolean matches(long address, byte[] key);
+    }
+
+    /**
+     * Returns the hash of the key of the entry at an address.
+     */
+    @FunctionalInterface
+    interface Hasher {
+        int hashOf(long address);
+    }
+
+    private final Hasher hasher;
+
+    private ByteBuffer slots;
+
+    private int mask;
+
+    private int size;
+
+    OffHeapIndex(Hasher hasher) {
+        this.hasher = hasher;
+        this.slots = ByteBuffer.allocateDirect(INITIAL_CAPACITY * Long.BYTES);
+        this.mask = INITIAL_CAPACITY - 1;
+    }
+
+    private static long mix(int hash) {
+        long h = hash * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static long tagOf(long mixed) {
+        return mixed & ~ADDRESS_MASK;
+    }
+
+    private long slot(int index) {
+        return slots.getLong(index << 3);
+    }
+
+    private void setSlot(int index, long value) {
+        slots.putLong(index << 3, value);
+    }
+
+    /**
+     * @return The address of the entry with the key, or 0 if there isn't one.
+     */
+    long find(int hash, byte[] key, Matcher matcher) {
+        long mixed = mix(hash);
+        long tag = tagOf(mixed);
+
+        for (int i = (int) mixed & mask; ; i = (i + 1) & mask) {
+            long slot = slot(i);
+            if (slot == 0) {
+                return 0;
+            }
+
+            long address = slot & ADDRESS_MASK;
+            if ((slot & ~ADDRESS_MASK) == tag && matcher.matches(address, key)) {
+                return address;
+            }
+        }
+    }
+
+    /**
+     * Adds an entry, whose key must not already be in the index.
+     */
+    void insert(int hash, long address) {
+        if (size + 1 > (mask + 1) * LOAD_FACTOR) {
+            grow();
+        }
+
+        place(mix(hash), address);
+        ++size;
+    }
+
+    private void place(long mixed, long address) {
+        int i = (int) mixed & mask;
+        while (slot(i) != 0) {
+            i = (i + 1) & mask;
+        }
+        setSlot(i, tagOf(mixed) | address);
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @return False if the entry was not in the index.
+     */
+    boolean remove(int hash, long address) {
+        int i = (int) mix(hash) & mask;
+        for (long slot = slot(i); (slot & ADDRESS_MASK) != address; slot = slot(i)) {
+            if (slot == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // Shift back any following entries that would no longer be found past the gap.
+        for (int j = (i + 1) & mask; ; j = (j + 1) & mask) {
+            long slot = slot(j);
+            if (slot == 0) {
+                break;
+            }
+
+            int home = (int) mix(hasher.hashOf(slot & ADDRESS_MASK)) & mask;
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                setSlot(i, slot);
+                i = j;
+            }
+        }
+
+        setSlot(i, 0);
+        --size;
+        return true;
+    }
+
+    private void grow() {
+        int capacity = (mask + 1) * 2;
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalStateException("The off-heap index is full at " + size + " entries");
+        }
+
+        var old = slots;
+        int oldCapacity = mask + 1;
+
+        slots = ByteBuffer.allocateDirect(capacity * Long.BYTES);
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldCapacity; ++i) {
+            long slot = old.getLong(i << 3);
+            if (slot != 0) {
+                long address = slot & ADDRESS_MASK;
+                place(mix(hasher.hashOf(address)), address);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return The bytes used by the slots.
+     */
+    long capacityBytes() {
+        return (long) (mask + 1) * Long.BYTES;
+    }
+}
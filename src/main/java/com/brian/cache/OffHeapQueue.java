@@ -0,0 +1,81 @@
+package com.brian.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A first in, first out queue of longs held outside the Java heap, which doubles in size when full.
+ * <p>
+ * The queue is not thread safe. Reads may happen concurrently, but not while it is being modified.
+ */
+final class OffHeapQueue {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private ByteBuffer ring = ByteBuffer.allocateDirect(INITIAL_CAPACITY * Long.BYTES);
+
+    private int mask = INITIAL_CAPACITY - 1;
+
+    private long head;
+    private long tail;
+
+    void add(long value) {
+        if (tail - head > mask) {
+            grow();
+        }
+        ring.putLong((int) (tail++ & mask) << 3, value);
+    }
+
+    /**
+     * @return The value at the head of the queue, or 0 if it is empty.
+     */
+    long peek() {
+        return isEmpty() ? 0 : get(0);
+    }
+
+    /**
+     * @return The value at the head of the queue, which is removed, or 0 if it is empty.
+     */
+    long poll() {
+        return isEmpty() ? 0 : ring.getLong((int) (head++ & mask) << 3);
+    }
+
+    /**
+     * @param index The position from the head of the queue.
+     */
+    long get(long index) {
+        return ring.getLong((int) ((head + index) & mask) << 3);
+    }
+
+    private void grow() {
+        int capacity = (mask + 1) * 2;
+        if (capacity < 0 || (long) capacity * Long.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The off-heap queue is full at " + size() + " entries");
+        }
+
+        var grown = ByteBuffer.allocateDirect(capacity * Long.BYTES);
+        long size = size();
+        for (long i = 0; i < size; ++i) {
+            grown.putLong((int) i << 3, get(i));
+        }
+
+        ring = grown;
+        mask = capacity - 1;
+        head = 0;
+        tail = size;
+    }
+
+    long size() {
+        return tail - head;
+    }
+
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * @return The bytes used by the queue.
+     */
+    long capacityBytes() {
+        return (long) (mask + 1) * Long.BYTES;
+    }
+}
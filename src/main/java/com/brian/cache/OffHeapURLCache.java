@@ -0,0 +1,514 @@
+package com.brian.cache;
+
+import com.brian.URLEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A cache that keeps its entries outside the Java heap, so the heap (and the garbage collector's work)
+ * stays the same size however many entries there are.
+ * <p>
+ * Each entry is a single block in an {@link OffHeapArena} holding the time it was added, its TTL, the
+ * hashes of its URL and code, and the UTF-8 bytes of the code and the URL. Two {@link OffHeapIndex}es
+ * find an entry by its URL and by its code. The entries are held in an {@link OffHeapQueue} per TTL, in
+ * the order they were added, which is the order the entries with the same TTL expire in, so an entry with a
+ * long TTL never holds up the eviction of the shorter ones. Lookups never return an expired entry. Like
+ * {@link InMemoryURLCache}, everything is guarded by a single read/write lock.
+ */
+public class OffHeapURLCache implements URLCache, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapURLCache.class);
+
+    // How often the expired entries are evicted, in milliseconds.
+    private static final long EVICTION_PERIOD_MILLIS = 1000;
+
+    // The maximum number of entries evicted per write lock acquisition.
+    private static final int EVICTION_BATCH_SIZE = 1000;
+
+    // The layout of an entry.
+    private static final int TIME_ADDED = 0;
+    private static final int TTL = 8;
+    private static final int URL_HASH = 16;
+    private static final int CODE_HASH = 20;
+    private static final int URL_LEN = 24;
+    private static final int CODE_LEN = 28;
+    private static final int CODE = 30;
+
+    private final OffHeapArena arena = new OffHeapArena();
+
+    private final OffHeapIndex byUrl = new OffHeapIndex(address -> arena.getInt(address, URL_HASH));
+
+    private final OffHeapIndex byCode = new OffHeapIndex(address -> arena.getInt(address, CODE_HASH));
+
+    private final OffHeapIndex.Matcher urlMatcher = this::hasUrl;
+
+    private final OffHeapIndex.Matcher codeMatcher = this::hasCode;
+
+    // The entry addresses in the order they were added, by their TTL. There are only ever a few TTLs.
+    private final Map<Long, OffHeapQueue> expiryQueues = new HashMap<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final String domain;
+
+    // The cache TTL in milliseconds.
+    private final int ttl;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final URLEncoder encoder;
+
+    private final CacheListeners listeners = new CacheListeners();
+
+    // The generated codes that were already in use.
+    private final LongAdder retries = new LongAdder();
+
+    public OffHeapURLCache(URLEncoder encoder, String domain, int ttl) {
+        this(encoder, domain, ttl, EVICTION_PERIOD_MILLIS);
+    }
+
+    /**
+     * @param encoder Generates the hashes used in the short URLs.
+     * @param domain The domain used in the short URLs.
+     * @param ttl The cache TTL in milliseconds.
+     * @param evictionPeriod How often expired entries are evicted, in milliseconds. If this is 0 then no
+     *                       eviction is scheduled, and the caller is responsible for calling {@link #run()}.
+     */
+    public OffHeapURLCache(URLEncoder encoder, String domain, int ttl, long evictionPeriod) {
+        this.domain = domain;
+        this.encoder = encoder;
+        this.ttl = ttl;
+
+        // Schedule a periodic task to evict old entries.
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        if (evictionPeriod > 0) {
+            scheduler.scheduleAtFixedRate(this, 0, evictionPeriod, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        return shorten(uuid, url, ttl);
+    }
+
+    /**
+     * Shortens a URL with its own TTL rather than the cache-wide one. If the URL is already cached then
+     * the existing entry, and its TTL, are kept.
+     *
+     * @param uuid The request ID.
+     * @param url The URL to shorten.
+     * @param ttl The TTL of the new entry in milliseconds.
+     *
+     * @return The shortened URL, or null if the URL is not valid.
+     */
+    public String shorten(UUID uuid, String url, long ttl) {
+        try {
+            String lowercaseUrl = url.toLowerCase();
+
+            // This will validate the URL.
+            URI uri = new URL(lowercaseUrl).toURI();
+
+            byte[] urlBytes = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+            int urlHash = lowercaseUrl.hashCode();
+
+            // Check the cache for an existing entry.
+            lock.readLock().lock();
+            try {
+                long address = byUrl.find(urlHash, urlBytes, urlMatcher);
+                if (address != 0) {
+                    String shortUrl = uri.getScheme() + "://" + domain + "/" + codeOf(address);
+                    logger.debug("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
+                    return shortUrl;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            URLEntry newEntry;
+            lock.writeLock().lock();
+            try {
+                // Check the cache (again) for an existing entry.
+                long address = byUrl.find(urlHash, urlBytes, urlMatcher);
+                if (address != 0) {
+                    String shortUrl = uri.getScheme() + "://" + domain + "/" + codeOf(address);
+                    logger.debug("[{}] Found an existing entry for {} : {}", uuid, url, shortUrl);
+                    return shortUrl;
+                }
+
+                // Acquire a unique hash.
+                var encoding = getUniqueHash(lowercaseUrl);
+                String shortUrl = uri.getScheme() + "://" + domain + "/" + encoding;
+
+                newEntry = new URLEntry(lowercaseUrl, shortUrl, encoding, System.currentTimeMillis(), ttl);
+                if (add(newEntry, urlBytes) == 0) {
+                    logger.warn("[{}] The URL is too long to cache: {}", uuid, url);
+                    return null;
+                }
+                listeners.entryAdded(newEntry);
+
+                logger.debug("[{}] Caching URL {} with short version {}", uuid, url, shortUrl);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            return newEntry.shortUrl();
+
+        } catch (URISyntaxException | MalformedURLException e) {
+            // Not a valid URL
+            return null;
+        }
+    }
+
+    /**
+     * Validates the URLs outside the lock, looks them all up under one read lock, and adds the new ones
+     * under one write lock.
+     */
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        int count = urls.size();
+        String[] shortUrls = new String[count];
+        String[] lowercaseUrls = new String[count];
+        byte[][] urlBytes = new byte[count][];
+
+        for (int i = 0; i < count; ++i) {
+            try {
+                String lowercaseUrl = urls.get(i).toLowerCase();
+
+                // This will validate the URL.
+                new URL(lowercaseUrl).toURI();
+
+                lowercaseUrls[i] = lowercaseUrl;
+                urlBytes[i] = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+            } catch (URISyntaxException | MalformedURLException e) {
+                // Not a valid URL
+            }
+        }
+
+        // Check the cache for existing entries.
+        int missing = 0;
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < count; ++i) {
+                if (lowercaseUrls[i] != null) {
+                    long address = byUrl.find(lowercaseUrls[i].hashCode(), urlBytes[i], urlMatcher);
+                    if (address != 0) {
+                        shortUrls[i] = shortUrlFor(lowercaseUrls[i], codeOf(address));
+                    } else {
+                        ++missing;
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int added = 0;
+        if (missing > 0) {
+            long now = System.currentTimeMillis();
+
+            lock.writeLock().lock();
+            try {
+                for (int i = 0; i < count; ++i) {
+                    if (lowercaseUrls[i] == null || shortUrls[i] != null) {
+                        continue;
+                    }
+
+                    // Check the cache (again), which also finds URLs repeated within the batch.
+                    long address = byUrl.find(lowercaseUrls[i].hashCode(), urlBytes[i], urlMatcher);
+                    if (address != 0) {
+                        shortUrls[i] = shortUrlFor(lowercaseUrls[i], codeOf(address));
+                        continue;
+                    }
+
+                    var encoding = getUniqueHash(lowercaseUrls[i]);
+                    var shortUrl = shortUrlFor(lowercaseUrls[i], encoding);
+                    var newEntry = new URLEntry(lowercaseUrls[i], shortUrl, encoding, now, ttl);
+                    if (add(newEntry, urlBytes[i]) == 0) {
+                        logger.warn("[{}] The URL is too long to cache: {}", uuid, urls.get(i));
+                        continue;
+                    }
+
+                    shortUrls[i] = shortUrl;
+                    listeners.entryAdded(newEntry);
+                    ++added;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        logger.debug("[{}] Shortened a batch of {} URLs, {} of them new", uuid, count, added);
+
+        return Arrays.asList(shortUrls);
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        byte[] code = hash.getBytes(StandardCharsets.UTF_8);
+
+        lock.readLock().lock();
+        try {
+            long address = byCode.find(hash.hashCode(), code, codeMatcher);
+            if (address == 0 || hasExpired(address, System.currentTimeMillis())) {
+                return null;
+            }
+            return urlOf(address);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Looks the hashes up under one read lock.
+     */
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> codes) {
+        List<String> urls = new ArrayList<>(codes.size());
+        long now = System.currentTimeMillis();
+
+        lock.readLock().lock();
+        try {
+            for (var hash : codes) {
+                long address = byCode.find(hash.hashCode(), hash.getBytes(StandardCharsets.UTF_8), codeMatcher);
+                urls.add(address == 0 || hasExpired(address, now) ? null : urlOf(address));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return urls;
+    }
+
+    // Must be called with the write lock held.
+    private String getUniqueHash(String url) {
+        for (;;) {
+            var encoding = encoder.encode(url);
+            if (encoding != null
+                    && byCode.find(encoding.hashCode(), encoding.getBytes(StandardCharsets.UTF_8), codeMatcher) == 0) {
+                return encoding;
+            }
+            retries.increment();
+        }
+    }
+
+    /**
+     * Copies an entry off-heap and indexes it. Must be called with the write lock held.
+     *
+     * @return The address of the entry, or 0 if it is too large.
+     */
+    private long add(URLEntry entry, byte[] urlBytes) {
+        byte[] code = entry.hash().getBytes(StandardCharsets.UTF_8);
+        int size = CODE + code.length + urlBytes.length;
+        if (size > OffHeapArena.MAX_BLOCK) {
+            return 0;
+        }
+
+        long address = arena.allocate(size);
+        arena.putLong(address, TIME_ADDED, entry.timeAdded());
+        arena.putLong(address, TTL, entry.ttl());
+        arena.putInt(address, URL_HASH, entry.url().hashCode());
+        arena.putInt(address, CODE_HASH, entry.hash().hashCode());
+        arena.putInt(address, URL_LEN, urlBytes.length);
+        arena.putShort(address, CODE_LEN, (short) code.length);
+        arena.putBytes(address, CODE, code);
+        arena.putBytes(address, CODE + code.length, urlBytes);
+
+        byUrl.insert(entry.url().hashCode(), address);
+        byCode.insert(entry.hash().hashCode(), address);
+        expiryQueues.computeIfAbsent(entry.ttl(), t -> new OffHeapQueue()).add(address);
+
+        return address;
+    }
+
+    private boolean hasUrl(long address, byte[] url) {
+        return arena.getInt(address, URL_LEN) == url.length
+                && arena.equals(address, CODE + arena.getShort(address, CODE_LEN), url);
+    }
+
+    private boolean hasCode(long address, byte[] code) {
+        return arena.getShort(address, CODE_LEN) == code.length && arena.equals(address, CODE, code);
+    }
+
+    private String codeOf(long address) {
+        return new String(arena.getBytes(address, CODE, arena.getShort(address, CODE_LEN)), StandardCharsets.UTF_8);
+    }
+
+    private String urlOf(long address) {
+        int urlLen = arena.getInt(address, URL_LEN);
+        return new String(arena.getBytes(address, CODE + arena.getShort(address, CODE_LEN), urlLen),
+                StandardCharsets.UTF_8);
+    }
+
+    private boolean hasExpired(long address, long now) {
+        return now - arena.getLong(address, TIME_ADDED) > arena.getLong(address, TTL);
+    }
+
+    private URLEntry entryAt(long address) {
+        var url = urlOf(address);
+        var code = codeOf(address);
+        return new URLEntry(url, shortUrlFor(url, code), code, arena.getLong(address, TIME_ADDED),
+                arena.getLong(address, TTL));
+    }
+
+    // The URL was validated when it was first shortened, so it has a scheme.
+    private String shortUrlFor(String url, String hash) {
+        return url.substring(0, url.indexOf(':')) + "://" + domain + "/" + hash;
+    }
+
+    /**
+     * This will evict the entries whose TTL has expired, oldest first for each TTL. The write lock is taken
+     * for one small batch at a time so lookups are not stalled for the whole pass.
+     */
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+
+        logger.info("Evicting expired entries. The cache currently has {} entries.", size());
+
+        int evictedCount;
+        do {
+            evictedCount = 0;
+
+            lock.writeLock().lock();
+            try {
+                var queues = expiryQueues.values().iterator();
+                while (queues.hasNext() && evictedCount < EVICTION_BATCH_SIZE) {
+                    var expiryQueue = queues.next();
+                    for (long address = expiryQueue.peek();
+                         address != 0 && hasExpired(address, now) && evictedCount < EVICTION_BATCH_SIZE;
+                         address = expiryQueue.peek()) {
+                        expiryQueue.poll();
+
+                        if (listeners.hasListeners()) {
+                            listeners.entryEvicted(entryAt(address));
+                        }
+
+                        byUrl.remove(arena.getInt(address, URL_HASH), address);
+                        byCode.remove(arena.getInt(address, CODE_HASH), address);
+                        arena.free(address,
+                                CODE + arena.getShort(address, CODE_LEN) + arena.getInt(address, URL_LEN));
+                        ++evictedCount;
+                    }
+
+                    // The queue of a TTL that is no longer used is dropped with its memory.
+                    if (expiryQueue.isEmpty()) {
+                        queues.remove();
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } while (evictedCount == EVICTION_BATCH_SIZE);
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        String lowercaseUrl = url.toLowerCase();
+        byte[] urlBytes = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+
+        lock.writeLock().lock();
+        try {
+            if (byUrl.find(lowercaseUrl.hashCode(), urlBytes, urlMatcher) != 0
+                    || byCode.find(hash.hashCode(), hash.getBytes(StandardCharsets.UTF_8), codeMatcher) != 0) {
+                return false;
+            }
+
+            return add(new URLEntry(lowercaseUrl, null, hash, timeAdded, ttl), urlBytes) != 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Copies the entries onto the heap under the read lock.
+     */
+    @Override
+    public List<URLEntry> entries() {
+        lock.readLock().lock();
+        try {
+            List<URLEntry> entries = new ArrayList<>(byCode.size());
+            for (var expiryQueue : expiryQueues.values()) {
+                for (long i = 0; i < expiryQueue.size(); ++i) {
+                    entries.add(entryAt(expiryQueue.get(i)));
+                }
+            }
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the off-heap memory. The cache must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        logger.info("Shutting down the cache");
+
+        lock.writeLock().lock();
+        try {
+            scheduler.shutdown();
+            arena.release();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public long encoderRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byCode.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The bytes held outside the heap, by the entries, the indexes and the expiry queue.
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            long queueBytes = 0;
+            for (var expiryQueue : expiryQueues.values()) {
+                queueBytes += expiryQueue.capacityBytes();
+            }
+            return arena.reservedBytes() + byUrl.capacityBytes() + byCode.capacityBytes() + queueBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.brian.cache;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Answers the lookups from another {@link URLCache} and refuses to shorten anything, e.g. for a replica whose
+ * cache is only changed by its primary. The requests are refused by {@link #isReadOnly()} before they get here,
+ * so shortening throws an {@link UnsupportedOperationException}.
+ * <p>
+ * Everything apart from shortening is passed straight through. Closing this does not close the other cache.
+ */
+public final class ReadOnlyURLCache implements URLCache {
+
+    private final URLCache cache;
+
+    public ReadOnlyURLCache(URLCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        throw readOnly();
+    }
+
+    @Override
+    public CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        return CompletableFuture.failedFuture(readOnly());
+    }
+
+    @Override
+    public CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return CompletableFuture.failedFuture(readOnly());
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The cache is read-only");
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        return cache.getOriginalUrlFor(hash);
+    }
+
+    @Override
+    public String getOriginalUrlFor(long code) {
+        return cache.getOriginalUrlFor(code);
+    }
+
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> hashes) {
+        return cache.getOriginalUrlsFor(hashes);
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        return cache.getOriginalUrlForAsync(hash);
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        return cache.getOriginalUrlForAsync(code);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return cache.getOriginalUrlsForAsync(hashes);
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        cache.addListener(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        return cache.restore(url, hash, timeAdded, ttl);
+    }
+
+    @Override
+    public int restoreAll(List<URLEntry> entries) {
+        return cache.restoreAll(entries);
+    }
+
+    @Override
+    public boolean remove(String hash) {
+        return cache.remove(hash);
+    }
+
+    @Override
+    public List<URLEntry> entries() {
+        return cache.entries();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+}
@@ -0,0 +1,642 @@
+package com.brian.cache;
+
+import com.brian.Base62Encoder;
+import com.brian.URLEncoder;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * An in-memory cache split into shards that share nothing, each owned by one event loop, so the event loops
+ * don't contend with each other for the cache.
+ * <p>
+ * The first character of a code selects its shard, and a URL belongs to the shard selected by its
+ * fingerprint. A new URL is given a code whose first character selects the URL's shard, from the shard's own
+ * encoder (see {@link URLEncoder#forShard(int, int)}), so each entry lives in one shard and is found there by
+ * either key. An encoder that can't generate the codes of a shard is asked again until it comes up with one.
+ * Each shard holds its entries as {@link CompactEntry}s, in the same indexes as {@link InMemoryURLCache},
+ * and is only ever touched by the thread of its event loop, so it needs no locks.
+ * <p>
+ * A request for the calling event loop's own shard is answered straight away. Anything else is handed to the
+ * owning event loop as a task, and answered through the future returned by the asynchronous methods (e.g.
+ * {@link #getOriginalUrlForAsync(long)}). The blocking methods wait for the owning event loop, so they can be
+ * called from any other thread (e.g. to restore the cache), but not from an event loop that owns another
+ * shard, as two event loops could end up waiting for each other.
+ * <p>
+ * Each shard evicts its expired entries on its own event loop, a batch at a time. The listeners are called
+ * on the event loop of the shard that changed.
+ * <p>
+ * A restored entry goes into the shard selected by its code. If the number of shards has changed since it
+ * was created, its URL may belong to another shard, so shortening the URL again gives it a second code.
+ */
+public class ShardedURLCache implements URLCache, Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardedURLCache.class);
+
+    // How often the expired entries are evicted, in milliseconds.
+    private static final long EVICTION_PERIOD_MILLIS = 1000;
+
+    // The maximum number of entries evicted by each shard per task.
+    private static final int EVICTION_BATCH_SIZE = 1000;
+
+    // The value of the first of the 6 Base62 characters in a code.
+    private static final long FIRST_DIGIT = 62L * 62 * 62 * 62 * 62;
+
+    // A code's first character has 62 values, so there is no use for any more shards.
+    static final int MAX_SHARDS = 62;
+
+    private final Shard[] shards;
+
+    private final String domain;
+
+    // The cache TTL in milliseconds.
+    private final int ttl;
+
+    private final CacheListeners listeners = new CacheListeners();
+
+    // The generated codes that were already in use.
+    private final LongAdder retries = new LongAdder();
+
+    // The generated codes thrown away as they belonged to another shard.
+    private final LongAdder discarded = new LongAdder();
+
+    private final List<ScheduledFuture<?>> evictions = new ArrayList<>();
+
+    /**
+     * @param encoder Generates the hashes used in the short URLs.
+     * @param domain The domain used in the short URLs.
+     * @param ttl The cache TTL in milliseconds.
+     * @param owners The event loops that own the shards, one shard each, up to {@value #MAX_SHARDS}.
+     */
+    public ShardedURLCache(URLEncoder encoder, String domain, int ttl, EventExecutorGroup owners) {
+        this(encoder, domain, ttl, EVICTION_PERIOD_MILLIS, owners);
+    }
+
+    /**
+     * @param evictionPeriod How often expired entries are evicted, in milliseconds. If this is 0 then no
+     *                       eviction is scheduled, and the caller is responsible for calling {@link #run()}.
+     */
+    ShardedURLCache(URLEncoder encoder, String domain, int ttl, long evictionPeriod, EventExecutorGroup owners) {
+        this.domain = domain;
+        this.ttl = ttl;
+
+        List<EventExecutor> shardOwners = new ArrayList<>();
+        for (var owner : owners) {
+            if (shardOwners.size() == MAX_SHARDS) {
+                break;
+            }
+            shardOwners.add(owner);
+        }
+        if (shardOwners.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one event loop to own a shard");
+        }
+        shards = new Shard[shardOwners.size()];
+        for (int i = 0; i < shards.length; ++i) {
+            shards[i] = new Shard(shardOwners.get(i), i, encoder.forShard(i, shards.length));
+        }
+
+        if (evictionPeriod > 0) {
+            for (var shard : shards) {
+                evictions.add(shard.owner.scheduleAtFixedRate(shard::expire, evictionPeriod, evictionPeriod,
+                        TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    /**
+     * @return The number of shards.
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @return The index of the shard that owns a code.
+     */
+    public int shardOf(long code) {
+        return (int) (code / FIRST_DIGIT) % shards.length;
+    }
+
+    /**
+     * @return The index of the shard that owns a hash, which is selected by its first character.
+     */
+    public int shardOf(String hash) {
+        long code = Base62Encoder.fromBase62(hash);
+        if (code >= 0) {
+            return shardOf(code);
+        }
+        return hash.isEmpty() ? 0 : hash.charAt(0) % shards.length;
+    }
+
+    private int shardOf(ParsedUrl url) {
+        return (int) Long.remainderUnsigned(url.fingerprint, shards.length);
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        var parsed = ParsedUrl.parse(url);
+        if (parsed == null) {
+            return null;
+        }
+
+        var shard = shards[shardOf(parsed)];
+        return call(shard, () -> shard.shorten(uuid, parsed));
+    }
+
+    @Override
+    public CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        var parsed = ParsedUrl.parse(url);
+        if (parsed == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var shard = shards[shardOf(parsed)];
+        return submit(shard, () -> shard.shorten(uuid, parsed));
+    }
+
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        return shortenAll(uuid, urls, true).join();
+    }
+
+    /**
+     * The URLs are validated on the calling thread, and each shard is handed the ones it owns in one task.
+     */
+    @Override
+    public CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return shortenAll(uuid, urls, false);
+    }
+
+    private CompletableFuture<List<String>> shortenAll(UUID uuid, List<String> urls, boolean blocking) {
+        var parsed = new ParsedUrl[urls.size()];
+        for (int i = 0; i < parsed.length; ++i) {
+            parsed[i] = ParsedUrl.parse(urls.get(i));
+        }
+
+        return scatter(parsed.length, i -> parsed[i] != null ? shardOf(parsed[i]) : -1, blocking,
+                (shard, positions, results) -> {
+                    for (int i : positions) {
+                        results[i] = shard.shorten(uuid, parsed[i]);
+                    }
+                    logger.debug("[{}] Shortened {} URLs of a batch in shard {}", uuid, positions.length,
+                            shard.index);
+                });
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        var shard = shards[shardOf(hash)];
+        return call(shard, () -> shard.url(hash));
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        var shard = shards[shardOf(hash)];
+        return submit(shard, () -> shard.url(hash));
+    }
+
+    @Override
+    public String getOriginalUrlFor(long code) {
+        var shard = shards[shardOf(code)];
+        return call(shard, () -> shard.url(code));
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        var shard = shards[shardOf(code)];
+        return submit(shard, () -> shard.url(code));
+    }
+
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> hashes) {
+        return getOriginalUrlsFor(hashes, true).join();
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return getOriginalUrlsFor(hashes, false);
+    }
+
+    private CompletableFuture<List<String>> getOriginalUrlsFor(List<String> hashes, boolean blocking) {
+        return scatter(hashes.size(), i -> shardOf(hashes.get(i)), blocking, (shard, positions, results) -> {
+            for (int i : positions) {
+                results[i] = shard.url(hashes.get(i));
+            }
+        });
+    }
+
+    /**
+     * Hands each shard the positions in a batch that it owns, in one task per shard, and completes with the
+     * results once every shard has filled in its own.
+     *
+     * @param shardOf The shard that owns each position, or -1 if the position has no result.
+     * @param blocking Whether the caller is going to wait for the results.
+     */
+    private CompletableFuture<List<String>> scatter(int count, IntUnaryOperator shardOf, boolean blocking,
+                                                    BatchTask task) {
+        int[] counts = new int[shards.length];
+        int[] owners = new int[count];
+        for (int i = 0; i < count; ++i) {
+            owners[i] = shardOf.applyAsInt(i);
+            if (owners[i] >= 0) {
+                ++counts[owners[i]];
+            }
+        }
+
+        int[][] positions = new int[shards.length][];
+        for (int s = 0; s < shards.length; ++s) {
+            positions[s] = new int[counts[s]];
+            if (blocking && counts[s] > 0) {
+                checkCanWaitFor(shards[s]);
+            }
+            counts[s] = 0;
+        }
+        for (int i = 0; i < count; ++i) {
+            if (owners[i] >= 0) {
+                positions[owners[i]][counts[owners[i]]++] = i;
+            }
+        }
+
+        // Each shard only writes its own positions, and the writes are published by completing its future.
+        var results = new String[count];
+        List<CompletableFuture<?>> parts = new ArrayList<>();
+        for (int s = 0; s < shards.length; ++s) {
+            if (positions[s].length > 0) {
+                var shard = shards[s];
+                var mine = positions[s];
+                parts.add(submit(shard, () -> {
+                    task.run(shard, mine, results);
+                    return null;
+                }));
+            }
+        }
+
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .thenApply(done -> Arrays.asList(results));
+    }
+
+    /**
+     * Runs a task on the shard's event loop, or straight away if this is the shard's event loop.
+     */
+    private static <T> CompletableFuture<T> submit(Shard shard, Supplier<T> task) {
+        if (shard.owner.inEventLoop()) {
+            return CompletableFuture.completedFuture(task.get());
+        }
+
+        var future = new CompletableFuture<T>();
+        try {
+            shard.owner.execute(() -> {
+                try {
+                    future.complete(task.get());
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The event loop has shut down.
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Runs a task on the shard's event loop and waits for the result.
+     */
+    private <T> T call(Shard shard, Supplier<T> task) {
+        if (shard.owner.inEventLoop()) {
+            return task.get();
+        }
+
+        checkCanWaitFor(shard);
+        return submit(shard, task).join();
+    }
+
+    private void checkCanWaitFor(Shard shard) {
+        if (shard.owner.inEventLoop()) {
+            return;
+        }
+        for (var other : shards) {
+            if (other.owner.inEventLoop()) {
+                throw new IllegalStateException("The event loop of shard " + other.index
+                        + " can't wait for shard " + shard.index + ", use the asynchronous methods");
+            }
+        }
+    }
+
+    /**
+     * Evicts the expired entries from every shard, and waits for them all. This is only needed when no
+     * eviction is scheduled.
+     */
+    @Override
+    public void run() {
+        long now = System.currentTimeMillis();
+        for (var shard : shards) {
+            call(shard, () -> {
+                while (shard.evictExpired(now) == EVICTION_BATCH_SIZE) {
+                    // Keep going until there are no more.
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        String lowercaseUrl = url.toLowerCase();
+        byte[] urlBytes = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+        long fingerprint = CompactEntry.fingerprint(urlBytes);
+        var parsed = new ParsedUrl(lowercaseUrl, urlBytes, fingerprint);
+
+        var urlShard = shards[shardOf(parsed)];
+        var shard = shards[shardOf(hash)];
+        if (urlShard != shard && call(urlShard, () -> urlShard.entryForUrl(parsed) != null)) {
+            return false;
+        }
+
+        return call(shard, () -> shard.restore(parsed, hash, timeAdded, ttl));
+    }
+
+    /**
+     * Copies each shard's entries on its own event loop, one shard at a time.
+     */
+    @Override
+    public List<URLEntry> entries() {
+        List<URLEntry> entries = new ArrayList<>(size());
+        for (var shard : shards) {
+            call(shard, shard::copy).forEach(entry -> entries.add(CompactEntry.toURLEntry(entry, domain)));
+        }
+        return entries;
+    }
+
+    /**
+     * Each shard's count is read without waiting for its event loop, so this may be slightly behind.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (var shard : shards) {
+            size += shard.size;
+        }
+        return size;
+    }
+
+    @Override
+    public long encoderRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return The generated codes thrown away as they belonged to another shard, which only happens with an
+     *         encoder that can't generate the codes of a shard.
+     */
+    public long discardedCodes() {
+        return discarded.sum();
+    }
+
+    /**
+     * Stops the evictions. The event loops are left running, as they belong to the caller.
+     */
+    @Override
+    public void close() {
+        logger.info("Shutting down the sharded cache");
+        evictions.forEach(eviction -> eviction.cancel(false));
+    }
+
+    /**
+     * A URL that has been validated, and its bytes and fingerprint worked out, on the calling thread.
+     */
+    private record ParsedUrl(String lowercase, byte[] bytes, long fingerprint) {
+
+        /**
+         * @return The parsed URL, or null if the URL is not valid.
+         */
+        static ParsedUrl parse(String url) {
+            try {
+                String lowercaseUrl = url.toLowerCase();
+
+                // This will validate the URL.
+                new URL(lowercaseUrl).toURI();
+
+                byte[] urlBytes = lowercaseUrl.getBytes(StandardCharsets.UTF_8);
+                return new ParsedUrl(lowercaseUrl, urlBytes, CompactEntry.fingerprint(urlBytes));
+            } catch (URISyntaxException | MalformedURLException e) {
+                // Not a valid URL
+                return null;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface BatchTask {
+
+        /**
+         * Fills in the results at the positions owned by the shard. Runs on the shard's event loop.
+         */
+        void run(Shard shard, int[] positions, String[] results);
+    }
+
+    /**
+     * One shard of the cache. Everything apart from the size must only be used on the owner's thread.
+     */
+    private final class Shard {
+
+        private final EventExecutor owner;
+
+        private final int index;
+
+        // Generates the codes for this shard.
+        private final URLEncoder encoder;
+
+        // The entries by the fingerprint of their URL (lowercase).
+        private final EntryIndex urls = new EntryIndex(CompactEntry::urlFingerprint);
+
+        // The rare entries whose fingerprint was already taken by another URL, keyed by the URL.
+        private final Map<String, byte[]> collidingUrls = new HashMap<>();
+
+        // The entries by their 6-character Base62 hash, as a number.
+        private final EntryIndex hashes = new EntryIndex(CompactEntry::code);
+
+        // Any hashes that are not 6-character Base62 codes, e.g. from a custom encoder.
+        private final Map<String, byte[]> otherHashes = new HashMap<>();
+
+        private final ExpiryQueue<byte[]> expiryQueue = new ExpiryQueue<>(ExpiryQueue.bucketWidthFor(ttl), false);
+
+        // The number of entries, which is only written by the owner but can be read by anyone.
+        private volatile int size;
+
+        Shard(EventExecutor owner, int index, URLEncoder encoder) {
+            this.owner = owner;
+            this.index = index;
+            this.encoder = encoder;
+        }
+
+        String url(long code) {
+            var entry = hashes.get(code);
+            return entry != null ? CompactEntry.url(entry) : null;
+        }
+
+        String url(String hash) {
+            var entry = entryFor(hash);
+            return entry != null ? CompactEntry.url(entry) : null;
+        }
+
+        String shorten(UUID uuid, ParsedUrl url) {
+            var existing = entryForUrl(url);
+            if (existing != null) {
+                String shortUrl = CompactEntry.shortUrl(existing, domain);
+                logger.debug("[{}] Found an existing entry for {} : {}", uuid, url.lowercase, shortUrl);
+                return shortUrl;
+            }
+
+            var entry = CompactEntry.create(url.bytes, url.fingerprint, getUniqueHash(url.lowercase),
+                    System.currentTimeMillis(), ttl);
+            add(entry, url);
+
+            String shortUrl = CompactEntry.shortUrl(entry, domain);
+            logger.debug("[{}] Caching URL {} with short version {} in shard {}", uuid, url.lowercase, shortUrl,
+                    index);
+
+            if (listeners.hasListeners()) {
+                listeners.entryAdded(new URLEntry(url.lowercase, shortUrl, CompactEntry.hash(entry),
+                        CompactEntry.timeAdded(entry), ttl));
+            }
+            return shortUrl;
+        }
+
+        /**
+         * The codes that belong to other shards are not retries, as they were never looked up.
+         */
+        private String getUniqueHash(String url) {
+            for (;;) {
+                var encoding = encoder.encode(url);
+                if (encoding == null) {
+                    continue;
+                }
+                if (shardOf(encoding) != index) {
+                    discarded.increment();
+                    continue;
+                }
+                if (entryFor(encoding) == null) {
+                    return encoding;
+                }
+                retries.increment();
+            }
+        }
+
+        boolean restore(ParsedUrl url, String hash, long timeAdded, long ttl) {
+            if (entryForUrl(url) != null || entryFor(hash) != null) {
+                return false;
+            }
+
+            add(CompactEntry.create(url.bytes, url.fingerprint, hash, timeAdded, ttl), url);
+            return true;
+        }
+
+        List<byte[]> copy() {
+            List<byte[]> copy = new ArrayList<>(size);
+            hashes.forEach(copy::add);
+            copy.addAll(otherHashes.values());
+            return copy;
+        }
+
+        /**
+         * Evicts a batch of the expired entries, and carries on in another task if there are more, so the
+         * event loop can serve requests in between.
+         */
+        void expire() {
+            if (evictExpired(System.currentTimeMillis()) == EVICTION_BATCH_SIZE) {
+                owner.execute(this::expire);
+            }
+        }
+
+        /**
+         * @return The number of entries visited, which is {@link #EVICTION_BATCH_SIZE} if there may be more.
+         */
+        int evictExpired(long now) {
+            List<byte[]> evicted = new ArrayList<>();
+            int visited = expiryQueue.expire(now, EVICTION_BATCH_SIZE, entry -> evict(entry, now, evicted));
+
+            if (listeners.hasListeners()) {
+                evicted.forEach(entry -> listeners.entryEvicted(CompactEntry.toURLEntry(entry, domain)));
+            }
+            return visited;
+        }
+
+        private void evict(byte[] entry, long now, List<byte[]> evicted) {
+            long code = CompactEntry.code(entry);
+            var current = code >= 0 ? hashes.get(code) : otherHashes.get(CompactEntry.hash(entry));
+            if (current != entry || !CompactEntry.hasExpired(entry, now)) {
+                return;
+            }
+
+            remove(entry);
+            evicted.add(entry);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Removing URL {} from shard {} as its TTL has expired", CompactEntry.url(entry),
+                        index);
+            }
+        }
+
+        private byte[] entryFor(String hash) {
+            long code = Base62Encoder.fromBase62(hash);
+            return code >= 0 ? hashes.get(code) : otherHashes.get(hash);
+        }
+
+        private byte[] entryForUrl(ParsedUrl url) {
+            var entry = urls.get(url.fingerprint);
+            if (entry != null && CompactEntry.hasUrl(entry, url.bytes)) {
+                return entry;
+            }
+            return collidingUrls.isEmpty() ? null : collidingUrls.get(url.lowercase);
+        }
+
+        private void add(byte[] entry, ParsedUrl url) {
+            if (urls.get(url.fingerprint) == null) {
+                urls.add(entry);
+            } else {
+                collidingUrls.put(url.lowercase, entry);
+            }
+
+            if (CompactEntry.code(entry) >= 0) {
+                hashes.add(entry);
+            } else {
+                otherHashes.put(CompactEntry.hash(entry), entry);
+            }
+
+            expiryQueue.schedule(entry, CompactEntry.expiresAt(entry));
+            size = size + 1;
+        }
+
+        private void remove(byte[] entry) {
+            if (!urls.remove(entry)) {
+                collidingUrls.remove(CompactEntry.url(entry));
+            }
+
+            if (CompactEntry.code(entry) >= 0) {
+                hashes.remove(entry);
+            } else {
+                otherHashes.remove(CompactEntry.hash(entry));
+            }
+            size = size - 1;
+        }
+    }
+}
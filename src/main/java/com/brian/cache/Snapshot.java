@@ -0,0 +1,361 @@
+package com.brian.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+/**
+ * A point-in-time copy of the hash to URL mappings, in a compact binary file that is memory-mapped
+ * when it is read, so a restarted server can answer lookups without loading anything onto the heap.
+ * <p>
+ * The file starts with a header, followed by an open-addressing hash index of record offsets, followed
+ * by the records themselves. Each record holds the time the mapping was added, its TTL, the hash and the
+ * URL. The file is mapped in chunks (a single mapping is limited to 2GB), and a record never spans two
+ * chunks. A snapshot is written to a temporary file which is then renamed, so a crash never leaves a
+ * partial snapshot behind.
+ */
+public class Snapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(Snapshot.class);
+
+    private static final int MAGIC = 0x53484f52; // "SHOR"
+    private static final int VERSION = 1;
+
+    // magic(4) version(4) chunkBits(4) unused(4) count(8) slots(8)
+    private static final int HEADER_LEN = 32;
+
+    // Each chunk is mapped separately, 1GB by default.
+    private static final int CHUNK_BITS = 30;
+
+    private static final int WRITE_BUFFER_LEN = 1024 * 1024;
+
+    /**
+     * Receives each mapping in a snapshot.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(String url, String hash, long timeAdded, long ttl);
+    }
+
+    private final Path file;
+    private final int chunkBits;
+    private final long chunkMask;
+    private final long count;
+    private final long slots;
+    private final long recordsStart;
+
+    // Dropped when the snapshot is closed. The mappings are released once they are garbage collected.
+    private volatile MappedByteBuffer[] chunks;
+
+    private Snapshot(Path file, MappedByteBuffer[] chunks, int chunkBits, long count, long slots) {
+        this.file = file;
+        this.chunks = chunks;
+        this.chunkBits = chunkBits;
+        this.chunkMask = (1L << chunkBits) - 1;
+        this.count = count;
+        this.slots = slots;
+        this.recordsStart = HEADER_LEN + slots * Long.BYTES;
+    }
+
+    /**
+     * Memory-maps a snapshot.
+     *
+     * @param file The snapshot file.
+     *
+     * @return The snapshot, or null if the file does not exist.
+     *
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static Snapshot open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LEN) {
+                throw new IOException("The snapshot " + file + " is truncated");
+            }
+
+            var header = ByteBuffer.allocate(HEADER_LEN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Keep reading until we have the whole header.
+            }
+            header.flip();
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("The file " + file + " is not a snapshot");
+            }
+            int chunkBits = header.getInt();
+            header.getInt();
+            long count = header.getLong();
+            long slots = header.getLong();
+
+            if (chunkBits < 10 || chunkBits > CHUNK_BITS || HEADER_LEN + slots * Long.BYTES > size) {
+                throw new IOException("The snapshot " + file + " is corrupt");
+            }
+
+            long chunkLen = 1L << chunkBits;
+            var chunks = new MappedByteBuffer[(int) ((size + chunkLen - 1) >>> chunkBits)];
+            for (int i = 0; i < chunks.length; ++i) {
+                long start = (long) i << chunkBits;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkLen, size - start));
+            }
+
+            logger.info("Mapped the snapshot {} with {} entries", file, count);
+            return new Snapshot(file, chunks, chunkBits, count, slots);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the entries, replacing any existing snapshot.
+     *
+     * @param file The snapshot file.
+     * @param entries The entries to write. No two entries may have the same hash.
+     */
+    public static void write(Path file, Collection<URLEntry> entries) throws IOException {
+        write(file, entries, CHUNK_BITS);
+    }
+
+    static void write(Path file, Collection<URLEntry> entries, int chunkBits) throws IOException {
+        long start = System.nanoTime();
+        long chunkLen = 1L << chunkBits;
+
+        // Keep the index at most half full so the probe sequences stay short.
+        long slots = Long.highestOneBit(Math.max(1, entries.size()) * 2L) << 1;
+        long recordsStart = HEADER_LEN + slots * Long.BYTES;
+
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            var header = ByteBuffer.allocate(HEADER_LEN)
+                    .putInt(MAGIC).putInt(VERSION).putInt(chunkBits).putInt(0)
+                    .putLong(entries.size()).putLong(slots)
+                    .flip();
+            writeFully(channel, header, 0);
+
+            // The index is filled in as the records are written.
+            var index = mapIndex(channel, recordsStart, chunkBits);
+
+            var buf = ByteBuffer.allocate(WRITE_BUFFER_LEN);
+            long bufStart = recordsStart;
+            long pos = recordsStart;
+
+            for (var entry : entries) {
+                byte[] hash = entry.hash().getBytes(StandardCharsets.UTF_8);
+                byte[] url = entry.url().getBytes(StandardCharsets.UTF_8);
+                int len = Long.BYTES + Long.BYTES + Short.BYTES + hash.length + Integer.BYTES + url.length;
+                if (len > chunkLen || len > WRITE_BUFFER_LEN / 2) {
+                    throw new IOException("The entry for " + entry.hash() + " is too large for a snapshot");
+                }
+
+                // A record never spans two chunks, so pad to the start of the next chunk if it doesn't fit.
+                long offsetInChunk = pos & (chunkLen - 1);
+                int padding = offsetInChunk + len > chunkLen ? (int) (chunkLen - offsetInChunk) : 0;
+
+                if (buf.remaining() < padding + len) {
+                    writeFully(channel, buf.flip(), bufStart);
+                    buf.clear();
+                    bufStart = pos;
+                }
+
+                for (int i = 0; i < padding; ++i) {
+                    buf.put((byte) 0);
+                }
+                pos += padding;
+
+                buf.putLong(entry.timeAdded())
+                        .putLong(entry.ttl())
+                        .putShort((short) hash.length)
+                        .put(hash)
+                        .putInt(url.length)
+                        .put(url);
+
+                // The hashes are unique, so the first free slot will do.
+                long slot = slotFor(entry.hash().hashCode(), slots);
+                while (getLong(index, HEADER_LEN + slot * Long.BYTES, chunkBits) != 0) {
+                    slot = (slot + 1) & (slots - 1);
+                }
+                long slotPos = HEADER_LEN + slot * Long.BYTES;
+                index[(int) (slotPos >>> chunkBits)].putLong((int) (slotPos & (chunkLen - 1)), pos);
+
+                pos += len;
+            }
+            writeFully(channel, buf.flip(), bufStart);
+
+            for (var chunk : index) {
+                chunk.force();
+            }
+            channel.force(true);
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info("Wrote a snapshot of {} entries to {} in {}ms", entries.size(), file,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static MappedByteBuffer[] mapIndex(FileChannel channel, long indexEnd, int chunkBits) throws IOException {
+        long chunkLen = 1L << chunkBits;
+        var chunks = new MappedByteBuffer[(int) ((indexEnd + chunkLen - 1) >>> chunkBits)];
+        for (int i = 0; i < chunks.length; ++i) {
+            long start = (long) i << chunkBits;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(chunkLen, indexEnd - start));
+        }
+        return chunks;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private static long slotFor(int hashCode, long slots) {
+        // Spread the bits, as String hash codes for short codes are poorly distributed in the low bits.
+        long h = hashCode * 0x9E3779B97F4A7C15L;
+        return (h ^ (h >>> 32)) & (slots - 1);
+    }
+
+    private static long getLong(MappedByteBuffer[] chunks, long pos, int chunkBits) {
+        return chunks[(int) (pos >>> chunkBits)].getLong((int) (pos & ((1L << chunkBits) - 1)));
+    }
+
+    /**
+     * @return The offset of the record for the hash, or 0 if there isn't one.
+     */
+    private long find(MappedByteBuffer[] chunks, String hash) {
+        byte[] key = hash.getBytes(StandardCharsets.UTF_8);
+
+        for (long slot = slotFor(hash.hashCode(), slots); ; slot = (slot + 1) & (slots - 1)) {
+            long offset = getLong(chunks, HEADER_LEN + slot * Long.BYTES, chunkBits);
+            if (offset == 0) {
+                return 0;
+            }
+
+            var chunk = chunks[(int) (offset >>> chunkBits)];
+            int pos = (int) (offset & chunkMask) + Long.BYTES + Long.BYTES;
+            if (chunk.getShort(pos) == key.length && matches(chunk, pos + Short.BYTES, key)) {
+                return offset;
+            }
+        }
+    }
+
+    private static boolean matches(MappedByteBuffer chunk, int pos, byte[] key) {
+        for (int i = 0; i < key.length; ++i) {
+            if (chunk.get(pos + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The original URL for the hash, or null if the hash is not in the snapshot or has expired.
+     */
+    public String getOriginalUrlFor(String hash) {
+        var mapped = chunks;
+        if (mapped == null) {
+            return null;
+        }
+
+        long offset = find(mapped, hash);
+        if (offset == 0) {
+            return null;
+        }
+
+        var chunk = mapped[(int) (offset >>> chunkBits)];
+        int pos = (int) (offset & chunkMask);
+        long timeAdded = chunk.getLong(pos);
+        long ttl = chunk.getLong(pos + Long.BYTES);
+        if (System.currentTimeMillis() - timeAdded > ttl) {
+            return null;
+        }
+
+        return readUrl(chunk, pos);
+    }
+
+    /**
+     * @return True if the hash is in the snapshot, whether or not it has expired.
+     */
+    public boolean contains(String hash) {
+        var mapped = chunks;
+        return mapped != null && find(mapped, hash) != 0;
+    }
+
+    /**
+     * Visits every mapping that has not expired, in the order they were written.
+     */
+    public void forEach(Visitor visitor) {
+        var mapped = chunks;
+        if (mapped == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long pos = recordsStart;
+        long visited = 0;
+        while (visited < count) {
+            var chunk = mapped[(int) (pos >>> chunkBits)];
+            int chunkPos = (int) (pos & chunkMask);
+
+            // The rest of the chunk is zero padding if the next record didn't fit in it.
+            if (chunkPos + Long.BYTES > chunk.limit() || chunk.getLong(chunkPos) == 0) {
+                pos = (pos + chunkMask + 1) & ~chunkMask;
+                continue;
+            }
+
+            long timeAdded = chunk.getLong(chunkPos);
+            long ttl = chunk.getLong(chunkPos + Long.BYTES);
+            var hash = new byte[chunk.getShort(chunkPos + Long.BYTES * 2)];
+            chunk.get(chunkPos + Long.BYTES * 2 + Short.BYTES, hash);
+            int urlPos = chunkPos + Long.BYTES * 2 + Short.BYTES + hash.length;
+            var url = new byte[chunk.getInt(urlPos)];
+            chunk.get(urlPos + Integer.BYTES, url);
+
+            if (now - timeAdded <= ttl) {
+                visitor.visit(new String(url, StandardCharsets.UTF_8), new String(hash, StandardCharsets.UTF_8),
+                        timeAdded, ttl);
+            }
+
+            pos += urlPos + Integer.BYTES + url.length - chunkPos;
+            ++visited;
+        }
+    }
+
+    private static String readUrl(MappedByteBuffer chunk, int recordPos) {
+        int hashLen = chunk.getShort(recordPos + Long.BYTES * 2);
+        int urlPos = recordPos + Long.BYTES * 2 + Short.BYTES + hashLen;
+        var url = new byte[chunk.getInt(urlPos)];
+        chunk.get(urlPos + Integer.BYTES, url);
+        return new String(url, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The number of mappings in the snapshot, including any that have since expired.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Stops serving lookups from the snapshot. The file is unmapped once the mappings are garbage collected.
+     */
+    public void close() {
+        if (chunks != null) {
+            chunks = null;
+            logger.info("Closed the snapshot {}", file);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.brian.cache;
+
+import com.brian.Base62Encoder;
+import com.brian.URLEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Wraps a cache so it is periodically written to a {@link Snapshot}, and warm started from the last
+ * snapshot when the server restarts.
+ * <p>
+ * On startup the snapshot is memory-mapped, and lookups the cache can't answer yet are answered from
+ * it straight away. Meanwhile a background thread restores the snapshot into the cache. Once that is
+ * done the snapshot is closed and the cache answers everything. While the snapshot is in use, the codes
+ * in it are never handed out to new URLs.
+ * <p>
+ * If a URL from the snapshot is shortened again before it has been restored, it is given a new code, and
+ * the old code can't be restored into the cache. The old mapping is kept here instead so its short URL
+ * keeps working until it expires.
+ * <p>
+ * Snapshots are written in the background from a copy of the cache's entries. No snapshot is written
+ * until the cache has been rebuilt, as it would be missing the entries still to be restored.
+ */
+public class SnapshotURLCache implements URLCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotURLCache.class);
+
+    private final URLCache cache;
+
+    private final Path file;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Thread rebuilder;
+
+    // The snapshot being restored. Null once the cache has been rebuilt, or the rebuild has failed.
+    private volatile Snapshot snapshot;
+
+    // The mappings from the snapshot that could not be restored, keyed by hash.
+    private final ConcurrentMap<String, URLEntry> orphans = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    // Set once every entry in the snapshot has been restored (or there was no snapshot).
+    private volatile boolean rebuilt;
+
+    // Set if the rebuild was cut short by closing the cache.
+    private volatile boolean aborted;
+
+    /**
+     * @param file The snapshot file. It is restored from if it exists.
+     * @param period How often a snapshot is written, in milliseconds. If this is 0 then a snapshot is only
+     *               written when the cache is closed.
+     * @param encoder Generates the hashes used in the short URLs.
+     * @param factory Creates the cache from an encoder. The encoder given to the factory skips the codes
+     *                in the snapshot.
+     */
+    public SnapshotURLCache(Path file, long period, URLEncoder encoder,
+                            Function<URLEncoder, URLCache> factory) throws IOException {
+        this.file = file;
+        this.snapshot = Snapshot.open(file);
+        this.cache = factory.apply(excludeReserved(encoder));
+
+        rebuilder = new Thread(this::rebuild, "snapshot-rebuild");
+        rebuilder.setDaemon(true);
+        rebuilder.start();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        if (period > 0) {
+            scheduler.scheduleAtFixedRate(this::writeSnapshot, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private URLEncoder excludeReserved(URLEncoder encoder) {
+        return new URLEncoder() {
+            @Override
+            public String encode(String url) {
+                // The caches retry when no code is returned.
+                var code = encoder.encode(url);
+                return code != null && isReserved(code) ? null : code;
+            }
+
+            @Override
+            public boolean isUnique() {
+                return encoder.isUnique();
+            }
+
+            @Override
+            public URLEncoder forShard(int shard, int shards) {
+                return excludeReserved(encoder.forShard(shard, shards));
+            }
+        };
+    }
+
+    private boolean isReserved(String hash) {
+        var mapped = snapshot;
+        return (mapped != null && mapped.contains(hash)) || orphans.containsKey(hash);
+    }
+
+    private void rebuild() {
+        var mapped = snapshot;
+        if (mapped == null) {
+            rebuilt = true;
+            return;
+        }
+
+        long start = System.nanoTime();
+        logger.info("Rebuilding the cache from a snapshot of {} entries", mapped.size());
+
+        try {
+            mapped.forEach((url, hash, timeAdded, ttl) -> {
+                if (closed) {
+                    aborted = true;
+                    return;
+                }
+
+                if (!cache.restore(url, hash, timeAdded, ttl) && cache.getOriginalUrlFor(hash) == null) {
+                    // The URL was shortened again before we got to it. Only the hash and URL are needed.
+                    orphans.put(hash, new URLEntry(url, null, hash, timeAdded, ttl));
+                }
+            });
+
+            rebuilt = !aborted;
+            logger.info("Rebuilt the cache from the snapshot in {}ms, with {} orphaned entries",
+                    (System.nanoTime() - start) / 1_000_000, orphans.size());
+        } catch (RuntimeException e) {
+            // The entries that weren't restored are only in the snapshot file, and writing a snapshot of the
+            // cache would lose them, so no more snapshots are written until the server is restarted.
+            logger.error("Failed to rebuild the cache from the snapshot {}. No more snapshots will be written.",
+                    file, e);
+        } finally {
+            snapshot = null;
+            mapped.close();
+        }
+    }
+
+    /**
+     * Waits for the cache to be rebuilt from the snapshot.
+     */
+    void awaitRebuild() throws InterruptedException {
+        rebuilder.join();
+    }
+
+    /**
+     * @return True while lookups may still be answered from the snapshot.
+     */
+    public boolean isRebuilding() {
+        return snapshot != null;
+    }
+
+    private void writeSnapshot() {
+        if (!rebuilt) {
+            logger.info("Skipping the snapshot as the cache has not been rebuilt from the last one");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        orphans.values().removeIf(entry -> entry.hasExpired(now));
+
+        try {
+            Snapshot.write(file, entries());
+        } catch (IOException | RuntimeException e) {
+            logger.error("Failed to write the snapshot {}", file, e);
+        }
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        return cache.shorten(uuid, url);
+    }
+
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        return cache.shortenAll(uuid, urls);
+    }
+
+    @Override
+    public CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        return cache.shortenAsync(uuid, url);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return cache.shortenAllAsync(uuid, urls);
+    }
+
+    /**
+     * Looks the batch up in the cache, and only falls back to the snapshot for the hashes it is missing.
+     */
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> hashes) {
+        return withSnapshot(hashes, cache.getOriginalUrlsFor(hashes));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return cache.getOriginalUrlsForAsync(hashes).thenApply(urls -> withSnapshot(hashes, urls));
+    }
+
+    private List<String> withSnapshot(List<String> hashes, List<String> urls) {
+        if (snapshot == null && orphans.isEmpty()) {
+            return urls;
+        }
+
+        List<String> merged = new ArrayList<>(urls);
+        for (int i = 0; i < merged.size(); ++i) {
+            if (merged.get(i) == null) {
+                merged.set(i, fromSnapshot(hashes.get(i)));
+            }
+        }
+        return merged;
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        var url = cache.getOriginalUrlFor(hash);
+        return url != null ? url : fromSnapshot(hash);
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        return cache.getOriginalUrlForAsync(hash).thenApply(url -> url != null ? url : fromSnapshot(hash));
+    }
+
+    /**
+     * Looks up a hash the cache doesn't have in the snapshot being restored, and then in the orphans.
+     */
+    private String fromSnapshot(String hash) {
+        String url;
+        var mapped = snapshot;
+        if (mapped != null && (url = mapped.getOriginalUrlFor(hash)) != null) {
+            return url;
+        }
+
+        var orphan = orphans.get(hash);
+        if (orphan != null) {
+            if (!orphan.hasExpired(System.currentTimeMillis())) {
+                return orphan.url();
+            }
+            orphans.remove(hash, orphan);
+        }
+
+        return null;
+    }
+
+    @Override
+    public String getOriginalUrlFor(long code) {
+        var url = cache.getOriginalUrlFor(code);
+        if (url != null || (snapshot == null && orphans.isEmpty())) {
+            return url;
+        }
+
+        return fromSnapshot(Base62Encoder.toBase62(code));
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        return cache.getOriginalUrlForAsync(code).thenApply(url ->
+                url != null || (snapshot == null && orphans.isEmpty()) ? url : fromSnapshot(Base62Encoder.toBase62(code)));
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        cache.addListener(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        return cache.restore(url, hash, timeAdded, ttl);
+    }
+
+    @Override
+    public int restoreAll(List<URLEntry> entries) {
+        return cache.restoreAll(entries);
+    }
+
+    @Override
+    public boolean remove(String hash) {
+        boolean orphan = orphans.remove(hash) != null;
+        return cache.remove(hash) || orphan;
+    }
+
+    @Override
+    public List<URLEntry> entries() {
+        var entries = cache.entries();
+        entries.addAll(orphans.values());
+        return entries;
+    }
+
+    /**
+     * While the cache is being rebuilt, this does not count the entries that are only in the snapshot.
+     */
+    @Override
+    public int size() {
+        return cache.size() + orphans.size();
+    }
+
+    @Override
+    public long encoderRetries() {
+        return cache.encoderRetries();
+    }
+
+    /**
+     * Writes a final snapshot, unless the cache is still being rebuilt, and closes the cache.
+     */
+    @Override
+    public void close() {
+        logger.info("Shutting down the snapshot writer");
+
+        closed = true;
+        scheduler.shutdown();
+        try {
+            rebuilder.join();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writeSnapshot();
+        cache.close();
+    }
+}
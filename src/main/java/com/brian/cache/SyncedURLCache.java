@@ -0,0 +1,124 @@
+package com.brian.cache;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Completes the shortens made through another {@link URLCache} once the {@link WriteAheadLog} it is logged to
+ * has the new entries on disk, when the log syncs. The asynchronous shortens wait without blocking, so the event
+ * loops go on serving other connections while the writer thread syncs a batch, and the requests that arrive in
+ * the meantime share the next fsync (group commit). The blocking shortens wait on the calling thread.
+ * <p>
+ * Everything apart from shortening is passed straight through. Closing this does not close the other cache.
+ */
+public final class SyncedURLCache implements URLCache {
+
+    private final URLCache cache;
+
+    private final WriteAheadLog log;
+
+    /**
+     * @param cache The cache whose changes are logged.
+     * @param log The log the cache's changes are written to.
+     */
+    public SyncedURLCache(URLCache cache, WriteAheadLog log) {
+        this.cache = cache;
+        this.log = log;
+    }
+
+    @Override
+    public String shorten(UUID uuid, String url) {
+        var shortUrl = cache.shorten(uuid, url);
+        log.synced().join();
+        return shortUrl;
+    }
+
+    @Override
+    public List<String> shortenAll(UUID uuid, List<String> urls) {
+        var shortUrls = cache.shortenAll(uuid, urls);
+        log.synced().join();
+        return shortUrls;
+    }
+
+    @Override
+    public CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        // The entry has been logged by the time the shorten completes, so the wait is queued behind it.
+        return cache.shortenAsync(uuid, url).thenCompose(shortUrl -> log.synced().thenApply(v -> shortUrl));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return cache.shortenAllAsync(uuid, urls).thenCompose(shortUrls -> log.synced().thenApply(v -> shortUrls));
+    }
+
+    @Override
+    public String getOriginalUrlFor(String hash) {
+        return cache.getOriginalUrlFor(hash);
+    }
+
+    @Override
+    public String getOriginalUrlFor(long code) {
+        return cache.getOriginalUrlFor(code);
+    }
+
+    @Override
+    public List<String> getOriginalUrlsFor(List<String> hashes) {
+        return cache.getOriginalUrlsFor(hashes);
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        return cache.getOriginalUrlForAsync(hash);
+    }
+
+    @Override
+    public CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        return cache.getOriginalUrlForAsync(code);
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return cache.getOriginalUrlsForAsync(hashes);
+    }
+
+    @Override
+    public void addListener(CacheListener listener) {
+        cache.addListener(listener);
+    }
+
+    @Override
+    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+        return cache.restore(url, hash, timeAdded, ttl);
+    }
+
+    @Override
+    public int restoreAll(List<URLEntry> entries) {
+        return cache.restoreAll(entries);
+    }
+
+    @Override
+    public boolean remove(String hash) {
+        return cache.remove(hash);
+    }
+
+    @Override
+    public List<URLEntry> entries() {
+        return cache.entries();
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return cache.isReadOnly();
+    }
+
+    @Override
+    public long encoderRetries() {
+        return cache.encoderRetries();
+    }
+}
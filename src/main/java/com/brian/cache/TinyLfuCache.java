@@ -0,0 +1,219 @@
+package com.brian.cache;
+
+/**
+ * A small, bounded map from non-negative long keys to values, which keeps the keys that are used most, using
+ * the W-TinyLFU policy.
+ * <p>
+ * New keys go into a small LRU window, which is 1% of the capacity. A key evicted from the window only gets into
+ * the main space if a {@link FrequencySketch} says it has been used more often than the key it would replace.
+ * So a burst of keys that are each used once can't push out the keys that are used all the time. The main
+ * space is a segmented LRU: keys start on probation, and move to the protected segment (80% of the main
+ * space) when they are used again.
+ * <p>
+ * Every lookup is counted in the sketch, hit or miss, and a hit neither allocates nor boxes the key. The map
+ * is not thread safe.
+ *
+ * @param <V> The type of the values.
+ */
+final class TinyLfuCache<V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final LongMap<Node<V>> nodes = new LongMap<>();
+
+    private final FrequencySketch sketch;
+
+    // The head of each segment's list. The most recently used node is at the tail.
+    private final Node<V> window = Node.head();
+    private final Node<V> probation = Node.head();
+    private final Node<V> protectedHead = Node.head();
+
+    private final int maxWindow;
+    private final int maxMain;
+    private final int maxProtected;
+
+    private int windowSize;
+    private int probationSize;
+    private int protectedSize;
+
+    /**
+     * @param capacity The most keys held, at least 2.
+     */
+    TinyLfuCache(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("The capacity must be at least 2: " + capacity);
+        }
+
+        maxWindow = Math.max(1, capacity / 100);
+        maxMain = capacity - maxWindow;
+        maxProtected = Math.max(1, maxMain * 8 / 10);
+        sketch = new FrequencySketch(capacity);
+    }
+
+    /**
+     * @return The value for the key, or null if it isn't held.
+     */
+    V get(long key) {
+        sketch.increment(key);
+
+        var node = nodes.get(key);
+        if (node == null) {
+            return null;
+        }
+
+        switch (node.segment) {
+            case WINDOW -> moveToTail(node, window);
+            case PROBATION -> promote(node);
+            default -> moveToTail(node, protectedHead);
+        }
+        return node.value;
+    }
+
+    /**
+     * Adds a key, or replaces its value. A new key may be dropped straight away if it is used less often
+     * than the keys already held.
+     *
+     * @param key A key, which must not be negative.
+     */
+    void put(long key, V value) {
+        var node = nodes.get(key);
+        if (node != null) {
+            node.value = value;
+            return;
+        }
+
+        node = new Node<>(key, value);
+        nodes.put(key, node);
+        node.segment = WINDOW;
+        append(node, window);
+        if (++windowSize > maxWindow) {
+            evictFromWindow();
+        }
+    }
+
+    /**
+     * @return The value that was removed, or null if the key wasn't held.
+     */
+    V remove(long key) {
+        var node = nodes.remove(key);
+        if (node == null) {
+            return null;
+        }
+
+        unlink(node);
+        switch (node.segment) {
+            case WINDOW -> --windowSize;
+            case PROBATION -> --probationSize;
+            default -> --protectedSize;
+        }
+        return node.value;
+    }
+
+    void clear() {
+        while (size() > 0) {
+            remove(first().key);
+        }
+    }
+
+    private Node<V> first() {
+        if (windowSize > 0) {
+            return window.next;
+        }
+        return probationSize > 0 ? probation.next : protectedHead.next;
+    }
+
+    int size() {
+        return windowSize + probationSize + protectedSize;
+    }
+
+    /**
+     * A probation key that is used again is protected. If that makes the protected segment too big, its
+     * least recently used key goes back on probation.
+     */
+    private void promote(Node<V> node) {
+        unlink(node);
+        --probationSize;
+        node.segment = PROTECTED;
+        append(node, protectedHead);
+
+        if (++protectedSize > maxProtected) {
+            var demoted = protectedHead.next;
+            unlink(demoted);
+            --protectedSize;
+            demoted.segment = PROBATION;
+            append(demoted, probation);
+            ++probationSize;
+        }
+    }
+
+    /**
+     * Moves the window's least recently used key into the main space, if it is used more often than the
+     * key it would displace there.
+     */
+    private void evictFromWindow() {
+        var candidate = window.next;
+        unlink(candidate);
+        --windowSize;
+        candidate.segment = PROBATION;
+        append(candidate, probation);
+        ++probationSize;
+
+        if (probationSize + protectedSize <= maxMain) {
+            return;
+        }
+
+        var victim = probation.next;
+        if (victim == candidate) {
+            // Everything else is protected, so the protected key least recently used is the one to beat.
+            victim = protectedHead.next;
+        }
+        remove(sketch.frequency(candidate.key) > sketch.frequency(victim.key) ? victim.key : candidate.key);
+    }
+
+    private void moveToTail(Node<V> node, Node<V> head) {
+        unlink(node);
+        append(node, head);
+    }
+
+    private static <V> void append(Node<V> node, Node<V> head) {
+        var last = head.prev;
+        node.prev = last;
+        node.next = head;
+        last.next = node;
+        head.prev = node;
+    }
+
+    private static <V> void unlink(Node<V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+    }
+
+    /**
+     * A key in one of the segments' circular lists.
+     */
+    private static final class Node<V> {
+
+        private final long key;
+
+        private V value;
+
+        private int segment;
+
+        private Node<V> prev;
+        private Node<V> next;
+
+        Node(long key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        static <V> Node<V> head() {
+            var head = new Node<V>(-1, null);
+            head.prev = head;
+            head.next = head;
+            return head;
+        }
+    }
+}
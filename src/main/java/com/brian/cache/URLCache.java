@@ -1,6 +1,12 @@
 package com.brian.cache;
 
+import com.brian.Base62Encoder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A facade around a URL cache.
@@ -8,9 +14,189 @@ import java.util.UUID;
  *
  * For this example we just implement an im-memory store.
  */
-public interface URLCache {
+public interface URLCache extends Closeable {
 
     String shorten(UUID uuid, String url);
 
     String getOriginalUrlFor(String hash);
+
+    /**
+     * Looks up a 6-character Base62 hash that has already been decoded to a number, e.g. straight from
+     * the request URI. Caches that index their hashes as numbers avoid building a string.
+     *
+     * @param code The hash, as returned by {@link Base62Encoder#fromBase62(CharSequence)}.
+     */
+    default String getOriginalUrlFor(long code) {
+        return getOriginalUrlFor(Base62Encoder.toBase62(code));
+    }
+
+    /**
+     * Shortens a batch of URLs. Implementations can take their locks once for the whole batch rather than
+     * once per URL. The default implementation shortens them one at a time.
+     *
+     * @param uuid The request ID.
+     * @param urls The URLs to shorten.
+     *
+     * @return The shortened URLs, in the same order, with null for any URL that is not valid.
+     */
+    default List<String> shortenAll(UUID uuid, List<String> urls) {
+        List<String> shortUrls = new ArrayList<>(urls.size());
+        for (var url : urls) {
+            shortUrls.add(shorten(uuid, url));
+        }
+        return shortUrls;
+    }
+
+    /**
+     * Looks up a batch of hashes. The default implementation looks them up one at a time.
+     *
+     * @param hashes The hashes used in the short URLs.
+     *
+     * @return The original URLs, in the same order, with null for any hash that is not in the cache.
+     */
+    default List<String> getOriginalUrlsFor(List<String> hashes) {
+        List<String> urls = new ArrayList<>(hashes.size());
+        for (var hash : hashes) {
+            urls.add(getOriginalUrlFor(hash));
+        }
+        return urls;
+    }
+
+    /**
+     * Shortens a URL without blocking the calling thread, for caches whose entries are owned by other threads
+     * (see {@link ShardedURLCache}). The future may be completed on another thread. The default
+     * implementation shortens the URL straight away.
+     *
+     * @see #shorten(UUID, String)
+     */
+    default CompletableFuture<String> shortenAsync(UUID uuid, String url) {
+        return CompletableFuture.completedFuture(shorten(uuid, url));
+    }
+
+    /**
+     * @see #shortenAsync(UUID, String)
+     * @see #shortenAll(UUID, List)
+     */
+    default CompletableFuture<List<String>> shortenAllAsync(UUID uuid, List<String> urls) {
+        return CompletableFuture.completedFuture(shortenAll(uuid, urls));
+    }
+
+    /**
+     * @see #shortenAsync(UUID, String)
+     * @see #getOriginalUrlFor(String)
+     */
+    default CompletableFuture<String> getOriginalUrlForAsync(String hash) {
+        return CompletableFuture.completedFuture(getOriginalUrlFor(hash));
+    }
+
+    /**
+     * @see #shortenAsync(UUID, String)
+     * @see #getOriginalUrlFor(long)
+     */
+    default CompletableFuture<String> getOriginalUrlForAsync(long code) {
+        return CompletableFuture.completedFuture(getOriginalUrlFor(code));
+    }
+
+    /**
+     * @see #shortenAsync(UUID, String)
+     * @see #getOriginalUrlsFor(List)
+     */
+    default CompletableFuture<List<String>> getOriginalUrlsForAsync(List<String> hashes) {
+        return CompletableFuture.completedFuture(getOriginalUrlsFor(hashes));
+    }
+
+    /**
+     * Registers a listener for the entries added to and evicted from the cache.
+     *
+     * @throws UnsupportedOperationException if the cache does not support listeners.
+     */
+    default void addListener(CacheListener listener) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support listeners");
+    }
+
+    /**
+     * Puts back an entry that was created earlier, e.g. when rebuilding the cache from a log. The entry
+     * keeps its original hash and time added. Listeners are not told about restored entries.
+     *
+     * @param url The original URL.
+     * @param hash The hash used in the short URL.
+     * @param timeAdded The epoch time in milliseconds when the entry was first added.
+     * @param ttl The TTL of the entry in milliseconds.
+     *
+     * @return false if the URL or the hash is already in the cache, in which case nothing is changed.
+     *
+     * @throws UnsupportedOperationException if the cache does not support restoring entries.
+     */
+    default boolean restore(String url, String hash, long timeAdded, long ttl) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support restoring entries");
+    }
+
+    /**
+     * Puts back a batch of entries, e.g. the changes streamed to a replica. Implementations can take their
+     * locks once for the whole batch. The default implementation restores them one at a time.
+     *
+     * @return The number of entries restored. The others were already in the cache.
+     *
+     * @see #restore(String, String, long, long)
+     */
+    default int restoreAll(List<URLEntry> entries) {
+        int restored = 0;
+        for (var entry : entries) {
+            if (restore(entry.url(), entry.hash(), entry.timeAdded(), entry.ttl())) {
+                ++restored;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Removes an entry before it expires, e.g. when a replica applies an eviction made by its primary.
+     * Listeners are told the entry was evicted.
+     *
+     * @param hash The hash used in the short URL.
+     *
+     * @return false if the hash is not in the cache.
+     *
+     * @throws UnsupportedOperationException if the cache does not support removing entries.
+     */
+    default boolean remove(String hash) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support removing entries");
+    }
+
+    /**
+     * Returns a point-in-time copy of the entries, e.g. to write a snapshot. The copy is taken without
+     * blocking lookups.
+     *
+     * @throws UnsupportedOperationException if the cache cannot list its entries.
+     */
+    default List<URLEntry> entries() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support listing entries");
+    }
+
+    /**
+     * @return The number of entries in the cache.
+     */
+    int size();
+
+    /**
+     * @return true if the cache only answers lookups, e.g. on a replica, so shorten requests are refused.
+     */
+    default boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * @return The number of generated codes that were already in use, so another had to be generated.
+     */
+    default long encoderRetries() {
+        return 0;
+    }
+
+    /**
+     * Releases any resources (schedulers, files etc.) held by the cache.
+     * The default implementation has nothing to release.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -1,17 +1,32 @@
 package com.brian.cache;
 
-public record URLEntry(String url, String shortUrl, String hash, long timeAdded) {
+/**
+ * A cached URL mapping.
+ *
+ * @param url The original URL (lowercase).
+ * @param shortUrl The shortened URL.
+ * @param hash The hash used in the shortened URL.
+ * @param timeAdded The epoch time in milliseconds when the entry was added.
+ * @param ttl The TTL of this entry in milliseconds.
+ */
+public record URLEntry(String url, String shortUrl, String hash, long timeAdded, long ttl) {
 
     /**
      * Determines if a cache entry has expired. Used to evict entries from the cache.
      *
      * @param now The current epoch time in milliseconds.
-     * @param ttl The TTL in milliseconds.
      *
      * @return true if the entry has expired.
      */
-    public boolean hasExpired(long now, int ttl) {
-        return (now - timeAdded) > (long) ttl;
+    public boolean hasExpired(long now) {
+        return (now - timeAdded) > ttl;
+    }
+
+    /**
+     * @return The epoch time in milliseconds after which this entry has expired.
+     */
+    public long expiresAt() {
+        return timeAdded + ttl;
     }
 
 }
@@ -0,0 +1,541 @@
+package com.brian.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Persists the changes made to a cache in a segmented, append-only log, so the cache can be rebuilt
+ * after a restart.
+ * <p>
+ * Every new mapping and every eviction is appended as a checksummed record. Appends are queued for a
+ * single writer thread, which writes everything that has queued up since its last write and then calls
+ * fsync once for the whole batch (group commit), so concurrent requests share the cost of an fsync.
+ * When sync is enabled, {@link #synced()} waits for the records appended so far to be on disk, which
+ * {@link SyncedURLCache} uses to complete a shorten request once its record is on disk without blocking the
+ * thread that made the change, as that is usually an event loop.
+ * <p>
+ * The log is split into segments, and a new segment is started once the current one is full, and on
+ * every startup. On startup the existing segments are read in parallel and replayed in order into the
+ * cache. Segments are deleted oldest first once every entry in them has expired. Deleting in order means
+ * an eviction record is never deleted while the mapping it removes is still in the log.
+ * <p>
+ * A batch that fails to be written may leave a torn record at the end of the segment, and replay stops at
+ * the first torn record of a segment. So the segment is truncated back to the end of the last batch written,
+ * or if that fails too, a new segment is started, before anything else is written.
+ */
+public class WriteAheadLog implements CacheListener, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final byte ADDED = 1;
+    private static final byte EVICTED = 2;
+
+    // Each record is framed with its payload length and the CRC32 of the payload.
+    private static final int FRAME_HEADER_LEN = 8;
+
+    // The most records written (and synced) in one batch.
+    private static final int MAX_BATCH = 4096;
+
+    private static final long COMPACTION_PERIOD_SECS = 60;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+
+        // The latest expiry time of any mapping in the segment.
+        volatile long maxExpiresAt;
+
+        long size;
+
+        Segment(long id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+
+    // A write with no record completes once the records queued ahead of it are on disk.
+    private record PendingWrite(ByteBuffer record, long expiresAt, CompletableFuture<Void> done) {
+    }
+
+    private record LogRecord(byte type, String hash, String url, long timeAdded, long ttl) {
+    }
+
+    /**
+     * Opens a new segment for writing.
+     */
+    interface SegmentOpener {
+        FileChannel open(Path path) throws IOException;
+    }
+
+    private final Path directory;
+
+    private final long maxSegmentBytes;
+
+    private final boolean sync;
+
+    private final SegmentOpener opener;
+
+    // Oldest first. The last segment is the one being written.
+    private final Deque<Segment> segments = new ConcurrentLinkedDeque<>();
+
+    // The segments that existed before we started. These are replayed.
+    private final List<Segment> existingSegments;
+
+    private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+
+    private final Thread writer;
+
+    private final ScheduledExecutorService compactor;
+
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+
+    // Only changed by the writer thread once started. The compactor reads the active segment to skip it.
+    private volatile Segment activeSegment;
+    private FileChannel activeChannel;
+    private IOException lastFailure;
+
+    private volatile boolean open = true;
+
+    /**
+     * Opens the log, creating the directory if needed, and starts a new segment.
+     *
+     * @param directory The directory holding the segments.
+     * @param maxSegmentBytes A new segment is started once the current one reaches this size.
+     * @param sync If true then {@link #synced()} waits until the records appended so far are on disk.
+     */
+    public WriteAheadLog(Path directory, long maxSegmentBytes, boolean sync) throws IOException {
+        this(directory, maxSegmentBytes, sync,
+                path -> FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+    }
+
+    WriteAheadLog(Path directory, long maxSegmentBytes, boolean sync, SegmentOpener opener) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.sync = sync;
+        this.opener = opener;
+
+        Files.createDirectories(directory);
+
+        try (var files = Files.list(directory)) {
+            files.map(Path::getFileName)
+                    .map(Path::toString)
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .forEach(id -> segments.add(new Segment(id, segmentPath(id))));
+        }
+        existingSegments = List.copyOf(segments);
+
+        startSegment(segments.isEmpty() ? 0 : segments.getLast().id + 1);
+
+        writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+
+        compactor = Executors.newSingleThreadScheduledExecutor();
+        compactor.scheduleAtFixedRate(() -> compact(System.currentTimeMillis()),
+                COMPACTION_PERIOD_SECS, COMPACTION_PERIOD_SECS, TimeUnit.SECONDS);
+
+        logger.info("Opened the write-ahead log in {} with {} existing segment(s)", directory, existingSegments.size());
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private void startSegment(long id) throws IOException {
+        var segment = new Segment(id, segmentPath(id));
+        activeChannel = opener.open(segment.path);
+        // Made active before the compactor can see it, so it is never deleted as an empty, expired segment.
+        activeSegment = segment;
+        segments.add(segment);
+    }
+
+    /**
+     * Rebuilds the cache from the segments that existed when the log was opened. The segments are read in
+     * parallel, and the records are then applied in the order they were written. Mappings that have since
+     * expired or been evicted are skipped. This should be called before the log is added as a listener.
+     *
+     * @param cache The cache to restore the mappings into.
+     *
+     * @return The number of mappings restored.
+     */
+    public int replay(URLCache cache) throws IOException {
+        long start = System.nanoTime();
+
+        List<List<LogRecord>> records;
+        try {
+            records = existingSegments.parallelStream().map(this::readSegment).toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // Keyed by hash, in the order the mappings were added.
+        Map<String, LogRecord> live = new LinkedHashMap<>();
+        for (var segmentRecords : records) {
+            for (var record : segmentRecords) {
+                if (record.type() == ADDED) {
+                    live.put(record.hash(), record);
+                } else {
+                    live.remove(record.hash());
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        int restored = 0;
+        for (var record : live.values()) {
+            if (now - record.timeAdded() <= record.ttl()
+                    && cache.restore(record.url(), record.hash(), record.timeAdded(), record.ttl())) {
+                ++restored;
+            }
+        }
+
+        logger.info("Restored {} entries from {} segment(s) in {}ms", restored, existingSegments.size(),
+                (System.nanoTime() - start) / 1_000_000);
+
+        return restored;
+    }
+
+    /**
+     * Reads every intact record in a segment. A torn record at the end (from a crash mid-write) is
+     * truncated away.
+     */
+    private List<LogRecord> readSegment(Segment segment) {
+        try {
+            var buf = ByteBuffer.wrap(Files.readAllBytes(segment.path));
+            List<LogRecord> records = new ArrayList<>();
+            long maxExpiresAt = 0;
+
+            while (buf.remaining() >= FRAME_HEADER_LEN) {
+                int frameStart = buf.position();
+                int len = buf.getInt();
+                int crc = buf.getInt();
+                if (len <= 0 || len > buf.remaining() || crc != checksum(buf.array(), buf.position(), len)) {
+                    buf.position(frameStart);
+                    break;
+                }
+
+                var record = decode(buf.slice(buf.position(), len));
+                buf.position(buf.position() + len);
+
+                records.add(record);
+                if (record.type() == ADDED) {
+                    maxExpiresAt = Math.max(maxExpiresAt, record.timeAdded() + record.ttl());
+                }
+            }
+
+            segment.maxExpiresAt = maxExpiresAt;
+            segment.size = buf.position();
+
+            if (buf.position() < buf.limit()) {
+                logger.warn("Truncating {} torn bytes from the end of {}", buf.limit() - buf.position(), segment.path);
+                try (var channel = FileChannel.open(segment.path, StandardOpenOption.WRITE)) {
+                    channel.truncate(buf.position());
+                }
+            }
+
+            return records;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void entryAdded(URLEntry entry) {
+        append(encode(ADDED, entry), entry.expiresAt());
+    }
+
+    @Override
+    public void entryEvicted(URLEntry entry) {
+        append(encode(EVICTED, entry), 0);
+    }
+
+    private void append(ByteBuffer record, long expiresAt) {
+        if (!open) {
+            logger.warn("Dropping a record as the write-ahead log has been closed");
+            return;
+        }
+
+        pending.add(new PendingWrite(record, expiresAt, new CompletableFuture<>()));
+        appends.increment();
+    }
+
+    /**
+     * Waits for the records appended so far without blocking, as they share the fsync of the batch the
+     * writer thread is on or the next one.
+     *
+     * @return A future completed once the records appended before this call are on disk, or straight away
+     *         if sync is disabled or the log has been closed. It fails if the batch it is in could not be
+     *         written, or if it is the first wait to be completed since a batch could not be written.
+     */
+    public CompletableFuture<Void> synced() {
+        if (!sync || !open) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var done = new CompletableFuture<Void>();
+        pending.add(new PendingWrite(null, 0, done));
+        return done;
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+
+        while (open || !pending.isEmpty()) {
+            try {
+                var first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                pending.drainTo(batch, MAX_BATCH - 1);
+
+                writeBatch(batch);
+
+                // A wait queued after a failed batch may be for one of its records.
+                var failure = lastFailure;
+                for (var write : batch) {
+                    if (failure != null && write.record() == null) {
+                        write.done().completeExceptionally(failure);
+                        lastFailure = null;
+                    } else {
+                        write.done().complete(null);
+                    }
+                }
+            } catch (IOException e) {
+                logger.error("Failed to write to the write-ahead log", e);
+                batch.forEach(write -> write.done().completeExceptionally(e));
+                lastFailure = e;
+                dropTornBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            batch.clear();
+        }
+
+        try {
+            activeChannel.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the write-ahead log", e);
+        }
+    }
+
+    /**
+     * Removes whatever part of a failed batch was written, so the batches written after it are not lost
+     * behind a torn record on replay. Only called from the writer thread.
+     */
+    private void dropTornBatch() {
+        try {
+            activeChannel.truncate(activeSegment.size);
+            activeChannel.position(activeSegment.size);
+            return;
+        } catch (IOException e) {
+            logger.error("Failed to truncate {} after a failed write, starting a new segment", activeSegment.path, e);
+        }
+
+        try {
+            activeChannel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}", activeSegment.path, e);
+        }
+        try {
+            startSegment(activeSegment.id + 1);
+        } catch (IOException e) {
+            // The next batch fails on the closed channel, and tries again.
+            logger.error("Failed to start a new segment of the write-ahead log", e);
+        }
+    }
+
+    // Only called from the writer thread.
+    private void writeBatch(List<PendingWrite> batch) throws IOException {
+        List<ByteBuffer> records = new ArrayList<>(batch.size());
+        long bytes = 0;
+        long maxExpiresAt = activeSegment.maxExpiresAt;
+        for (var write : batch) {
+            if (write.record() != null) {
+                records.add(write.record());
+                bytes += write.record().remaining();
+                maxExpiresAt = Math.max(maxExpiresAt, write.expiresAt());
+            }
+        }
+
+        // The records ahead of a batch of waits alone are already on disk.
+        if (records.isEmpty()) {
+            return;
+        }
+        var buffers = records.toArray(ByteBuffer[]::new);
+
+        // Publish the expiry time before the records are written, so compaction never sees a segment
+        // holding records newer than its expiry time.
+        activeSegment.maxExpiresAt = maxExpiresAt;
+
+        long written = 0;
+        while (written < bytes) {
+            written += activeChannel.write(buffers);
+        }
+
+        // One fsync for the whole batch.
+        activeChannel.force(false);
+        syncs.increment();
+
+        activeSegment.size += bytes;
+        if (activeSegment.size >= maxSegmentBytes) {
+            activeChannel.close();
+            startSegment(activeSegment.id + 1);
+        }
+    }
+
+    /**
+     * Deletes the oldest segments while every mapping in them has expired. The segment being written is
+     * never deleted.
+     *
+     * @param now The current epoch time in milliseconds.
+     *
+     * @return The number of segments deleted.
+     */
+    public int compact(long now) {
+        int deleted = 0;
+
+        for (var segment = segments.peekFirst();
+             segment != null && segment != activeSegment && segment.maxExpiresAt < now;
+             segment = segments.peekFirst()) {
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                logger.error("Failed to delete the expired segment {}", segment.path, e);
+                break;
+            }
+
+            segments.removeFirst();
+            ++deleted;
+            logger.info("Deleted the expired segment {}", segment.path);
+        }
+
+        return deleted;
+    }
+
+    private static ByteBuffer encode(byte type, URLEntry entry) {
+        byte[] hash = entry.hash().getBytes(StandardCharsets.UTF_8);
+        byte[] url = type == ADDED ? entry.url().getBytes(StandardCharsets.UTF_8) : new byte[0];
+
+        int payloadLen = type == ADDED
+                ? 1 + Long.BYTES + Long.BYTES + Short.BYTES + hash.length + Integer.BYTES + url.length
+                : 1 + Short.BYTES + hash.length;
+
+        var buf = ByteBuffer.allocate(FRAME_HEADER_LEN + payloadLen);
+        buf.putInt(payloadLen);
+        buf.putInt(0); // The checksum is filled in below.
+        buf.put(type);
+        if (type == ADDED) {
+            buf.putLong(entry.timeAdded());
+            buf.putLong(entry.ttl());
+        }
+        buf.putShort((short) hash.length);
+        buf.put(hash);
+        if (type == ADDED) {
+            buf.putInt(url.length);
+            buf.put(url);
+        }
+
+        buf.putInt(Integer.BYTES, checksum(buf.array(), FRAME_HEADER_LEN, payloadLen));
+        return buf.flip();
+    }
+
+    private static LogRecord decode(ByteBuffer payload) {
+        byte type = payload.get();
+        long timeAdded = 0;
+        long ttl = 0;
+        if (type == ADDED) {
+            timeAdded = payload.getLong();
+            ttl = payload.getLong();
+        }
+
+        var hash = new byte[payload.getShort()];
+        payload.get(hash);
+
+        String url = null;
+        if (type == ADDED) {
+            var urlBytes = new byte[payload.getInt()];
+            payload.get(urlBytes);
+            url = new String(urlBytes, StandardCharsets.UTF_8);
+        }
+
+        return new LogRecord(type, new String(hash, StandardCharsets.UTF_8), url, timeAdded, ttl);
+    }
+
+    private static int checksum(byte[] bytes, int offset, int len) {
+        var crc = new CRC32();
+        crc.update(bytes, offset, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Stops accepting records, and waits for the queued records to be written.
+     */
+    @Override
+    public void close() {
+        logger.info("Closing the write-ahead log");
+
+        open = false;
+        compactor.shutdown();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of records appended.
+     */
+    public long appends() {
+        return appends.sum();
+    }
+
+    /**
+     * @return The number of fsyncs. With group commit this is at most the number of appends.
+     */
+    public long syncs() {
+        return syncs.sum();
+    }
+
+    /**
+     * @return The number of segments, including the one being written.
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+}
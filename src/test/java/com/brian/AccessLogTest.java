@@ -0,0 +1,104 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+class AccessLogTest {
+
+    private static final InetSocketAddress CLIENT = new InetSocketAddress("192.168.1.1", 1234);
+
+    @Test
+    void writesOneLinePerRequest() {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        var accessLog = new AccessLog(16, 0, lines::add);
+        accessLog.start();
+
+        var uuid = UUID.randomUUID();
+        accessLog.record(uuid, CLIENT, "GET", "/abcdef", 301, 42);
+        accessLog.close();
+
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0).matches("time=\\S+Z client=192\\.168\\.1\\.1:1234 method=GET uri=/abcdef status=301 "
+                + "micros=42 id=" + uuid), lines.get(0));
+    }
+
+    @Test
+    void fullBufferDropsRecords() {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        var accessLog = new AccessLog(3, 0, lines::add);
+        assertEquals(4, accessLog.capacity());
+
+        // Nothing is written until the writer starts, so the buffer fills up.
+        for (int i = 0; i < 10; ++i) {
+            accessLog.record(UUID.randomUUID(), CLIENT, "GET", "/" + i, 404, i);
+        }
+        assertEquals(6, accessLog.dropped());
+
+        accessLog.start();
+        accessLog.close();
+
+        assertEquals(4, lines.size());
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(lines.get(i).contains(" uri=/" + i + " "), lines.get(i));
+        }
+    }
+
+    @Test
+    void concurrentRequestsAreWrittenOrCounted() throws InterruptedException {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        var accessLog = new AccessLog(1024, 0, lines::add);
+        accessLog.start();
+
+        int threads = 4;
+        int perThread = 20_000;
+        List<Thread> recorders = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            var thread = new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    accessLog.record(null, CLIENT, "GET", "/abcdef", 301, i);
+                }
+            });
+            recorders.add(thread);
+            thread.start();
+        }
+        for (var thread : recorders) {
+            thread.join();
+        }
+        accessLog.close();
+
+        assertEquals(threads * perThread, lines.size() + accessLog.dropped());
+    }
+
+    @Test
+    void disabledAccessLogStillSamples() {
+        var accessLog = new AccessLog(0, 1, line -> fail("Nothing should be written"));
+        accessLog.start();
+        accessLog.record(UUID.randomUUID(), CLIENT, "GET", "/abcdef", 301, 42);
+        accessLog.close();
+
+        assertEquals(0, accessLog.capacity());
+        assertTrue(accessLog.sample());
+    }
+
+    @Test
+    void sampling() {
+        assertFalse(new AccessLog(0, 0).sample());
+        assertTrue(new AccessLog(0, 1).sample());
+
+        var accessLog = new AccessLog(0, 4);
+        int sampled = 0;
+        for (int i = 0; i < 10_000; ++i) {
+            if (accessLog.sample()) {
+                ++sampled;
+            }
+        }
+        assertTrue(sampled > 2000 && sampled < 3000, "Sampled " + sampled);
+    }
+}
@@ -0,0 +1,153 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class AdmissionControlTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong now = new AtomicLong(123_456_789L);
+
+    private static InetAddress address(int n) throws Exception {
+        return InetAddress.getByAddress(new byte[] {10, 0, 0, (byte) n});
+    }
+
+    @Test
+    void eachAddressMayBurstAndThenKeepToTheRate() throws Exception {
+        // 10 per second, in bursts of 3.
+        var admission = new AdmissionControl(10, 3, 100, 0, 0, now::get);
+
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(admission.tryAcquire(address(1)));
+        }
+        assertFalse(admission.tryAcquire(address(1)));
+        assertTrue(admission.tryAcquire(address(2)));
+
+        // A token every 100ms.
+        now.addAndGet(SECOND / 10);
+        assertTrue(admission.tryAcquire(address(1)));
+        assertFalse(admission.tryAcquire(address(1)));
+
+        // The bucket never holds more than the burst.
+        now.addAndGet(10 * SECOND);
+        for (int i = 0; i < 3; ++i) {
+            assertTrue(admission.tryAcquire(address(1)));
+        }
+        assertFalse(admission.tryAcquire(address(1)));
+    }
+
+    @Test
+    void onlyTheShortenRequestsAreLimited() throws Exception {
+        var admission = new AdmissionControl(1, 1, 100, 0, 0, now::get);
+        var executor = ImmediateEventExecutor.INSTANCE;
+
+        assertEquals(AdmissionControl.Verdict.ADMITTED, admission.admit(address(1), true, executor));
+        assertEquals(AdmissionControl.Verdict.RATE_LIMITED, admission.admit(address(1), true, executor));
+        assertEquals(AdmissionControl.Verdict.ADMITTED, admission.admit(address(1), false, executor));
+        assertEquals(1, admission.rateLimited());
+        assertEquals(0, admission.shed());
+
+        // With no rate, nothing is tracked.
+        var unlimited = new AdmissionControl(0, 1, 100, 0, 0, now::get);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(AdmissionControl.Verdict.ADMITTED, unlimited.admit(address(1), true, executor));
+        }
+        assertEquals(0, unlimited.addresses());
+    }
+
+    @Test
+    void theFullBucketsAreDropped() throws Exception {
+        var admission = new AdmissionControl(10, 2, 100, 0, 0, now::get);
+        admission.tryAcquire(address(1));
+        admission.tryAcquire(address(2));
+        admission.tryAcquire(address(2));
+        assertEquals(2, admission.addresses());
+
+        // After a second the first is full again, but the second is still used.
+        now.addAndGet(SECOND - SECOND / 10);
+        admission.tryAcquire(address(2));
+        admission.tryAcquire(address(2));
+        now.addAndGet(SECOND / 10);
+        admission.tryAcquire(address(3));
+        assertEquals(2, admission.addresses());
+    }
+
+    @Test
+    void theAddressesThatDontFitShareABucket() throws Exception {
+        var admission = new AdmissionControl(1, 2, 2, 0, 0, now::get);
+        assertTrue(admission.tryAcquire(address(1)));
+        assertTrue(admission.tryAcquire(address(2)));
+
+        assertTrue(admission.tryAcquire(address(3)));
+        assertTrue(admission.tryAcquire(address(4)));
+        assertFalse(admission.tryAcquire(address(5)));
+        assertEquals(2, admission.addresses());
+
+        // The addresses in the map keep their own buckets.
+        assertTrue(admission.tryAcquire(address(1)));
+    }
+
+    @Test
+    void requestsAreShedOverTheConnectionLimit() throws Exception {
+        var admission = new AdmissionControl(0, 1, 100, 2, 0, now::get);
+        var executor = ImmediateEventExecutor.INSTANCE;
+
+        var first = new EmbeddedChannel();
+        var second = new EmbeddedChannel();
+        admission.track(first);
+        admission.track(second);
+        assertEquals(2, admission.connections());
+        assertEquals(AdmissionControl.Verdict.ADMITTED, admission.admit(address(1), false, executor));
+
+        var third = new EmbeddedChannel();
+        admission.track(third);
+        assertEquals(AdmissionControl.Verdict.SHED, admission.admit(address(1), false, executor));
+        assertEquals(1, admission.shed());
+
+        third.close();
+        assertEquals(2, admission.connections());
+        assertEquals(AdmissionControl.Verdict.ADMITTED, admission.admit(address(1), true, executor));
+    }
+
+    @Test
+    void requestsAreShedWhenTheEventLoopIsBehind() throws Exception {
+        var admission = new AdmissionControl(0, 1, 100, 0, 2, now::get);
+        var eventLoop = new DefaultEventLoop();
+        try {
+            var blocked = new CountDownLatch(1);
+            eventLoop.execute(() -> {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertEquals(AdmissionControl.Verdict.ADMITTED, admission.admit(address(1), false, eventLoop));
+
+            for (int i = 0; i < 3; ++i) {
+                eventLoop.execute(() -> { });
+            }
+            assertEquals(AdmissionControl.Verdict.SHED, admission.admit(address(1), false, eventLoop));
+            blocked.countDown();
+        } finally {
+            eventLoop.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    @Test
+    void theLimitsMustBeValid() {
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(-1, 1, 1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(1, 0, 1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new AdmissionControl(1, 1, 0, 0, 0));
+    }
+}
@@ -0,0 +1,42 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class Base62EncoderTest {
+
+    // 62^6
+    private static final long CODE_SPACE = 56_800_235_584L;
+
+    @Test
+    void roundTrip() {
+        for (long value : new long[] {0, 1, 61, 62, 123_456_789, CODE_SPACE - 1}) {
+            var code = Base62Encoder.toBase62(value);
+            assertEquals(6, code.length());
+            assertEquals(value, Base62Encoder.fromBase62(code));
+        }
+
+        var encoder = new Base62Encoder();
+        for (int i = 0; i < 1_000; ++i) {
+            var code = encoder.encode("http://google.com");
+            assertEquals(code, Base62Encoder.toBase62(Base62Encoder.fromBase62(code)));
+        }
+    }
+
+    @Test
+    void decodesPartOfASequence() {
+        var uri = "/abczxy";
+        assertEquals(Base62Encoder.fromBase62("abczxy"), Base62Encoder.fromBase62(uri, 1, uri.length()));
+    }
+
+    @Test
+    void invalidCodes() {
+        assertEquals(-1, Base62Encoder.fromBase62(""));
+        assertEquals(-1, Base62Encoder.fromBase62("abcde"));
+        assertEquals(-1, Base62Encoder.fromBase62("abcdefg"));
+        assertEquals(-1, Base62Encoder.fromBase62("abc-ef"));
+        assertEquals(-1, Base62Encoder.fromBase62("abc\u00e9ef"));
+        assertEquals(-1, Base62Encoder.fromBase62("abc?ef"));
+    }
+}
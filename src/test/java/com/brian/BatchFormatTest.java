@@ -0,0 +1,62 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+class BatchFormatTest {
+
+    @Test
+    void formatIsDetected() {
+        assertEquals(BatchFormat.JSON, BatchFormat.of(" \n[\"http://a.com\"]"));
+        assertEquals(BatchFormat.LINES, BatchFormat.of("http://a.com"));
+    }
+
+    @Test
+    void lines() {
+        assertEquals(List.of("http://a.com", "http://b.com"), BatchFormat.LINES.parse(" http://a.com\r\n\n\thttp://b.com"));
+
+        var out = new StringBuilder(BatchFormat.LINES.start());
+        BatchFormat.LINES.append(out, "x", true);
+        BatchFormat.LINES.append(out, null, false);
+        out.append(BatchFormat.LINES.end());
+        assertEquals("x\n\n", out.toString());
+    }
+
+    @Test
+    void json() {
+        assertEquals(List.of("http://a.com/\"q\"", "\u00e9/\n"),
+                BatchFormat.JSON.parse("[ \"http:\\/\\/a.com/\\\"q\\\"\" ,\"\\u00e9/\\n\" ]"));
+        assertEquals(List.of(), BatchFormat.JSON.parse("[ ]"));
+
+        var out = new StringBuilder(BatchFormat.JSON.start());
+        BatchFormat.JSON.append(out, "a\"b\\c\u0001", true);
+        BatchFormat.JSON.append(out, null, false);
+        out.append(BatchFormat.JSON.end());
+        assertEquals("[\"a\\\"b\\\\c\\u0001\",null]\n", out.toString());
+
+        assertEquals(Arrays.asList("a\"b\\c\u0001", "x"), BatchFormat.JSON.parse(out.toString().replace("null", "\"x\"")));
+    }
+
+    @Test
+    void resultsAreReadBack() {
+        var results = Arrays.asList("http://a.com", null, "http://b.com/\"x\"");
+        for (var format : BatchFormat.values()) {
+            assertEquals(results, format.parseResults(format.format(results)), format.name());
+        }
+
+        // A null is only a result, never an item.
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.JSON.parse("[null]"));
+        assertThrows(IllegalArgumentException.class, () -> BatchFormat.JSON.parseResults("[nul]"));
+    }
+
+    @Test
+    void invalidJson() {
+        for (var json : List.of("[", "[\"a\"", "[\"a\",]", "[\"a\"] x", "[1]", "[\"\\x\"]", "[\"\\u12\"]", "{}")) {
+            assertThrows(IllegalArgumentException.class, () -> BatchFormat.JSON.parse(json), json);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.CharsetUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ClusterClientTest {
+
+    private final NioEventLoopGroup group = new NioEventLoopGroup(2);
+
+    // The connections the node has accepted.
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final AtomicBoolean closedFirst = new AtomicBoolean();
+
+    private Channel node;
+
+    private InetSocketAddress address;
+
+    /**
+     * Echoes each request, apart from /close-first which closes the first connection it arrives on and
+     * /silent which never gets a reply.
+     */
+    @BeforeEach
+    void startNode() {
+        node = new ServerBootstrap()
+                .group(group)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        connections.incrementAndGet();
+                        ch.pipeline().addLast(new HttpServerCodec(), new HttpObjectAggregator(1024 * 1024),
+                                new SimpleChannelInboundHandler<FullHttpRequest>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+                                        echo(ctx, request);
+                                    }
+                                });
+                    }
+                })
+                .bind(0).syncUninterruptibly().channel();
+        address = InetSocketAddress.createUnresolved("127.0.0.1",
+                ((InetSocketAddress) node.localAddress()).getPort());
+    }
+
+    private void echo(ChannelHandlerContext ctx, FullHttpRequest request) {
+        if (request.uri().equals("/silent")) {
+            return;
+        }
+        if (request.uri().equals("/close-first") && closedFirst.compareAndSet(false, true)) {
+            ctx.close();
+            return;
+        }
+
+        var body = request.method() + " " + request.uri() + " " + request.content().toString(CharsetUtil.UTF_8)
+                + " " + request.headers().get(ClusterClient.FORWARDED_HEADER);
+        var response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.MOVED_PERMANENTLY,
+                Unpooled.copiedBuffer(body, CharsetUtil.UTF_8));
+        response.headers().set(HttpHeaderNames.LOCATION, "http://google.com" + request.uri());
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+        ctx.writeAndFlush(response);
+    }
+
+    @AfterEach
+    void stopNode() {
+        node.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    @Test
+    void repliesMatchTheirRequests() {
+        try (var client = new ClusterClient(group, NioSocketChannel.class, "a", 2)) {
+            List<CompletableFuture<ClusterClient.Reply>> replies = new ArrayList<>();
+            for (int i = 0; i < 50; ++i) {
+                replies.add(client.send(address, "/" + i, i % 2 == 0 ? "http://google.com/" + i : null));
+            }
+
+            for (int i = 0; i < 50; ++i) {
+                var reply = replies.get(i).join();
+                assertEquals(301, reply.status());
+                assertEquals("http://google.com/" + i, reply.location());
+                assertEquals(i % 2 == 0 ? "POST /" + i + " http://google.com/" + i + " a" : "GET /" + i + "  a",
+                        reply.body());
+            }
+            assertTrue(connections.get() <= 2, "Connections: " + connections.get());
+        }
+    }
+
+    @Test
+    void connectionsAreKeptAlive() {
+        try (var client = new ClusterClient(group, NioSocketChannel.class, "a", 2)) {
+            for (int i = 0; i < 5; ++i) {
+                assertEquals(301, client.send(address, "/" + i, null).join().status());
+            }
+            assertEquals(1, connections.get());
+        }
+    }
+
+    @Test
+    void aClosedConnectionIsRetried() {
+        try (var client = new ClusterClient(group, NioSocketChannel.class, "a", 2)) {
+            var reply = client.send(address, "/close-first", "http://google.com").join();
+            assertEquals("POST /close-first http://google.com a", reply.body());
+            assertEquals(2, connections.get());
+        }
+    }
+
+    @Test
+    void anUnreachableNodeFails() throws Exception {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        try (var client = new ClusterClient(group, NioSocketChannel.class, "a", 2)) {
+            var error = assertThrows(ExecutionException.class,
+                    () -> client.send(InetSocketAddress.createUnresolved("127.0.0.1", port), "/", null).get());
+            assertInstanceOf(ConnectException.class, error.getCause());
+        }
+    }
+
+    @Test
+    void aSilentNodeTimesOut() {
+        try (var client = new ClusterClient(group, NioSocketChannel.class, "a", 2, 200)) {
+            var error = assertThrows(ExecutionException.class, () -> client.send(address, "/silent", null).get());
+            assertInstanceOf(TimeoutException.class, error.getCause());
+
+            // The connection is closed rather than reused, so a late reply can't be taken for the next one.
+            assertEquals(301, client.send(address, "/next", null).join().status());
+            assertEquals(2, connections.get());
+        }
+    }
+
+    @Test
+    void theEventLoopsAreKnown() throws Exception {
+        try (var client = new ClusterClient(group, NioSocketChannel.class, "a", 2)) {
+            assertFalse(client.inEventLoop());
+            assertTrue(group.next().submit(client::inEventLoop).get());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.ClusterMembership.Member;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+class ClusterMembershipTest {
+
+    @Test
+    void membersAreLoadedFromTheClasspath() throws IOException {
+        var membership = ClusterMembership.load("cluster-members.properties", "b");
+
+        assertEquals(List.of(new Member("a", "127.0.0.1", 8901), new Member("b", "127.0.0.1", 8902),
+                new Member("c", "127.0.0.1", 8903)), membership.members());
+        assertEquals("b", membership.self().id());
+        assertEquals("127.0.0.1", membership.self().address().getHostString());
+        assertEquals(8902, membership.self().address().getPort());
+    }
+
+    @Test
+    void membersAreLoadedFromAFile(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("members.properties");
+        Files.writeString(file, "node-2 = [::1]:9002\nnode-1=localhost:9001\n");
+
+        var membership = ClusterMembership.load(file.toString(), "node-2");
+        assertEquals(List.of(new Member("node-1", "localhost", 9001), new Member("node-2", "::1", 9002)),
+                membership.members());
+    }
+
+    @Test
+    void thePeersAreTheOtherNodesAddresses() throws Exception {
+        var membership = new ClusterMembership(List.of(new Member("a", "10.0.0.1", 9001),
+                new Member("b", "10.0.0.2", 9002), new Member("c", "[bad host]", 9003)), "a");
+
+        assertEquals(Set.of(InetAddress.getByName("10.0.0.2")), membership.peerAddresses());
+    }
+
+    @Test
+    void invalidAddress() {
+        assertThrows(InvalidServerPropertiesException.class,
+                () -> ClusterMembership.load("invalid-cluster-members.properties", "a"));
+    }
+
+    @Test
+    void nodeIsNotAMember() {
+        assertThrows(InvalidServerPropertiesException.class,
+                () -> ClusterMembership.load("cluster-members.properties", "z"));
+    }
+
+    @Test
+    void membershipFileMissing() {
+        assertThrows(InvalidServerPropertiesException.class,
+                () -> ClusterMembership.load("asdfhasjdfhjkaskdfhjasjkdfhjkahsdf.props", "a"));
+    }
+}
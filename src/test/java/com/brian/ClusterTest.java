@@ -0,0 +1,161 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs a cluster of three nodes on different ports, as in cluster-members.properties, and checks that any node
+ * can shorten and resolve any URL.
+ */
+class ClusterTest {
+
+    private static final List<String> NODES = List.of("a", "b", "c");
+
+    private static final List<Integer> PORTS = List.of(8901, 8902, 8903);
+
+    private static final List<Thread> threads = new ArrayList<>();
+
+    private static final List<HttpServer> servers = new ArrayList<>();
+
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    private static HashRing ring;
+
+    @BeforeAll
+    static void start() throws Exception {
+        ring = new HashRing(ClusterMembership.load("cluster-members.properties", "a").members());
+
+        for (var node : NODES) {
+            var server = new HttpServer("cluster-node-" + node + ".properties");
+            var thread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } catch (InterruptedException e) {
+                    System.out.println("Shutting down cluster node " + node);
+                }
+            });
+            thread.start();
+            servers.add(server);
+            threads.add(thread);
+        }
+
+        // Wait for the nodes to bind to their ports.
+        for (int i = 0; i < 100 && !servers.stream().allMatch(HttpServer::isRunning); ++i) {
+            Thread.sleep(100);
+        }
+        assertTrue(servers.stream().allMatch(HttpServer::isRunning), "The cluster failed to start!");
+    }
+
+    @AfterAll
+    static void end() {
+        threads.forEach(Thread::interrupt);
+    }
+
+    private static HttpResponse<String> post(int node, String path, String body) throws Exception {
+        var request = HttpRequest.newBuilder()
+                .uri(new URI("http://127.0.0.1:" + PORTS.get(node) + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> get(int node, String hash) throws Exception {
+        var request = HttpRequest.newBuilder()
+                .uri(new URI("http://127.0.0.1:" + PORTS.get(node) + "/" + hash))
+                .GET()
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String hashOf(String shortUrl) {
+        return shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+
+    @Test
+    void anyNodeShortensAndResolves() throws Exception {
+        Set<String> owners = new HashSet<>();
+        for (int i = 0; i < 30; ++i) {
+            var url = "http://google.com/cluster/" + i;
+            var response = post(i % 3, "/", url);
+            assertEquals(200, response.statusCode());
+
+            // The code is held by the node the URL belongs to, whichever node it was posted to.
+            var hash = hashOf(response.body());
+            var owner = ring.ownerOf(Base62Encoder.fromBase62(hash));
+            assertEquals(ring.ownerOfUrl(url), owner);
+            owners.add(owner.id());
+
+            for (int node = 0; node < 3; ++node) {
+                var redirect = get(node, hash);
+                assertEquals(301, redirect.statusCode());
+                assertEquals(url, redirect.headers().firstValue("location").orElseThrow());
+            }
+        }
+
+        assertEquals(Set.copyOf(NODES), owners);
+    }
+
+    @Test
+    void aUrlGetsTheSameCodeFromEveryNode() throws Exception {
+        var url = "http://google.com/cluster/same";
+        var shortUrl = post(0, "/", url).body();
+
+        assertEquals(shortUrl, post(1, "/", url).body());
+        assertEquals(shortUrl, post(2, "/", url.toUpperCase().replace("HTTP:", "http:")).body());
+    }
+
+    @Test
+    void unknownCodesAndInvalidUrls() throws Exception {
+        for (int node = 0; node < 3; ++node) {
+            assertEquals(404, get(node, "zzzzzz").statusCode());
+            assertEquals(404, get(node, "AAAAAB").statusCode());
+            assertEquals(400, post(node, "/", "not a url").statusCode());
+        }
+    }
+
+    @Test
+    void batchesSpanTheNodes() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            urls.add("http://google.com/cluster/batch/" + i);
+        }
+
+        var shortened = post(1, URLServiceHandler.BATCH_SHORTEN_PATH, String.join("\n", urls));
+        assertEquals(200, shortened.statusCode());
+        var shortUrls = BatchFormat.LINES.parseResults(shortened.body());
+        assertEquals(20, shortUrls.size());
+
+        List<String> hashes = new ArrayList<>();
+        for (var shortUrl : shortUrls) {
+            hashes.add(hashOf(shortUrl));
+        }
+        hashes.add("zzzzzz");
+
+        var resolved = post(2, URLServiceHandler.BATCH_RESOLVE_PATH, BatchFormat.JSON.format(hashes));
+        assertEquals(200, resolved.statusCode());
+        var found = BatchFormat.JSON.parseResults(resolved.body());
+        assertEquals(urls, found.subList(0, 20));
+        assertNull(found.get(20));
+    }
+}
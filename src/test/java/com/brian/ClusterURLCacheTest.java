@@ -0,0 +1,172 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.ClusterMembership.Member;
+import com.brian.cache.InMemoryURLCache;
+import org.junit.jupiter.api.Test;
+
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+class ClusterURLCacheTest {
+
+    private final UUID uuid = UUID.randomUUID();
+
+    private final Member a = new Member("a", "127.0.0.1", 8001);
+    private final Member b = new Member("b", "127.0.0.1", 8002);
+
+    private final HashRing ring = new HashRing(List.of(a, b));
+
+    private final ClusterClient client = mock(ClusterClient.class);
+
+    // This node is a, and only generates codes in its own partitions.
+    private final InMemoryURLCache local = new InMemoryURLCache(
+            new PartitionedEncoder(new SequenceEncoder(), ring.partitionsOf(a)), "shorty.com", 60_000);
+
+    private final ClusterURLCache cache = new ClusterURLCache(local, ring, a, client);
+
+    private String urlOwnedBy(Member owner, int n) {
+        for (int i = 0; ; ++i) {
+            var url = "http://google.com/" + n + "/" + i;
+            if (ring.ownerOfUrl(url).equals(owner)) {
+                return url;
+            }
+        }
+    }
+
+    private String codeOwnedBy(Member owner, int n) {
+        return Base62Encoder.toBase62(ring.partitionsOf(owner)[n]);
+    }
+
+    private static String hashOf(String shortUrl) {
+        return shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+
+    private static CompletableFuture<ClusterClient.Reply> reply(int status, String location, String body) {
+        return CompletableFuture.completedFuture(new ClusterClient.Reply(status, location, body));
+    }
+
+    @Test
+    void thisNodesRequestsStayLocal() {
+        var url = urlOwnedBy(a, 0);
+        var hash = hashOf(cache.shortenAsync(uuid, url).join());
+
+        assertEquals(a, ring.ownerOf(Base62Encoder.fromBase62(hash)));
+        assertEquals(url, cache.getOriginalUrlForAsync(hash).join());
+        assertEquals(url, cache.getOriginalUrlFor(Base62Encoder.fromBase62(hash)));
+        assertEquals(1, cache.size());
+        verifyNoInteractions(client);
+        assertEquals(0, cache.forwarded());
+    }
+
+    @Test
+    void otherNodesAreAsked() {
+        var url = urlOwnedBy(b, 0);
+        when(client.send(b.address(), "/", url)).thenReturn(reply(200, null, "http://shorty.com/abcdef"));
+        assertEquals("http://shorty.com/abcdef", cache.shortenAsync(uuid, url).join());
+
+        var hash = codeOwnedBy(b, 0);
+        when(client.send(b.address(), "/" + hash, null)).thenReturn(reply(301, url, ""));
+        assertEquals(url, cache.getOriginalUrlForAsync(hash).join());
+
+        var missing = codeOwnedBy(b, 1);
+        when(client.send(b.address(), "/" + missing, null)).thenReturn(reply(404, null, "Not Found"));
+        assertNull(cache.getOriginalUrlFor(missing));
+
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.forwarded());
+        assertEquals(0, cache.failures());
+    }
+
+    @Test
+    void anInvalidUrlIsNotShortenedByTheOtherNode() {
+        var url = urlOwnedBy(b, 0);
+        when(client.send(b.address(), "/", url)).thenReturn(reply(400, null, "Bad Request"));
+
+        assertNull(cache.shorten(uuid, url));
+        assertEquals(0, cache.failures());
+    }
+
+    @Test
+    void failuresAreReported() {
+        var url = urlOwnedBy(b, 0);
+        when(client.send(b.address(), "/", url)).thenReturn(reply(503, null, "Service Unavailable"));
+        var error = assertThrows(CompletionException.class, () -> cache.shortenAsync(uuid, url).join());
+        assertInstanceOf(UncheckedIOException.class, error.getCause());
+
+        var hash = codeOwnedBy(b, 0);
+        when(client.send(b.address(), "/" + hash, null))
+                .thenReturn(CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+        error = assertThrows(CompletionException.class, () -> cache.getOriginalUrlForAsync(hash).join());
+        assertInstanceOf(ConnectException.class, error.getCause());
+
+        assertEquals(2, cache.failures());
+    }
+
+    @Test
+    void batchesAreSplitByNode() {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            urls.add(urlOwnedBy(i % 3 == 0 ? b : a, i));
+        }
+
+        // The other node gets one batch of its URLs, in order.
+        var remote = List.of(urls.get(0), urls.get(3));
+        when(client.send(b.address(), URLServiceHandler.BATCH_SHORTEN_PATH, BatchFormat.JSON.format(remote)))
+                .thenReturn(reply(200, null, "[\"http://shorty.com/bbbbb0\",null]\n"));
+
+        var shortUrls = cache.shortenAllAsync(uuid, urls).join();
+        assertEquals("http://shorty.com/bbbbb0", shortUrls.get(0));
+        assertNull(shortUrls.get(3));
+        for (int i : new int[] {1, 2, 4, 5}) {
+            assertEquals(urls.get(i), local.getOriginalUrlFor(hashOf(shortUrls.get(i))));
+        }
+
+        // Anything that is not a code is looked up locally.
+        var hashes = Arrays.asList(codeOwnedBy(b, 0), hashOf(shortUrls.get(1)), "metrics", codeOwnedBy(b, 1));
+        when(client.send(b.address(), URLServiceHandler.BATCH_RESOLVE_PATH,
+                BatchFormat.JSON.format(List.of(hashes.get(0), hashes.get(3)))))
+                .thenReturn(reply(200, null, "[null,\"http://google.com/\\\"q\\\"\"]\n"));
+
+        assertEquals(Arrays.asList(null, urls.get(1), null, "http://google.com/\"q\""),
+                cache.getOriginalUrlsFor(hashes));
+        assertEquals(2, cache.forwarded());
+    }
+
+    @Test
+    void aShortBatchReplyFails() {
+        var urls = List.of(urlOwnedBy(b, 0), urlOwnedBy(b, 1));
+        when(client.send(b.address(), URLServiceHandler.BATCH_SHORTEN_PATH, BatchFormat.JSON.format(urls)))
+                .thenReturn(reply(200, null, "[\"http://shorty.com/bbbbb0\"]\n"));
+
+        var error = assertThrows(CompletionException.class, () -> cache.shortenAllAsync(uuid, urls).join());
+        assertInstanceOf(UncheckedIOException.class, error.getCause());
+    }
+
+    @Test
+    void theEventLoopsCannotWaitForAnotherNode() {
+        var hash = codeOwnedBy(b, 0);
+        when(client.send(b.address(), "/" + hash, null)).thenReturn(new CompletableFuture<>());
+        when(client.inEventLoop()).thenReturn(true);
+
+        assertThrows(IllegalStateException.class, () -> cache.getOriginalUrlFor(hash));
+    }
+
+    @Test
+    void theLocalCacheIsShared() {
+        assertSame(local, cache.local());
+
+        var hash = codeOwnedBy(a, 0);
+        assertTrue(cache.restore("http://google.com/restored", hash, System.currentTimeMillis(), 60_000));
+        assertEquals(1, cache.entries().size());
+        assertEquals("http://google.com/restored", local.getOriginalUrlFor(hash));
+    }
+}
@@ -0,0 +1,152 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.cache.ConcurrentURLCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.HashSet;
+import java.util.UUID;
+
+@ExtendWith(MockitoExtension.class)
+class CodePoolTest {
+
+    private static void waitForDepth(CodePool pool, int depth) throws InterruptedException {
+        for (int i = 0; i < 100 && pool.depth() < depth; ++i) {
+            Thread.sleep(20);
+        }
+        assertEquals(depth, pool.depth());
+    }
+
+    @Test
+    void invalidSizes() {
+        var encoder = new Base62Encoder();
+        assertThrows(IllegalArgumentException.class, () -> new CodePool(encoder, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new CodePool(encoder, 10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CodePool(encoder, 10, 11));
+    }
+
+    @Test
+    void fallsBackWhenEmpty() {
+        URLEncoder source = Mockito.mock(URLEncoder.class);
+        when(source.encode(anyString())).thenReturn("abcd");
+
+        try (var pool = new CodePool(source, 10, 5)) {
+            // The producer hasn't been started, so the pool is empty.
+            assertEquals("abcd", pool.encode("http://google.com"));
+            assertEquals(1, pool.fallbacks());
+            assertEquals(0, pool.depth());
+        }
+    }
+
+    @Test
+    void fillsToCapacity() throws InterruptedException {
+        try (var pool = new CodePool(new Base62Encoder(), 100, 25)) {
+            pool.start(code -> false);
+            waitForDepth(pool, 100);
+            assertEquals(100, pool.produced());
+
+            var codes = new HashSet<String>();
+            for (int i = 0; i < 50; ++i) {
+                codes.add(pool.encode("http://google.com"));
+            }
+            assertEquals(50, codes.size());
+            assertEquals(0, pool.fallbacks());
+        }
+    }
+
+    @Test
+    void refillsBelowLowWatermark() throws InterruptedException {
+        try (var pool = new CodePool(new Base62Encoder(), 100, 25)) {
+            pool.start(code -> false);
+            waitForDepth(pool, 100);
+
+            // Draining down to the low watermark doesn't trigger a refill...
+            for (int i = 0; i < 75; ++i) {
+                pool.encode("http://google.com");
+            }
+            Thread.sleep(200);
+            assertEquals(25, pool.depth());
+
+            // ...but dropping below it does.
+            pool.encode("http://google.com");
+            waitForDepth(pool, 100);
+        }
+    }
+
+    @Test
+    void codesInUseAreSkipped() throws InterruptedException {
+        URLEncoder source = Mockito.mock(URLEncoder.class);
+        when(source.encode(anyString())).thenReturn("used", "free", "free", "other");
+
+        try (var pool = new CodePool(source, 2, 1)) {
+            pool.start(code -> code.equals("used"));
+            waitForDepth(pool, 2);
+
+            assertEquals(2, pool.rejected());
+
+            // Taking the last code wakes the producer, which then keeps rejecting the mock's repeated code.
+            assertEquals("free", pool.encode(""));
+            assertEquals("other", pool.encode(""));
+        }
+    }
+
+    @Test
+    void backsOffWhileTheCodesAreRejected() throws InterruptedException {
+        URLEncoder source = Mockito.mock(URLEncoder.class);
+        when(source.encode(anyString())).thenReturn("used");
+
+        try (var pool = new CodePool(source, 10, 5)) {
+            pool.start(code -> true);
+            Thread.sleep(200);
+
+            // Without backing off, the producer would have rejected millions of codes by now.
+            assertTrue(pool.backoffs() > 0);
+            assertTrue(pool.rejected() < 50_000, "Rejected " + pool.rejected());
+            assertEquals(0, pool.depth());
+        }
+    }
+
+    @Test
+    void stopsWhenTheEncoderFails() throws InterruptedException {
+        URLEncoder source = Mockito.mock(URLEncoder.class);
+        var exhausted = new IllegalStateException("The code space has been exhausted");
+        when(source.encode(anyString())).thenReturn("abcd").thenThrow(exhausted);
+
+        try (var pool = new CodePool(source, 10, 5)) {
+            pool.start(code -> false);
+            for (int i = 0; i < 100 && pool.failure() == null; ++i) {
+                Thread.sleep(20);
+            }
+            assertSame(exhausted, pool.failure());
+            assertEquals(1, pool.depth());
+
+            // The pooled code is still handed out, and then the requests see the failure themselves.
+            assertEquals("abcd", pool.encode(""));
+            assertThrows(IllegalStateException.class, () -> pool.encode(""));
+            verify(source, times(3)).encode(anyString());
+        }
+    }
+
+    @Test
+    void poolFeedsCache() throws InterruptedException {
+        try (var pool = new CodePool(new Base62Encoder(), 1000, 250);
+             var cache = new ConcurrentURLCache(pool, "domain", 60_000)) {
+            pool.start(code -> cache.getOriginalUrlFor(code) != null);
+            waitForDepth(pool, 1000);
+
+            var uuid = UUID.randomUUID();
+            var shortUrls = new HashSet<String>();
+            for (int i = 0; i < 500; ++i) {
+                shortUrls.add(cache.shorten(uuid, "http://google.com/" + i));
+            }
+
+            assertEquals(500, shortUrls.size());
+            assertEquals(0, pool.fallbacks());
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.ClusterMembership.Member;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class HashRingTest {
+
+    private static final Member a = new Member("a", "127.0.0.1", 8001);
+    private static final Member b = new Member("b", "127.0.0.1", 8002);
+    private static final Member c = new Member("c", "127.0.0.1", 8003);
+    private static final Member d = new Member("d", "127.0.0.1", 8004);
+
+    @Test
+    void everyPartitionHasOneOwner() {
+        var ring = new HashRing(List.of(a, b, c));
+
+        int total = 0;
+        for (var member : List.of(a, b, c)) {
+            var partitions = ring.partitionsOf(member);
+            for (int partition : partitions) {
+                assertEquals(member, ring.ownerOf(partition));
+            }
+            total += partitions.length;
+        }
+        assertEquals(HashRing.PARTITIONS, total);
+        assertEquals(0, ring.partitionsOf(d).length);
+    }
+
+    @Test
+    void partitionsAreSpreadEvenly() {
+        var ring = new HashRing(List.of(a, b, c, d));
+
+        // A quarter each, give or take.
+        for (var member : List.of(a, b, c, d)) {
+            int owned = ring.partitionsOf(member).length;
+            assertTrue(owned > HashRing.PARTITIONS / 8 && owned < HashRing.PARTITIONS / 2, member + " " + owned);
+        }
+    }
+
+    @Test
+    void everyNodeBuildsTheSameRing() {
+        var ring = new HashRing(List.of(a, b, c));
+        var reordered = new HashRing(List.of(c, a, b));
+
+        for (int partition = 0; partition < HashRing.PARTITIONS; ++partition) {
+            assertEquals(ring.ownerOf(partition), reordered.ownerOf(partition));
+        }
+    }
+
+    @Test
+    void aNewNodeOnlyTakesPartitions() {
+        var ring = new HashRing(List.of(a, b, c));
+        var grown = new HashRing(List.of(a, b, c, d));
+
+        List<Integer> moved = new ArrayList<>();
+        for (int partition = 0; partition < HashRing.PARTITIONS; ++partition) {
+            if (!ring.ownerOf(partition).equals(grown.ownerOf(partition))) {
+                assertEquals(d, grown.ownerOf(partition));
+                moved.add(partition);
+            }
+        }
+        assertEquals(grown.partitionsOf(d).length, moved.size());
+    }
+
+    @Test
+    void theLastTwoCharactersAreThePartition() {
+        var ring = new HashRing(List.of(a, b, c));
+
+        // 'A' is digit 0 and 'B' is 1.
+        assertEquals(0, HashRing.partitionOf(Base62Encoder.fromBase62("zzzzAA")));
+        assertEquals(63, HashRing.partitionOf(Base62Encoder.fromBase62("AAAABB")));
+        assertEquals(ring.ownerOf(Base62Encoder.fromBase62("AAAABB")),
+                ring.ownerOf(Base62Encoder.fromBase62("xyz1BB")));
+    }
+
+    @Test
+    void urlsIgnoreCase() {
+        var ring = new HashRing(List.of(a, b, c));
+
+        assertEquals(HashRing.partitionOfUrl("http://google.com/Path"),
+                HashRing.partitionOfUrl("HTTP://GOOGLE.COM/path"));
+        assertEquals(ring.ownerOfUrl("http://google.com/Path"), ring.ownerOfUrl("http://google.com/path"));
+
+        int partition = HashRing.partitionOfUrl("http://google.com/" + Long.MAX_VALUE);
+        assertTrue(partition >= 0 && partition < HashRing.PARTITIONS);
+    }
+
+    @Test
+    void aRingNeedsANode() {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(List.of()));
+    }
+}
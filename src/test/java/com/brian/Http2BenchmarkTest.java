@@ -0,0 +1,91 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * An end-to-end benchmark comparing HTTP/1.1 against cleartext HTTP/2. The HTTP/1.1 load threads each have
+ * their own keep-alive connection, while the HTTP/2 load threads share a single client, and so a single
+ * connection with a stream per request.
+ * <p>
+ * This takes a while, so it only runs when asked for:
+ * <pre>
+ * ./mvnw test -Dtest=Http2BenchmarkTest -Dbenchmark=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class Http2BenchmarkTest {
+
+    private static final String PROPERTIES_FILE = "benchmark-h2c.properties";
+    private static final String SERVER = "http://127.0.0.1:8892";
+
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration DURATION = Duration.ofSeconds(15);
+    private static final int CONCURRENCY = 64;
+
+    private static TestServer server;
+
+    private static String hash;
+
+    @BeforeAll
+    static void start() throws Exception {
+        server = TestServer.start(PROPERTIES_FILE);
+
+        var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        var shortUrl = client.send(shortenRequest(), HttpResponse.BodyHandlers.ofString()).body();
+        hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+
+    @AfterAll
+    static void stop() throws InterruptedException {
+        server.stop();
+    }
+
+    private static HttpRequest shortenRequest() {
+        return HttpRequest.newBuilder(URI.create(SERVER))
+                .POST(HttpRequest.BodyPublishers.ofString("http://google.com/benchmark/" + PROPERTIES_FILE))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    @Test
+    void redirect() throws Exception {
+        compare("redirect", LoadGenerator.get(SERVER + "/" + hash), 301);
+    }
+
+    @Test
+    void shorten() throws Exception {
+        // The URL is already shortened, so this measures the request handling rather than the cache growing.
+        compare("shorten", shortenRequest(), 200);
+    }
+
+    private static void compare(String name, HttpRequest request, int expectedStatus) throws Exception {
+        var http1 = run(() -> HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build(), request,
+                expectedStatus);
+
+        var shared = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build();
+        var http2 = run(() -> shared, request, expectedStatus);
+
+        System.out.printf("%s HTTP/1.1: %s%n", name, http1);
+        System.out.printf("%s HTTP/2:   %s%n", name, http2);
+        assertEquals(0, http1.errors());
+        assertEquals(0, http2.errors());
+    }
+
+    private static LoadGenerator.Result run(Supplier<HttpClient> clients, HttpRequest request, int expectedStatus)
+            throws Exception {
+        new LoadGenerator(clients, CONCURRENCY, WARMUP).run(request, expectedStatus);
+        return new LoadGenerator(clients, CONCURRENCY, DURATION).run(request, expectedStatus);
+    }
+}
@@ -0,0 +1,205 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.URLServiceHandlerTest.URLEmbeddedChannel;
+import com.brian.cache.InMemoryURLCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.DefaultHttp2DataFrame;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2ChannelDuplexHandler;
+import io.netty.handler.codec.http2.Http2DataFrame;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2FrameStream;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+class HttpChannelInitializerTest {
+
+    private InMemoryURLCache cache;
+
+    private final ResponseCache responses = new ResponseCache();
+
+    @BeforeEach
+    void setUp() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz", "defxyz");
+
+        cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+        cache.shorten(UUID.randomUUID(), "http://google.com/some/path");
+    }
+
+    @AfterEach
+    void tearDown() {
+        responses.close();
+    }
+
+    private HttpChannelInitializer initializer(boolean h2c) {
+        return new HttpChannelInitializer(() -> new URLServiceHandler(cache, true, responses),
+                h2c ? () -> new URLServiceHandler(cache, true) : null, 30, 1024);
+    }
+
+    /**
+     * Moves everything written by each channel to the other, until neither has anything more to say.
+     */
+    private static void exchange(EmbeddedChannel client, EmbeddedChannel server) {
+        boolean moved;
+        do {
+            moved = false;
+            ByteBuf buf;
+            while ((buf = client.readOutbound()) != null) {
+                server.writeInbound(buf);
+                moved = true;
+            }
+            while ((buf = server.readOutbound()) != null) {
+                client.writeInbound(buf);
+                moved = true;
+            }
+            server.runPendingTasks();
+        } while (moved);
+    }
+
+    @Test
+    void http1StillServedWithH2cEnabled() {
+        var server = new URLEmbeddedChannel("192.168.1.1", 1234, initializer(true));
+
+        server.writeInbound(Unpooled.copiedBuffer("GET /abcxyz HTTP/1.1\r\n\r\n", StandardCharsets.US_ASCII));
+        ByteBuf response = server.readOutbound();
+        assertTrue(response.toString(StandardCharsets.US_ASCII).startsWith("HTTP/1.1 301 Moved Permanently\r\n"));
+        response.release();
+
+        // The connection is known to be HTTP/1.1 now, so only the Upgrade handler is left to check.
+        assertNotNull(server.pipeline().get(HttpRequestDecoder.class));
+        assertNotNull(server.pipeline().get(HttpServerUpgradeHandler.class));
+        assertTrue(server.pipeline().names().stream().noneMatch(name -> name.contains("PriorKnowledge")),
+                server.pipeline().names().toString());
+        server.finishAndReleaseAll();
+    }
+
+    @Test
+    void h2cCanBeDisabled() {
+        var server = new URLEmbeddedChannel("192.168.1.1", 1234, initializer(false));
+        assertNull(server.pipeline().get(HttpServerUpgradeHandler.class));
+
+        // The preface is just a bad HTTP/1.1 request.
+        server.writeInbound(Unpooled.copiedBuffer("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n", StandardCharsets.US_ASCII));
+        assertNull(server.pipeline().get(Http2FrameCodec.class));
+        server.finishAndReleaseAll();
+    }
+
+    @Test
+    void priorKnowledgeStreamsShareTheConnection() {
+        var server = new URLEmbeddedChannel("192.168.1.1", 1234, initializer(true));
+
+        var streams = new Http2ChannelDuplexHandler() {
+        };
+        var client = new EmbeddedChannel(Http2FrameCodecBuilder.forClient().build(), streams);
+
+        // Several requests at once, each on its own stream.
+        List<Http2FrameStream> sent = new ArrayList<>();
+        for (var path : List.of("/abcxyz", "/nothere", "/metrics")) {
+            var stream = streams.newStream();
+            var headers = new DefaultHttp2Headers().method("GET").scheme("http").authority("domain").path(path);
+            client.writeOutbound(new DefaultHttp2HeadersFrame(headers, true).stream(stream));
+            sent.add(stream);
+        }
+        var post = streams.newStream();
+        var headers = new DefaultHttp2Headers().method("POST").scheme("http").authority("domain").path("/");
+        client.writeOutbound(new DefaultHttp2HeadersFrame(headers, false).stream(post));
+        client.writeOutbound(new DefaultHttp2DataFrame(
+                Unpooled.copiedBuffer("http://google.com/other", StandardCharsets.US_ASCII), true).stream(post));
+        sent.add(post);
+
+        exchange(client, server);
+
+        assertNotNull(server.pipeline().get(Http2FrameCodec.class));
+        assertNotNull(server.pipeline().get(Http2MultiplexHandler.class));
+        assertNull(server.pipeline().get(HttpRequestDecoder.class));
+
+        Map<Integer, String> statuses = new HashMap<>();
+        Map<Integer, StringBuilder> bodies = new HashMap<>();
+        Object frame;
+        while ((frame = client.readInbound()) != null) {
+            if (frame instanceof Http2HeadersFrame headersFrame) {
+                statuses.put(headersFrame.stream().id(), headersFrame.headers().status().toString());
+                assertFalse(headersFrame.headers().contains("connection"));
+            } else if (frame instanceof Http2DataFrame dataFrame) {
+                bodies.computeIfAbsent(dataFrame.stream().id(), id -> new StringBuilder())
+                        .append(dataFrame.content().toString(StandardCharsets.UTF_8));
+            }
+            ReferenceCountUtil.release(frame);
+        }
+
+        assertEquals("301", statuses.get(sent.get(0).id()));
+        assertEquals("404", statuses.get(sent.get(1).id()));
+        // The metrics are only served when the handler is given them.
+        assertEquals("404", statuses.get(sent.get(2).id()));
+        assertEquals("200", statuses.get(post.id()));
+        assertEquals("http://domain/defxyz", bodies.get(post.id()).toString());
+
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+    }
+
+    @Test
+    void theStreamsOfAConnectionShareItsRate() {
+        var admission = new AdmissionControl(1, 1, 100, 0, 0);
+        var server = new URLEmbeddedChannel("192.168.1.1", 1234, new HttpChannelInitializer(
+                () -> new URLServiceHandler(cache, true, responses), () -> new URLServiceHandler(cache, true),
+                () -> new AdmissionHandler(admission, Set.of()), 30, 1024));
+
+        var streams = new Http2ChannelDuplexHandler() {
+        };
+        var client = new EmbeddedChannel(Http2FrameCodecBuilder.forClient().build(), streams);
+
+        List<Http2FrameStream> sent = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            var stream = streams.newStream();
+            var headers = new DefaultHttp2Headers().method("POST").scheme("http").authority("domain").path("/");
+            client.writeOutbound(new DefaultHttp2HeadersFrame(headers, false).stream(stream));
+            client.writeOutbound(new DefaultHttp2DataFrame(
+                    Unpooled.copiedBuffer("http://google.com/" + i, StandardCharsets.US_ASCII), true).stream(stream));
+            sent.add(stream);
+        }
+
+        exchange(client, server);
+
+        Map<Integer, String> statuses = new HashMap<>();
+        Object frame;
+        while ((frame = client.readInbound()) != null) {
+            if (frame instanceof Http2HeadersFrame headersFrame) {
+                statuses.put(headersFrame.stream().id(), headersFrame.headers().status().toString());
+            }
+            ReferenceCountUtil.release(frame);
+        }
+
+        assertEquals("200", statuses.get(sent.get(0).id()));
+        assertEquals("429", statuses.get(sent.get(1).id()));
+        // The connection is counted once, not once per stream.
+        assertEquals(1, admission.connections());
+
+        client.finishAndReleaseAll();
+        server.finishAndReleaseAll();
+        assertEquals(0, admission.connections());
+    }
+}
@@ -149,4 +149,29 @@ class HttpServerTest {
         var response = client.send(request, HttpResponse.BodyHandlers.ofString());
         assertEquals(405, response.statusCode());
     }
+
+    @Test
+    void http2Upgrade() throws URISyntaxException, IOException, InterruptedException {
+        // The client upgrades the connection with its first request, and sends the rest as HTTP/2 streams.
+        var client = HttpClient.newBuilder().version(Version.HTTP_2).build();
+
+        var shorten = HttpRequest.newBuilder()
+                .uri(new URI("http://127.0.0.1:8888"))
+                .POST(HttpRequest.BodyPublishers.ofString("http://google.com/http2/path"))
+                .timeout(Duration.of(5, ChronoUnit.SECONDS))
+                .build();
+        var response = client.send(shorten, HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        var hash = new URL(response.body()).getPath();
+
+        var redirect = HttpRequest.newBuilder()
+                .uri(new URI("http://127.0.0.1:8888" + hash))
+                .GET()
+                .timeout(Duration.of(5, ChronoUnit.SECONDS))
+                .build();
+        response = client.send(redirect, HttpResponse.BodyHandlers.ofString());
+        assertEquals(301, response.statusCode());
+        assertEquals(Version.HTTP_2, response.version());
+        assertEquals("http://google.com/http2/path", response.headers().firstValue("location").orElseThrow());
+    }
 }
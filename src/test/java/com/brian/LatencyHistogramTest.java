@@ -0,0 +1,73 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class LatencyHistogramTest {
+
+    @Test
+    void valuesAreWithinTheirBucketsBounds() {
+        for (long micros = 0; micros < 100_000; ++micros) {
+            int bucket = LatencyHistogram.bucketFor(micros);
+            assertTrue(micros < LatencyHistogram.upperBound(bucket), "Value " + micros);
+            if (bucket > 0) {
+                assertTrue(micros >= LatencyHistogram.upperBound(bucket - 1), "Value " + micros);
+            }
+        }
+
+        // The buckets are no more than a quarter of their lower bound wide.
+        int bucket = LatencyHistogram.bucketFor(1_000_000);
+        long lower = LatencyHistogram.upperBound(bucket - 1);
+        assertTrue(LatencyHistogram.upperBound(bucket) - lower <= lower / 4);
+    }
+
+    @Test
+    void outOfRangeValuesAreClamped() {
+        assertEquals(0, LatencyHistogram.bucketFor(-5));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketFor(1L << 40));
+        assertEquals(LatencyHistogram.BUCKETS - 4, LatencyHistogram.bucketFor(1L << 39));
+    }
+
+    @Test
+    void percentiles() {
+        var histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(50));
+
+        for (int micros = 1; micros <= 100; ++micros) {
+            histogram.record(micros);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(5050, histogram.sum());
+        assertEquals(2, histogram.percentile(0));
+        assertEquals(56, histogram.percentile(50));
+        assertEquals(112, histogram.percentile(100));
+    }
+
+    @Test
+    void concurrentRecordsAreAllCounted() throws InterruptedException {
+        var histogram = new LatencyHistogram();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            var thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; ++i) {
+                    histogram.record(i % 1000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400_000, histogram.count());
+        assertEquals(4 * 100 * 499_500L, histogram.sum());
+    }
+}
@@ -0,0 +1,136 @@
+package com.brian;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * A closed-loop HTTP load generator for the end-to-end benchmarks. A fixed number of client threads
+ * send requests back to back for a fixed duration, and the latency of every request is recorded.
+ */
+final class LoadGenerator {
+
+    /**
+     * The outcome of a load run.
+     *
+     * @param requests The number of requests completed.
+     * @param errors The number of requests that failed or got an unexpected status.
+     * @param requestsPerSecond The throughput.
+     * @param p50Micros The median latency in microseconds.
+     * @param p99Micros The 99th percentile latency in microseconds.
+     */
+    record Result(long requests, long errors, long requestsPerSecond, long p50Micros, long p99Micros) {
+
+        @Override
+        public String toString() {
+            return String.format("%,d requests (%,d errors), %,d req/s, p50 %,dus, p99 %,dus",
+                    requests, errors, requestsPerSecond, p50Micros, p99Micros);
+        }
+    }
+
+    private final Supplier<HttpClient> clients;
+
+    private final int concurrency;
+
+    private final Duration duration;
+
+    /**
+     * @param clients Creates the HTTP client for each load thread, so the client settings (e.g. the HTTP
+     *                version) are under the caller's control.
+     * @param concurrency The number of load threads.
+     * @param duration How long to generate load for.
+     */
+    LoadGenerator(Supplier<HttpClient> clients, int concurrency, Duration duration) {
+        this.clients = clients;
+        this.concurrency = concurrency;
+        this.duration = duration;
+    }
+
+    /**
+     * Sends the request repeatedly from every load thread.
+     *
+     * @param request The request to send.
+     * @param expectedStatus The status code of a successful response.
+     */
+    Result run(HttpRequest request, int expectedStatus) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            long deadline = System.nanoTime() + duration.toNanos();
+            long start = System.nanoTime();
+
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrency; ++i) {
+                futures.add(executor.submit(() -> sendUntil(request, expectedStatus, deadline)));
+            }
+
+            long errors = 0;
+            List<long[]> latencies = new ArrayList<>();
+            for (var future : futures) {
+                var threadResult = future.get();
+                errors += threadResult[0];
+                latencies.add(Arrays.copyOfRange(threadResult, 1, threadResult.length));
+            }
+            long elapsed = System.nanoTime() - start;
+
+            var all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            long requests = all.length;
+            long rps = requests * 1_000_000_000L / elapsed;
+
+            return new Result(requests, errors, rps, percentile(all, 0.50), percentile(all, 0.99));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The error count followed by the latency of each successful request, in microseconds.
+     */
+    private long[] sendUntil(HttpRequest request, int expectedStatus, long deadline) {
+        var client = clients.get();
+        long[] latencies = new long[1024];
+        int count = 1;
+        long errors = 0;
+
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            try {
+                var response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() != expectedStatus) {
+                    ++errors;
+                    continue;
+                }
+            } catch (Exception e) {
+                ++errors;
+                continue;
+            }
+
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = (System.nanoTime() - start) / 1000;
+        }
+
+        latencies[0] = errors;
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    static HttpRequest get(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri)).GET().timeout(Duration.ofSeconds(5)).build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.cache.URLEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+class MetricsTest {
+
+    @Test
+    void latenciesAreExportedAsCumulativeBuckets() {
+        var metrics = new Metrics();
+        metrics.recordLatency(Metrics.Endpoint.REDIRECT, 3);
+        metrics.recordLatency(Metrics.Endpoint.REDIRECT, 700);
+        metrics.recordLatency(Metrics.Endpoint.REDIRECT, 1_000_000_000);
+
+        var text = metrics.scrape();
+        assertTrue(text.contains("# TYPE compacturl_request_duration_seconds histogram\n"), text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_bucket{endpoint=\"redirect\",le=\"0.000002\"} 0\n"),
+                text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_bucket{endpoint=\"redirect\",le=\"0.000004\"} 1\n"),
+                text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_bucket{endpoint=\"redirect\",le=\"0.001024\"} 2\n"),
+                text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_bucket{endpoint=\"redirect\",le=\"67.108864\"} 2\n"),
+                text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_bucket{endpoint=\"redirect\",le=\"+Inf\"} 3\n"),
+                text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_sum{endpoint=\"redirect\"} 1000.000703\n"), text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_count{endpoint=\"redirect\"} 3\n"), text);
+        assertTrue(text.contains("compacturl_request_duration_seconds_count{endpoint=\"shorten\"} 0\n"), text);
+        assertEquals(3, metrics.latency(Metrics.Endpoint.REDIRECT).count());
+    }
+
+    @Test
+    void countersAndGauges() {
+        var metrics = new Metrics();
+        metrics.hits(3);
+        metrics.misses(1);
+        metrics.shortened(2);
+        metrics.invalidUrls(4);
+        metrics.entryEvicted(new URLEntry("http://a.com", "http://domain/abcdef", "abcdef", 0, 0));
+
+        var size = new AtomicLong(7);
+        metrics.gauge("cache_entries", "The entries in the cache.", size::get);
+
+        var text = metrics.scrape();
+        assertTrue(text.contains("compacturl_lookup_hits_total 3\n"), text);
+        assertTrue(text.contains("compacturl_lookup_misses_total 1\n"), text);
+        assertTrue(text.contains("compacturl_shortened_total 2\n"), text);
+        assertTrue(text.contains("compacturl_invalid_urls_total 4\n"), text);
+        assertTrue(text.contains("# TYPE compacturl_evictions_total counter\ncompacturl_evictions_total 1\n"), text);
+        assertTrue(text.contains("# HELP compacturl_cache_entries The entries in the cache.\n"
+                + "# TYPE compacturl_cache_entries gauge\n"
+                + "compacturl_cache_entries 7\n"), text);
+
+        // The values are read on every scrape.
+        size.set(5);
+        assertTrue(metrics.scrape().contains("compacturl_cache_entries 5\n"));
+    }
+
+    @Test
+    void ratios() {
+        var metrics = new Metrics();
+        var hits = new AtomicLong(3);
+        metrics.ratio("near_cache_hit_ratio", "The lookups answered by the near caches.", () -> hits.get() / 4.0);
+
+        assertTrue(metrics.scrape().contains("# TYPE compacturl_near_cache_hit_ratio gauge\n"
+                + "compacturl_near_cache_hit_ratio 0.75\n"));
+        hits.set(0);
+        assertTrue(metrics.scrape().contains("compacturl_near_cache_hit_ratio 0.0\n"));
+    }
+}
@@ -0,0 +1,69 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+class PartitionedEncoderTest {
+
+    @Test
+    void codesAreInTheOwnedPartitions() {
+        int[] partitions = {7, 100, 3843};
+        var encoder = new PartitionedEncoder(new Base62Encoder(), partitions);
+
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < 1000; ++i) {
+            var code = encoder.encode("http://google.com");
+            assertEquals(6, code.length());
+            int partition = HashRing.partitionOf(Base62Encoder.fromBase62(code));
+            assertTrue(Arrays.stream(partitions).anyMatch(p -> p == partition), code);
+            used.add(partition);
+        }
+        assertEquals(Set.of(7, 100, 3843), used);
+    }
+
+    @Test
+    void onlyThePartitionIsReplaced() {
+        URLEncoder source = mock(URLEncoder.class);
+        when(source.encode(anyString())).thenReturn("abcdAA");
+
+        // 'B' is digit 1, so partition 63 is "BB".
+        var encoder = new PartitionedEncoder(source, new int[] {63});
+        assertEquals("abcdBB", encoder.encode("http://google.com"));
+    }
+
+    @Test
+    void allThePartitionsKeepTheCodes() {
+        var all = IntStream.range(0, HashRing.PARTITIONS).toArray();
+        var encoder = new PartitionedEncoder(new SequenceEncoder(42, 0), all);
+        var codes = new SequenceEncoder(42, 0);
+
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(codes.encode(""), encoder.encode(""));
+        }
+        assertTrue(encoder.isUnique());
+        assertFalse(new PartitionedEncoder(new SequenceEncoder(), new int[] {1, 2}).isUnique());
+        assertFalse(new PartitionedEncoder(new Base62Encoder(), all).isUnique());
+    }
+
+    @Test
+    void failuresPassThrough() {
+        URLEncoder source = mock(URLEncoder.class);
+        when(source.encode(anyString())).thenReturn(null, "short");
+
+        var encoder = new PartitionedEncoder(source, new int[] {1});
+        assertNull(encoder.encode("http://google.com"));
+        assertEquals("short", encoder.encode("http://google.com"));
+    }
+
+    @Test
+    void aNodeNeedsAPartition() {
+        assertThrows(IllegalArgumentException.class, () -> new PartitionedEncoder(new Base62Encoder(), new int[0]));
+    }
+}
@@ -0,0 +1,76 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.cache.URLEntry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ReplicationLogTest {
+
+    private static URLEntry entry(int n) {
+        return new URLEntry("http://google.com/" + n, "http://shorty.com/" + n, "hash" + n,
+                System.currentTimeMillis(), 60_000);
+    }
+
+    @Test
+    void changesAreReadFromAnOffset() {
+        var log = new ReplicationLog(8);
+        assertEquals(0, log.head());
+        assertTrue(log.read(0, 10).isEmpty());
+
+        log.entryAdded(entry(0));
+        log.entryAdded(entry(1));
+        log.entryEvicted(entry(0));
+        assertEquals(3, log.head());
+
+        var changes = log.read(1, 10);
+        assertEquals(2, changes.size());
+        assertEquals(1, changes.get(0).offset());
+        assertTrue(changes.get(0).added());
+        assertEquals("hash1", changes.get(0).entry().hash());
+        assertEquals(2, changes.get(1).offset());
+        assertFalse(changes.get(1).added());
+        assertEquals("hash0", changes.get(1).entry().hash());
+
+        assertEquals(1, log.read(0, 1).size());
+        assertTrue(log.read(3, 10).isEmpty());
+        assertNull(log.read(4, 10));
+    }
+
+    @Test
+    void theOldestChangesAreDropped() {
+        var log = new ReplicationLog(4);
+        for (int i = 0; i < 10; ++i) {
+            log.entryAdded(entry(i));
+        }
+
+        assertNull(log.read(5, 10));
+        var changes = log.read(6, 10);
+        assertEquals(4, changes.size());
+        assertEquals("hash6", changes.get(0).entry().hash());
+        assertEquals("hash9", changes.get(3).entry().hash());
+    }
+
+    @Test
+    void subscribersAreToldOfChanges() {
+        var log = new ReplicationLog(4);
+        var calls = new AtomicInteger();
+        Runnable subscriber = calls::incrementAndGet;
+
+        log.subscribe(subscriber);
+        log.entryAdded(entry(0));
+        log.entryEvicted(entry(0));
+        log.unsubscribe(subscriber);
+        log.entryAdded(entry(1));
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void everyLogHasItsOwnEpoch() {
+        assertNotEquals(new ReplicationLog(1).epoch(), new ReplicationLog(1).epoch());
+        assertThrows(IllegalArgumentException.class, () -> new ReplicationLog(0));
+    }
+}
@@ -0,0 +1,196 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.cache.EvictionPolicy;
+import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.ShardedURLCache;
+import com.brian.cache.URLCache;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Streams a primary cache's changes to a replica cache over loopback.
+ */
+class ReplicationServerTest {
+
+    private final UUID uuid = UUID.randomUUID();
+
+    private final NioEventLoopGroup group = new NioEventLoopGroup(2);
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    // The primary keeps at most 5 entries, so shortening more evicts the oldest.
+    private final InMemoryURLCache primary = new InMemoryURLCache(new SequenceEncoder(), "shorty.com", 60_000, false,
+            5, 0, EvictionPolicy.FIFO);
+
+    private final InMemoryURLCache replica = new InMemoryURLCache(new SequenceEncoder(), "shorty.com", 60_000);
+
+    @AfterEach
+    void stop() throws Exception {
+        for (int i = resources.size() - 1; i >= 0; --i) {
+            resources.get(i).close();
+        }
+        primary.close();
+        replica.close();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private ReplicationServer startPrimary(ReplicationLog log, int port) throws InterruptedException {
+        return startPrimary(log, primary, port);
+    }
+
+    private ReplicationServer startPrimary(ReplicationLog log, URLCache cache, int port) throws InterruptedException {
+        var server = new ReplicationServer(log, cache, group, group, NioServerSocketChannel.class, port);
+        resources.add(server);
+        return server;
+    }
+
+    private ReplicaClient startReplica(int port) {
+        var client = new ReplicaClient(group, NioSocketChannel.class,
+                InetSocketAddress.createUnresolved("127.0.0.1", port), replica, 50, 5000);
+        resources.add(client);
+        client.start();
+        return client;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); ++i) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private List<String> shorten(String prefix, int count) {
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            var shortUrl = primary.shorten(uuid, "http://google.com/" + prefix + "/" + i);
+            hashes.add(shortUrl.substring(shortUrl.lastIndexOf('/') + 1));
+        }
+        return hashes;
+    }
+
+    private boolean replicaMatchesPrimary() {
+        return replica.size() == primary.size() && primary.entries().stream()
+                .allMatch(entry -> entry.url().equals(replica.getOriginalUrlFor(entry.hash())));
+    }
+
+    @Test
+    void aReplicaIsCopiedAndThenFollowsTheChanges() throws Exception {
+        var log = new ReplicationLog(1000);
+        primary.addListener(log);
+        var before = shorten("before", 3);
+
+        var server = startPrimary(log, 0);
+        var client = startReplica(server.port());
+        await(() -> client.snapshots() == 1);
+        assertEquals("http://google.com/before/0", replica.getOriginalUrlFor(before.get(0)));
+
+        // Adds 4, and evicts the first 2 to keep within the limit.
+        var after = shorten("after", 4);
+        await(() -> client.offset() == log.head());
+        assertTrue(replicaMatchesPrimary());
+        assertNull(replica.getOriginalUrlFor(before.get(1)));
+        assertEquals("http://google.com/after/3", replica.getOriginalUrlFor(after.get(3)));
+
+        assertEquals(6, client.applied());
+        assertEquals(1, server.replicas());
+        assertEquals(1, server.snapshots());
+        assertTrue(client.isConnected());
+        await(() -> client.lagChanges() == 0 && client.lagMillis() == 0);
+    }
+
+    @Test
+    void aReplicaCatchesUpFromItsOffsetAfterADisconnect() throws Exception {
+        var log = new ReplicationLog(1000);
+        primary.addListener(log);
+
+        var server = startPrimary(log, 0);
+        int port = server.port();
+        var client = startReplica(port);
+        shorten("first", 2);
+        await(() -> client.offset() == log.head());
+
+        server.close();
+        await(() -> !client.isConnected());
+        shorten("missed", 4);
+
+        var restarted = startPrimary(log, port);
+        await(() -> client.offset() == log.head());
+        assertTrue(replicaMatchesPrimary());
+
+        // Only the first connection needed a copy.
+        assertEquals(1, client.snapshots());
+        assertEquals(0, restarted.snapshots());
+    }
+
+    @Test
+    void aReplicaThatFallsBehindTheLogIsCopiedAgain() throws Exception {
+        var log = new ReplicationLog(4);
+        primary.addListener(log);
+
+        var server = startPrimary(log, 0);
+        int port = server.port();
+        var client = startReplica(port);
+        shorten("first", 2);
+        await(() -> client.offset() == log.head());
+
+        server.close();
+        await(() -> !client.isConnected());
+        shorten("missed", 10);
+
+        startPrimary(log, port);
+        await(() -> client.snapshots() == 2 && client.offset() == log.head());
+        assertTrue(replicaMatchesPrimary());
+    }
+
+    @Test
+    void aNewPrimaryReplacesWhatTheReplicaHad() throws Exception {
+        long now = System.currentTimeMillis();
+        replica.restore("http://google.com/stale", "stale1", now, 60_000);
+        replica.restore("http://google.com/moved", "moved1", now, 60_000);
+        primary.restore("http://google.com/moved", "moved2", now, 60_000);
+        primary.restore("http://google.com/other", "moved1", now, 60_000);
+
+        var log = new ReplicationLog(1000);
+        primary.addListener(log);
+        var client = startReplica(startPrimary(log, 0).port());
+
+        await(() -> client.snapshots() == 1);
+        assertTrue(replicaMatchesPrimary());
+        assertNull(replica.getOriginalUrlFor("stale1"));
+        assertEquals("http://google.com/other", replica.getOriginalUrlFor("moved1"));
+    }
+
+    @Test
+    void aShardedPrimaryIsCopiedOffItsEventLoops() throws Exception {
+        // The replicas are served by the same event loops that own the shards.
+        try (var sharded = new ShardedURLCache(new SequenceEncoder(), "shorty.com", 60_000, group)) {
+            var log = new ReplicationLog(1000);
+            sharded.addListener(log);
+            for (int i = 0; i < 20; ++i) {
+                sharded.shorten(uuid, "http://google.com/sharded/" + i);
+            }
+
+            var server = startPrimary(log, sharded, 0);
+            var client = startReplica(server.port());
+            await(() -> client.snapshots() == 1 && replica.size() == 20);
+
+            var shortUrl = sharded.shorten(uuid, "http://google.com/sharded/after");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            await(() -> "http://google.com/sharded/after".equals(replica.getOriginalUrlFor(hash)));
+            assertEquals(1, server.snapshots());
+            assertTrue(client.isConnected());
+        }
+    }
+}
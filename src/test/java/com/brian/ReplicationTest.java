@@ -0,0 +1,140 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a primary and a replica on different ports, as in replication-primary.properties and
+ * replication-replica.properties, and checks that the URLs shortened by the primary are served by the replica.
+ */
+class ReplicationTest {
+
+    private static final int PRIMARY_PORT = 8911;
+
+    private static final int REPLICA_PORT = 8913;
+
+    private static final List<Thread> threads = new ArrayList<>();
+
+    private static final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+
+    @BeforeAll
+    static void start() throws Exception {
+        List<HttpServer> servers = new ArrayList<>();
+        for (var role : List.of("primary", "replica")) {
+            var server = new HttpServer("replication-" + role + ".properties");
+            var thread = new Thread(() -> {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                } catch (InterruptedException e) {
+                    System.out.println("Shutting down the " + role);
+                }
+            });
+            thread.start();
+            servers.add(server);
+            threads.add(thread);
+        }
+
+        for (int i = 0; i < 100 && !servers.stream().allMatch(HttpServer::isRunning); ++i) {
+            Thread.sleep(100);
+        }
+        assertTrue(servers.stream().allMatch(HttpServer::isRunning), "The servers failed to start!");
+    }
+
+    @AfterAll
+    static void end() {
+        threads.forEach(Thread::interrupt);
+    }
+
+    private static HttpResponse<String> post(int port, String path, String body) throws Exception {
+        var request = HttpRequest.newBuilder()
+                .uri(new URI("http://127.0.0.1:" + port + path))
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpResponse<String> get(int port, String path) throws Exception {
+        var request = HttpRequest.newBuilder()
+                .uri(new URI("http://127.0.0.1:" + port + path))
+                .GET()
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static String hashOf(String shortUrl) {
+        return shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Waits for the replica to apply a change, as it is streamed in the background.
+     */
+    private static HttpResponse<String> getFromReplica(String hash) throws Exception {
+        var response = get(REPLICA_PORT, "/" + hash);
+        for (int i = 0; i < 50 && response.statusCode() == 404; ++i) {
+            Thread.sleep(100);
+            response = get(REPLICA_PORT, "/" + hash);
+        }
+        return response;
+    }
+
+    @Test
+    void theReplicaServesWhatThePrimaryShortens() throws Exception {
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            var response = post(PRIMARY_PORT, "/", "http://google.com/replicated/" + i);
+            assertEquals(200, response.statusCode());
+            hashes.add(hashOf(response.body()));
+        }
+
+        for (int i = 0; i < 20; ++i) {
+            var redirect = getFromReplica(hashes.get(i));
+            assertEquals(301, redirect.statusCode());
+            assertEquals("http://google.com/replicated/" + i, redirect.headers().firstValue("location").orElseThrow());
+        }
+
+        var resolved = post(REPLICA_PORT, URLServiceHandler.BATCH_RESOLVE_PATH, String.join("\n", hashes));
+        assertEquals(200, resolved.statusCode());
+        assertEquals("http://google.com/replicated/19", BatchFormat.LINES.parseResults(resolved.body()).get(19));
+    }
+
+    @Test
+    void theReplicaIsReadOnly() throws Exception {
+        assertEquals(405, post(REPLICA_PORT, "/", "http://google.com/not-replicated").statusCode());
+        assertEquals(405, post(REPLICA_PORT, URLServiceHandler.BATCH_SHORTEN_PATH, "http://google.com/a").statusCode());
+        assertEquals(404, get(REPLICA_PORT, "/zzzzzz").statusCode());
+    }
+
+    @Test
+    void bothReportTheirReplicationMetrics() throws Exception {
+        var shortUrl = post(PRIMARY_PORT, "/", "http://google.com/metrics").body();
+        assertEquals(301, getFromReplica(hashOf(shortUrl)).statusCode());
+
+        var primary = get(PRIMARY_PORT, URLServiceHandler.METRICS_PATH).body();
+        assertTrue(primary.contains("replication_replicas 1"), primary);
+
+        var replica = get(REPLICA_PORT, URLServiceHandler.METRICS_PATH).body();
+        assertTrue(replica.contains("replication_connected 1"), replica);
+        assertTrue(replica.contains("replication_lag_changes "), replica);
+        assertTrue(replica.contains("replication_lag_millis "), replica);
+        assertTrue(replica.contains("replication_applied_total "), replica);
+    }
+}
@@ -0,0 +1,164 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.ResponseCache.ConnectionHeader;
+import com.brian.cache.URLEntry;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.IllegalReferenceCountException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+class ResponseCacheTest {
+
+    private static final String URL = "http://google.com/some/path";
+
+    /**
+     * Reads and releases a response.
+     */
+    private static String read(ByteBuf response) {
+        try {
+            return response.toString(StandardCharsets.UTF_8);
+        } finally {
+            response.release();
+        }
+    }
+
+    @Test
+    void redirectsAreCachedByPath() {
+        try (var responses = new ResponseCache()) {
+            assertNull(responses.redirect("/abcdef", ConnectionHeader.NONE));
+
+            var encoded = read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+            var body = String.format(ResponseCache.REDIRECT_TEMPLATE, URL);
+            assertEquals("HTTP/1.1 301 Moved Permanently\r\n"
+                    + "content-type: text/html; charset=UTF-8\r\n"
+                    + "content-length: " + body.length() + "\r\n"
+                    + "location: " + URL + "\r\n"
+                    + "\r\n"
+                    + body, encoded);
+
+            assertEquals(1, responses.size());
+            assertEquals(encoded, read(responses.redirect("/abcdef", ConnectionHeader.NONE)));
+            assertNull(responses.redirect("/abcdeg", ConnectionHeader.NONE));
+        }
+    }
+
+    @Test
+    void connectionHeaderIsAddedPerRequest() {
+        try (var responses = new ResponseCache()) {
+            read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+
+            var close = read(responses.redirect("/abcdef", ConnectionHeader.CLOSE));
+            assertTrue(close.contains("location: " + URL + "\r\nconnection: close\r\n\r\n<!DOCTYPE HTML>"), close);
+
+            var keepAlive = read(responses.redirect("/abcdef", ConnectionHeader.KEEP_ALIVE));
+            assertTrue(keepAlive.contains("\r\nconnection: keep-alive\r\n\r\n<!DOCTYPE HTML>"), keepAlive);
+
+            var notFound = read(responses.notFound(ConnectionHeader.CLOSE));
+            assertEquals("HTTP/1.1 404 Not Found\r\n"
+                    + "content-type: text/html; charset=UTF-8\r\n"
+                    + "content-length: 9\r\n"
+                    + "connection: close\r\n"
+                    + "\r\n"
+                    + "Not Found", notFound);
+        }
+    }
+
+    @Test
+    void contentLengthIsInBytes() {
+        try (var responses = new ResponseCache()) {
+            var url = "http://example.com/caf\u00e9";
+
+            var encoded = read(responses.cacheRedirect("/abcdef", url, ConnectionHeader.NONE));
+            int length = String.format(ResponseCache.REDIRECT_TEMPLATE, url).getBytes(StandardCharsets.UTF_8).length;
+            assertTrue(encoded.contains("content-length: " + length + "\r\n"), encoded);
+        }
+    }
+
+    @Test
+    void evictedEntriesAreInvalidated() {
+        try (var responses = new ResponseCache()) {
+            read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+            read(responses.cacheRedirect("/abcdeg", URL, ConnectionHeader.NONE));
+
+            responses.entryEvicted(new URLEntry(URL, "http://domain/abcdef", "abcdef", System.currentTimeMillis(), 0));
+
+            assertNull(responses.redirect("/abcdef", ConnectionHeader.NONE));
+            assertNotNull(read(responses.redirect("/abcdeg", ConnectionHeader.NONE)));
+            assertEquals(1, responses.size());
+        }
+    }
+
+    @Test
+    void responsesInFlightOutliveTheirInvalidation() {
+        try (var responses = new ResponseCache()) {
+            var expected = read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+
+            var inFlight = responses.redirect("/abcdef", ConnectionHeader.NONE);
+            responses.invalidate("/abcdef");
+
+            assertEquals(expected, read(inFlight));
+            assertNull(responses.redirect("/abcdef", ConnectionHeader.NONE));
+        }
+    }
+
+    @Test
+    void pathsThatCannotBeInvalidatedAreNotCached() {
+        try (var responses = new ResponseCache()) {
+            // Evictions are by "/" and the hash, so anything else would never be invalidated.
+            for (var path : List.of("abcdef", "/", "/abcdef/more", "/abcdef?key=value", "/abcdef#top")) {
+                assertTrue(read(responses.cacheRedirect(path, URL, ConnectionHeader.NONE)).contains(URL));
+            }
+            assertEquals(0, responses.size());
+        }
+    }
+
+    @Test
+    void closingReleasesTheResponses() {
+        var responses = new ResponseCache();
+        read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+        var inFlight = responses.redirect("/abcdef", ConnectionHeader.NONE);
+
+        responses.close();
+
+        assertEquals(0, responses.size());
+        assertNull(responses.redirect("/abcdef", ConnectionHeader.NONE));
+        assertThrows(IllegalReferenceCountException.class, () -> responses.notFound(ConnectionHeader.NONE));
+
+        // A response already handed out is still valid until it is released.
+        assertTrue(read(inFlight).contains(URL));
+    }
+
+    @Test
+    void oldRedirectsExpire() throws InterruptedException {
+        try (var responses = new ResponseCache(10, 50)) {
+            read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+            assertNotNull(read(responses.redirect("/abcdef", ConnectionHeader.NONE)));
+
+            Thread.sleep(100);
+
+            assertNull(responses.redirect("/abcdef", ConnectionHeader.NONE));
+            assertEquals(0, responses.size());
+        }
+    }
+
+    @Test
+    void fullCacheOnlyAddsAsRedirectsExpire() throws InterruptedException {
+        try (var responses = new ResponseCache(1, 50)) {
+            read(responses.cacheRedirect("/abcdef", URL, ConnectionHeader.NONE));
+
+            // The response is still sent, but not cached.
+            assertTrue(read(responses.cacheRedirect("/abcdeg", URL, ConnectionHeader.NONE)).contains(URL));
+            assertNull(responses.redirect("/abcdeg", ConnectionHeader.NONE));
+
+            Thread.sleep(100);
+
+            read(responses.cacheRedirect("/abcdeg", URL, ConnectionHeader.NONE));
+            assertNotNull(read(responses.redirect("/abcdeg", ConnectionHeader.NONE)));
+            assertEquals(1, responses.size());
+        }
+    }
+}
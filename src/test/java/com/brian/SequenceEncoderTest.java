@@ -0,0 +1,135 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class SequenceEncoderTest {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890";
+
+    @Test
+    void invalidStart() {
+        assertThrows(IllegalArgumentException.class, () -> new SequenceEncoder(1, -1));
+        assertThrows(IllegalArgumentException.class, () -> new SequenceEncoder(1, SequenceEncoder.CODE_SPACE));
+    }
+
+    @Test
+    void codesAreSixBase62Characters() {
+        var encoder = new SequenceEncoder();
+        assertTrue(encoder.isUnique());
+
+        for (int i = 0; i < 10_000; ++i) {
+            var code = encoder.encode("http://google.com");
+            assertEquals(6, code.length());
+            for (char c : code.toCharArray()) {
+                assertTrue(ALPHABET.indexOf(c) >= 0, code);
+            }
+        }
+    }
+
+    @Test
+    void scrambleStaysInsideTheCodeSpace() {
+        var encoder = new SequenceEncoder(42, 0);
+        for (long value : new long[] {0, 1, SequenceEncoder.CODE_SPACE / 2, SequenceEncoder.CODE_SPACE - 1}) {
+            long scrambled = encoder.scramble(value);
+            assertTrue(scrambled >= 0 && scrambled < SequenceEncoder.CODE_SPACE);
+        }
+    }
+
+    @Test
+    void sameKeyGivesSameCodes() {
+        var first = new SequenceEncoder(42, 1000);
+        var second = new SequenceEncoder(42, 1000);
+        var otherKey = new SequenceEncoder(43, 1000);
+
+        var code = first.encode("");
+        assertEquals(code, second.encode(""));
+        assertNotEquals(code, otherKey.encode(""));
+    }
+
+    @Test
+    void consecutiveCodesLookUnrelated() {
+        var encoder = new SequenceEncoder(42, 0);
+        var previous = encoder.encode("");
+        int samePrefix = 0;
+        for (int i = 0; i < 1000; ++i) {
+            var code = encoder.encode("");
+            if (code.regionMatches(0, previous, 0, 4)) {
+                ++samePrefix;
+            }
+            previous = code;
+        }
+
+        assertTrue(samePrefix < 10, "Too many consecutive codes share a prefix: " + samePrefix);
+    }
+
+    @Test
+    void codesAreUniqueAcrossThreads() throws Exception {
+        var encoder = new SequenceEncoder();
+        int numThreads = 8;
+        int codesPerThread = 50_000;
+
+        Set<String> codes = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < numThreads; ++t) {
+                results.add(executor.submit(() -> {
+                    Set<String> local = new HashSet<>();
+                    for (int i = 0; i < codesPerThread; ++i) {
+                        local.add(encoder.encode(""));
+                    }
+                    codes.addAll(local);
+                    return null;
+                }));
+            }
+            for (var result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(numThreads * codesPerThread, codes.size());
+    }
+
+    @Test
+    void shardCodesAreUniqueAndInTheirShard() {
+        var encoder = new SequenceEncoder(42, 0);
+        assertSame(encoder, encoder.forShard(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> encoder.forShard(5, 5));
+        assertThrows(IllegalArgumentException.class, () -> encoder.forShard(0, 63));
+
+        int shards = 5;
+        long firstDigit = SequenceEncoder.CODE_SPACE / 62;
+        Set<String> codes = new HashSet<>();
+        for (int shard = 0; shard < shards; ++shard) {
+            var shardEncoder = encoder.forShard(shard, shards);
+            assertTrue(shardEncoder.isUnique());
+            for (int i = 0; i < 10_000; ++i) {
+                var code = shardEncoder.encode("");
+                assertEquals(6, code.length());
+                assertEquals(shard, Base62Encoder.fromBase62(code) / firstDigit % shards, code);
+                assertTrue(codes.add(code), code);
+            }
+        }
+    }
+
+    @Test
+    void exhaustion() {
+        var encoder = new SequenceEncoder(42, SequenceEncoder.CODE_SPACE - 2);
+        encoder.encode("");
+        encoder.encode("");
+        assertThrows(IllegalStateException.class, () -> encoder.encode(""));
+    }
+}
@@ -1,6 +1,9 @@
 package com.brian;
 
 import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.cache.CacheType;
+import com.brian.cache.EvictionPolicy;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
@@ -25,6 +28,265 @@ class ServerPropertiesTest {
         assertEquals(8888, serverProps.getPort());
         assertEquals("shorty.com", serverProps.getDomain());
         assertEquals(60, serverProps.getCacheTTL());
+        assertEquals(CacheType.MEMORY, serverProps.getCacheType());
+        assertEquals(1024, serverProps.getNearCacheSize());
+        assertFalse(serverProps.isSlidingTtl());
+        assertEquals(0, serverProps.getCacheMaxEntries());
+        assertEquals(0, serverProps.getCacheMaxMB());
+        assertEquals(EvictionPolicy.LRU, serverProps.getEvictionPolicy());
+        assertFalse(serverProps.isKeepAlive());
+        assertEquals(1, serverProps.getIdleTimeout());
+        assertEquals(1024 * 1024, serverProps.getMaxBodySize());
+        assertTrue(serverProps.isH2c());
+        assertEquals(EncoderType.RANDOM, serverProps.getEncoderType());
+        assertEquals(0, serverProps.getCodePoolSize());
+        assertEquals(Transport.NIO, serverProps.getTransport());
+        assertEquals(1, serverProps.getAcceptors());
+        assertEquals(1, serverProps.getBossThreads());
+        assertEquals(0, serverProps.getWorkerThreads());
+        assertNull(serverProps.getPersistenceDir());
+        assertNull(serverProps.getSnapshotFile());
+        assertNull(serverProps.getClusterMembers());
+        assertEquals(0, serverProps.getReplicationPort());
+        assertEquals(0, serverProps.getRateLimit());
+        assertEquals(20, serverProps.getRateLimitBurst());
+        assertEquals(65536, serverProps.getRateLimitMaxAddresses());
+        assertEquals(0, serverProps.getMaxConnections());
+        assertEquals(0, serverProps.getMaxPendingTasks());
+        assertNull(serverProps.getReplicationPrimaryHost());
+    }
+
+    @Test
+    void epollTransport() throws IOException {
+        var serverProps = new ServerProperties("epoll.properties");
+        assertEquals(Transport.EPOLL, serverProps.getTransport());
+        assertEquals(4, serverProps.getAcceptors());
+        assertEquals(4, serverProps.getBossThreads());
+        assertEquals(8, serverProps.getWorkerThreads());
+    }
+
+    @Test()
+    void multipleAcceptorsNeedEpoll() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("nio-acceptors.properties"));
+    }
+
+    @Test()
+    void tooFewBossThreads() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("too-few-boss-threads.properties"));
+    }
+
+    @Test
+    void keepAlive() throws IOException {
+        var serverProps = new ServerProperties("keepalive.properties");
+        assertTrue(serverProps.isKeepAlive());
+        assertEquals(30, serverProps.getIdleTimeout());
+        assertEquals(4096, serverProps.getMaxBodySize());
+        assertFalse(serverProps.isH2c());
+    }
+
+    @Test()
+    void invalidKeepAlive() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-keepalive.properties"));
+    }
+
+    @Test()
+    void invalidIdleTimeout() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-idle-timeout.properties"));
+    }
+
+    @Test()
+    void invalidMaxBodySize() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-max-body.properties"));
+    }
+
+    @Test
+    void concurrentCacheType() throws IOException {
+        var serverProps = new ServerProperties("concurrent-cache.properties");
+        assertEquals(CacheType.CONCURRENT, serverProps.getCacheType());
+        assertEquals(256, serverProps.getNearCacheSize());
+    }
+
+    @Test
+    void boundedCache() throws IOException {
+        var serverProps = new ServerProperties("bounded-cache.properties");
+        assertEquals(100_000, serverProps.getCacheMaxEntries());
+        assertEquals(256, serverProps.getCacheMaxMB());
+        assertEquals(EvictionPolicy.LFU, serverProps.getEvictionPolicy());
+        assertTrue(serverProps.isSlidingTtl());
+    }
+
+    @Test
+    void slidingTtlIsNotSupportedOffHeap() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-sliding-ttl.properties"));
+    }
+
+    @Test
+    void slidingTtlIsNotSupportedSharded() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-sharded-sliding-ttl.properties"));
+    }
+
+    @Test
+    void slidingTtlIsNotSupportedWithPersistence() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-sliding-ttl-persistence.properties"));
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-sliding-ttl-snapshot.properties"));
+    }
+
+    @Test
+    void slidingTtlIsNotSupportedWithReplication() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-sliding-ttl-replication-port.properties"));
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-sliding-ttl-replica.properties"));
+    }
+
+    @Test
+    void cacheLimitsNeedTheMemoryCache() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-cache-limits.properties"));
+    }
+
+    @Test
+    void invalidNearCacheSize() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-near-cache.properties"));
+    }
+
+    @Test
+    void offHeapCacheType() throws IOException {
+        var serverProps = new ServerProperties("off-heap-cache.properties");
+        assertEquals(CacheType.OFF_HEAP, serverProps.getCacheType());
+    }
+
+    @Test
+    void shardedCacheType() throws IOException {
+        var serverProps = new ServerProperties("sharded-cache.properties");
+        assertEquals(CacheType.SHARDED, serverProps.getCacheType());
+    }
+
+    @Test
+    void clusterNode() throws IOException {
+        var serverProps = new ServerProperties("cluster-node-b.properties");
+        assertEquals("cluster-members.properties", serverProps.getClusterMembers());
+        assertEquals("b", serverProps.getClusterNode());
+        assertEquals(8, serverProps.getClusterConnections());
+    }
+
+    @Test
+    void clusterNeedsTheNode() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-cluster-node.properties"));
+    }
+
+    @Test
+    void replicationPrimary() throws IOException {
+        var serverProps = new ServerProperties("replication-primary.properties");
+        assertEquals(8912, serverProps.getReplicationPort());
+        assertEquals(1000, serverProps.getReplicationLogSize());
+        assertNull(serverProps.getReplicationPrimaryHost());
+    }
+
+    @Test
+    void replicationReplica() throws IOException {
+        var serverProps = new ServerProperties("replication-replica.properties");
+        assertEquals(0, serverProps.getReplicationPort());
+        assertEquals("127.0.0.1", serverProps.getReplicationPrimaryHost());
+        assertEquals(8912, serverProps.getReplicationPrimaryPort());
+    }
+
+    @Test
+    void replicationPrimaryNeedsAPort() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-replication-primary.properties"));
+    }
+
+    @Test
+    void replicaNeedsACacheThatCanRemoveEntries() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-replica.properties"));
+    }
+
+    @Test
+    void admission() throws IOException {
+        var serverProps = new ServerProperties("admission.properties");
+        assertEquals(50, serverProps.getRateLimit());
+        assertEquals(5, serverProps.getRateLimitBurst());
+        assertEquals(1000, serverProps.getRateLimitMaxAddresses());
+        assertEquals(10000, serverProps.getMaxConnections());
+        assertEquals(4096, serverProps.getMaxPendingTasks());
+    }
+
+    @Test
+    void rateLimitNeedsABurst() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-admission.properties"));
+    }
+
+    @Test
+    void sequenceEncoder() throws IOException {
+        var serverProps = new ServerProperties("sequence-encoder.properties");
+        assertEquals(EncoderType.SEQUENCE, serverProps.getEncoderType());
+    }
+
+    @Test
+    void codePool() throws IOException {
+        var serverProps = new ServerProperties("code-pool.properties");
+        assertEquals(1000, serverProps.getCodePoolSize());
+        assertEquals(250, serverProps.getCodePoolLowWatermark());
+    }
+
+    @Test()
+    void invalidCodePool() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-code-pool.properties"));
+    }
+
+    @Test
+    void persistence() throws IOException {
+        var serverProps = new ServerProperties("persistence.properties");
+        assertEquals("/var/lib/shorty", serverProps.getPersistenceDir());
+        assertFalse(serverProps.isPersistenceSync());
+        assertEquals(16, serverProps.getPersistenceSegmentMB());
+    }
+
+    @Test
+    void snapshot() throws IOException {
+        var serverProps = new ServerProperties("snapshot.properties");
+        assertEquals("/var/lib/shorty/snapshot.bin", serverProps.getSnapshotFile());
+        assertEquals(60, serverProps.getSnapshotPeriod());
+    }
+
+    @Test
+    void accessLog() throws IOException {
+        var serverProps = new ServerProperties("access-log.properties");
+        assertEquals(1024, serverProps.getAccessLogBuffer());
+        assertEquals(1, serverProps.getLogSampleRate());
+    }
+
+    @Test()
+    void invalidLogSampleRate() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-log-sample-rate.properties"));
+    }
+
+    @Test()
+    void invalidPersistenceSegmentSize() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-persistence.properties"));
+    }
+
+    @Test()
+    void invalidCacheType() {
+        assertThrows(InvalidServerPropertiesException.class,
+                ()-> new ServerProperties("invalid-cache-type.properties"));
     }
 
     @Test()
@@ -63,6 +325,8 @@ class ServerPropertiesTest {
         assertEquals(8888, serverProps.getPort());
         assertEquals("shorty.com", serverProps.getDomain());
         assertEquals(60, serverProps.getCacheTTL());
+        assertEquals(65536, serverProps.getAccessLogBuffer());
+        assertEquals(100, serverProps.getLogSampleRate());
     }
 
 }
@@ -0,0 +1,51 @@
+package com.brian;
+
+import java.io.IOException;
+
+/**
+ * Runs an {@link HttpServer} on a background thread for the end-to-end tests and benchmarks.
+ */
+final class TestServer {
+
+    private final HttpServer httpServer;
+
+    private final Thread thread;
+
+    private TestServer(String propertiesFile) {
+        httpServer = new HttpServer(propertiesFile);
+        thread = new Thread(() -> {
+            try {
+                httpServer.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } catch (InterruptedException e) {
+                System.out.println("Shutting down the test server.");
+            }
+        }, "test-server-" + propertiesFile);
+    }
+
+    /**
+     * Starts a server and waits for it to bind to its port.
+     *
+     * @param propertiesFile The server properties file on the test classpath.
+     */
+    static TestServer start(String propertiesFile) throws InterruptedException {
+        var server = new TestServer(propertiesFile);
+        server.thread.start();
+
+        for (int i = 0; i < 100; ++i) {
+            if (server.httpServer.isRunning()) {
+                return server;
+            }
+            Thread.sleep(100);
+        }
+
+        server.stop();
+        throw new IllegalStateException("The server failed to start using " + propertiesFile);
+    }
+
+    void stop() throws InterruptedException {
+        thread.interrupt();
+        thread.join(5000);
+    }
+}
@@ -0,0 +1,65 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * An end-to-end benchmark comparing the NIO transport against the epoll transport with SO_REUSEPORT
+ * acceptors. Each run shortens a URL and then hammers the redirect for it over keep-alive connections.
+ * <p>
+ * This takes a while, so it only runs when asked for:
+ * <pre>
+ * ./mvnw test -Dtest=TransportBenchmarkTest -Dbenchmark=true
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class TransportBenchmarkTest {
+
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+    private static final Duration DURATION = Duration.ofSeconds(15);
+    private static final int CONCURRENCY = 64;
+
+    @Test
+    void nio() throws Exception {
+        benchmark("benchmark-nio.properties", 8890);
+    }
+
+    @Test
+    void epoll() throws Exception {
+        assumeTrue(Transport.EPOLL.isAvailable(), "The epoll transport is not available on this platform");
+        benchmark("benchmark-epoll.properties", 8891);
+    }
+
+    private static void benchmark(String propertiesFile, int port) throws Exception {
+        var server = TestServer.start(propertiesFile);
+        try {
+            var client = HttpClient.newHttpClient();
+            var shorten = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port))
+                    .POST(HttpRequest.BodyPublishers.ofString("http://google.com/benchmark/" + propertiesFile))
+                    .build();
+            var shortUrl = client.send(shorten, HttpResponse.BodyHandlers.ofString()).body();
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            // HTTP/1.1, as the client would otherwise upgrade the connections to HTTP/2.
+            Supplier<HttpClient> clients = () -> HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            var redirect = LoadGenerator.get("http://127.0.0.1:" + port + "/" + hash);
+            new LoadGenerator(clients, CONCURRENCY, WARMUP).run(redirect, 301);
+            var result = new LoadGenerator(clients, CONCURRENCY, DURATION).run(redirect, 301);
+
+            System.out.printf("%s: %s%n", propertiesFile, result);
+            assertEquals(0, result.errors());
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -4,24 +4,38 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import com.brian.cache.InMemoryURLCache;
+import com.brian.cache.ReadOnlyURLCache;
+import com.brian.cache.ShardedURLCache;
 import com.brian.cache.URLCache;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultEventLoopGroup;
 import io.netty.channel.embedded.EmbeddedChannel;
 import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 @ExtendWith(MockitoExtension.class)
 class URLServiceHandlerTest {
@@ -41,6 +55,10 @@ class URLServiceHandlerTest {
         }
     }
 
+    private static FullHttpResponse readResponse(EmbeddedChannel channel) {
+        return channel.readOutbound();
+    }
+
     @Mock
     ChannelHandlerContext context;
 
@@ -71,7 +89,7 @@ class URLServiceHandlerTest {
         handler.channelRead0(context, request);
 
         verify(request, times(2)).method();
-        verify(context, times(1)).write(any());
+        verify(context, never()).write(any());
         verify(context, times(1)).writeAndFlush(any());
     }
 
@@ -126,6 +144,26 @@ class URLServiceHandlerTest {
         assertEquals(HttpResponseStatus.BAD_REQUEST, status);
     }
 
+    @Test
+    void testPostWithATrailingNewline() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new URLServiceHandler(cache));
+
+        // The URL is shortened without the newline, as sent by e.g. `echo url | curl --data-binary @-`.
+        FullHttpRequest httpRequest = new DefaultFullHttpRequest(
+                HttpVersion.HTTP_1_1, HttpMethod.POST, "");
+        httpRequest.content().writeBytes("https://example.com/x\r\n".getBytes());
+        embeddedChannel.writeInbound(httpRequest);
+
+        FullHttpResponse httpResponse = embeddedChannel.readOutbound();
+        assertEquals(HttpResponseStatus.OK, httpResponse.status());
+
+        var shortUrl = httpResponse.content().toString(StandardCharsets.UTF_8);
+        assertEquals("https://example.com/x", cache.getOriginalUrlFor(shortUrl.substring(shortUrl.lastIndexOf('/') + 1)));
+    }
+
     @Test
     void testPostWithInvalidBody() {
         var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 60 * 10000);
@@ -217,4 +255,746 @@ class URLServiceHandlerTest {
         assertEquals(expectedResponse, body);
     }
 
+    @Test
+    void testGetWithLeadingSlashAndCustomCode() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abczxy", "custom-code");
+
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+        cache.shorten(UUID.randomUUID(), "http://a.com");
+        cache.shorten(UUID.randomUUID(), "http://b.com");
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new URLServiceHandler(cache, true));
+
+        // A 6-character code is looked up as a number, anything else as a string.
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/abczxy"));
+        FullHttpResponse httpResponse = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.MOVED_PERMANENTLY, httpResponse.status());
+        assertEquals("http://a.com", httpResponse.headers().get("location"));
+
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/custom-code"));
+        httpResponse = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.MOVED_PERMANENTLY, httpResponse.status());
+        assertEquals("http://b.com", httpResponse.headers().get("location"));
+
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/abczxz"));
+        httpResponse = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.NOT_FOUND, httpResponse.status());
+    }
+
+    @Test
+    void connectionIsClosedWithoutKeepAlive() {
+        var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 60 * 10000);
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new URLServiceHandler(cache));
+
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "abczxy"));
+
+        FullHttpResponse httpResponse = embeddedChannel.readOutbound();
+        assertEquals("close", httpResponse.headers().get(HttpHeaderNames.CONNECTION));
+        assertFalse(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void keepAliveServesManyRequests() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz");
+
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new URLServiceHandler(cache, true));
+
+        FullHttpRequest post = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "");
+        post.content().writeBytes("http://google.com/very/long/path".getBytes());
+        embeddedChannel.writeInbound(post);
+
+        FullHttpResponse postResponse = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.OK, postResponse.status());
+        assertFalse(postResponse.headers().contains(HttpHeaderNames.CONNECTION));
+        assertTrue(embeddedChannel.isOpen());
+
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "abcxyz"));
+
+        FullHttpResponse getResponse = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.MOVED_PERMANENTLY, getResponse.status());
+        assertTrue(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void keepAliveHonoursConnectionClose() {
+        var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 60 * 10000);
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new URLServiceHandler(cache, true));
+
+        var request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "abczxy");
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        embeddedChannel.writeInbound(request);
+
+        FullHttpResponse httpResponse = embeddedChannel.readOutbound();
+        assertEquals(HttpResponseStatus.NOT_FOUND, httpResponse.status());
+        assertFalse(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void pipelinedRequestsAreAnsweredInOrder() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz");
+
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new HttpRequestDecoder(), new HttpResponseEncoder(), new URLServiceHandler(cache, true));
+
+        // Three requests arrive in a single read: a chunked POST, a GET for the new code and a GET that misses.
+        var requests = """
+                POST / HTTP/1.1\r
+                Host: localhost\r
+                Transfer-Encoding: chunked\r
+                \r
+                10\r
+                http://google.co\r
+                6\r
+                m/path\r
+                0\r
+                \r
+                GET /abcxyz HTTP/1.1\r
+                Host: localhost\r
+                \r
+                GET /nothere HTTP/1.1\r
+                Host: localhost\r
+                \r
+                """;
+        embeddedChannel.writeInbound(Unpooled.copiedBuffer(requests, StandardCharsets.US_ASCII));
+
+        var output = new StringBuilder();
+        ByteBuf buf;
+        while ((buf = embeddedChannel.readOutbound()) != null) {
+            output.append(buf.toString(StandardCharsets.UTF_8));
+            buf.release();
+        }
+
+        var responses = output.toString();
+        int ok = responses.indexOf("HTTP/1.1 200 OK");
+        int redirect = responses.indexOf("HTTP/1.1 301 Moved Permanently");
+        int notFound = responses.indexOf("HTTP/1.1 404 Not Found");
+
+        assertTrue(ok >= 0 && ok < redirect && redirect < notFound, responses);
+        assertTrue(responses.contains("http://domain/abcxyz"));
+        assertEquals(3, responses.split("HTTP/1.1 ").length - 1);
+        assertTrue(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void pipelinedRequestsWaitForAShardOnAnotherEventLoop() throws InterruptedException {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz");
+        when(urlEncoder.forShard(anyInt(), anyInt())).thenReturn(urlEncoder);
+
+        // The embedded channel's event loop doesn't own the shard, so every request waits for it.
+        var owner = new DefaultEventLoopGroup(1);
+        try (var cache = new ShardedURLCache(urlEncoder, "domain", 60 * 10000, owner)) {
+            var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                    new HttpRequestDecoder(), new HttpResponseEncoder(), new URLServiceHandler(cache, true));
+
+            var requests = """
+                    POST / HTTP/1.1\r
+                    Host: localhost\r
+                    Content-Length: 22\r
+                    \r
+                    http://google.com/pathGET /abcxyz HTTP/1.1\r
+                    Host: localhost\r
+                    \r
+                    GET /nothere HTTP/1.1\r
+                    Host: localhost\r
+                    \r
+                    """;
+            embeddedChannel.writeInbound(Unpooled.copiedBuffer(requests, StandardCharsets.US_ASCII));
+
+            var output = new StringBuilder();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (output.toString().split("HTTP/1.1 ").length - 1 < 3 && System.currentTimeMillis() < deadline) {
+                embeddedChannel.runPendingTasks();
+                ByteBuf buf;
+                while ((buf = embeddedChannel.readOutbound()) != null) {
+                    output.append(buf.toString(StandardCharsets.UTF_8));
+                    buf.release();
+                }
+                Thread.sleep(1);
+            }
+
+            var responses = output.toString();
+            int ok = responses.indexOf("HTTP/1.1 200 OK");
+            int redirect = responses.indexOf("HTTP/1.1 301 Moved Permanently");
+            int notFound = responses.indexOf("HTTP/1.1 404 Not Found");
+
+            assertTrue(ok >= 0 && ok < redirect && redirect < notFound, responses);
+            assertTrue(embeddedChannel.config().isAutoRead());
+            assertTrue(embeddedChannel.isOpen());
+        } finally {
+            owner.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    @Test
+    void forwardedRequestsAreAnsweredLocally() {
+        var a = new ClusterMembership.Member("a", "127.0.0.1", 8001);
+        var b = new ClusterMembership.Member("b", "127.0.0.1", 8002);
+        var ring = new HashRing(List.of(a, b));
+        var code = Base62Encoder.toBase62(ring.partitionsOf(b)[0]);
+
+        // Only node b would hold the code, but this is the simplest way to tell which cache answered.
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn(code);
+        var local = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+        local.shorten(UUID.randomUUID(), "http://google.com/path");
+
+        var client = Mockito.mock(ClusterClient.class);
+        when(client.send(b.address(), "/" + code, null))
+                .thenReturn(CompletableFuture.failedFuture(new ConnectException("Connection refused")));
+        var cache = new ClusterURLCache(local, ring, a, client);
+
+        // Forwarded requests keep their connection open for the next one, even without keep-alive.
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache));
+        var forwarded = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/" + code);
+        forwarded.headers().set(ClusterClient.FORWARDED_HEADER, "b");
+        embeddedChannel.writeInbound(forwarded);
+
+        FullHttpResponse response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.MOVED_PERMANENTLY, response.status());
+        assertEquals("http://google.com/path", response.headers().get(HttpHeaderNames.LOCATION));
+        assertTrue(embeddedChannel.isOpen());
+
+        // Anyone else's request goes to node b, which can't be reached.
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/" + code));
+
+        response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertFalse(embeddedChannel.isOpen());
+        assertEquals(1, cache.failures());
+    }
+
+    @Test
+    void aFailedLookupIsServiceUnavailable() {
+        URLCache cache = Mockito.mock(URLCache.class);
+        when(cache.getOriginalUrlForAsync(anyLong()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Shutting down")));
+
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache, true));
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/abcxyz"));
+
+        FullHttpResponse response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertTrue(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void aReplicaOnlyAnswersLookups() {
+        var local = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var shortUrl = local.shorten(UUID.randomUUID(), "http://google.com/replicated");
+        var cache = new ReadOnlyURLCache(local);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache, true));
+
+        for (var path : List.of("/", URLServiceHandler.BATCH_SHORTEN_PATH)) {
+            embeddedChannel.writeInbound(batchRequest(path, "http://google.com/new"));
+
+            FullHttpResponse response = readResponse(embeddedChannel);
+            assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, response.status());
+            assertEquals("GET", response.headers().get(HttpHeaderNames.ALLOW));
+            assertTrue(embeddedChannel.isOpen());
+        }
+        assertEquals(1, local.size());
+
+        var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/" + hash));
+        assertEquals(HttpResponseStatus.MOVED_PERMANENTLY, readResponse(embeddedChannel).status());
+
+        embeddedChannel.writeInbound(batchRequest(URLServiceHandler.BATCH_RESOLVE_PATH, hash));
+        assertEquals("http://google.com/replicated\n", readStreamedBody(embeddedChannel, "text/plain; charset=UTF-8"));
+    }
+
+    @Test
+    void aClientOverItsRateIsTurnedAwayBeforeItsBodyIsRead() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var admission = new AdmissionControl(1, 1, 100, 0, 0, () -> 0L);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new AdmissionHandler(admission, Set.of()),
+                new URLServiceHandler(cache, true));
+
+        embeddedChannel.writeInbound(batchRequest("/", "http://google.com/first"));
+        assertEquals(HttpResponseStatus.OK, readResponse(embeddedChannel).status());
+
+        // The body arrives after the request has been turned away, and is dropped.
+        var request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+        var content = new DefaultLastHttpContent(Unpooled.copiedBuffer("http://google.com/second",
+                StandardCharsets.UTF_8));
+        embeddedChannel.writeInbound(request, content);
+        FullHttpResponse response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.TOO_MANY_REQUESTS, response.status());
+        assertEquals("1", response.headers().get(HttpHeaderNames.RETRY_AFTER));
+        assertEquals(0, content.refCnt());
+        assertEquals(1, cache.size());
+        assertEquals(1, admission.rateLimited());
+
+        // The client may carry on with its lookups on the same connection.
+        assertTrue(embeddedChannel.isOpen());
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/nothere"));
+        assertEquals(HttpResponseStatus.NOT_FOUND, readResponse(embeddedChannel).status());
+    }
+
+    @Test
+    void onlyTheOtherClusterNodesMayForwardRequestsPastTheRate() throws Exception {
+        var admission = new AdmissionControl(1, 1, 100, 0, 0, () -> 0L);
+        var peers = Set.of(InetAddress.getByName("10.0.0.2"));
+
+        // An outside client can't get past its rate by claiming to be a node, and the header is dropped.
+        var outsider = new URLEmbeddedChannel("192.168.1.1", 1234, new AdmissionHandler(admission, peers));
+        for (var expected : List.of(HttpRequest.class, AdmissionHandler.Rejection.class)) {
+            var request = batchRequest("/", "http://google.com/spoofed");
+            request.headers().set(ClusterClient.FORWARDED_HEADER, "b");
+            outsider.writeInbound(request);
+
+            Object passed = outsider.readInbound();
+            assertInstanceOf(expected, passed);
+            var headers = passed instanceof AdmissionHandler.Rejection rejection
+                    ? rejection.request().headers()
+                    : ((HttpRequest) passed).headers();
+            assertFalse(headers.contains(ClusterClient.FORWARDED_HEADER));
+            ReferenceCountUtil.release(passed);
+        }
+        assertEquals(1, admission.rateLimited());
+
+        // The requests forwarded by a node are not counted against its rate.
+        var node = new URLEmbeddedChannel("10.0.0.2", 1234, new AdmissionHandler(admission, peers));
+        for (int i = 0; i < 3; ++i) {
+            var request = batchRequest("/", "http://google.com/forwarded");
+            request.headers().set(ClusterClient.FORWARDED_HEADER, "b");
+            node.writeInbound(request);
+
+            HttpRequest passed = node.readInbound();
+            assertTrue(passed.headers().contains(ClusterClient.FORWARDED_HEADER));
+            ReferenceCountUtil.release(passed);
+        }
+        assertEquals(1, admission.rateLimited());
+    }
+
+    @Test
+    void anOverloadedServerShedsRequestsAndClosesTheConnection() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var admission = new AdmissionControl(0, 1, 100, 1, 0);
+        admission.track(new EmbeddedChannel());
+        var metrics = new Metrics();
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new AdmissionHandler(admission, Set.of()),
+                new URLServiceHandler(cache, true, null, null, metrics));
+        assertEquals(2, admission.connections());
+
+        // The metrics are still served.
+        embeddedChannel.writeInbound(new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                URLServiceHandler.METRICS_PATH));
+        assertEquals(HttpResponseStatus.OK, readResponse(embeddedChannel).status());
+
+        embeddedChannel.writeInbound(batchRequest("/", "http://google.com/shed"));
+        FullHttpResponse response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        assertEquals("1", response.headers().get(HttpHeaderNames.RETRY_AFTER));
+        assertEquals(0, cache.size());
+        assertEquals(1, admission.shed());
+
+        assertFalse(embeddedChannel.isOpen());
+        assertEquals(1, admission.connections());
+    }
+
+    /**
+     * Reads a streamed response, returning its body after checking the headers.
+     */
+    private static String readStreamedBody(EmbeddedChannel channel, String contentType) {
+        Object msg;
+        while ((msg = channel.readOutbound()) instanceof ByteBuf buf && !buf.isReadable()) {
+            buf.release();
+        }
+
+        var response = (HttpResponse) msg;
+        assertEquals(HttpResponseStatus.OK, response.status());
+        assertEquals(contentType, response.headers().get(HttpHeaderNames.CONTENT_TYPE));
+        assertTrue(HttpUtil.isTransferEncodingChunked(response));
+
+        var body = new StringBuilder();
+        HttpContent content;
+        do {
+            content = channel.readOutbound();
+            body.append(content.content().toString(StandardCharsets.UTF_8));
+            content.release();
+        } while (!(content instanceof LastHttpContent));
+        return body.toString();
+    }
+
+    private static FullHttpRequest batchRequest(String path, String body) {
+        var request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, path);
+        request.content().writeBytes(body.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    @Test
+    void batchShortenAndResolveLines() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache, true));
+
+        embeddedChannel.writeInbound(batchRequest(URLServiceHandler.BATCH_SHORTEN_PATH,
+                "http://a.com\r\nnot a url\n\nhttp://b.com\nhttp://a.com\n"));
+        var shortUrls = readStreamedBody(embeddedChannel, "text/plain; charset=UTF-8").split("\n", -1);
+
+        // One line per URL, and a final empty string after the last newline.
+        assertEquals(5, shortUrls.length);
+        assertTrue(shortUrls[0].startsWith("http://domain/"));
+        assertEquals("", shortUrls[1]);
+        assertTrue(shortUrls[2].startsWith("http://domain/"));
+        assertEquals(shortUrls[0], shortUrls[3]);
+        assertEquals(2, cache.size());
+
+        var codes = shortUrls[0].substring(14) + "\nmissing\n" + shortUrls[2].substring(14);
+        embeddedChannel.writeInbound(batchRequest(URLServiceHandler.BATCH_RESOLVE_PATH, codes));
+        assertEquals("http://a.com\n\nhttp://b.com\n", readStreamedBody(embeddedChannel, "text/plain; charset=UTF-8"));
+        assertTrue(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void batchShortenJsonIsStreamedInSlices() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache));
+
+        var json = new StringBuilder("[");
+        for (int i = 0; i < 2500; ++i) {
+            json.append(i == 0 ? "" : ",").append("\"http://example.com/").append(i).append('"');
+        }
+        json.append(", \"nope\"]");
+        embeddedChannel.writeInbound(batchRequest(URLServiceHandler.BATCH_SHORTEN_PATH, json.toString()));
+
+        Object msg;
+        while ((msg = embeddedChannel.readOutbound()) instanceof ByteBuf buf && !buf.isReadable()) {
+            buf.release();
+        }
+        var response = (HttpResponse) msg;
+        assertEquals("close", response.headers().get(HttpHeaderNames.CONNECTION));
+
+        // Three chunks of results: two full slices and the rest.
+        int chunks = 0;
+        var body = new StringBuilder();
+        HttpContent content;
+        do {
+            content = embeddedChannel.readOutbound();
+            body.append(content.content().toString(StandardCharsets.UTF_8));
+            content.release();
+            ++chunks;
+        } while (!(content instanceof LastHttpContent));
+        assertEquals(3, chunks);
+
+        var results = BatchFormat.JSON.parse(body.toString().replace("null", "\"\""));
+        assertEquals(2501, results.size());
+        assertEquals("", results.get(2500));
+        assertEquals(2500, cache.size());
+        assertEquals("http://example.com/2499", cache.getOriginalUrlFor(results.get(2499).substring(14)));
+
+        embeddedChannel.runPendingTasks();
+        assertFalse(embeddedChannel.isOpen());
+    }
+
+    @Test
+    void invalidBatches() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache, true));
+
+        embeddedChannel.writeInbound(batchRequest(URLServiceHandler.BATCH_SHORTEN_PATH, "[\"http://a.com\""));
+        assertEquals(HttpResponseStatus.BAD_REQUEST, readResponse(embeddedChannel).status());
+
+        embeddedChannel.writeInbound(batchRequest(URLServiceHandler.BATCH_RESOLVE_PATH, "\n \n"));
+        assertEquals(HttpResponseStatus.BAD_REQUEST, readResponse(embeddedChannel).status());
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    void batchResponseForHttp10IsNotChunked() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache));
+
+        var request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_0, HttpMethod.POST,
+                URLServiceHandler.BATCH_SHORTEN_PATH + "?source=test");
+        request.content().writeBytes("[\"http://a.com\", \"x\"]".getBytes(StandardCharsets.UTF_8));
+        embeddedChannel.writeInbound(request);
+
+        var response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.OK, response.status());
+        var body = response.content().toString(StandardCharsets.UTF_8);
+        assertTrue(body.matches("\\[\"http://domain/.{6}\",null]\n"), body);
+    }
+
+    /**
+     * Sends raw requests through an HTTP pipeline, and returns everything written back and the number of
+     * writes it took.
+     */
+    private static String exchange(URLServiceHandler handler, ChannelHandler encoder, String requests,
+                                   int[] writes) {
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new HttpRequestDecoder(), encoder, handler);
+        embeddedChannel.writeInbound(Unpooled.copiedBuffer(requests, StandardCharsets.US_ASCII));
+
+        var output = new StringBuilder();
+        ByteBuf buf;
+        while ((buf = embeddedChannel.readOutbound()) != null) {
+            output.append(buf.toString(StandardCharsets.UTF_8));
+            buf.release();
+            ++writes[0];
+        }
+        return output.toString();
+    }
+
+    @Test
+    void encodedResponsesMatchTheBuiltOnes() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz");
+
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+        cache.shorten(UUID.randomUUID(), "http://google.com/some/path");
+
+        try (var responses = new ResponseCache()) {
+            cache.addListener(responses);
+
+            var requests = """
+                    GET /abcxyz HTTP/1.1\r
+                    \r
+                    GET /abcxyz HTTP/1.1\r
+                    \r
+                    GET /nothere HTTP/1.1\r
+                    \r
+                    DELETE /abcxyz HTTP/1.1\r
+                    \r
+                    POST / HTTP/1.1\r
+                    Content-Length: 0\r
+                    \r
+                    GET /abcxyz HTTP/1.0\r
+                    Connection: keep-alive\r
+                    \r
+                    GET /abcxyz HTTP/1.1\r
+                    Connection: close\r
+                    \r
+                    """;
+
+            int[] builtWrites = new int[1];
+            var built = exchange(new URLServiceHandler(cache, true), new HttpResponseEncoder(), requests, builtWrites);
+
+            // Each encoded response, including the second redirect from the cache, takes a single write.
+            int[] encodedWrites = new int[1];
+            var encoded = exchange(new URLServiceHandler(cache, true, responses), new ResponseEncoder(), requests,
+                    encodedWrites);
+
+            assertEquals(built, encoded);
+            assertEquals(7, encodedWrites[0]);
+            assertTrue(encoded.contains("connection: keep-alive\r\n"), encoded);
+            assertTrue(encoded.endsWith("</html>\n"), encoded);
+            assertEquals(1, responses.size());
+        }
+    }
+
+    @Test
+    void evictionInvalidatesTheEncodedRedirect() throws InterruptedException {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz");
+
+        // A short TTL, with the eviction run by hand.
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 50, 0);
+        cache.shorten(UUID.randomUUID(), "http://google.com/some/path");
+
+        try (var responses = new ResponseCache()) {
+            cache.addListener(responses);
+
+            var request = "GET /abcxyz HTTP/1.1\r\n\r\n";
+            var handler = new URLServiceHandler(cache, true, responses);
+            assertTrue(exchange(handler, new ResponseEncoder(), request, new int[1]).startsWith("HTTP/1.1 301"));
+            assertEquals(1, responses.size());
+
+            Thread.sleep(100);
+            cache.run();
+
+            assertEquals(0, responses.size());
+            handler = new URLServiceHandler(cache, true, responses);
+            assertTrue(exchange(handler, new ResponseEncoder(), request, new int[1]).startsWith("HTTP/1.1 404"));
+        }
+    }
+
+    @Test
+    void requestsAreWrittenToTheAccessLog() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz");
+
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+        cache.shorten(UUID.randomUUID(), "http://google.com/some/path");
+
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        var accessLog = new AccessLog(16, 0, lines::add);
+        accessLog.start();
+
+        var requests = """
+                GET /abcxyz HTTP/1.1\r
+                \r
+                DELETE /abcxyz HTTP/1.1\r
+                \r
+                POST / HTTP/1.1\r
+                Content-Length: 12\r
+                \r
+                not a url \r
+                """;
+        try (var responses = new ResponseCache()) {
+            exchange(new URLServiceHandler(cache, true, responses, accessLog), new ResponseEncoder(), requests,
+                    new int[1]);
+            accessLog.close();
+
+            assertEquals(3, lines.size());
+            assertTrue(lines.get(0).contains(" client=192.168.1.1:1234 method=GET uri=/abcxyz status=301 "),
+                    lines.get(0));
+            assertTrue(lines.get(1).contains(" method=DELETE uri=/abcxyz status=405 "), lines.get(1));
+            assertTrue(lines.get(2).contains(" method=POST uri=/ status=400 "), lines.get(2));
+        }
+    }
+
+    @Test
+    void metricsAreServedAndCounted() {
+        URLEncoder urlEncoder = Mockito.mock(URLEncoder.class);
+        when(urlEncoder.encode(anyString())).thenReturn("abcxyz", "metric");
+        var cache = new InMemoryURLCache(urlEncoder, "domain", 60 * 10000);
+        cache.shorten(UUID.randomUUID(), "http://google.com/some/path");
+
+        var metrics = new Metrics();
+        metrics.gauge("cache_entries", "The entries in the cache.", cache::size);
+
+        var requests = """
+                GET /abcxyz HTTP/1.1\r
+                \r
+                GET /abcxyz HTTP/1.1\r
+                \r
+                GET /nothere HTTP/1.1\r
+                \r
+                POST / HTTP/1.1\r
+                Content-Length: 12\r
+                \r
+                not a url \r
+                POST / HTTP/1.1\r
+                Content-Length: 18\r
+                \r
+                http://example.com\r
+                GET /metrics?format=text HTTP/1.1\r
+                \r
+                """;
+        try (var responses = new ResponseCache()) {
+            var output = exchange(new URLServiceHandler(cache, true, responses, null, metrics),
+                    new ResponseEncoder(), requests, new int[1]);
+
+            var scrape = output.substring(output.lastIndexOf("HTTP/1.1 "));
+            assertTrue(scrape.startsWith("HTTP/1.1 200 OK\r\ncontent-type: " + Metrics.CONTENT_TYPE + "\r\n"), scrape);
+            assertTrue(scrape.contains("compacturl_lookup_hits_total 2\n"), scrape);
+            assertTrue(scrape.contains("compacturl_lookup_misses_total 1\n"), scrape);
+            assertTrue(scrape.contains("compacturl_shortened_total 1\n"), scrape);
+            assertTrue(scrape.contains("compacturl_invalid_urls_total 1\n"), scrape);
+            assertTrue(scrape.contains("compacturl_cache_entries 2\n"), scrape);
+            assertTrue(scrape.contains("compacturl_request_duration_seconds_count{endpoint=\"redirect\"} 3\n"), scrape);
+            assertTrue(scrape.contains("compacturl_request_duration_seconds_count{endpoint=\"shorten\"} 2\n"), scrape);
+
+            // The scrape itself is recorded once it has been sent.
+            assertEquals(1, metrics.latency(Metrics.Endpoint.METRICS).count());
+        }
+    }
+
+    @Test
+    void metricsPathOnlyMatchesExactly() {
+        // The handler uses the asynchronous lookups, which call the blocking ones by default.
+        URLCache cache = Mockito.mock(URLCache.class, CALLS_REAL_METHODS);
+        var metrics = new Metrics();
+        var handler = new URLServiceHandler(cache, true, null, null, metrics);
+
+        var output = exchange(handler, new HttpResponseEncoder(), """
+                GET /metrics HTTP/1.1\r
+                \r
+                GET /metricsx HTTP/1.1\r
+                \r
+                GET /abcdef HTTP/1.1\r
+                \r
+                """, new int[1]);
+
+        assertTrue(output.startsWith("HTTP/1.1 200 OK"), output);
+        verify(cache, never()).getOriginalUrlFor("metrics");
+        verify(cache, times(1)).getOriginalUrlFor("metricsx");
+        verify(cache, times(1)).getOriginalUrlFor(anyLong());
+        assertEquals(2, metrics.latency(Metrics.Endpoint.REDIRECT).count());
+    }
+
+    @Test
+    void bodyIsDecodedOnceItHasAllArrived() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234, new URLServiceHandler(cache, true));
+
+        // The two bytes of the last character are split across the chunks.
+        var url = "http://example.com/caf\u00e9".getBytes(StandardCharsets.UTF_8);
+        var first = Unpooled.copiedBuffer(url, 0, url.length - 1);
+        var last = Unpooled.copiedBuffer(url, url.length - 1, 1);
+
+        var request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+        HttpUtil.setTransferEncodingChunked(request, true);
+        embeddedChannel.writeInbound(request, new DefaultHttpContent(first), new DefaultLastHttpContent(last));
+
+        var response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.OK, response.status());
+        var shortUrl = response.content().toString(StandardCharsets.UTF_8);
+        assertEquals("http://example.com/caf\u00e9", cache.getOriginalUrlFor(shortUrl.substring(14)));
+
+        // The handler let go of the chunks once it was done with them.
+        assertEquals(0, first.refCnt());
+        assertEquals(0, last.refCnt());
+    }
+
+    @Test
+    void bodyOverTheLimitIsRejectedAsSoonAsItGoesOver() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var embeddedChannel = new URLEmbeddedChannel("192.168.1.1", 1234,
+                new URLServiceHandler(cache, true, null, null, null, 20));
+
+        var request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/");
+        HttpUtil.setTransferEncodingChunked(request, true);
+        var first = Unpooled.copiedBuffer("http://example", StandardCharsets.US_ASCII);
+        var second = Unpooled.copiedBuffer(".com/path", StandardCharsets.US_ASCII);
+        embeddedChannel.writeInbound(request, new DefaultHttpContent(first), new DefaultHttpContent(second));
+
+        var response = readResponse(embeddedChannel);
+        assertEquals(HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE, response.status());
+        assertEquals(HttpHeaderValues.CLOSE.toString(), response.headers().get(HttpHeaderNames.CONNECTION));
+        assertEquals(0, first.refCnt());
+        assertEquals(0, second.refCnt());
+
+        // The rest of the body is not read.
+        embeddedChannel.runPendingTasks();
+        assertFalse(embeddedChannel.isOpen());
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    void contentLengthOverTheLimitIsRejectedBeforeTheBody() {
+        var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60 * 10000);
+        var requests = """
+                POST / HTTP/1.1\r
+                Content-Length: 21\r
+                \r
+                """;
+
+        int[] builtWrites = new int[1];
+        var built = exchange(new URLServiceHandler(cache, true, null, null, null, 20), new HttpResponseEncoder(),
+                requests, builtWrites);
+        int[] encodedWrites = new int[1];
+        try (var responses = new ResponseCache()) {
+            var encoded = exchange(new URLServiceHandler(cache, true, responses, null, null, 20),
+                    new ResponseEncoder(), requests, encodedWrites);
+
+            assertTrue(built.startsWith("HTTP/1.1 413 Request Entity Too Large\r\n"), built);
+            assertTrue(built.contains("connection: close\r\n"), built);
+            assertEquals(built, encoded);
+            assertEquals(1, encodedWrites[0]);
+        }
+    }
 }
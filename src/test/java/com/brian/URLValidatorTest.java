@@ -0,0 +1,62 @@
+package com.brian;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+class URLValidatorTest {
+
+    private static boolean isPlausible(String url) {
+        ByteBuf buf = Unpooled.copiedBuffer(url, StandardCharsets.UTF_8);
+        try {
+            return URLValidator.isPlausible(buf);
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    void urls() {
+        assertTrue(isPlausible("http://google.com/very/long/path?key=value#fragment"));
+        assertTrue(isPlausible("HTTPS://[::1]:8080/path"));
+        assertTrue(isPlausible("svn+ssh://example.com/repo"));
+        assertTrue(isPlausible("http://example.com/caf\u00e9"));
+    }
+
+    @Test
+    void theWhitespaceAroundAUrlIsIgnored() {
+        assertTrue(isPlausible("https://example.com/x\n"));
+        assertTrue(isPlausible("https://example.com/x\r\n"));
+        assertTrue(isPlausible("  https://example.com/x\t"));
+    }
+
+    @Test
+    void notUrls() {
+        assertFalse(isPlausible(""));
+        assertFalse(isPlausible("this is not a URL"));
+        assertFalse(isPlausible("google.com/path"));
+        assertFalse(isPlausible("://google.com"));
+        assertFalse(isPlausible("1http://google.com"));
+        assertFalse(isPlausible("http"));
+        assertFalse(isPlausible("http://google.com/a b"));
+        assertFalse(isPlausible("http://google.com/a\nb"));
+        assertFalse(isPlausible(" \n "));
+        assertFalse(isPlausible("http://google.com/<script>"));
+        assertFalse(isPlausible("http://google.com/{x}"));
+    }
+
+    @Test
+    void onlyTheReadableBytesAreChecked() {
+        ByteBuf buf = Unpooled.copiedBuffer("not a url http://google.com", StandardCharsets.US_ASCII);
+        buf.skipBytes(10);
+        assertTrue(URLValidator.isPlausible(buf));
+
+        buf.writerIndex(buf.writerIndex() - 1).writeByte('<');
+        assertFalse(URLValidator.isPlausible(buf));
+        buf.release();
+    }
+}
@@ -0,0 +1,53 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class AccessBufferTest {
+
+    @Test
+    void usesAreDrainedInOrder() {
+        var buffer = new AccessBuffer(4);
+        var a = new byte[1];
+        var b = new byte[1];
+
+        assertFalse(buffer.record(a));
+        assertFalse(buffer.record(b));
+        assertFalse(buffer.record(a));
+
+        List<byte[]> drained = new ArrayList<>();
+        buffer.drain(drained::add);
+        assertEquals(List.of(a, b, a), drained);
+
+        drained.clear();
+        buffer.drain(drained::add);
+        assertTrue(drained.isEmpty());
+    }
+
+    @Test
+    void theOldestUsesAreDroppedOnceFull() {
+        var buffer = new AccessBuffer(4);
+        List<byte[]> entries = new ArrayList<>();
+        int full = 0;
+        for (int i = 0; i < 10; ++i) {
+            entries.add(new byte[1]);
+            if (buffer.record(entries.get(i))) {
+                ++full;
+            }
+        }
+        assertEquals(2, full);
+
+        List<byte[]> drained = new ArrayList<>();
+        buffer.drain(drained::add);
+        assertEquals(entries.subList(6, 10), drained);
+    }
+
+    @Test
+    void sizeMustBeAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new AccessBuffer(5));
+    }
+}
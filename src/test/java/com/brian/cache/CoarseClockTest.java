@@ -0,0 +1,19 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class CoarseClockTest {
+
+    @Test
+    void followsTheSystemClock() throws InterruptedException {
+        var clock = CoarseClock.shared();
+        long before = System.currentTimeMillis();
+        Thread.sleep(5 * CoarseClock.TICK_MILLIS);
+
+        long now = clock.millis();
+        assertTrue(now >= before, now + " < " + before);
+        assertTrue(now <= System.currentTimeMillis());
+    }
+}
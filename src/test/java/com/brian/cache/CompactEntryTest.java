@@ -0,0 +1,63 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class CompactEntryTest {
+
+    @Test
+    void roundTrip() {
+        var url = "https://example.com/caf\u00e9/\u65e5\u672c?q=1";
+        byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+        long fingerprint = CompactEntry.fingerprint(urlBytes);
+        var entry = CompactEntry.create(urlBytes, fingerprint, "abcxyz", 1234, 5678);
+
+        assertEquals(new URLEntry(url, "https://shorty.com/abcxyz", "abcxyz", 1234, 5678),
+                CompactEntry.toURLEntry(entry, "shorty.com"));
+        assertEquals(fingerprint, CompactEntry.urlFingerprint(entry));
+        assertTrue(CompactEntry.hasUrl(entry, urlBytes));
+        assertFalse(CompactEntry.hasUrl(entry, "https://example.com/".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(6912, CompactEntry.expiresAt(entry));
+        assertFalse(CompactEntry.hasExpired(entry, 6912));
+        assertTrue(CompactEntry.hasExpired(entry, 6913));
+    }
+
+    @Test
+    void touchPushesBackTheExpiry() {
+        byte[] urlBytes = "http://google.com".getBytes(StandardCharsets.UTF_8);
+        var entry = CompactEntry.create(urlBytes, CompactEntry.fingerprint(urlBytes), "abcxyz", 1000, 100);
+        assertEquals(1000, CompactEntry.lastAccess(entry));
+
+        // Uses closer together than the granularity are not written.
+        CompactEntry.touch(entry, 1005, 10);
+        assertEquals(1000, CompactEntry.lastAccess(entry));
+        CompactEntry.touch(entry, 1050, 10);
+        assertEquals(1050, CompactEntry.lastAccess(entry));
+
+        assertEquals(1150, CompactEntry.expiresAt(entry));
+        assertFalse(CompactEntry.hasExpired(entry, 1150));
+        assertTrue(CompactEntry.hasExpired(entry, 1151));
+        assertEquals(1000, CompactEntry.timeAdded(entry));
+    }
+
+    @Test
+    void customHash() {
+        byte[] urlBytes = "http://google.com".getBytes(StandardCharsets.UTF_8);
+        var entry = CompactEntry.create(urlBytes, CompactEntry.fingerprint(urlBytes), "my-link", 0, 1000);
+
+        assertEquals(-1, CompactEntry.code(entry));
+        assertEquals("my-link", CompactEntry.hash(entry));
+        assertEquals("http://google.com", CompactEntry.url(entry));
+        assertEquals("http://shorty.com/my-link", CompactEntry.shortUrl(entry, "shorty.com"));
+    }
+
+    @Test
+    void fingerprintsDiffer() {
+        var a = CompactEntry.fingerprint("http://google.com/a".getBytes(StandardCharsets.UTF_8));
+        var b = CompactEntry.fingerprint("http://google.com/b".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(a, b);
+    }
+}
@@ -0,0 +1,252 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.Base62Encoder;
+import com.brian.URLEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@ExtendWith(MockitoExtension.class)
+public class ConcurrentURLCacheTest {
+
+    private final UUID uuid = UUID.randomUUID();
+
+    @Test
+    void invalidURL() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        try (var cache = new ConcurrentURLCache(encoder, "domain", 1234)) {
+            assertNull(cache.shorten(uuid, "not a url"));
+            assertTrue(cache.isEmpty());
+        }
+    }
+
+    @Test
+    void validURL() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd");
+
+        try (var cache = new ConcurrentURLCache(encoder, "domain", 1234)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path/foo/bar?key=value");
+            assertEquals("http://domain/abcd", shortUrl);
+            assertEquals("http://google.com/path/foo/bar?key=value", cache.getOriginalUrlFor("abcd"));
+            assertEquals(1, cache.size());
+        }
+
+        verify(encoder, times(1)).encode(anyString());
+    }
+
+    @Test
+    void requestSameUrlManyTimes() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd");
+
+        try (var cache = new ConcurrentURLCache(encoder, "domain", 1234)) {
+            for (int i = 0; i < 100; ++i) {
+                assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/path/foo/bar?key=value"));
+                assertEquals(1, cache.size());
+            }
+        }
+
+        verify(encoder, times(1)).encode(anyString());
+    }
+
+    @Test
+    void hashCollisionIsRetried() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "abcd", "wxyz");
+
+        try (var cache = new ConcurrentURLCache(encoder, "domain", 1234)) {
+            assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/1"));
+            assertEquals("http://domain/wxyz", cache.shorten(uuid, "http://google.com/2"));
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    void aFreeHashIsTakenStraightAway() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "wxyz");
+
+        try (var cache = new ConcurrentURLCache(encoder, "domain", 1234)) {
+            assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/1"));
+            assertEquals("http://domain/wxyz", cache.shorten(uuid, "http://google.com/2"));
+        }
+
+        // Checking the hash is how it is reserved, so whether the encoder is unique doesn't matter.
+        verify(encoder, times(2)).encode(anyString());
+        verify(encoder, never()).isUnique();
+    }
+
+    @Test
+    void expiredEntriesAreEvicted() throws InterruptedException {
+        try (var cache = new ConcurrentURLCache(new Base62Encoder(), "domain", 10)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            Thread.sleep(50);
+            cache.run();
+
+            assertTrue(cache.isEmpty());
+            assertNull(cache.getOriginalUrlFor(hash));
+        }
+    }
+
+    @Test
+    void sameUrlFromManyThreadsGetsOneHash() throws Exception {
+        int numThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        var start = new CountDownLatch(1);
+
+        try (var cache = new ConcurrentURLCache(new Base62Encoder(), "domain", 60000)) {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < numThreads; ++i) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return cache.shorten(uuid, "http://google.com/contended");
+                }));
+            }
+            start.countDown();
+
+            var first = results.get(0).get();
+            for (var result : results) {
+                assertEquals(first, result.get());
+            }
+            assertEquals(1, cache.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Hammers the cache with a mix of shortens and lookups from an increasing number of threads, and
+     * reports the throughput at each step. Every URL must end up with exactly one unique hash.
+     */
+    @Test
+    void stressTest() throws Exception {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int opsPerThread = 5_000;
+
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            Set<String> shortUrls = ConcurrentHashMap.newKeySet();
+
+            try (var cache = new ConcurrentURLCache(new Base62Encoder(), "domain", 60000)) {
+                var start = new CountDownLatch(1);
+                List<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < numThreads; ++t) {
+                    int thread = t;
+                    results.add(executor.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < opsPerThread; ++i) {
+                            // Every other request is a repeat of the previous URL, so we exercise the hit path.
+                            var shortUrl = cache.shorten(uuid, "http://google.com/" + thread + "/" + (i / 2));
+                            shortUrls.add(shortUrl);
+                            assertNotNull(cache.getOriginalUrlFor(shortUrl.substring(shortUrl.lastIndexOf('/') + 1)));
+                        }
+                        return null;
+                    }));
+                }
+
+                long startTime = System.nanoTime();
+                start.countDown();
+                for (var result : results) {
+                    result.get();
+                }
+                long elapsed = System.nanoTime() - startTime;
+
+                int expectedEntries = numThreads * opsPerThread / 2;
+                assertEquals(expectedEntries, cache.size());
+                assertEquals(expectedEntries, shortUrls.size());
+
+                System.out.printf("ConcurrentURLCache: %d threads, %,d ops/s%n",
+                        numThreads, (long) numThreads * opsPerThread * 1_000_000_000L / elapsed);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void codesInUseAreCountedAsRetries() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "abcd", "efgh");
+
+        try (var cache = new ConcurrentURLCache(encoder, "domain", 60_000)) {
+            assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/a"));
+            assertEquals(0, cache.encoderRetries());
+
+            assertEquals("http://domain/efgh", cache.shorten(uuid, "http://google.com/b"));
+            assertEquals(1, cache.encoderRetries());
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    void removedEntriesAreEvicted() {
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new ConcurrentURLCache(new Base62Encoder(), "domain", 60_000)) {
+            cache.addListener(listener);
+            var shortUrl = cache.shorten(uuid, "http://google.com/removed");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            assertTrue(cache.remove(hash));
+            assertFalse(cache.remove(hash));
+            assertNull(cache.getOriginalUrlFor(hash));
+            assertEquals(0, cache.size());
+            assertTrue(cache.restore("http://google.com/removed", hash, System.currentTimeMillis(), 60_000));
+        }
+
+        verify(listener, times(1)).entryEvicted(any());
+    }
+
+    @Test
+    void slidingTtlKeepsUsedEntries() throws InterruptedException {
+        try (var cache = new ConcurrentURLCache(new Base62Encoder(), "domain", 200, 0, true)) {
+            var used = cache.shorten(uuid, "http://google.com/used");
+            var unused = cache.shorten(uuid, "http://google.com/unused");
+            var usedHash = used.substring(used.lastIndexOf('/') + 1);
+            var unusedHash = unused.substring(unused.lastIndexOf('/') + 1);
+
+            // Twice the TTL, with the used entry looked up well within each TTL.
+            for (int i = 0; i < 8; ++i) {
+                Thread.sleep(50);
+                assertEquals("http://google.com/used", cache.getOriginalUrlFor(usedHash));
+                cache.run();
+            }
+
+            assertEquals(1, cache.size());
+            assertNull(cache.getOriginalUrlFor(unusedHash));
+        }
+    }
+
+    @Test
+    void fixedTtlIgnoresUses() throws InterruptedException {
+        try (var cache = new ConcurrentURLCache(new Base62Encoder(), "domain", 200, 0, false)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/used");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            for (int i = 0; i < 8; ++i) {
+                Thread.sleep(50);
+                cache.getOriginalUrlFor(hash);
+                cache.run();
+            }
+
+            assertTrue(cache.isEmpty());
+        }
+    }
+}
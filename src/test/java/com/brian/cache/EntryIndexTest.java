@@ -0,0 +1,105 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.Base62Encoder;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class EntryIndexTest {
+
+    /**
+     * Indexes entries by their code over a small range, so the index grows and shifts entries back after
+     * removals, and checks it against a HashMap through a random mix of adds and removals.
+     */
+    @Test
+    void matchesHashMap() {
+        var random = new Random(42);
+        var index = new EntryIndex(CompactEntry::code);
+        Map<Long, byte[]> expected = new HashMap<>();
+        byte[] url = "http://google.com".getBytes(StandardCharsets.UTF_8);
+
+        for (int i = 0; i < 50_000; ++i) {
+            long code = random.nextInt(5_000);
+            var existing = expected.remove(code);
+            if (existing != null) {
+                assertTrue(index.remove(existing));
+            } else {
+                var entry = CompactEntry.create(url, 0, Base62Encoder.toBase62(code), i, 1000);
+                index.add(entry);
+                expected.put(code, entry);
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (long code = 0; code < 5_000; ++code) {
+            assertSame(expected.get(code), index.get(code));
+        }
+
+        var missing = CompactEntry.create(url, 0, "AAAAAA", 0, 1000);
+        if (!expected.containsKey(CompactEntry.code(missing))) {
+            assertFalse(index.remove(missing));
+        }
+    }
+
+    /**
+     * Scans a few slots at a time while entries are added and removed in between, so entries are shifted
+     * back across the scan's position and the index grows, and checks every entry that was in the index
+     * for the whole scan was passed on exactly once.
+     */
+    @Test
+    void aScanPassesOnTheEntriesThatStayOnce() {
+        byte[] url = "http://google.com".getBytes(StandardCharsets.UTF_8);
+
+        for (int seed = 0; seed < 20; ++seed) {
+            var random = new Random(seed);
+            var index = new EntryIndex(CompactEntry::code);
+            Map<Long, byte[]> live = new HashMap<>();
+            for (int i = 0; i < 500; ++i) {
+                long code = random.nextInt(1_000);
+                if (!live.containsKey(code)) {
+                    var entry = CompactEntry.create(url, 0, Base62Encoder.toBase62(code), i, 1000);
+                    index.add(entry);
+                    live.put(code, entry);
+                }
+            }
+
+            // The entries that are never removed.
+            Set<byte[]> stayed = Collections.newSetFromMap(new IdentityHashMap<>());
+            stayed.addAll(live.values());
+
+            List<byte[]> passed = new ArrayList<>();
+            var scan = index.scan();
+            while (scan.next(8, passed::add)) {
+                for (int i = 0; i < 20; ++i) {
+                    long code = random.nextInt(2_000);
+                    var existing = live.remove(code);
+                    if (existing != null) {
+                        index.remove(existing);
+                        stayed.remove(existing);
+                    } else {
+                        var entry = CompactEntry.create(url, 0, Base62Encoder.toBase62(code), i, 1000);
+                        index.add(entry);
+                        live.put(code, entry);
+                    }
+                }
+            }
+            index.endScan(scan);
+
+            Set<byte[]> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (var entry : passed) {
+                assertTrue(unique.add(entry), "An entry was passed on twice");
+            }
+            assertTrue(unique.containsAll(stayed), "An entry was missed");
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class EvictionOrderTest {
+
+    private final byte[] a = new byte[1];
+    private final byte[] b = new byte[1];
+    private final byte[] c = new byte[1];
+
+    private EvictionOrder orderOf(EvictionPolicy policy) {
+        var order = new EvictionOrder(policy);
+        order.added(a);
+        order.added(b);
+        order.added(c);
+        return order;
+    }
+
+    @Test
+    void fifoIgnoresUses() {
+        var order = orderOf(EvictionPolicy.FIFO);
+        assertFalse(order.recordsAccess());
+
+        order.accessed(a);
+        assertSame(a, order.victim(null));
+        assertSame(b, order.victim(a));
+
+        order.removed(a);
+        assertSame(b, order.victim(null));
+        assertEquals(2, order.size());
+    }
+
+    @Test
+    void lruEvictsTheLeastRecentlyUsed() {
+        var order = orderOf(EvictionPolicy.LRU);
+        assertTrue(order.recordsAccess());
+
+        order.accessed(a);
+        assertSame(b, order.victim(null));
+        order.accessed(b);
+        assertSame(c, order.victim(null));
+
+        // An entry that has already been removed is ignored.
+        order.removed(c);
+        order.accessed(c);
+        assertSame(a, order.victim(null));
+        assertEquals(2, order.size());
+    }
+
+    @Test
+    void lfuEvictsTheLeastFrequentlyUsed() {
+        var order = orderOf(EvictionPolicy.LFU);
+        for (int i = 0; i < 3; ++i) {
+            order.accessed(a);
+        }
+        order.accessed(b);
+
+        assertSame(c, order.victim(null));
+        order.removed(c);
+        assertSame(b, order.victim(null));
+
+        // Of the entries used as often, the least recently used goes first.
+        order.accessed(b);
+        order.accessed(b);
+        assertSame(a, order.victim(null));
+    }
+
+    @Test
+    void lfuCountsAreHalved() {
+        var order = orderOf(EvictionPolicy.LFU);
+        for (int i = 0; i < 20; ++i) {
+            order.accessed(a);
+        }
+        order.accessed(b);
+
+        // After 10 uses per entry the counts are halved, so a's 20 become 10, b's 1 becomes 0 and c's 9
+        // become 4...
+        for (int i = 0; i < 9; ++i) {
+            order.accessed(c);
+        }
+        // ...and c can overtake a without being used 20 times.
+        for (int i = 0; i < 7; ++i) {
+            order.accessed(c);
+        }
+
+        assertSame(b, order.victim(null));
+        order.removed(b);
+        assertSame(a, order.victim(null));
+    }
+
+    @Test
+    void theEntryToKeepIsSkipped() {
+        var order = new EvictionOrder(EvictionPolicy.LFU);
+        order.added(a);
+        order.accessed(a);
+        order.added(b);
+
+        assertSame(b, order.victim(null));
+        assertSame(a, order.victim(b));
+        order.removed(a);
+        assertNull(order.victim(b));
+    }
+}
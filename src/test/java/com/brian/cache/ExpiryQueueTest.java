@@ -0,0 +1,65 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ExpiryQueueTest {
+
+    @Test
+    void invalidBucketWidth() {
+        assertThrows(IllegalArgumentException.class, () -> new ExpiryQueue<String>(0));
+    }
+
+    @Test
+    void bucketWidth() {
+        assertEquals(1, ExpiryQueue.bucketWidthFor(5));
+        assertEquals(10, ExpiryQueue.bucketWidthFor(100));
+        assertEquals(1000, ExpiryQueue.bucketWidthFor(60_000));
+    }
+
+    @Test
+    void onlyDueKeysAreExpired() {
+        var queue = new ExpiryQueue<String>(100);
+        queue.schedule("a", 1_050);
+        queue.schedule("b", 1_150);
+        queue.schedule("c", 5_000);
+        assertEquals(3, queue.size());
+
+        List<String> expired = new ArrayList<>();
+
+        // The bucket holding "a" is [1000, 1100), so it isn't due until 1100.
+        assertEquals(0, queue.expire(1_099, 100, expired::add));
+        assertEquals(1, queue.expire(1_100, 100, expired::add));
+        assertEquals(List.of("a"), expired);
+
+        assertEquals(1, queue.expire(2_000, 100, expired::add));
+        assertEquals(List.of("a", "b"), expired);
+        assertEquals(1, queue.size());
+
+        assertEquals(1, queue.expire(10_000, 100, expired::add));
+        assertEquals(List.of("a", "b", "c"), expired);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    void expiryIsIncremental() {
+        var queue = new ExpiryQueue<Integer>(10);
+        for (int i = 0; i < 25; ++i) {
+            queue.schedule(i, i);
+        }
+
+        List<Integer> expired = new ArrayList<>();
+        assertEquals(10, queue.expire(1_000, 10, expired::add));
+        assertEquals(10, queue.expire(1_000, 10, expired::add));
+        assertEquals(5, queue.expire(1_000, 10, expired::add));
+        assertEquals(0, queue.expire(1_000, 10, expired::add));
+
+        assertEquals(25, expired.size());
+        assertTrue(queue.isEmpty());
+    }
+
+}
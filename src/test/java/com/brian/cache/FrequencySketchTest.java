@@ -0,0 +1,35 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    void countsUpToFifteen() {
+        var sketch = new FrequencySketch(1024);
+        assertEquals(0, sketch.frequency(42));
+
+        for (int i = 1; i <= 20; ++i) {
+            sketch.increment(42);
+            assertEquals(Math.min(i, 15), sketch.frequency(42));
+        }
+        assertEquals(0, sketch.frequency(43));
+    }
+
+    @Test
+    void countersAreHalvedAsKeysAreAdded() {
+        var sketch = new FrequencySketch(16);
+        for (int i = 0; i < 12; ++i) {
+            sketch.increment(7);
+        }
+        assertEquals(12, sketch.frequency(7));
+
+        // The sketch for 16 keys is halved after 160 increments.
+        for (long key = 1000; key < 1200; ++key) {
+            sketch.increment(key);
+        }
+        assertTrue(sketch.frequency(7) <= 6, "Frequency " + sketch.frequency(7));
+    }
+}
@@ -4,12 +4,20 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 import com.brian.Base62Encoder;
+import com.brian.SequenceEncoder;
 import com.brian.URLEncoder;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
 
 @ExtendWith(MockitoExtension.class)
@@ -78,4 +86,369 @@ public class InMemoryURLCacheTest {
         }
     }
 
+    @Test
+    void expiredEntriesAreEvicted() throws InterruptedException {
+        try (var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 10)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            Thread.sleep(50);
+            cache.run();
+
+            assertTrue(cache.isEmpty());
+            assertNull(cache.getOriginalUrlFor(hash));
+        }
+    }
+
+    @Test
+    void perEntryTTL() throws InterruptedException {
+        try (var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 60_000)) {
+            var shortLived = cache.shorten(uuid, "http://google.com/short-lived", 10);
+            var longLived = cache.shorten(uuid, "http://google.com/long-lived");
+            assertEquals(2, cache.size());
+
+            Thread.sleep(1100);
+            cache.run();
+
+            assertEquals(1, cache.size());
+            assertNull(cache.getOriginalUrlFor(shortLived.substring(shortLived.lastIndexOf('/') + 1)));
+            assertNotNull(cache.getOriginalUrlFor(longLived.substring(longLived.lastIndexOf('/') + 1)));
+        }
+    }
+
+    @Test
+    void restoredEntriesAreServedAndNotifyNobody() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "efgh");
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new InMemoryURLCache(encoder, "domain", 60_000)) {
+            cache.addListener(listener);
+
+            assertTrue(cache.restore("https://google.com/path", "abcd", System.currentTimeMillis(), 60_000));
+            assertFalse(cache.restore("https://google.com/other", "abcd", System.currentTimeMillis(), 60_000));
+            assertEquals("https://google.com/path", cache.getOriginalUrlFor("abcd"));
+            assertEquals("https://domain/abcd", cache.shorten(uuid, "https://google.com/path"));
+
+            // The restored hash is never handed out again.
+            assertEquals("http://domain/efgh", cache.shorten(uuid, "http://google.com/new"));
+        }
+
+        verify(listener, times(1)).entryAdded(any());
+    }
+
+    @Test
+    void aUniqueEncoderIsCheckedOnceEntriesAreRestored() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.isUnique()).thenReturn(true);
+        when(encoder.encode(anyString())).thenReturn("abcd", "efgh");
+
+        try (var cache = new InMemoryURLCache(encoder, "domain", 60_000)) {
+            assertTrue(cache.restore("http://google.com/restored", "abcd", System.currentTimeMillis(), 60_000));
+
+            // The encoder may hand out a restored hash again, e.g. after a restart.
+            assertEquals("http://domain/efgh", cache.shorten(uuid, "http://google.com/new"));
+            assertEquals(1, cache.encoderRetries());
+        }
+    }
+
+    @Test
+    void restoreAllSkipsTheEntriesInUseAndRemoveEvicts() {
+        CacheListener listener = Mockito.mock(CacheListener.class);
+        long now = System.currentTimeMillis();
+
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60_000)) {
+            cache.addListener(listener);
+            assertTrue(cache.restore("http://google.com/a", "aaaaaa", now, 60_000));
+
+            assertEquals(2, cache.restoreAll(List.of(
+                    new URLEntry("http://google.com/a", null, "bbbbbb", now, 60_000),
+                    new URLEntry("http://google.com/b", null, "aaaaaa", now, 60_000),
+                    new URLEntry("HTTP://google.com/C", null, "cccccc", now, 60_000),
+                    new URLEntry("http://google.com/d", null, "custom-hash", now, 60_000))));
+            assertEquals("http://google.com/c", cache.getOriginalUrlFor("cccccc"));
+            assertEquals("http://google.com/d", cache.getOriginalUrlFor("custom-hash"));
+            assertNull(cache.getOriginalUrlFor("bbbbbb"));
+            assertEquals(3, cache.size());
+
+            assertTrue(cache.remove("aaaaaa"));
+            assertTrue(cache.remove("custom-hash"));
+            assertFalse(cache.remove("aaaaaa"));
+            assertNull(cache.getOriginalUrlFor("aaaaaa"));
+            assertEquals(1, cache.size());
+
+            // The URL is free to be shortened again.
+            var shortUrl = cache.shorten(uuid, "http://google.com/a");
+            assertEquals("http://google.com/a", cache.getOriginalUrlFor(shortUrl.substring(14)));
+        }
+
+        verify(listener, times(2)).entryEvicted(any());
+        verify(listener, times(1)).entryAdded(any());
+    }
+
+    @Test
+    void batchShortenAndResolve() {
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60_000)) {
+            cache.addListener(listener);
+            var existing = cache.shorten(uuid, "http://google.com/existing");
+
+            var shortUrls = cache.shortenAll(uuid, List.of("http://google.com/a", "not a url",
+                    "HTTP://google.com/EXISTING", "http://google.com/a", "https://google.com/b"));
+
+            assertEquals(5, shortUrls.size());
+            assertTrue(shortUrls.get(0).startsWith("http://domain/"));
+            assertNull(shortUrls.get(1));
+            assertEquals(existing, shortUrls.get(2));
+            assertEquals(shortUrls.get(0), shortUrls.get(3));
+            assertTrue(shortUrls.get(4).startsWith("https://domain/"));
+            assertEquals(3, cache.size());
+
+            var codes = shortUrls.stream().map(url -> url == null ? "missing" : url.substring(url.lastIndexOf('/') + 1))
+                    .toList();
+            assertEquals(Arrays.asList("http://google.com/a", null, "http://google.com/existing",
+                    "http://google.com/a", "https://google.com/b"), cache.getOriginalUrlsFor(codes));
+        }
+
+        // Once for the single shorten, and once for each new URL in the batch.
+        verify(listener, times(3)).entryAdded(any());
+    }
+
+    /**
+     * Compares the heap used per entry against the layout the cache had before the entries were packed
+     * into byte arrays: a URLEntry with its URL, short URL and hash strings, keyed by the URL in a HashMap
+     * and by the code in a LongMap, with the URL in the expiry queue. The entries are restored rather than
+     * shortened so nothing is logged while the heap is measured.
+     */
+    @Test
+    void compactEntriesUseLessThanHalfTheHeap() {
+        int count = 200_000;
+        var urls = realisticUrls(count);
+        long now = System.currentTimeMillis();
+
+        long before = usedHeap();
+        Map<String, URLEntry> byUrl = new HashMap<>();
+        LongMap<URLEntry> byCode = new LongMap<>();
+        ExpiryQueue<String> expiryQueue = new ExpiryQueue<>(1000);
+        for (int i = 0; i < count; ++i) {
+            // Build the strings as the cache did, so nothing is shared with the corpus.
+            var url = new String(urls.get(i).toCharArray());
+            var hash = Base62Encoder.toBase62(i);
+            var entry = new URLEntry(url, url.substring(0, url.indexOf(':')) + "://shorty.com/" + hash, hash,
+                    now, 60_000);
+            byUrl.put(url, entry);
+            byCode.put(i, entry);
+            expiryQueue.schedule(url, entry.expiresAt());
+        }
+        long oldBytes = usedHeap() - before;
+        assertEquals(count, byUrl.size());
+
+        byUrl = null;
+        byCode = null;
+        expiryQueue = null;
+
+        before = usedHeap();
+        var cache = new InMemoryURLCache(new Base62Encoder(), "shorty.com", 60_000, 0);
+        for (int i = 0; i < count; ++i) {
+            cache.restore(urls.get(i), Base62Encoder.toBase62(i), now, 60_000);
+        }
+        long newBytes = usedHeap() - before;
+        assertEquals(count, cache.size());
+        assertEquals(urls.get(count - 1), cache.getOriginalUrlFor(Base62Encoder.toBase62(count - 1)));
+        cache.close();
+
+        assertTrue(oldBytes >= 2 * newBytes, oldBytes / count + " vs " + newBytes / count + " bytes per entry");
+    }
+
+    // URLs of the shape people shorten: a host, a few path segments and often some tracking parameters.
+    private static List<String> realisticUrls(int count) {
+        var random = new Random(42);
+        String[] hosts = {"www.example.com", "news.bbc.co.uk", "github.com", "en.wikipedia.org", "shop.acme.io",
+                "docs.google.com", "medium.com", "www.youtube.com"};
+        String[] words = {"article", "2024", "products", "category", "how-to-shorten-urls", "index", "wiki",
+                "java", "release-notes", "blog", "search", "a1b2c3d4", "user", "settings", "view"};
+
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            var url = new StringBuilder(random.nextInt(4) == 0 ? "http://" : "https://");
+            url.append(hosts[random.nextInt(hosts.length)]);
+            for (int segments = 1 + random.nextInt(4); segments > 0; --segments) {
+                url.append('/').append(words[random.nextInt(words.length)]);
+            }
+            url.append('/').append(i);
+            if (random.nextBoolean()) {
+                url.append("?utm_source=newsletter&utm_medium=email&utm_campaign=").append(random.nextInt(1000));
+            }
+            urls.add(url.toString());
+        }
+        return urls;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    void codesInUseAreCountedAsRetries() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "abcd", "efgh");
+
+        try (var cache = new InMemoryURLCache(encoder, "domain", 60_000)) {
+            assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/a"));
+            assertEquals(0, cache.encoderRetries());
+
+            assertEquals("http://domain/efgh", cache.shorten(uuid, "http://google.com/b"));
+            assertEquals(1, cache.encoderRetries());
+            assertEquals(2, cache.size());
+        }
+    }
+
+    private static String hashOf(String shortUrl) {
+        return shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+
+    @Test
+    void leastRecentlyUsedEntriesAreEvictedOverTheEntryLimit() {
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60_000, 0, false, 3, 0,
+                EvictionPolicy.LRU)) {
+            cache.addListener(listener);
+            var a = hashOf(cache.shorten(uuid, "http://google.com/a"));
+            var b = hashOf(cache.shorten(uuid, "http://google.com/b"));
+            cache.shorten(uuid, "http://google.com/c");
+
+            assertEquals("http://google.com/a", cache.getOriginalUrlFor(a));
+            var d = hashOf(cache.shorten(uuid, "http://google.com/d"));
+
+            assertEquals(3, cache.size());
+            assertNull(cache.getOriginalUrlFor(b));
+            assertNotNull(cache.getOriginalUrlFor(a));
+            assertNotNull(cache.getOriginalUrlFor(d));
+            verify(listener).entryEvicted(argThat(entry -> entry.hash().equals(b)));
+        }
+    }
+
+    @Test
+    void listenersSeeAnEvictionBeforeItsHashIsReused() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "efgh", "abcd");
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new InMemoryURLCache(encoder, "domain", 60_000, 0, false, 1, 0, EvictionPolicy.FIFO)) {
+            cache.addListener(listener);
+            var urls = cache.shortenAll(uuid, List.of("http://google.com/a", "http://google.com/b",
+                    "http://google.com/c"));
+            assertEquals("http://domain/abcd", urls.get(2));
+        }
+
+        // The third URL reuses the hash freed by evicting the first, so a log replayed in this order ends
+        // up with the same entry as the cache.
+        var inOrder = inOrder(listener);
+        inOrder.verify(listener).entryAdded(argThat(entry -> entry.url().equals("http://google.com/a")));
+        inOrder.verify(listener).entryAdded(argThat(entry -> entry.url().equals("http://google.com/b")));
+        inOrder.verify(listener).entryEvicted(argThat(entry -> entry.url().equals("http://google.com/a")));
+        inOrder.verify(listener).entryAdded(argThat(entry -> entry.url().equals("http://google.com/c")));
+        inOrder.verify(listener).entryEvicted(argThat(entry -> entry.url().equals("http://google.com/b")));
+    }
+
+    @Test
+    void oldestEntriesAreEvictedFirstWithFifo() {
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60_000, 0, false, 3, 0,
+                EvictionPolicy.FIFO)) {
+            var a = hashOf(cache.shorten(uuid, "http://google.com/a"));
+            cache.shorten(uuid, "http://google.com/b");
+            cache.shorten(uuid, "http://google.com/c");
+
+            cache.getOriginalUrlFor(a);
+            var urls = cache.shortenAll(uuid, List.of("http://google.com/d", "http://google.com/e"));
+
+            assertEquals(3, cache.size());
+            assertNull(cache.getOriginalUrlFor(a));
+            urls.forEach(url -> assertNotNull(cache.getOriginalUrlFor(hashOf(url))));
+        }
+    }
+
+    @Test
+    void entriesAreEvictedOverTheByteBudget() {
+        var url = "http://google.com/" + "x".repeat(100);
+        long entrySize = CompactEntry.create((url + "00").getBytes(), 0, "abcdef", 0, 0).length
+                + InMemoryURLCache.ENTRY_OVERHEAD_BYTES;
+
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60_000, 0, false, 0,
+                10 * entrySize, EvictionPolicy.LFU)) {
+            for (int i = 0; i < 100; ++i) {
+                cache.shorten(uuid, url + i);
+            }
+            assertTrue(cache.size() <= 10 && cache.size() >= 9, "Size " + cache.size());
+        }
+    }
+
+    @Test
+    void anEntryOverTheByteBudgetIsStillAdded() {
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 60_000, 0, false, 0, 1,
+                EvictionPolicy.LRU)) {
+            cache.shorten(uuid, "http://google.com/a");
+            var b = hashOf(cache.shorten(uuid, "http://google.com/b"));
+
+            assertEquals(1, cache.size());
+            assertEquals("http://google.com/b", cache.getOriginalUrlFor(b));
+        }
+    }
+
+    @Test
+    void entriesStillExpireAfterEvictionsOverTheLimit() throws InterruptedException {
+        try (var cache = new InMemoryURLCache(new SequenceEncoder(), "domain", 10, 0, false, 10, 0,
+                EvictionPolicy.LRU)) {
+            for (int i = 0; i < 1000; ++i) {
+                cache.shorten(uuid, "http://google.com/" + i);
+            }
+            assertEquals(10, cache.size());
+
+            // The expiry queue is rebuilt from the 10 entries left before they are expired.
+            Thread.sleep(50);
+            cache.run();
+            assertTrue(cache.isEmpty());
+        }
+    }
+
+    @Test
+    void slidingTtlKeepsUsedEntries() throws InterruptedException {
+        try (var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 200, 0, true, 0, 0, EvictionPolicy.LRU)) {
+            var used = cache.shorten(uuid, "http://google.com/used");
+            var unused = cache.shorten(uuid, "http://google.com/unused");
+            var usedHash = used.substring(used.lastIndexOf('/') + 1);
+            var unusedHash = unused.substring(unused.lastIndexOf('/') + 1);
+
+            // Twice the TTL, with the used entry looked up well within each TTL.
+            for (int i = 0; i < 8; ++i) {
+                Thread.sleep(50);
+                assertEquals("http://google.com/used", cache.getOriginalUrlFor(usedHash));
+                cache.run();
+            }
+
+            assertEquals(1, cache.size());
+            assertNull(cache.getOriginalUrlFor(unusedHash));
+        }
+    }
+
+    @Test
+    void fixedTtlIgnoresUses() throws InterruptedException {
+        try (var cache = new InMemoryURLCache(new Base62Encoder(), "domain", 200, 0, false, 0, 0, EvictionPolicy.LRU)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/used");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            for (int i = 0; i < 8; ++i) {
+                Thread.sleep(50);
+                cache.getOriginalUrlFor(hash);
+                cache.run();
+            }
+
+            assertTrue(cache.isEmpty());
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LongMapTest {
+
+    /**
+     * Checks the map against a HashMap through a random mix of puts and removals, over a small key range
+     * so the map grows, overwrites and shifts entries back after removals.
+     */
+    @Test
+    void matchesHashMap() {
+        var random = new Random(42);
+        var map = new LongMap<String>();
+        Map<Long, String> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; ++i) {
+            long key = random.nextInt(10_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                var value = "v" + i;
+                assertEquals(expected.put(key, value), map.put(key, value));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 10_000; ++key) {
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+
+        List<String> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertEquals(expected.size(), values.size());
+        assertTrue(values.containsAll(expected.values()));
+    }
+
+    @Test
+    void zeroAndLargeKeys() {
+        var map = new LongMap<String>();
+        map.put(0, "zero");
+        map.put(Long.MAX_VALUE - 1, "large");
+
+        assertEquals("zero", map.get(0));
+        assertEquals("large", map.get(Long.MAX_VALUE - 1));
+        assertNull(map.get(1));
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(-1, "negative"));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+    }
+}
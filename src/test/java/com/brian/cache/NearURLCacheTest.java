@@ -0,0 +1,128 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.Base62Encoder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.UUID;
+
+public class NearURLCacheTest {
+
+    private static final long CODE = Base62Encoder.fromBase62("abcdef");
+
+    private URLCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = Mockito.mock(URLCache.class);
+        when(cache.getOriginalUrlFor(anyLong())).thenAnswer(
+                invocation -> "http://google.com/" + invocation.getArgument(0, Long.class));
+    }
+
+    private static URLEntry evicted(long code) {
+        var hash = Base62Encoder.toBase62(code);
+        return new URLEntry("http://google.com/" + code, "http://domain/" + hash, hash, 0, 0);
+    }
+
+    @Test
+    void hotCodesAreAnsweredLocally() {
+        var nearCache = new NearURLCache(cache, 16);
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("http://google.com/" + CODE, nearCache.getOriginalUrlFor("abcdef"));
+        }
+
+        verify(cache, times(1)).getOriginalUrlFor(CODE);
+        assertEquals(9, nearCache.hits());
+        assertEquals(1, nearCache.misses());
+        assertEquals(0.9, nearCache.hitRatio(), 1e-9);
+    }
+
+    @Test
+    void missingCodesAreNotCached() {
+        when(cache.getOriginalUrlFor(CODE)).thenReturn(null);
+        var nearCache = new NearURLCache(cache, 16);
+
+        assertNull(nearCache.getOriginalUrlFor(CODE));
+        assertNull(nearCache.getOriginalUrlFor(CODE));
+        verify(cache, times(2)).getOriginalUrlFor(CODE);
+        assertEquals(0, nearCache.hitRatio());
+    }
+
+    @Test
+    void evictedCodesAreDropped() {
+        var nearCache = new NearURLCache(cache, 16);
+        nearCache.getOriginalUrlFor(CODE);
+        nearCache.getOriginalUrlFor(CODE + 1);
+
+        nearCache.entryEvicted(evicted(CODE));
+        nearCache.getOriginalUrlFor(CODE);
+        nearCache.getOriginalUrlFor(CODE + 1);
+
+        verify(cache, times(2)).getOriginalUrlFor(CODE);
+        verify(cache, times(1)).getOriginalUrlFor(CODE + 1);
+    }
+
+    @Test
+    void everythingIsDroppedWhenTheRingWraps() {
+        var nearCache = new NearURLCache(cache, 16, NearURLCache.DEFAULT_MAX_AGE_MILLIS, 4);
+        nearCache.getOriginalUrlFor(CODE);
+
+        // More evictions than the ring holds, none of which are this code.
+        for (long code = 100; code < 105; ++code) {
+            nearCache.entryEvicted(evicted(code));
+        }
+        nearCache.getOriginalUrlFor(CODE);
+
+        verify(cache, times(2)).getOriginalUrlFor(CODE);
+    }
+
+    @Test
+    void oldUrlsAreDropped() {
+        var nearCache = new NearURLCache(cache, 16, -1, NearURLCache.DEFAULT_RING_SIZE);
+        nearCache.getOriginalUrlFor(CODE);
+        nearCache.getOriginalUrlFor(CODE);
+
+        verify(cache, times(2)).getOriginalUrlFor(CODE);
+    }
+
+    @Test
+    void eachThreadHasItsOwnNearCache() throws InterruptedException {
+        var nearCache = new NearURLCache(cache, 16);
+        nearCache.getOriginalUrlFor(CODE);
+
+        var thread = new Thread(() -> {
+            nearCache.getOriginalUrlFor(CODE);
+            nearCache.getOriginalUrlFor(CODE);
+        });
+        thread.start();
+        thread.join();
+
+        verify(cache, times(2)).getOriginalUrlFor(CODE);
+        assertEquals(1, nearCache.hits());
+        assertEquals(2, nearCache.misses());
+    }
+
+    @Test
+    void everythingElseIsPassedThrough() {
+        var nearCache = new NearURLCache(cache, 16);
+        var uuid = UUID.randomUUID();
+        when(cache.shorten(uuid, "http://google.com")).thenReturn("http://domain/abcdef");
+        when(cache.getOriginalUrlFor("notacode")).thenReturn("http://other.com");
+        when(cache.size()).thenReturn(3);
+
+        assertEquals("http://domain/abcdef", nearCache.shorten(uuid, "http://google.com"));
+        assertEquals("http://other.com", nearCache.getOriginalUrlFor("notacode"));
+        assertEquals(3, nearCache.size());
+
+        var listener = Mockito.mock(CacheListener.class);
+        nearCache.addListener(listener);
+        verify(cache).addListener(listener);
+
+        nearCache.close();
+        verify(cache, never()).close();
+    }
+}
@@ -0,0 +1,43 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class OffHeapIndexTest {
+
+    /**
+     * Uses the address as the key, with a tiny hash range so there are long runs of collisions, and checks
+     * the index against a HashMap through a random mix of inserts and removals.
+     */
+    @Test
+    void matchesHashMap() {
+        var random = new Random(42);
+        OffHeapIndex.Hasher hasher = address -> (int) (address % 97);
+        OffHeapIndex.Matcher matcher = (address, key) -> address == Long.parseLong(new String(key));
+        var index = new OffHeapIndex(hasher);
+        Map<Long, Boolean> expected = new HashMap<>();
+
+        for (int i = 0; i < 50_000; ++i) {
+            long address = 1 + random.nextInt(5_000);
+            if (expected.containsKey(address)) {
+                assertTrue(index.remove(hasher.hashOf(address), address));
+                expected.remove(address);
+            } else {
+                index.insert(hasher.hashOf(address), address);
+                expected.put(address, true);
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for (long address = 1; address <= 5_000; ++address) {
+            long found = index.find(hasher.hashOf(address), Long.toString(address).getBytes(), matcher);
+            assertEquals(expected.containsKey(address) ? address : 0, found);
+        }
+        assertFalse(index.remove(hasher.hashOf(5_001), 5_001));
+    }
+}
@@ -0,0 +1,243 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.SequenceEncoder;
+import com.brian.URLEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+@ExtendWith(MockitoExtension.class)
+public class OffHeapURLCacheTest {
+
+    private final UUID uuid = UUID.randomUUID();
+
+    @Test
+    void invalidURL() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        try (var cache = new OffHeapURLCache(encoder, "domain", 1234)) {
+            assertNull(cache.shorten(uuid, "not a url"));
+            assertTrue(cache.isEmpty());
+        }
+    }
+
+    @Test
+    void validURL() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd");
+
+        try (var cache = new OffHeapURLCache(encoder, "domain", 1234)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path/foo/bar?key=value");
+            assertEquals("http://domain/abcd", shortUrl);
+            assertEquals("http://google.com/path/foo/bar?key=value", cache.getOriginalUrlFor("abcd"));
+            assertNull(cache.getOriginalUrlFor("abce"));
+            assertEquals(1, cache.size());
+        }
+
+        verify(encoder, times(1)).encode(anyString());
+    }
+
+    @Test
+    void requestSameUrlManyTimes() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd");
+
+        try (var cache = new OffHeapURLCache(encoder, "domain", 1234)) {
+            for (int i = 0; i < 100; ++i) {
+                assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/path/foo/bar?key=value"));
+                assertEquals(1, cache.size());
+            }
+        }
+
+        verify(encoder, times(1)).encode(anyString());
+    }
+
+    @Test
+    void hashCollisionIsRetried() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "abcd", "wxyz");
+
+        try (var cache = new OffHeapURLCache(encoder, "domain", 1234)) {
+            assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/1"));
+            assertEquals("http://domain/wxyz", cache.shorten(uuid, "http://google.com/2"));
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    void nonAsciiUrls() {
+        try (var cache = new OffHeapURLCache(new SequenceEncoder(), "domain", 60_000, 0)) {
+            var shortUrl = cache.shorten(uuid, "http://example.com/caf\u00e9/\u65e5\u672c");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            assertEquals("http://example.com/caf\u00e9/\u65e5\u672c", cache.getOriginalUrlFor(hash));
+            assertEquals(shortUrl, cache.shorten(uuid, "http://example.com/caf\u00e9/\u65e5\u672c"));
+        }
+    }
+
+    @Test
+    void expiredEntriesAreEvicted() throws InterruptedException {
+        try (var cache = new OffHeapURLCache(new SequenceEncoder(), "domain", 10, 0)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            Thread.sleep(50);
+
+            // Expired entries are never returned, even before they are evicted.
+            assertNull(cache.getOriginalUrlFor(hash));
+
+            cache.run();
+            assertTrue(cache.isEmpty());
+        }
+    }
+
+    /**
+     * Adds and evicts enough entries to grow the indexes several times and reuse freed memory, and checks
+     * every remaining entry can still be found by its code and its URL.
+     */
+    @Test
+    void manyEntriesAreAddedAndEvicted() {
+        Map<String, String> live = new HashMap<>();
+
+        try (var cache = new OffHeapURLCache(new SequenceEncoder(), "domain", 60_000, 0)) {
+            for (int i = 0; i < 20_000; ++i) {
+                // Every other entry expires straight away.
+                var url = "http://google.com/" + i;
+                var shortUrl = cache.shorten(uuid, url, i % 2 == 0 ? -1 : 60_000);
+                if (i % 2 != 0) {
+                    live.put(shortUrl, url);
+                }
+            }
+
+            cache.run();
+
+            // The expired entries go, even those added after live ones.
+            assertEquals(10_000, cache.size());
+
+            // Reuse the freed memory.
+            for (int i = 0; i < 1_000; ++i) {
+                var url = "http://google.com/new/" + i;
+                live.put(cache.shorten(uuid, url), url);
+            }
+
+            live.forEach((shortUrl, url) -> {
+                assertEquals(url, cache.getOriginalUrlFor(shortUrl.substring(shortUrl.lastIndexOf('/') + 1)));
+                assertEquals(shortUrl, cache.shorten(uuid, url));
+            });
+            assertTrue(cache.offHeapBytes() > 0);
+        }
+    }
+
+    @Test
+    void aLongTtlDoesntHoldUpTheShorterOnes() throws InterruptedException {
+        try (var cache = new OffHeapURLCache(new SequenceEncoder(), "domain", 10, 0)) {
+            var longShortUrl = cache.shorten(uuid, "http://google.com/long", 60_000);
+            for (int i = 0; i < 10; ++i) {
+                cache.shorten(uuid, "http://google.com/" + i);
+            }
+            assertEquals(11, cache.size());
+
+            Thread.sleep(50);
+            cache.run();
+
+            assertEquals(1, cache.size());
+            assertEquals("http://google.com/long",
+                    cache.getOriginalUrlFor(longShortUrl.substring(longShortUrl.lastIndexOf('/') + 1)));
+            assertEquals(1, cache.entries().size());
+        }
+    }
+
+    @Test
+    void evictionFreesEverything() throws InterruptedException {
+        try (var cache = new OffHeapURLCache(new SequenceEncoder(), "domain", 1, 0)) {
+            for (int i = 0; i < 10_000; ++i) {
+                cache.shorten(uuid, "http://google.com/" + i);
+            }
+            assertEquals(10_000, cache.size());
+
+            Thread.sleep(10);
+            cache.run();
+            assertTrue(cache.isEmpty());
+            assertTrue(cache.entries().isEmpty());
+        }
+    }
+
+    @Test
+    void restoredEntries() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "efgh");
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new OffHeapURLCache(encoder, "domain", 60_000, 0)) {
+            cache.addListener(listener);
+
+            long now = System.currentTimeMillis();
+            assertTrue(cache.restore("https://google.com/path", "abcd", now, 60_000));
+            assertFalse(cache.restore("https://google.com/other", "abcd", now, 60_000));
+            assertFalse(cache.restore("https://google.com/path", "wxyz", now, 60_000));
+
+            assertEquals("https://google.com/path", cache.getOriginalUrlFor("abcd"));
+            assertEquals("https://domain/abcd", cache.shorten(uuid, "https://google.com/path"));
+            assertEquals("http://domain/efgh", cache.shorten(uuid, "http://google.com/new"));
+
+            var entries = cache.entries();
+            assertEquals(2, entries.size());
+            assertEquals(new URLEntry("https://google.com/path", "https://domain/abcd", "abcd", now, 60_000),
+                    entries.get(0));
+        }
+
+        verify(listener, times(1)).entryAdded(any());
+    }
+
+    @Test
+    void batchShortenAndResolve() {
+        CacheListener listener = Mockito.mock(CacheListener.class);
+
+        try (var cache = new OffHeapURLCache(new SequenceEncoder(), "domain", 60_000)) {
+            cache.addListener(listener);
+            var existing = cache.shorten(uuid, "http://google.com/existing");
+
+            var shortUrls = cache.shortenAll(uuid, List.of("http://google.com/a", "not a url",
+                    "HTTP://google.com/EXISTING", "http://google.com/a", "https://google.com/b"));
+
+            assertEquals(5, shortUrls.size());
+            assertTrue(shortUrls.get(0).startsWith("http://domain/"));
+            assertNull(shortUrls.get(1));
+            assertEquals(existing, shortUrls.get(2));
+            assertEquals(shortUrls.get(0), shortUrls.get(3));
+            assertTrue(shortUrls.get(4).startsWith("https://domain/"));
+            assertEquals(3, cache.size());
+
+            var codes = shortUrls.stream().map(url -> url == null ? "missing" : url.substring(url.lastIndexOf('/') + 1))
+                    .toList();
+            assertEquals(Arrays.asList("http://google.com/a", null, "http://google.com/existing",
+                    "http://google.com/a", "https://google.com/b"), cache.getOriginalUrlsFor(codes));
+        }
+
+        // Once for the single shorten, and once for each new URL in the batch.
+        verify(listener, times(3)).entryAdded(any());
+    }
+
+    @Test
+    void codesInUseAreCountedAsRetries() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("abcd", "abcd", "efgh");
+
+        try (var cache = new OffHeapURLCache(encoder, "domain", 60_000)) {
+            assertEquals("http://domain/abcd", cache.shorten(uuid, "http://google.com/a"));
+            assertEquals(0, cache.encoderRetries());
+
+            assertEquals("http://domain/efgh", cache.shorten(uuid, "http://google.com/b"));
+            assertEquals(1, cache.encoderRetries());
+            assertEquals(2, cache.size());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.Base62Encoder;
+import com.brian.SequenceEncoder;
+import com.brian.URLEncoder;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@ExtendWith(MockitoExtension.class)
+public class ShardedURLCacheTest {
+
+    private final UUID uuid = UUID.randomUUID();
+
+    private final DefaultEventLoopGroup owners = new DefaultEventLoopGroup(4);
+
+    @AfterEach
+    void shutDown() {
+        owners.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private List<EventExecutor> ownerList() {
+        List<EventExecutor> list = new ArrayList<>();
+        owners.forEach(list::add);
+        return list;
+    }
+
+    @Test
+    void invalidURL() {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 1234, owners)) {
+            assertNull(cache.shorten(uuid, "not a url"));
+            assertNull(cache.shortenAsync(uuid, "not a url").join());
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    void urlsAreSpreadOverTheShards() {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            assertEquals(4, cache.shardCount());
+
+            Set<Integer> used = new HashSet<>();
+            for (int i = 0; i < 100; ++i) {
+                var url = "http://google.com/" + i;
+                var shortUrl = cache.shorten(uuid, url);
+                var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+                used.add(cache.shardOf(hash));
+
+                assertEquals(url, cache.getOriginalUrlFor(hash));
+                assertEquals(url, cache.getOriginalUrlFor(Base62Encoder.fromBase62(hash)));
+                assertEquals(shortUrl, cache.shorten(uuid, url.toUpperCase().replace("HTTP", "http")));
+            }
+
+            assertEquals(Set.of(0, 1, 2, 3), used);
+            assertEquals(100, cache.size());
+            assertNull(cache.getOriginalUrlFor("zzzzzz"));
+        }
+    }
+
+    @Test
+    void theFirstCharacterSelectsTheShard() {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            // 'A' is digit 0, 'B' is 1 and so on.
+            assertEquals(0, cache.shardOf("AAAAAA"));
+            assertEquals(1, cache.shardOf("Bzzzzz"));
+            assertEquals(3, cache.shardOf("D00000"));
+            assertEquals(0, cache.shardOf("E12345"));
+            assertEquals(cache.shardOf("Czzzzz"), cache.shardOf(Base62Encoder.fromBase62("Czzzzz")));
+        }
+    }
+
+    @Test
+    void ownShardIsAnsweredOnTheEventLoop() throws Exception {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            var owner = ownerList().get(cache.shardOf(hash));
+
+            var done = owner.submit(() -> cache.getOriginalUrlForAsync(hash).isDone()).get();
+            assertTrue(done);
+            assertEquals("http://google.com/path", owner.submit(() -> cache.getOriginalUrlFor(hash)).get());
+        }
+    }
+
+    @Test
+    void otherShardsAreAskedThroughTheirEventLoop() throws Exception {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/path");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+            var other = ownerList().get((cache.shardOf(hash) + 1) % cache.shardCount());
+
+            CompletableFuture<String> future = other.submit(() -> cache.getOriginalUrlForAsync(hash)).get();
+            assertEquals("http://google.com/path", future.get());
+
+            // Waiting for another shard from an event loop could deadlock.
+            var error = assertThrows(ExecutionException.class,
+                    () -> other.submit(() -> cache.getOriginalUrlFor(hash)).get());
+            assertInstanceOf(IllegalStateException.class, error.getCause());
+        }
+    }
+
+    @Test
+    void batchesKeepTheirOrderAcrossShards() {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < 50; ++i) {
+                urls.add(i == 10 ? "not a url" : "http://google.com/" + i);
+            }
+
+            var shortUrls = cache.shortenAllAsync(uuid, urls).join();
+            assertEquals(50, shortUrls.size());
+            assertNull(shortUrls.get(10));
+            assertEquals(49, cache.size());
+            assertEquals(shortUrls, cache.shortenAll(uuid, urls));
+
+            List<String> hashes = new ArrayList<>();
+            for (var shortUrl : shortUrls) {
+                hashes.add(shortUrl == null ? "nothere" : shortUrl.substring(shortUrl.lastIndexOf('/') + 1));
+            }
+
+            var found = cache.getOriginalUrlsFor(hashes);
+            for (int i = 0; i < 50; ++i) {
+                assertEquals(i == 10 ? null : urls.get(i), found.get(i));
+            }
+            assertEquals(found, cache.getOriginalUrlsForAsync(hashes).join());
+        }
+    }
+
+    @Test
+    void codesInUseAreCountedAsRetries() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("Aaaaaa", "Baaaaa", "Aaaaaa", "Caaaaa");
+        when(encoder.forShard(anyInt(), anyInt())).thenReturn(encoder);
+
+        var owner = new DefaultEventLoopGroup(1);
+        try (var cache = new ShardedURLCache(encoder, "domain", 60_000, owner)) {
+            assertEquals("http://domain/Aaaaaa", cache.shorten(uuid, "http://google.com/1"));
+            assertEquals("http://domain/Baaaaa", cache.shorten(uuid, "http://google.com/2"));
+            assertEquals("http://domain/Caaaaa", cache.shorten(uuid, "http://google.com/3"));
+            assertEquals(1, cache.encoderRetries());
+        } finally {
+            owner.shutdownGracefully(0, 0, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+    }
+
+    @Test
+    void codesForOtherShardsAreSkipped() {
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("Aaaaaa", "Baaaaa", "Caaaaa", "Daaaaa");
+        when(encoder.forShard(anyInt(), anyInt())).thenReturn(encoder);
+
+        try (var cache = new ShardedURLCache(encoder, "domain", 60_000, owners)) {
+            var shortUrl = cache.shorten(uuid, "http://google.com/1");
+            var hash = shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+
+            // Only the code in the URL's shard is used, and the others are not retries.
+            assertEquals(hash.charAt(0) - 'A', cache.shardOf(hash));
+            verify(encoder, times(cache.shardOf(hash) + 1)).encode(anyString());
+            assertEquals(0, cache.encoderRetries());
+            assertEquals(cache.shardOf(hash), cache.discardedCodes());
+        }
+    }
+
+    @Test
+    void aSequenceEncoderOnlyGeneratesCodesForTheShard() {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            var hashes = new HashSet<String>();
+            for (int i = 0; i < 1000; ++i) {
+                var shortUrl = cache.shorten(uuid, "http://google.com/" + i);
+                hashes.add(shortUrl.substring(shortUrl.lastIndexOf('/') + 1));
+            }
+
+            assertEquals(1000, hashes.size());
+            assertEquals(0, cache.discardedCodes());
+            assertEquals(0, cache.encoderRetries());
+        }
+    }
+
+    @Test
+    void expiredEntriesAreEvictedByEachShard() {
+        List<URLEntry> evicted = new CopyOnWriteArrayList<>();
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 1, 0, owners)) {
+            cache.addListener(new CacheListener() {
+                @Override
+                public void entryAdded(URLEntry entry) {
+                }
+
+                @Override
+                public void entryEvicted(URLEntry entry) {
+                    evicted.add(entry);
+                }
+            });
+
+            for (int i = 0; i < 20; ++i) {
+                cache.shorten(uuid, "http://google.com/" + i);
+            }
+            assertEquals(20, cache.size());
+
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < 10) {
+                Thread.onSpinWait();
+            }
+            cache.run();
+
+            assertEquals(0, cache.size());
+            assertEquals(20, evicted.size());
+        }
+    }
+
+    @Test
+    void restoredEntriesCanBeListed() {
+        try (var cache = new ShardedURLCache(new SequenceEncoder(), "domain", 60_000, owners)) {
+            long now = System.currentTimeMillis();
+            for (var hash : Arrays.asList("Aaaaaa", "Baaaaa", "Caaaaa", "Daaaaa")) {
+                assertTrue(cache.restore("http://google.com/" + hash, hash, now, 60_000));
+            }
+            assertFalse(cache.restore("http://google.com/other", "Baaaaa", now, 60_000));
+
+            assertEquals(4, cache.size());
+            // The URLs are lowercased, as when they are shortened.
+            assertEquals("http://google.com/caaaaa", cache.getOriginalUrlFor("Caaaaa"));
+
+            Set<String> hashes = new HashSet<>();
+            cache.entries().forEach(entry -> hashes.add(entry.hash()));
+            assertEquals(Set.of("Aaaaaa", "Baaaaa", "Caaaaa", "Daaaaa"), hashes);
+        }
+    }
+}
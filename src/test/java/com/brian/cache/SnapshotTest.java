@@ -0,0 +1,103 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<URLEntry> entries(int count, long timeAdded, long ttl) {
+        List<URLEntry> entries = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            entries.add(new URLEntry("http://google.com/" + "x".repeat(i % 50) + i, null, "h" + i, timeAdded, ttl));
+        }
+        return entries;
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        var file = dir.resolve("snapshot.bin");
+        var entries = entries(1000, System.currentTimeMillis(), 60_000);
+
+        // Use small chunks so plenty of records would otherwise span two chunks.
+        Snapshot.write(file, entries, 10);
+
+        var snapshot = Snapshot.open(file);
+        assertNotNull(snapshot);
+        assertEquals(1000, snapshot.size());
+
+        for (var entry : entries) {
+            assertEquals(entry.url(), snapshot.getOriginalUrlFor(entry.hash()));
+            assertTrue(snapshot.contains(entry.hash()));
+        }
+        assertNull(snapshot.getOriginalUrlFor("missing"));
+        assertFalse(snapshot.contains("missing"));
+
+        Map<String, String> visited = new HashMap<>();
+        snapshot.forEach((url, hash, timeAdded, ttl) -> {
+            assertEquals(60_000, ttl);
+            visited.put(hash, url);
+        });
+        assertEquals(1000, visited.size());
+        entries.forEach(entry -> assertEquals(entry.url(), visited.get(entry.hash())));
+    }
+
+    @Test
+    void expiredEntriesAreNotServed() throws IOException {
+        var file = dir.resolve("snapshot.bin");
+        Snapshot.write(file, entries(10, System.currentTimeMillis() - 10_000, 1_000));
+
+        var snapshot = Snapshot.open(file);
+        assertNull(snapshot.getOriginalUrlFor("h1"));
+        assertTrue(snapshot.contains("h1"));
+
+        snapshot.forEach((url, hash, timeAdded, ttl) -> fail("Visited an expired entry " + hash));
+    }
+
+    @Test
+    void emptySnapshot() throws IOException {
+        var file = dir.resolve("snapshot.bin");
+        Snapshot.write(file, List.of());
+
+        var snapshot = Snapshot.open(file);
+        assertEquals(0, snapshot.size());
+        assertNull(snapshot.getOriginalUrlFor("h1"));
+    }
+
+    @Test
+    void missingSnapshot() throws IOException {
+        assertNull(Snapshot.open(dir.resolve("missing.bin")));
+    }
+
+    @Test
+    void notASnapshot() throws IOException {
+        var file = dir.resolve("snapshot.bin");
+        Files.writeString(file, "This is not a snapshot, but it is long enough to have a header");
+
+        assertThrows(IOException.class, () -> Snapshot.open(file));
+    }
+
+    @Test
+    void closedSnapshotServesNothing() throws IOException {
+        var file = dir.resolve("snapshot.bin");
+        Snapshot.write(file, entries(10, System.currentTimeMillis(), 60_000));
+
+        var snapshot = Snapshot.open(file);
+        snapshot.close();
+
+        assertNull(snapshot.getOriginalUrlFor("h1"));
+        assertFalse(snapshot.contains("h1"));
+    }
+}
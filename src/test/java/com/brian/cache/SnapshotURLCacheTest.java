@@ -0,0 +1,146 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.brian.SequenceEncoder;
+import com.brian.URLEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+public class SnapshotURLCacheTest {
+
+    private final UUID uuid = UUID.randomUUID();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void restartIsWarmStartedFromTheSnapshot() throws Exception {
+        var file = dir.resolve("snapshot.bin");
+        Map<String, String> shortUrls = new HashMap<>();
+
+        try (var cache = new SnapshotURLCache(file, 0, new SequenceEncoder(),
+                encoder -> new ConcurrentURLCache(encoder, "domain", 60_000, 0))) {
+            cache.awaitRebuild();
+            for (int i = 0; i < 100; ++i) {
+                var url = "http://google.com/" + i;
+                shortUrls.put(url, cache.shorten(uuid, url));
+            }
+        }
+
+        ConcurrentURLCache[] restored = new ConcurrentURLCache[1];
+        try (var cache = new SnapshotURLCache(file, 0, new SequenceEncoder(),
+                encoder -> restored[0] = new ConcurrentURLCache(encoder, "domain", 60_000, 0))) {
+            cache.awaitRebuild();
+            assertFalse(cache.isRebuilding());
+            assertEquals(100, restored[0].size());
+
+            shortUrls.forEach((url, shortUrl) ->
+                    assertEquals(url, cache.getOriginalUrlFor(shortUrl.substring(shortUrl.lastIndexOf('/') + 1))));
+        }
+    }
+
+    @Test
+    void lookupsAreServedFromTheSnapshotWhileRebuilding() throws Exception {
+        var file = dir.resolve("snapshot.bin");
+        long now = System.currentTimeMillis();
+        Snapshot.write(file, List.of(
+                new URLEntry("http://a.com", null, "a", now, 60_000),
+                new URLEntry("http://b.com", null, "b", now, 60_000)));
+
+        // Hold up the rebuild until we're done.
+        var release = new CountDownLatch(1);
+        URLEncoder encoder = Mockito.mock(URLEncoder.class);
+        when(encoder.encode(anyString())).thenReturn("a", "new", "b", "again");
+
+        try (var cache = new SnapshotURLCache(file, 0, encoder, filtered ->
+                new ConcurrentURLCache(filtered, "domain", 60_000, 0) {
+                    @Override
+                    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return super.restore(url, hash, timeAdded, ttl);
+                    }
+                })) {
+
+            assertTrue(cache.isRebuilding());
+            assertEquals("http://a.com", cache.getOriginalUrlFor("a"));
+            assertEquals("http://b.com", cache.getOriginalUrlFor("b"));
+            assertNull(cache.getOriginalUrlFor("c"));
+
+            // The codes in the snapshot are skipped.
+            assertEquals("http://domain/new", cache.shorten(uuid, "http://c.com"));
+
+            // A URL from the snapshot that is shortened again gets a new code, and keeps its old one.
+            assertEquals("http://domain/again", cache.shorten(uuid, "http://b.com"));
+
+            release.countDown();
+            cache.awaitRebuild();
+
+            assertFalse(cache.isRebuilding());
+            assertEquals("http://a.com", cache.getOriginalUrlFor("a"));
+            assertEquals("http://b.com", cache.getOriginalUrlFor("b"));
+            assertEquals("http://b.com", cache.getOriginalUrlFor("again"));
+            assertEquals(4, cache.entries().size());
+        }
+
+        // The orphaned mapping is kept in the next snapshot.
+        var snapshot = Snapshot.open(file);
+        assertEquals(4, snapshot.size());
+        assertEquals("http://b.com", snapshot.getOriginalUrlFor("b"));
+    }
+
+    @Test
+    void closeWritesASnapshot() throws Exception {
+        var file = dir.resolve("snapshot.bin");
+        long now = System.currentTimeMillis();
+        Snapshot.write(file, List.of(new URLEntry("http://a.com", null, "a", now, 60_000)));
+
+        var cache = new SnapshotURLCache(file, 0, new SequenceEncoder(),
+                encoder -> new ConcurrentURLCache(encoder, "domain", 60_000, 0));
+        cache.awaitRebuild();
+        cache.shorten(uuid, "http://b.com");
+        cache.close();
+
+        assertEquals(2, Snapshot.open(file).size());
+    }
+
+    @Test
+    void aFailedRebuildKeepsTheSnapshot() throws Exception {
+        var file = dir.resolve("snapshot.bin");
+        long now = System.currentTimeMillis();
+        Snapshot.write(file, List.of(
+                new URLEntry("http://a.com", null, "a", now, 60_000),
+                new URLEntry("http://b.com", null, "b", now, 60_000)));
+
+        var cache = new SnapshotURLCache(file, 0, new SequenceEncoder(), encoder ->
+                new ConcurrentURLCache(encoder, "domain", 60_000, 0) {
+                    @Override
+                    public boolean restore(String url, String hash, long timeAdded, long ttl) {
+                        throw new IllegalStateException("Broken");
+                    }
+                });
+        cache.awaitRebuild();
+        assertFalse(cache.isRebuilding());
+        cache.shorten(uuid, "http://c.com");
+        cache.close();
+
+        // The snapshot isn't overwritten by one missing the entries that weren't restored.
+        var snapshot = Snapshot.open(file);
+        assertEquals(2, snapshot.size());
+        assertEquals("http://b.com", snapshot.getOriginalUrlFor("b"));
+    }
+}
@@ -0,0 +1,63 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.SequenceEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+public class SyncedURLCacheTest {
+
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+
+    private final UUID uuid = UUID.randomUUID();
+
+    @TempDir
+    Path dir;
+
+    private static ConcurrentURLCache newCache() {
+        return new ConcurrentURLCache(new SequenceEncoder(), "domain", Integer.MAX_VALUE, 0);
+    }
+
+    @Test
+    void aShortenCompletesOnceItsEntryIsOnDisk() throws IOException {
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            cache.addListener(wal);
+            var synced = new SyncedURLCache(cache, wal);
+
+            var shortUrl = synced.shortenAsync(uuid, "http://google.com/1").join();
+            var shortUrls = synced.shortenAllAsync(uuid, List.of("http://google.com/2", "http://google.com/3")).join();
+            assertTrue(wal.syncs() > 0);
+            assertEquals(3, synced.size());
+
+            // The entries can be read back while the log is still open.
+            try (var restored = newCache(); var reader = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+                assertEquals(3, reader.replay(restored));
+                assertEquals("http://google.com/1", restored.getOriginalUrlFor(code(shortUrl)));
+                assertEquals("http://google.com/3", restored.getOriginalUrlFor(code(shortUrls.get(1))));
+            }
+        }
+    }
+
+    @Test
+    void withoutSyncTheShortensDontWait() throws IOException {
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, false)) {
+            cache.addListener(wal);
+            var synced = new SyncedURLCache(cache, wal);
+
+            assertTrue(wal.synced().isDone());
+            assertTrue(synced.shortenAsync(uuid, "http://google.com/1").isDone());
+            assertEquals("http://google.com/1", synced.getOriginalUrlFor(code(synced.shorten(uuid,
+                    "http://google.com/1"))));
+        }
+    }
+
+    private static String code(String shortUrl) {
+        return shortUrl.substring(shortUrl.lastIndexOf('/') + 1);
+    }
+}
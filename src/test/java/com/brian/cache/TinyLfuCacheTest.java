@@ -0,0 +1,101 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class TinyLfuCacheTest {
+
+    // Looks up a key the way the near cache does, adding it if it's missing.
+    private static String lookup(TinyLfuCache<String> cache, long key) {
+        var value = cache.get(key);
+        if (value == null) {
+            value = "v" + key;
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    @Test
+    void putGetAndRemove() {
+        var cache = new TinyLfuCache<String>(10);
+        assertNull(cache.get(1));
+
+        cache.put(1, "a");
+        cache.put(2, "b");
+        assertEquals("a", cache.get(1));
+        assertEquals(2, cache.size());
+
+        cache.put(1, "c");
+        assertEquals("c", cache.get(1));
+        assertEquals(2, cache.size());
+
+        assertEquals("c", cache.remove(1));
+        assertNull(cache.remove(1));
+        assertNull(cache.get(1));
+        assertEquals(1, cache.size());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    void sizeIsBounded() {
+        var cache = new TinyLfuCache<String>(100);
+        for (long key = 0; key < 10_000; ++key) {
+            lookup(cache, key);
+            assertTrue(cache.size() <= 100);
+        }
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    void hotKeysSurviveAScan() {
+        var cache = new TinyLfuCache<String>(100);
+        for (int round = 0; round < 5; ++round) {
+            for (long key = 0; key < 50; ++key) {
+                lookup(cache, key);
+            }
+        }
+
+        // Lots of keys that are only used once, while the hot keys are still used now and then.
+        for (long key = 1000; key < 20_000; ++key) {
+            lookup(cache, key);
+            if (key % 4 == 0) {
+                lookup(cache, key / 4 % 50);
+            }
+        }
+
+        for (long key = 0; key < 50; ++key) {
+            assertEquals("v" + key, cache.get(key), "Key " + key);
+        }
+    }
+
+    @Test
+    void onlyKeysUsedMoreOftenAreAdmitted() {
+        var cache = new TinyLfuCache<String>(10);
+        for (long key = 0; key < 10; ++key) {
+            lookup(cache, key);
+        }
+
+        // A key that is looked up often gets in once it leaves the window...
+        for (int i = 0; i < 10; ++i) {
+            cache.get(100);
+        }
+        cache.put(100, "v100");
+        lookup(cache, 200);
+        assertNotNull(cache.remove(100));
+
+        // ...but one that is only used once does not.
+        lookup(cache, 300);
+        lookup(cache, 301);
+        assertNull(cache.remove(300));
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    void capacityMustBeAtLeastTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new TinyLfuCache<String>(1));
+    }
+}
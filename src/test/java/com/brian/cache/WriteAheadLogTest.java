@@ -0,0 +1,327 @@
+package com.brian.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.brian.SequenceEncoder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
+public class WriteAheadLogTest {
+
+    private static final long SEGMENT_BYTES = 1024 * 1024;
+
+    private final UUID uuid = UUID.randomUUID();
+
+    @TempDir
+    Path dir;
+
+    private static ConcurrentURLCache newCache() {
+        return new ConcurrentURLCache(new SequenceEncoder(), "domain", Integer.MAX_VALUE, 0);
+    }
+
+    @Test
+    void restartRestoresMappings() throws IOException {
+        Map<String, String> shortUrls = new HashMap<>();
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(0, wal.replay(cache));
+            cache.addListener(wal);
+
+            for (int i = 0; i < 100; ++i) {
+                var url = "http://google.com/" + i;
+                shortUrls.put(url, cache.shorten(uuid, url));
+            }
+        }
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(100, wal.replay(cache));
+            assertEquals(100, cache.size());
+
+            shortUrls.forEach((url, shortUrl) -> {
+                assertEquals(url, cache.getOriginalUrlFor(shortUrl.substring(shortUrl.lastIndexOf('/') + 1)));
+                // Shortening the URL again returns the restored short URL.
+                assertEquals(shortUrl, cache.shorten(uuid, url));
+            });
+        }
+    }
+
+    @Test
+    void evictionsArePersisted() throws IOException {
+        long now = System.currentTimeMillis();
+        var kept = new URLEntry("http://a.com", "http://domain/a", "a", now, 60_000);
+        var evicted = new URLEntry("http://b.com", "http://domain/b", "b", now, 60_000);
+
+        try (var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            wal.entryAdded(kept);
+            wal.entryAdded(evicted);
+            wal.entryEvicted(evicted);
+        }
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(1, wal.replay(cache));
+            assertEquals("http://a.com", cache.getOriginalUrlFor("a"));
+            assertNull(cache.getOriginalUrlFor("b"));
+        }
+    }
+
+    @Test
+    void expiredMappingsAreNotRestored() throws IOException {
+        long now = System.currentTimeMillis();
+
+        try (var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            wal.entryAdded(new URLEntry("http://a.com", "http://domain/a", "a", now - 10_000, 1_000));
+            wal.entryAdded(new URLEntry("http://b.com", "http://domain/b", "b", now, 60_000));
+        }
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(1, wal.replay(cache));
+            assertNull(cache.getOriginalUrlFor("a"));
+            assertEquals("http://b.com", cache.getOriginalUrlFor("b"));
+        }
+    }
+
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        long now = System.currentTimeMillis();
+
+        try (var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            for (int i = 0; i < 10; ++i) {
+                wal.entryAdded(new URLEntry("http://a.com/" + i, "http://domain/a" + i, "a" + i, now, 60_000));
+            }
+        }
+
+        // Simulate a crash part way through writing a record.
+        Path segment;
+        try (var files = Files.list(dir)) {
+            segment = files.findFirst().orElseThrow();
+        }
+        long intactSize = Files.size(segment);
+        Files.write(segment, new byte[] {0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(10, wal.replay(cache));
+            assertEquals(intactSize, Files.size(segment));
+        }
+    }
+
+    @Test
+    void expiredSegmentsAreCompacted() throws IOException {
+        long now = System.currentTimeMillis();
+
+        // Every batch fills a segment, so each record synced on its own gets a segment of its own.
+        try (var wal = new WriteAheadLog(dir, 1, true)) {
+            for (int i = 0; i < 5; ++i) {
+                wal.entryAdded(new URLEntry("http://a.com/" + i, "http://domain/a" + i, "a" + i, now - 10_000, 1_000));
+                wal.synced().join();
+            }
+            wal.entryAdded(new URLEntry("http://b.com", "http://domain/b", "b", now, 60_000));
+            wal.synced().join();
+            wal.entryAdded(new URLEntry("http://c.com", "http://domain/c", "c", now - 10_000, 1_000));
+            wal.synced().join();
+
+            assertEquals(8, wal.segmentCount());
+
+            // The five expired segments go. The segment holding b, and everything after it, stays.
+            assertEquals(5, wal.compact(now));
+            assertEquals(3, wal.segmentCount());
+
+            // Once b has expired, everything but the segment being written goes.
+            assertEquals(2, wal.compact(now + 120_000));
+            assertEquals(1, wal.segmentCount());
+        }
+
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void concurrentWritersShareSyncs() throws Exception {
+        int numThreads = 8;
+        int perThread = 200;
+        long now = System.currentTimeMillis();
+
+        try (var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < numThreads; ++t) {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < perThread; ++i) {
+                        var hash = thread + "-" + i;
+                        wal.entryAdded(new URLEntry("http://a.com/" + hash, "http://domain/" + hash, hash, now, 60_000));
+                        wal.synced().join();
+                    }
+                }));
+            }
+
+            threads.forEach(Thread::start);
+            for (var thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(numThreads * perThread, wal.appends());
+            assertTrue(wal.syncs() < wal.appends(), "Expected the writers to share fsyncs");
+            System.out.printf("%d appends, %d fsyncs%n", wal.appends(), wal.syncs());
+        }
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(numThreads * perThread, wal.replay(cache));
+        }
+    }
+
+    @Test
+    void aFailedWriteDoesntLoseTheRecordsAfterIt() throws IOException {
+        long now = System.currentTimeMillis();
+        var failing = new FailingChannel[1];
+
+        try (var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true, path -> {
+            failing[0] = new FailingChannel(FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE));
+            return failing[0];
+        })) {
+            wal.entryAdded(new URLEntry("http://a.com", "http://domain/a", "a", now, 60_000));
+            wal.synced().join();
+
+            // The next write tears its record halfway through.
+            failing[0].failNextWrite = true;
+            wal.entryAdded(new URLEntry("http://b.com", "http://domain/b", "b", now, 60_000));
+            assertThrows(CompletionException.class, () -> wal.synced().join());
+            // The first wait completed after a failed batch fails too, as it may be for one of its records.
+            wal.synced().exceptionally(e -> null).join();
+
+            wal.entryAdded(new URLEntry("http://c.com", "http://domain/c", "c", now, 60_000));
+            wal.synced().join();
+        }
+
+        try (var cache = newCache(); var wal = new WriteAheadLog(dir, SEGMENT_BYTES, true)) {
+            assertEquals(2, wal.replay(cache));
+            assertEquals("http://a.com", cache.getOriginalUrlFor("a"));
+            assertNull(cache.getOriginalUrlFor("b"));
+            assertEquals("http://c.com", cache.getOriginalUrlFor("c"));
+        }
+    }
+
+    /**
+     * Writes to a file, apart from a write that is set to fail after writing half its first buffer.
+     */
+    private static final class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+
+        volatile boolean failNextWrite;
+
+        FailingChannel(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            if (failNextWrite) {
+                failNextWrite = false;
+                var first = srcs[offset];
+                channel.write(first.slice(first.position(), first.remaining() / 2));
+                throw new IOException("Injected write failure");
+            }
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel.write(src);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel.write(src, position);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel.transferFrom(src, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+}